@@ -0,0 +1,87 @@
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how BookingAnalytics scales with cores. A synthetic snapshot of
+ * 500 hotels of 100 rooms with 50M bookings over five years is built in
+ * memory, no database involved, and the monthly report is computed on
+ * fork/join pools of 1, 2, 4, ... threads up to the number of cores. Every
+ * run must come to the same totals. Give the JVM about 2 GB of heap
+ * (-Xmx2g) for 50M bookings.
+ *
+ * Usage: java AnalyticsScalingBench [bookings] [max threads]
+ */
+public class AnalyticsScalingBench {
+
+   private static final int HOTELS = 500;
+   private static final int ROOMS = 100;
+   private static final int FIRST_DAY = AvailabilityCalendar.parseDate("01/01/2016");
+   private static final int DAYS = 5 * 365 + 1;
+   private static final int WARMUP = 3;
+   private static final int REPEAT = 5;
+
+   public static void main(String[] args) throws Exception {
+      long bookings = args.length > 0 ? Long.parseLong(args[0]) : 50000000L;
+      int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+      long start = System.nanoTime();
+      BookingSnapshot snapshot = synthetic(bookings, new Random(42));
+      System.out.printf("%s, generated in %.0f ms%n", snapshot, (System.nanoTime() - start) / 1e6);
+      BookingAnalytics analytics = new BookingAnalytics(snapshot, false);
+
+      System.out.println("threads\tms\tM bookings/s\tspeedup\tefficiency %");
+      double single = 0;
+      long expectedRevenue = -1;
+      for (int threads = 1; threads <= maxThreads; threads = threads == maxThreads ? threads + 1 : Math.min(maxThreads, threads * 2)) {
+         ForkJoinPool pool = new ForkJoinPool(threads);
+         try{
+            for (int r = 0; r < WARMUP; ++r)
+               analytics.compute(pool);
+            long best = Long.MAX_VALUE;
+            for (int r = 0; r < REPEAT; ++r) {
+               start = System.nanoTime();
+               BookingAnalytics.Report report = analytics.compute(pool);
+               best = Math.min(best, System.nanoTime() - start);
+               long nights = 0, revenue = 0;
+               for (int i = 0; i < report.bookedNights.length; ++i) {
+                  nights += report.bookedNights[i];
+                  revenue += report.revenue[i];
+               }
+               if (expectedRevenue < 0)
+                  expectedRevenue = revenue;
+               if (nights != snapshot.getBookingCount() || revenue != expectedRevenue)
+                  throw new IllegalStateException(threads + " thread(s) summed " + nights + " nights and " + revenue
+                                                  + " revenue, expected " + snapshot.getBookingCount() + " and " + expectedRevenue);
+            }
+            double ms = best / 1e6;
+            if (threads == 1)
+               single = ms;
+            System.out.printf("%d\t%.1f\t%.1f\t%.2f\t%.0f%n", threads, ms, snapshot.getBookingCount() / ms / 1e3,
+                              single / ms, 100 * single / ms / threads);
+         }finally{
+            pool.shutdown();
+         }//end try
+      }
+   }//end main
+
+   /*
+    * Books every room on random, distinct nights, each night with the same
+    * chance, as many in total as asked for on average, at a price of 50 to
+    * 299 per night.
+    **/
+   private static BookingSnapshot synthetic(long bookings, Random random) {
+      BookingSnapshot.Builder builder = new BookingSnapshot.Builder();
+      double booked = Math.min(1, bookings / ((double) HOTELS * ROOMS * DAYS));
+      // the nights between two bookings of a room are geometric, so a room costs its bookings, not its days.
+      double scale = booked >= 1 ? 0 : 1 / Math.log(1 - booked);
+      for (int hotel = 1; hotel <= HOTELS; ++hotel)
+         for (int number = 1; number <= ROOMS; ++number) {
+            int room = builder.room(hotel, number, 50 + random.nextInt(250));
+            for (double day = Math.floor(Math.log(1 - random.nextDouble()) * scale); day < DAYS;
+                 day += 1 + Math.floor(Math.log(1 - random.nextDouble()) * scale))
+               builder.booking(room, (char) day);
+         }
+      return builder.build(FIRST_DAY, DAYS);
+   }//end synthetic
+
+}//end AnalyticsScalingBench
@@ -0,0 +1,79 @@
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Loads synthetic bookings into an AvailabilityCalendar, checks it against a
+ * HashSet of (hotel, room, day) keys and reports its memory footprint per
+ * 1M bookings together with the latency of the availability queries used by
+ * viewRooms and bookRooms.
+ *
+ * Usage: java AvailabilityBench [hotels] [rooms per hotel] [days] [bookings]
+ */
+public class AvailabilityBench {
+
+   public static void main(String[] args) {
+      int hotels = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+      int rooms = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+      int days = args.length > 2 ? Integer.parseInt(args[2]) : 365 * 3;
+      int bookings = args.length > 3 ? Integer.parseInt(args[3]) : 1000000;
+      int firstDay = AvailabilityCalendar.parseDate("01/01/2018");
+      Random random = new Random(42);
+
+      AvailabilityCalendar calendar = new AvailabilityCalendar();
+      int[] roomNumbers = new int[rooms];
+      int[] prices = new int[rooms];
+      for (int r = 0; r < rooms; ++r) {
+         roomNumbers[r] = r;
+         prices[r] = 100 + r;
+      }
+      for (int h = 0; h < hotels; ++h)
+         calendar.addHotel(h, roomNumbers, prices);
+
+      HashSet<Long> reference = new HashSet<Long>();
+      long start = System.nanoTime();
+      int booked = 0;
+      while (booked < bookings) {
+         int h = random.nextInt(hotels), r = random.nextInt(rooms), d = firstDay + random.nextInt(days);
+         if (calendar.book(h, r, d)) {
+            booked++;
+            reference.add(key(h, r, d));
+         }
+      }
+      System.out.printf("booked %d rooms in %.1f ms%n", bookings, (System.nanoTime() - start) / 1e6);
+
+      for (int i = 0; i < 100000; ++i) {
+         int h = random.nextInt(hotels), r = random.nextInt(rooms), d = firstDay + random.nextInt(days);
+         if (calendar.isBooked(h, r, d) != reference.contains(key(h, r, d)))
+            throw new IllegalStateException("calendar disagrees on hotel " + h + " room " + r + " day " + d);
+      }
+      System.out.println("calendar matches reference set");
+
+      long bytes = calendar.memoryBytes();
+      System.out.printf("calendar: %.1f MB, %.1f MB per 1M bookings (%d hotels x %d rooms x %d days)%n",
+                        bytes / 1e6, bytes / 1e6 / (bookings / 1e6), hotels, rooms, days);
+
+      int queries = 200000;
+      long sink = 0;
+      start = System.nanoTime();
+      for (int i = 0; i < queries; ++i)
+         sink += calendar.rooms(random.nextInt(hotels), firstDay + random.nextInt(days), true).length;
+      System.out.printf("free rooms of a hotel on a day: %.2f us/query%n", (System.nanoTime() - start) / 1e3 / queries);
+
+      start = System.nanoTime();
+      for (int i = 0; i < queries; ++i)
+         sink += calendar.isBooked(random.nextInt(hotels), random.nextInt(rooms), firstDay + random.nextInt(days)) ? 1 : 0;
+      System.out.printf("is a room booked on a day:      %.2f us/query%n", (System.nanoTime() - start) / 1e3 / queries);
+
+      start = System.nanoTime();
+      for (int i = 0; i < queries / 10; ++i)
+         sink += calendar.freeDays(random.nextInt(hotels), random.nextInt(rooms), firstDay, firstDay + 30).length;
+      System.out.printf("free days of a room in a month: %.2f us/query%n", (System.nanoTime() - start) / 1e3 / (queries / 10));
+      if (sink == 42)
+         System.out.println();
+   }//end main
+
+   private static long key(int hotel, int room, int day) {
+      return ((long) hotel << 40) | ((long) room << 20) | (day & 0xfffff);
+   }
+
+}//end AvailabilityBench
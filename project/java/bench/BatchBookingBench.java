@@ -0,0 +1,84 @@
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.List;
+
+/**
+ * Compares booking throughput of the single-booking path (one bookRoom call
+ * per room and night, as the "Book a Room" screen does) with bookRooms,
+ * which books a whole group of rooms and nights in one transaction. Both
+ * book the same number of room nights on fresh dates from 2100 on, which
+ * are deleted again at the end.
+ *
+ * Usage: java BatchBookingBench <dbname> <port> <user> <customerID> <hotelID> [rooms] [nights] [groups]
+ */
+public class BatchBookingBench {
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 5) {
+         System.err.println("Usage: java BatchBookingBench <dbname> <port> <user> <customerID> <hotelID> [rooms] [nights] [groups]");
+         return;
+      }
+      Class.forName("org.postgresql.Driver").newInstance();
+      int customerID = Integer.parseInt(args[3]);
+      int hotelID = Integer.parseInt(args[4]);
+      int rooms = args.length > 5 ? Integer.parseInt(args[5]) : 10;
+      int nights = args.length > 6 ? Integer.parseInt(args[6]) : 5;
+      int groups = args.length > 7 ? Integer.parseInt(args[7]) : 200;
+
+      ConnectionPool pool = ConnectionPool.fromSystemProperties(Hotel.connectionUrl(args[0], args[1]), args[2], "");
+      Hotel esql = new Hotel(pool, new BufferedReader(new StringReader("")), System.out);
+      JdbcHotelRepository repository = new JdbcHotelRepository(esql);
+      try{
+         List<List<String>> found = esql.executeQueryAndReturnResult(
+            "SELECT r.roomNumber FROM Rooms r WHERE r.hotelID = ? ORDER BY r.roomNumber LIMIT ?", hotelID, rooms);
+         if (found.size() < rooms) {
+            System.err.println("Hotel #" + hotelID + " has only " + found.size() + " room(s)");
+            return;
+         }
+         int[] roomNumbers = new int[rooms * nights];
+         for (int r = 0; r < rooms; ++r)
+            for (int night = 0; night < nights; ++night)
+               roomNumbers[r * nights + night] = Integer.parseInt(found.get(r).get(0));
+         esql.executeUpdate("DELETE FROM RoomBookings WHERE bookingDate >= CAST(? AS DATE)", "01/01/2100");
+         // loads the shared calendar and counters before timing.
+         esql.getAvailabilityCalendar();
+         esql.getRegularCustomers();
+
+         System.out.println(rooms + " room(s) x " + nights + " night(s) per group, " + groups + " group(s)");
+         System.out.println("path\troom nights\tseconds\troom nights/sec\tround trips/group\tfailed");
+         int firstDay = AvailabilityCalendar.parseDate("01/01/2100");
+         for (int pass = 0; pass < 2; ++pass) {
+            // pass 0 warms up, pass 1 is reported.
+            for (int batch = 0; batch < 2; ++batch) {
+               int day = firstDay + (pass * 2 + batch) * groups * nights;
+               long trips = esql.getRoundTrips();
+               int failed = 0;
+               long start = System.nanoTime();
+               for (int g = 0; g < groups; ++g, day += nights) {
+                  String[] dates = new String[rooms * nights];
+                  for (int i = 0; i < dates.length; ++i)
+                     dates[i] = AvailabilityCalendar.formatDate(day + i % nights);
+                  if (batch == 1) {
+                     if (repository.bookRooms(customerID, hotelID, roomNumbers, dates) < 0)
+                        failed++;
+                  } else {
+                     for (int i = 0; i < dates.length; ++i)
+                        if (repository.bookRoom(customerID, hotelID, roomNumbers[i], dates[i]) < 0)
+                           failed++;
+                  }
+               }
+               double seconds = (System.nanoTime() - start) / 1e9;
+               if (pass == 1)
+                  System.out.printf("%s\t%d\t%.3f\t%.0f\t%.1f\t%d%n", batch == 1 ? "bookRooms" : "bookRoom",
+                                    groups * rooms * nights, seconds, groups * rooms * nights / seconds,
+                                    (esql.getRoundTrips() - trips) / (double) groups, failed);
+            }
+         }
+      }finally{
+         esql.executeUpdate("DELETE FROM RoomBookings WHERE bookingDate >= CAST(? AS DATE)", "01/01/2100");
+         esql.cleanup();
+         pool.close();
+      }//end try
+   }//end main
+
+}//end BatchBookingBench
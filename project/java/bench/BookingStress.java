@@ -0,0 +1,115 @@
+import java.io.BufferedReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hammers JdbcHotelRepository.bookRoom from many sessions at once and checks that no
+ * (hotel, room, date) ends up booked twice. Every round lets all threads race
+ * for the same rooms on a fresh range of dates far in the future; exactly one
+ * booking per slot must win. The bookings are deleted again at the end.
+ *
+ * Usage: java BookingStress <dbname> <port> <user> <customerID> <hotelID> [rooms] [dates] [max threads]
+ */
+public class BookingStress {
+
+   private static final PrintStream NULL_OUT = new PrintStream(new OutputStream() {
+      public void write(int b) { }
+   });
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 5) {
+         System.err.println("Usage: java BookingStress <dbname> <port> <user> <customerID> <hotelID> [rooms] [dates] [max threads]");
+         return;
+      }
+      Class.forName("org.postgresql.Driver").newInstance();
+      final int customerID = Integer.parseInt(args[3]);
+      final int hotelID = Integer.parseInt(args[4]);
+      final int rooms = args.length > 5 ? Integer.parseInt(args[5]) : 10;
+      final int dates = args.length > 6 ? Integer.parseInt(args[6]) : 200;
+      int maxThreads = args.length > 7 ? Integer.parseInt(args[7]) : Runtime.getRuntime().availableProcessors() * 4;
+
+      ConnectionPool pool = ConnectionPool.fromSystemProperties(Hotel.connectionUrl(args[0], args[1]), args[2], "");
+      Hotel admin = new Hotel(pool, new BufferedReader(new StringReader("")), System.out);
+      // the stress dates start in 2100 so they never collide with real bookings.
+      int firstDay = AvailabilityCalendar.parseDate("01/01/2100");
+      admin.executeUpdate("DELETE FROM RoomBookings WHERE bookingDate >= CAST(? AS DATE)", "01/01/2100");
+
+      System.out.println("threads\tattempts\twon\tseconds\tattempts/sec\tdouble bookings");
+      int round = 0;
+      boolean failed = false;
+      for (int threads = 1; threads <= maxThreads; threads *= 2, ++round) {
+         final int roundDay = firstDay + round * dates;
+         final AtomicInteger won = new AtomicInteger();
+         final AtomicLong attempts = new AtomicLong();
+         final AtomicLong errors = new AtomicLong();
+         final CountDownLatch ready = new CountDownLatch(threads);
+         final CountDownLatch go = new CountDownLatch(1);
+         final CountDownLatch done = new CountDownLatch(threads);
+         final ConnectionPool sessions = pool;
+         List<Thread> workers = new ArrayList<Thread>();
+         for (int t = 0; t < threads; ++t) {
+            final int offset = t;
+            workers.add(SessionServer.newSessionThread(new Runnable() {
+               public void run() {
+                  Hotel esql = new Hotel(sessions, new BufferedReader(new StringReader("")), NULL_OUT);
+                  JdbcHotelRepository repository = new JdbcHotelRepository(esql);
+                  try{
+                     ready.countDown();
+                     go.await();
+                     // every thread walks all slots, starting at a different one.
+                     int slots = rooms * dates;
+                     for (int i = 0; i < slots; ++i) {
+                        int slot = (i + offset * 7919) % slots;
+                        String date = AvailabilityCalendar.formatDate(roundDay + slot / rooms);
+                        attempts.incrementAndGet();
+                        try{
+                           if (repository.bookRoom(customerID, hotelID, 1 + slot % rooms, date) >= 0)
+                              won.incrementAndGet();
+                        }catch (Exception e){
+                           errors.incrementAndGet();
+                        }
+                     }
+                  }catch (InterruptedException e){
+                     Thread.currentThread().interrupt();
+                  }finally{
+                     esql.cleanup();
+                     done.countDown();
+                  }
+               }
+            }, "stress-" + t));
+         }
+         for (Thread worker : workers)
+            worker.start();
+         ready.await();
+         long start = System.nanoTime();
+         go.countDown();
+         done.await();
+         double seconds = (System.nanoTime() - start) / 1e9;
+
+         int doubles = admin.executeQuery(
+            "SELECT rb.roomNumber, rb.bookingDate FROM RoomBookings rb " +
+            "WHERE rb.hotelID = ? AND rb.bookingDate >= CAST(? AS DATE) " +
+            "GROUP BY rb.roomNumber, rb.bookingDate HAVING COUNT(*) > 1",
+            hotelID, AvailabilityCalendar.formatDate(roundDay));
+         System.out.printf("%d\t%d\t%d\t%.3f\t%.0f\t%d%s%n", threads, attempts.get(), won.get(), seconds,
+                           attempts.get() / seconds, doubles, errors.get() > 0 ? "\t(" + errors.get() + " errors)" : "");
+         if (doubles != 0 || won.get() != rooms * dates) {
+            System.out.println("FAILED: expected exactly " + (rooms * dates) + " winning bookings and no double bookings");
+            failed = true;
+         }
+      }
+
+      admin.executeUpdate("DELETE FROM RoomBookings WHERE bookingDate >= CAST(? AS DATE)", "01/01/2100");
+      admin.cleanup();
+      pool.close();
+      if (failed)
+         System.exit(1);
+   }//end main
+
+}//end BookingStress
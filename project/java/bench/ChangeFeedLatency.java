@@ -0,0 +1,156 @@
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long a change made by one instance takes to reach the
+ * caches of another through the change feed. Two instances, each with a
+ * pool and a change feed of its own, run in this JVM: instance A changes
+ * the price of a room again and again, and instance B records when each
+ * change arrives. It then checks that A skipped its own changes, kills the
+ * listening connection of B and measures how long B takes to reconnect and
+ * resynchronize, and that changes arrive again after. The price of the
+ * room is restored at the end. Exits with status 1 when a check fails.
+ *
+ * The database needs the triggers of create_tables.sql and a driver that
+ * delivers NOTIFY payloads (8.0 or newer); with older drivers every change
+ * arrives as a resynchronization and only the reconnect is measured.
+ *
+ * Usage: java ChangeFeedLatency <dbname> <port> <user> <hotelID> <roomNumber> [updates]
+ */
+public class ChangeFeedLatency {
+
+   // longest wait for one change to arrive.
+   private static final long TIMEOUT_MS = 10000;
+
+   /*
+    * The consumer of instance B: hands over the prices set on the room and
+    * counts resynchronizations.
+    **/
+   private static class Probe implements ChangeFeed.Consumer {
+      final int hotelID, roomNumber;
+      final BlockingQueue<Long> arrivals = new ArrayBlockingQueue<Long>(1024);
+      final BlockingQueue<Long> resyncs = new ArrayBlockingQueue<Long>(1024);
+
+      Probe(int hotelID, int roomNumber) {
+         this.hotelID = hotelID;
+         this.roomNumber = roomNumber;
+      }
+
+      public void changed(ChangeFeed.Change change) {
+         long now = System.nanoTime();
+         if (change.table == 'r' && change.operation == 'U' && change.values[0] == this.hotelID && change.values[1] == this.roomNumber)
+            this.arrivals.offer(now);
+      }
+
+      public void flush() {
+      }
+
+      public void resync() {
+         this.resyncs.offer(System.nanoTime());
+      }
+   }//end Probe
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 5) {
+         System.err.println("Usage: java ChangeFeedLatency <dbname> <port> <user> <hotelID> <roomNumber> [updates]");
+         return;
+      }
+      Class.forName("org.postgresql.Driver").newInstance();
+      int hotelID = Integer.parseInt(args[3]);
+      int roomNumber = Integer.parseInt(args[4]);
+      int updates = args.length > 5 ? Integer.parseInt(args[5]) : 1000;
+      String url = Hotel.connectionUrl(args[0], args[1]);
+
+      ConnectionPool poolA = ConnectionPool.fromSystemProperties(url, args[2], "");
+      ConnectionPool poolB = ConnectionPool.fromSystemProperties(url, args[2], "");
+      Hotel a = new Hotel(poolA, new BufferedReader(new StringReader("")), System.out);
+      ChangeFeed feedA = ChangeFeed.fromSystemProperties(poolA);
+      ChangeFeed feedB = ChangeFeed.fromSystemProperties(poolB);
+      Probe probe = new Probe(hotelID, roomNumber);
+      feedA.register(new Probe(hotelID, roomNumber));
+      feedB.register(probe);
+      boolean failed = false;
+      Integer original = null;
+      try{
+         List<List<String>> rows = a.executeQueryAndReturnResult(
+            "SELECT r.price FROM Rooms r WHERE r.hotelID = ? AND r.roomNumber = ?", hotelID, roomNumber);
+         if (rows.isEmpty()) {
+            System.err.println("Room " + roomNumber + " of hotel " + hotelID + " does not exist.");
+            return;
+         }
+         original = Integer.parseInt(rows.get(0).get(0));
+         feedA.start();
+         feedB.start();
+         waitConnected(feedA);
+         waitConnected(feedB);
+
+         LatencyHistogram latency = new LatencyHistogram();
+         long lost = 0;
+         for (int i = 0; i < updates; ++i) {
+            long sent = System.nanoTime();
+            a.executeUpdate("UPDATE Rooms SET price = ? WHERE hotelID = ? AND roomNumber = ?",
+                            original + 1 + i % 2, hotelID, roomNumber);
+            Long arrived = probe.arrivals.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (arrived == null)
+               lost++;
+            else
+               latency.record(arrived - sent);
+         }
+         System.out.printf("%d update(s): %d arrived, p50 %.2f ms, p99 %.2f ms, max %.2f ms, %d lost%n", updates,
+                           latency.getCount(), latency.getPercentileMillis(50), latency.getPercentileMillis(99),
+                           latency.getMaxMillis(), lost);
+         if (lost > 0) {
+            System.err.println("FAILED: " + lost + " change(s) did not arrive at instance B");
+            failed = true;
+         }
+         if (feedA.getSkipped() < updates || feedA.getApplied() > 0) {
+            System.err.println("FAILED: instance A skipped " + feedA.getSkipped() + " and applied " + feedA.getApplied()
+                               + " of its own " + updates + " change(s)");
+            failed = true;
+         }
+
+         // kill the listening connection of B; it must reconnect, resynchronize and hear changes again.
+         probe.resyncs.clear();
+         long killed = System.nanoTime();
+         a.executeQueryAndReturnResult("SELECT pg_terminate_backend(?)", feedB.getBackendPID());
+         Long resynced = probe.resyncs.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+         if (resynced == null) {
+            System.err.println("FAILED: instance B did not resynchronize after losing its connection");
+            failed = true;
+         } else {
+            System.out.printf("reconnected and resynchronized %.2f ms after the connection was killed%n", (resynced - killed) / 1e6);
+            waitConnected(feedB);
+            probe.arrivals.clear();
+            a.executeUpdate("UPDATE Rooms SET price = ? WHERE hotelID = ? AND roomNumber = ?", original + 3, hotelID, roomNumber);
+            if (probe.arrivals.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS) == null) {
+               System.err.println("FAILED: changes no longer arrive at instance B after the reconnect");
+               failed = true;
+            }
+         }
+         System.out.println("A: " + feedA);
+         System.out.println("B: " + feedB);
+      }finally{
+         if (original != null)
+            a.executeUpdate("UPDATE Rooms SET price = ? WHERE hotelID = ? AND roomNumber = ?", original, hotelID, roomNumber);
+         feedA.close();
+         feedB.close();
+         a.cleanup();
+         poolA.close();
+         poolB.close();
+      }//end try
+      if (failed)
+         System.exit(1);
+      System.out.println("OK");
+   }//end main
+
+   private static void waitConnected(ChangeFeed feed) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+      while (feed.getBackendPID() == 0 && System.currentTimeMillis() < deadline)
+         Thread.sleep(1);
+   }
+
+}//end ChangeFeedLatency
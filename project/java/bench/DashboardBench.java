@@ -0,0 +1,71 @@
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.List;
+
+/**
+ * Measures the manager dashboard of one manager as its parallelism grows
+ * from 1, every query one after another on one connection, to the given
+ * maximum. For every setting it prints the wall-clock time of a dashboard
+ * next to the sum of its query times and its slowest query, which bound
+ * what fanning out can achieve. The connection pool should hold at least
+ * the maximum parallelism (-Dhotel.poolSize).
+ *
+ * Usage: java DashboardBench <dbname> <port> <user> <managerID> [start date] [end date] [max parallelism]
+ */
+public class DashboardBench {
+
+   private static final int WARMUP = 5;
+   private static final int REPEAT = 20;
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 4) {
+         System.err.println("Usage: java DashboardBench <dbname> <port> <user> <managerID> [start date] [end date] [max parallelism]");
+         return;
+      }
+      Class.forName("org.postgresql.Driver").newInstance();
+      int managerID = Integer.parseInt(args[3]);
+      String startDate = args.length > 4 ? args[4] : "01/01/2015";
+      String endDate = args.length > 5 ? args[5] : "12/31/2020";
+      int maxParallelism = args.length > 6 ? Integer.parseInt(args[6]) : 16;
+
+      ConnectionPool pool = ConnectionPool.fromSystemProperties(Hotel.connectionUrl(args[0], args[1]), args[2], "");
+      Hotel esql = new Hotel(pool, new BufferedReader(new StringReader("")), System.out);
+      try{
+         Principal principal = Principal.load(esql, managerID);
+         if (principal == null || !principal.isManager() || principal.getHotelIDs().length == 0) {
+            System.err.println("User " + managerID + " does not manage any hotel.");
+            return;
+         }
+         System.out.println("manager " + managerID + ", " + principal.getHotelIDs().length + " hotel(s)");
+         System.out.println("parallelism\twall ms\tsum of queries ms\tslowest query ms\trows");
+         for (int parallelism = 1; parallelism <= maxParallelism; parallelism *= 2) {
+            ManagerDashboard dashboard = new ManagerDashboard(parallelism);
+            for (int r = 0; r < WARMUP; ++r)
+               dashboard.collect(esql, managerID, principal.getHotelIDs(), startDate, endDate, 50);
+            double wall = 0, sum = 0, slowest = 0;
+            long rows = 0;
+            for (int r = 0; r < REPEAT; ++r) {
+               long start = System.nanoTime();
+               List<ManagerDashboard.Section> sections =
+                  dashboard.collect(esql, managerID, principal.getHotelIDs(), startDate, endDate, 50);
+               wall += System.nanoTime() - start;
+               long max = 0;
+               for (ManagerDashboard.Section section : sections) {
+                  if (section.error != null)
+                     throw section.error;
+                  sum += section.nanos;
+                  max = Math.max(max, section.nanos);
+                  rows += section.rows.size();
+               }
+               slowest += max;
+            }
+            System.out.printf("%d\t%.2f\t%.2f\t%.2f\t%d%n", parallelism, wall / REPEAT / 1e6, sum / REPEAT / 1e6,
+                              slowest / REPEAT / 1e6, rows / REPEAT);
+         }
+      }finally{
+         esql.cleanup();
+         pool.close();
+      }//end try
+   }//end main
+
+}//end DashboardBench
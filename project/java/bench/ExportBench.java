@@ -0,0 +1,401 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the booking archive with a CSV export of the same data. A
+ * synthetic database of 100k users and 500 hotels of 100 rooms with 10M
+ * bookings over five years is written both as CSV files, with the padding
+ * of the char columns and ISO dates as COPY ... TO would write them, and as
+ * a booking archive, no database involved. It then prints the time to
+ * write and the size of each, and times three scans over both, each the
+ * best of several runs on warm files:
+ *
+ *   - the bookings of one hotel in one month;
+ *   - the revenue of every hotel over all bookings, joined to room prices;
+ *   - the number of managers among the users.
+ *
+ * The CSV scans parse every line by hand, without regular expressions or
+ * date formats, which is about as fast as CSV gets. Both sides must come to
+ * the same results; the files are deleted at the end.
+ *
+ * Usage: java ExportBench [bookings] [directory]
+ */
+public class ExportBench {
+
+   private static final int USERS = 100000;
+   private static final int HOTELS = 500;
+   private static final int ROOMS = 100;
+   private static final int FIRST_DAY = daysFromCivil(2016, 1, 1);
+   private static final int DAYS = 5 * 365 + 1;
+   private static final int REPEAT = 5;
+
+   /*
+    * Receives the generated rows, in the order of the archive.
+    **/
+   private interface Sink {
+      void user(int userID, String name, String userType) throws IOException;
+      void hotel(int hotelID, String hotelName, double latitude, double longitude, int established, int managerUserID) throws IOException;
+      void room(int hotelID, int roomNumber, int price, String imageURL) throws IOException;
+      void booking(int bookingID, int customerID, int hotelID, int roomNumber, int day) throws IOException;
+   }//end Sink
+
+   public static void main(String[] args) throws Exception {
+      final int bookings = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+      File directory = args.length > 1 ? new File(args[1]) : new File(System.getProperty("java.io.tmpdir"));
+      final File csvUsers = new File(directory, "export-users.csv");
+      final File csvHotels = new File(directory, "export-hotels.csv");
+      final File csvRooms = new File(directory, "export-rooms.csv");
+      final File csvBookings = new File(directory, "export-bookings.csv");
+      File archiveFile = new File(directory, "export.hba");
+      try{
+         // generation alone, to tell it apart from writing.
+         long start = System.nanoTime();
+         generate(bookings, new Sink() {
+            public void user(int userID, String name, String userType) {
+            }
+            public void hotel(int hotelID, String hotelName, double latitude, double longitude, int established, int managerUserID) {
+            }
+            public void room(int hotelID, int roomNumber, int price, String imageURL) {
+            }
+            public void booking(int bookingID, int customerID, int hotelID, int roomNumber, int day) {
+            }
+         });
+         double generateMs = (System.nanoTime() - start) / 1e6;
+
+         start = System.nanoTime();
+         final BufferedWriter[] csv = {
+            open(csvUsers, "userID,name,userType"),
+            open(csvHotels, "hotelID,hotelName,latitude,longitude,dateEstablished,managerUserID"),
+            open(csvRooms, "hotelID,roomNumber,price,imageURL"),
+            open(csvBookings, "bookingID,customerID,hotelID,roomNumber,bookingDate") };
+         try{
+            generate(bookings, new Sink() {
+               public void user(int userID, String name, String userType) throws IOException {
+                  csv[0].write(userID + "," + pad(name, 50) + "," + pad(userType, 10) + "\n");
+               }
+               public void hotel(int hotelID, String hotelName, double latitude, double longitude, int established, int managerUserID) throws IOException {
+                  csv[1].write(hotelID + "," + pad(hotelName, 30) + "," + latitude + "," + longitude + ","
+                               + isoDate(established) + "," + managerUserID + "\n");
+               }
+               public void room(int hotelID, int roomNumber, int price, String imageURL) throws IOException {
+                  csv[2].write(hotelID + "," + roomNumber + "," + price + "," + pad(imageURL, 30) + "\n");
+               }
+               public void booking(int bookingID, int customerID, int hotelID, int roomNumber, int day) throws IOException {
+                  csv[3].write(bookingID + "," + customerID + "," + hotelID + "," + roomNumber + "," + isoDate(day) + "\n");
+               }
+            });
+         }finally{
+            for (BufferedWriter writer : csv)
+               writer.close();
+         }//end try
+         double csvMs = (System.nanoTime() - start) / 1e6;
+         long csvBytes = csvUsers.length() + csvHotels.length() + csvRooms.length() + csvBookings.length();
+
+         start = System.nanoTime();
+         final BookingArchive.Writer writer = new BookingArchive.Writer(archiveFile, USERS, HOTELS, HOTELS * ROOMS, bookings);
+         generate(bookings, new Sink() {
+            public void user(int userID, String name, String userType) {
+               writer.user(userID, name, userType);
+            }
+            public void hotel(int hotelID, String hotelName, double latitude, double longitude, int established, int managerUserID) {
+               writer.hotel(hotelID, hotelName, latitude, longitude, established, managerUserID);
+            }
+            public void room(int hotelID, int roomNumber, int price, String imageURL) {
+               writer.room(hotelID, roomNumber, price, imageURL);
+            }
+            public void booking(int bookingID, int customerID, int hotelID, int roomNumber, int day) {
+               writer.booking(bookingID, customerID, hotelID, roomNumber, day);
+            }
+         });
+         long archiveBytes = writer.close();
+         double archiveMs = (System.nanoTime() - start) / 1e6;
+
+         System.out.printf("%d user(s), %d hotel(s), %d room(s), %d booking(s), generated in %.0f ms%n",
+                           USERS, HOTELS, HOTELS * ROOMS, bookings, generateMs);
+         System.out.println("format\twrite ms\tMB\tbytes/booking");
+         System.out.printf("CSV\t%.0f\t%.1f\t%.1f%n", csvMs, csvBytes / 1e6, csvBytes / (double) bookings);
+         System.out.printf("archive\t%.0f\t%.1f\t%.1f%n", archiveMs, archiveBytes / 1e6, archiveBytes / (double) bookings);
+
+         final BookingArchive archive = BookingArchive.open(archiveFile);
+         System.out.println(archive);
+         checkStrings(archive);
+
+         final int hotelID = 1 + HOTELS / 2;
+         final int firstDay = daysFromCivil(2018, 6, 1), lastDay = daysFromCivil(2018, 6, 30);
+         System.out.println("scan\tCSV ms\tarchive ms\tspeedup");
+
+         long[] csvMonth = null, archiveMonth = null;
+         long csvBest = Long.MAX_VALUE, archiveBest = Long.MAX_VALUE;
+         for (int r = 0; r < REPEAT; ++r) {
+            start = System.nanoTime();
+            csvMonth = csvMonth(csvBookings, hotelID, firstDay, lastDay);
+            csvBest = Math.min(csvBest, System.nanoTime() - start);
+            start = System.nanoTime();
+            archiveMonth = archiveMonth(archive, hotelID, firstDay, lastDay);
+            archiveBest = Math.min(archiveBest, System.nanoTime() - start);
+         }
+         report("one hotel, one month (" + archiveMonth[0] + " bookings)", csvBest, archiveBest);
+         check("one hotel, one month", csvMonth, archiveMonth);
+
+         long[] csvRevenue = null, archiveRevenue = null;
+         csvBest = archiveBest = Long.MAX_VALUE;
+         for (int r = 0; r < REPEAT; ++r) {
+            start = System.nanoTime();
+            csvRevenue = csvRevenue(csvRooms, csvBookings);
+            csvBest = Math.min(csvBest, System.nanoTime() - start);
+            start = System.nanoTime();
+            archiveRevenue = archiveRevenue(archive);
+            archiveBest = Math.min(archiveBest, System.nanoTime() - start);
+         }
+         report("revenue per hotel", csvBest, archiveBest);
+         check("revenue per hotel", csvRevenue, archiveRevenue);
+
+         long csvManagers = 0, archiveManagers = 0;
+         csvBest = archiveBest = Long.MAX_VALUE;
+         for (int r = 0; r < REPEAT; ++r) {
+            start = System.nanoTime();
+            csvManagers = csvManagers(csvUsers);
+            csvBest = Math.min(csvBest, System.nanoTime() - start);
+            start = System.nanoTime();
+            archiveManagers = archiveManagers(archive);
+            archiveBest = Math.min(archiveBest, System.nanoTime() - start);
+         }
+         report("managers among users (" + archiveManagers + ")", csvBest, archiveBest);
+         check("managers among users", new long[] { csvManagers }, new long[] { archiveManagers });
+      }finally{
+         csvUsers.delete();
+         csvHotels.delete();
+         csvRooms.delete();
+         csvBookings.delete();
+         archiveFile.delete();
+      }//end try
+      System.out.println("OK");
+   }//end main
+
+   /*
+    * Generates the rows from a fixed seed, so every sink gets the same ones.
+    **/
+   private static void generate(int bookings, Sink sink) throws IOException {
+      Random random = new Random(42);
+      for (int userID = 1; userID <= USERS; ++userID)
+         sink.user(userID, "guest " + userID, userID % 200 == 0 ? "manager" : "customer");
+      for (int hotelID = 1; hotelID <= HOTELS; ++hotelID)
+         sink.hotel(hotelID, "hotel " + hotelID, random.nextInt(180000000) / 1e6 - 90, random.nextInt(360000000) / 1e6 - 180,
+                    FIRST_DAY - 365 * (1 + random.nextInt(60)), 200 * (1 + random.nextInt(USERS / 200)));
+      for (int hotelID = 1; hotelID <= HOTELS; ++hotelID)
+         for (int roomNumber = 1; roomNumber <= ROOMS; ++roomNumber)
+            sink.room(hotelID, roomNumber, 50 + random.nextInt(500), "images/" + hotelID + "/" + roomNumber + ".jpg");
+      for (int i = 0; i < bookings; ++i)
+         sink.booking(i + 1, 1 + random.nextInt(USERS), 1 + random.nextInt(HOTELS), 1 + random.nextInt(ROOMS),
+                      FIRST_DAY + (int) ((long) i * DAYS / bookings));
+   }//end generate
+
+   private static BufferedWriter open(File file, String header) throws IOException {
+      BufferedWriter writer = new BufferedWriter(new FileWriter(file), 1 << 20);
+      writer.write(header + "\n");
+      return writer;
+   }
+
+   private static String pad(String text, int width) {
+      StringBuilder padded = new StringBuilder(width).append(text);
+      while (padded.length() < width)
+         padded.append(' ');
+      return padded.toString();
+   }
+
+   /*
+    * Count of the bookings of a hotel in a date range and the sum of their
+    * customers and rooms, to compare the two sides by.
+    **/
+   private static long[] csvMonth(File bookings, int hotelID, int firstDay, int lastDay) throws IOException {
+      long[] result = new long[3];
+      int[] fields = new int[5];
+      BufferedReader in = new BufferedReader(new FileReader(bookings), 1 << 20);
+      try{
+         in.readLine();
+         for (String line = in.readLine(); line != null; line = in.readLine()) {
+            parseBooking(line, fields);
+            if (fields[2] == hotelID && fields[4] >= firstDay && fields[4] <= lastDay) {
+               result[0]++;
+               result[1] += fields[1];
+               result[2] += fields[3];
+            }
+         }
+      }finally{
+         in.close();
+      }//end try
+      return result;
+   }//end csvMonth
+
+   private static long[] archiveMonth(BookingArchive archive, int hotelID, int firstDay, int lastDay) {
+      final long[] result = new long[3];
+      final IntBuffer customers = archive.bookingCustomers();
+      final IntBuffer rooms = archive.bookingRooms();
+      archive.scanBookings(firstDay, lastDay, hotelID, new BookingArchive.RowVisitor() {
+         public void visit(int row) {
+            result[0]++;
+            result[1] += customers.get(row);
+            result[2] += rooms.get(row);
+         }
+      });
+      return result;
+   }//end archiveMonth
+
+   /*
+    * Revenue of every hotel, indexed by hotelID: the price of the room of
+    * every booking.
+    **/
+   private static long[] csvRevenue(File roomsFile, File bookings) throws IOException {
+      int[] prices = new int[(HOTELS + 1) * (ROOMS + 1)];
+      BufferedReader in = new BufferedReader(new FileReader(roomsFile), 1 << 20);
+      try{
+         in.readLine();
+         for (String line = in.readLine(); line != null; line = in.readLine()) {
+            int first = line.indexOf(','), second = line.indexOf(',', first + 1), third = line.indexOf(',', second + 1);
+            prices[parseInt(line, 0, first) * (ROOMS + 1) + parseInt(line, first + 1, second)] = parseInt(line, second + 1, third);
+         }
+      }finally{
+         in.close();
+      }//end try
+      long[] revenue = new long[HOTELS + 1];
+      int[] fields = new int[5];
+      in = new BufferedReader(new FileReader(bookings), 1 << 20);
+      try{
+         in.readLine();
+         for (String line = in.readLine(); line != null; line = in.readLine()) {
+            parseBooking(line, fields);
+            revenue[fields[2]] += prices[fields[2] * (ROOMS + 1) + fields[3]];
+         }
+      }finally{
+         in.close();
+      }//end try
+      return revenue;
+   }//end csvRevenue
+
+   private static long[] archiveRevenue(BookingArchive archive) {
+      // the same table of prices the CSV side builds, read from the room columns.
+      int[] prices = new int[(HOTELS + 1) * (ROOMS + 1)];
+      IntBuffer roomHotels = archive.roomHotels(), roomNumbers = archive.roomNumbers(), roomPrices = archive.roomPrices();
+      for (int row = 0, n = archive.getRoomCount(); row < n; ++row)
+         prices[roomHotels.get(row) * (ROOMS + 1) + roomNumbers.get(row)] = roomPrices.get(row);
+      long[] revenue = new long[HOTELS + 1];
+      IntBuffer hotels = archive.bookingHotels();
+      IntBuffer rooms = archive.bookingRooms();
+      for (int row = 0, n = archive.getBookingCount(); row < n; ++row) {
+         int hotelID = hotels.get(row);
+         revenue[hotelID] += prices[hotelID * (ROOMS + 1) + rooms.get(row)];
+      }
+      return revenue;
+   }//end archiveRevenue
+
+   private static long csvManagers(File users) throws IOException {
+      long managers = 0;
+      BufferedReader in = new BufferedReader(new FileReader(users), 1 << 20);
+      try{
+         in.readLine();
+         for (String line = in.readLine(); line != null; line = in.readLine())
+            if (line.substring(line.lastIndexOf(',') + 1).trim().equals("manager"))
+               managers++;
+      }finally{
+         in.close();
+      }//end try
+      return managers;
+   }//end csvManagers
+
+   private static long archiveManagers(BookingArchive archive) {
+      int manager = archive.stringID("manager");
+      IntBuffer types = archive.userTypes();
+      long managers = 0;
+      for (int row = 0, n = archive.getUserCount(); row < n; ++row)
+         if (types.get(row) == manager)
+            managers++;
+      return managers;
+   }//end archiveManagers
+
+   /*
+    * Reads bookingID, customerID, hotelID, roomNumber and the ISO date as an
+    * epoch day from a line of the bookings file.
+    **/
+   private static void parseBooking(String line, int[] fields) {
+      int start = 0;
+      for (int i = 0; i < 4; ++i) {
+         int end = line.indexOf(',', start);
+         fields[i] = parseInt(line, start, end);
+         start = end + 1;
+      }
+      fields[4] = daysFromCivil(parseInt(line, start, start + 4), parseInt(line, start + 5, start + 7),
+                                parseInt(line, start + 8, start + 10));
+   }//end parseBooking
+
+   private static int parseInt(String text, int start, int end) {
+      int value = 0;
+      for (int i = start; i < end; ++i)
+         value = value * 10 + text.charAt(i) - '0';
+      return value;
+   }
+
+   /*
+    * Days from 1970-01-01 to a date of the proleptic Gregorian calendar.
+    **/
+   private static int daysFromCivil(int year, int month, int day) {
+      year -= month <= 2 ? 1 : 0;
+      int era = (year >= 0 ? year : year - 399) / 400;
+      int yearOfEra = year - era * 400;
+      int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+      int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+      return era * 146097 + dayOfEra - 719468;
+   }//end daysFromCivil
+
+   /*
+    * The date of an epoch day as YYYY-MM-DD.
+    **/
+   private static String isoDate(int days) {
+      days += 719468;
+      int era = (days >= 0 ? days : days - 146096) / 146097;
+      int dayOfEra = days - era * 146097;
+      int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+      int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+      int mp = (5 * dayOfYear + 2) / 153;
+      int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+      int month = mp < 10 ? mp + 3 : mp - 9;
+      int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+      return new String(new char[] { (char) ('0' + year / 1000), (char) ('0' + year / 100 % 10), (char) ('0' + year / 10 % 10),
+                                     (char) ('0' + year % 10), '-', (char) ('0' + month / 10), (char) ('0' + month % 10), '-',
+                                     (char) ('0' + day / 10), (char) ('0' + day % 10) });
+   }//end isoDate
+
+   /*
+    * Strings come back trimmed, and a date range near the ends of the
+    * bookings is found.
+    **/
+   private static void checkStrings(BookingArchive archive) {
+      int row = archive.userRow(400);
+      if (row < 0 || !"guest 400".equals(archive.string(archive.userNames().get(row)))
+          || !"manager".equals(archive.string(archive.userTypes().get(row))))
+         throw new IllegalStateException("user 400 did not come back from the archive");
+      row = archive.roomRow(HOTELS, ROOMS);
+      if (row != archive.getRoomCount() - 1
+          || !("images/" + HOTELS + "/" + ROOMS + ".jpg").equals(archive.string(archive.roomImages().get(row))))
+         throw new IllegalStateException("the last room did not come back from the archive");
+      if (archive.stringID("no such text") != BookingArchive.NO_STRING || archive.firstBooking(FIRST_DAY) != 0
+          || archive.firstBooking(FIRST_DAY + DAYS) != archive.getBookingCount())
+         throw new IllegalStateException("lookups on the archive went wrong");
+   }//end checkStrings
+
+   private static void report(String scan, long csvNanos, long archiveNanos) {
+      System.out.printf("%s\t%.1f\t%.2f\t%.0fx%n", scan, csvNanos / 1e6, archiveNanos / 1e6, csvNanos / (double) archiveNanos);
+   }
+
+   private static void check(String scan, long[] csv, long[] archive) {
+      if (!Arrays.equals(csv, archive))
+         throw new IllegalStateException(scan + ": the archive disagrees with the CSV files");
+   }
+
+}//end ExportBench
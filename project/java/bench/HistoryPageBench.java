@@ -0,0 +1,116 @@
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.sql.SQLException;
+
+/**
+ * Measures booking history page latency as the history grows. A synthetic
+ * manager with 20 hotels gets more and more bookings over three years; at
+ * every size the first page and a page 20 pages deep are read with keyset
+ * pagination, and the whole range is read the way the history screen did
+ * before pagination, as one unbounded ORDER BY bookingDate DESC result.
+ * The generated rows use IDs above 2000000 and are deleted at the end.
+ *
+ * Usage: java HistoryPageBench <dbname> <port> <user> [max bookings] [page size]
+ */
+public class HistoryPageBench {
+
+   private static final int BASE = 2000000;
+   private static final int HOTELS = 20;
+   private static final int ROOMS = 200;
+   private static final int CUSTOMERS = 5000;
+   private static final int REPEAT = 20;
+
+   private static final String UNBOUNDED =
+      "SELECT b.bookingID, u.name, b.hotelID, b.roomNumber, b.bookingDate FROM RoomBookings b "
+      + "JOIN Hotel h ON h.hotelID = b.hotelID JOIN Users u ON u.userID = b.customerID "
+      + "WHERE h.managerUserID = ? AND b.bookingDate BETWEEN CAST(? AS DATE) AND CAST(? AS DATE) "
+      + "ORDER BY b.bookingDate DESC";
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java HistoryPageBench <dbname> <port> <user> [max bookings] [page size]");
+         return;
+      }
+      int maxBookings = args.length > 3 ? Integer.parseInt(args[3]) : 1000000;
+      final int pageSize = args.length > 4 ? Integer.parseInt(args[4]) : 50;
+      Class.forName("org.postgresql.Driver").newInstance();
+      ConnectionPool pool = ConnectionPool.fromSystemProperties(Hotel.connectionUrl(args[0], args[1]), args[2], "");
+      final Hotel esql = new Hotel(pool, new BufferedReader(new StringReader("")), System.out);
+      JdbcHotelRepository repository = new JdbcHotelRepository(esql);
+      final int[] hotelIDs = new int[HOTELS];
+      for (int i = 0; i < HOTELS; ++i)
+         hotelIDs[i] = BASE + 1 + i;
+      try{
+         esql.executeUpdate(
+            "INSERT INTO Users (userID, name, password, userType) "
+            + "SELECT g, 'bench user ' || g, 'bench', CASE WHEN g = ? THEN 'manager' ELSE 'customer' END "
+            + "FROM generate_series(?, ?) g", BASE, BASE, BASE + CUSTOMERS);
+         esql.executeUpdate(
+            "INSERT INTO Hotel (hotelID, hotelName, latitude, longitude, dateEstablished, managerUserID) "
+            + "SELECT g, 'bench hotel ' || g, 0, 0, DATE '2000-01-01', ? FROM generate_series(?, ?) g",
+            BASE, BASE + 1, BASE + HOTELS);
+         esql.executeUpdate(
+            "INSERT INTO Rooms (hotelID, roomNumber, price) "
+            + "SELECT h, r, 100 FROM generate_series(?, ?) h, generate_series(1, ?) r", BASE + 1, BASE + HOTELS, ROOMS);
+
+         System.out.println("bookings\tfirst page ms\tpage 20 ms\tunbounded ms\tunbounded rows");
+         for (int size = 10000; size <= maxBookings; size *= 10) {
+            esql.executeUpdate(
+               "INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate) "
+               + "SELECT ? + (random() * ?)::int, ? + (random() * ?)::int, 1 + (random() * ?)::int, "
+               + "DATE '2018-01-01' + (random() * 1095)::int FROM generate_series(1, ?) "
+               + "ON CONFLICT (hotelID, roomNumber, bookingDate) DO NOTHING",
+               BASE + 1, CUSTOMERS - 1, BASE + 1, HOTELS - 1, ROOMS - 1,
+               size - esql.executeQueryForInt("SELECT COUNT(*) FROM RoomBookings WHERE hotelID > ?", BASE));
+            esql.executeUpdate("ANALYZE RoomBookings");
+            int bookings = esql.executeQueryForInt("SELECT COUNT(*) FROM RoomBookings WHERE hotelID > ?", BASE);
+
+            double first = 0, deep = 0, unbounded = 0;
+            long rows = 0;
+            for (int r = 0; r < REPEAT; ++r) {
+               long start = System.nanoTime();
+               String[] last = page(repository, hotelIDs, "12/31/2020", Integer.MAX_VALUE, pageSize);
+               first += System.nanoTime() - start;
+               for (int p = 1; p < 20 && last[0] != null; ++p)
+                  last = page(repository, hotelIDs, last[1], Integer.parseInt(last[0]), pageSize);
+               start = System.nanoTime();
+               if (last[0] != null)
+                  page(repository, hotelIDs, last[1], Integer.parseInt(last[0]), pageSize);
+               deep += System.nanoTime() - start;
+               if (r < 3) {
+                  start = System.nanoTime();
+                  rows = esql.executeQuery(UNBOUNDED, BASE, "01/01/2018", "12/31/2020");
+                  unbounded += System.nanoTime() - start;
+               }
+            }
+            System.out.printf("%d\t%.3f\t%.3f\t%.1f\t%d%n", bookings, first / REPEAT / 1e6, deep / REPEAT / 1e6,
+                              unbounded / 3 / 1e6, rows);
+         }
+      }finally{
+         esql.executeUpdate("DELETE FROM RoomBookings WHERE hotelID > ?", BASE);
+         esql.executeUpdate("DELETE FROM Rooms WHERE hotelID > ?", BASE);
+         esql.executeUpdate("DELETE FROM Hotel WHERE hotelID > ?", BASE);
+         esql.executeUpdate("DELETE FROM Users WHERE userID >= ?", BASE);
+         esql.cleanup();
+         pool.close();
+      }//end try
+   }//end main
+
+   /*
+    * Reads one page of the whole three years and returns the key of its
+    * last row, {null, null} after the last page.
+    **/
+   private static String[] page(JdbcHotelRepository repository, int[] hotelIDs, String afterDate, int afterBookingID, int pageSize)
+         throws SQLException {
+      final String[] last = new String[2];
+      long rows = repository.bookingHistoryPage(hotelIDs, "01/01/2018", "12/31/2020", afterDate, afterBookingID, pageSize,
+         new RowHandler() {
+            public void handle(ResultRow row) throws SQLException {
+               last[0] = row.getString(1);
+               last[1] = row.getString(5);
+            }
+         });
+      return rows < pageSize ? new String[2] : last;
+   }//end page
+
+}//end HistoryPageBench
@@ -0,0 +1,126 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the in-memory HotelSpatialIndex with the SQL calculate_distance
+ * scan for "hotels within 30 units" over synthetic hotels. Without database
+ * arguments only the index is measured and checked against a brute-force
+ * scan; with them the same hotels are loaded into a temporary table and the
+ * SQL search of viewHotels is timed on it.
+ *
+ * Usage: java [-DcellSize=30] HotelSpatialBench [hotels] [queries] [<dbname> <port> <user>]
+ */
+public class HotelSpatialBench {
+
+   public static void main(String[] args) throws Exception {
+      int hotels = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+      int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+      double cellSize = Double.parseDouble(System.getProperty("cellSize", String.valueOf(HotelSpatialIndex.DEFAULT_CELL_SIZE)));
+      Random random = new Random(42);
+
+      double[] lat = new double[hotels];
+      double[] lon = new double[hotels];
+      for (int i = 0; i < hotels; ++i) {
+         lat[i] = random.nextDouble() * 180 - 90;
+         lon[i] = random.nextDouble() * 360 - 180;
+      }
+
+      long start = System.nanoTime();
+      HotelSpatialIndex index = new HotelSpatialIndex(cellSize);
+      for (int i = 0; i < hotels; ++i)
+         index.put(i, "Hotel " + i, lat[i], lon[i]);
+      System.out.printf("built index over %d hotels in %.1f ms%n", hotels, (System.nanoTime() - start) / 1e6);
+
+      double[] qlat = new double[queries];
+      double[] qlon = new double[queries];
+      for (int i = 0; i < queries; ++i) {
+         qlat[i] = random.nextDouble() * 180 - 90;
+         qlon[i] = random.nextDouble() * 360 - 180;
+      }
+
+      // correctness against a brute-force scan.
+      for (int q = 0; q < Math.min(queries, 50); ++q) {
+         int expected = 0;
+         for (int i = 0; i < hotels; ++i)
+            if (Hotel.calculateDistance(lat[i], lon[i], qlat[q], qlon[q]) <= 30)
+               expected++;
+         int actual = index.within(qlat[q], qlon[q], 30).size();
+         if (actual != expected)
+            throw new IllegalStateException("query " + q + ": index found " + actual + ", scan found " + expected);
+         List<HotelSpatialIndex.Entry> nearest = index.nearest(qlat[q], qlon[q], 5);
+         for (int i = 0; i < hotels; ++i) {
+            double d = Hotel.calculateDistance(lat[i], lon[i], qlat[q], qlon[q]);
+            if (d < nearest.get(4).distance && !contains(nearest, i))
+               throw new IllegalStateException("query " + q + ": hotel " + i + " missing from the 5 nearest");
+         }
+      }
+      System.out.println("index results match brute-force scan");
+
+      long found = 0;
+      start = System.nanoTime();
+      for (int round = 0; round < 3; ++round)
+         for (int q = 0; q < queries; ++q)
+            found += index.within(qlat[q], qlon[q], 30).size();
+      double indexUs = (System.nanoTime() - start) / 1e3 / (3 * queries);
+      System.out.printf("index radius search:  %.1f us/query (%d hotels/query)%n", indexUs, found / (3 * queries));
+
+      start = System.nanoTime();
+      for (int q = 0; q < queries; ++q)
+         index.nearest(qlat[q], qlon[q], 10);
+      System.out.printf("index 10-nearest:     %.1f us/query%n", (System.nanoTime() - start) / 1e3 / queries);
+
+      if (args.length < 5)
+         return;
+
+      Class.forName("org.postgresql.Driver").newInstance();
+      Connection connection = DriverManager.getConnection(Hotel.connectionUrl(args[2], args[3]), args[4], "");
+      Statement stmt = connection.createStatement();
+      stmt.executeUpdate("CREATE TEMP TABLE BenchHotel (hotelID integer PRIMARY KEY, hotelName char(30) NOT NULL, latitude decimal(8,6), longitude decimal(9,6))");
+      connection.setAutoCommit(false);
+      PreparedStatement insert = connection.prepareStatement("INSERT INTO BenchHotel VALUES (?, ?, CAST(? AS DECIMAL), CAST(? AS DECIMAL))");
+      for (int i = 0; i < hotels; ++i) {
+         insert.setInt(1, i);
+         insert.setString(2, "Hotel " + i);
+         insert.setDouble(3, lat[i]);
+         insert.setDouble(4, lon[i]);
+         insert.addBatch();
+         if (i % 1000 == 999)
+            insert.executeBatch();
+      }
+      insert.executeBatch();
+      connection.commit();
+      connection.setAutoCommit(true);
+      stmt.executeUpdate("ANALYZE BenchHotel");
+
+      PreparedStatement search = connection.prepareStatement(
+         "SELECT h.hotelname FROM BenchHotel h WHERE calculate_distance(h.latitude, h.longitude, CAST(? AS DECIMAL), CAST(? AS DECIMAL)) <= 30");
+      int sqlQueries = Math.min(queries, 20);
+      found = 0;
+      start = System.nanoTime();
+      for (int q = 0; q < sqlQueries; ++q) {
+         search.setDouble(1, qlat[q]);
+         search.setDouble(2, qlon[q]);
+         ResultSet rs = search.executeQuery();
+         while (rs.next())
+            found++;
+         rs.close();
+      }
+      double sqlUs = (System.nanoTime() - start) / 1e3 / sqlQueries;
+      System.out.printf("SQL calculate_distance scan: %.1f us/query (%d hotels/query)%n", sqlUs, found / sqlQueries);
+      System.out.printf("speedup: %.0fx%n", sqlUs / indexUs);
+      connection.close();
+   }//end main
+
+   private static boolean contains(List<HotelSpatialIndex.Entry> hotels, int hotelID) {
+      for (HotelSpatialIndex.Entry hotel : hotels)
+         if (hotel.hotelID == hotelID)
+            return true;
+      return false;
+   }
+
+}//end HotelSpatialBench
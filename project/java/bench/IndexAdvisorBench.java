@@ -0,0 +1,157 @@
+import java.io.BufferedReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates a synthetic dataset, runs the manager and customer menus against
+ * it with the query log on, applies the indexes the log recommends and runs
+ * the same workload again, printing the mean latency of every menu operation
+ * before and after. The generated rows use IDs above 1000000 and are deleted
+ * at the end together with the created indexes, unless -Dkeep=true.
+ *
+ * Run it on a database without the indexes of create_indexes.sql, otherwise
+ * there is nothing left to recommend.
+ *
+ * Usage: java IndexAdvisorBench <dbname> <port> <user> [bookings] [sessions]
+ */
+public class IndexAdvisorBench {
+
+   private static final int BASE = 1000000;
+   private static final int MANAGERS = 10;
+   private static final int CUSTOMERS = 20000;
+   private static final int HOTELS = 200;
+   private static final int ROOMS = 50;
+
+   // discards everything the menus print.
+   private static final PrintStream NULL_OUT = new PrintStream(new OutputStream() {
+      public void write(int b) { }
+      public void write(byte[] b, int off, int len) { }
+   });
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java IndexAdvisorBench <dbname> <port> <user> [bookings] [sessions]");
+         return;
+      }
+      int bookings = args.length > 3 ? Integer.parseInt(args[3]) : 1000000;
+      int sessions = args.length > 4 ? Integer.parseInt(args[4]) : 200;
+      // every menu has to reach SQL, and every slow statement gets its plan captured.
+      System.setProperty("hotel.queryLog", "true");
+      System.setProperty("hotel.spatialIndex", "false");
+      System.setProperty("hotel.availabilityCalendar", "false");
+      if (System.getProperty("hotel.slowQueryMs") == null)
+         System.setProperty("hotel.slowQueryMs", "5");
+      boolean keep = Boolean.getBoolean("keep");
+
+      Class.forName("org.postgresql.Driver").newInstance();
+      ConnectionPool pool = ConnectionPool.fromSystemProperties(Hotel.connectionUrl(args[0], args[1]), args[2], "");
+      Hotel esql = new Hotel(pool, new BufferedReader(new StringReader("")), System.out);
+      QueryLog log = Hotel.getQueryLog();
+      List<String> indexes = null;
+      try{
+         long start = System.nanoTime();
+         generate(esql, bookings);
+         System.out.printf("generated %d bookings in %.1f s%n", bookings, (System.nanoTime() - start) / 1e9);
+
+         run(pool, 20, 1);
+         log.reset();
+         run(pool, sessions, 2);
+         Map<String, Double> before = log.operationMeans();
+
+         indexes = log.recommendIndexes();
+         for (String index : indexes) {
+            System.out.println(index);
+            esql.executeUpdate(index);
+         }
+         esql.executeUpdate("ANALYZE");
+
+         run(pool, 20, 1);
+         log.reset();
+         run(pool, sessions, 2);
+         Map<String, Double> after = log.operationMeans();
+
+         System.out.println();
+         System.out.println("operation\tbefore ms\tafter ms\tspeedup");
+         for (Map.Entry<String, Double> op : before.entrySet()) {
+            Double ms = after.get(op.getKey());
+            System.out.printf("%s\t%.3f\t%s\t%s%n", op.getKey(), op.getValue(),
+                              ms == null ? "-" : String.format("%.3f", ms),
+                              ms == null ? "-" : String.format("%.1fx", op.getValue() / ms));
+         }
+         System.out.println();
+         log.report(System.out);
+      }finally{
+         if (!keep) {
+            if (indexes != null)
+               for (String index : indexes)
+                  esql.executeUpdate("DROP INDEX IF EXISTS " + index.split(" ")[5]);
+            esql.executeUpdate("DELETE FROM RoomBookings WHERE hotelID > ?", BASE);
+            esql.executeUpdate("DELETE FROM Rooms WHERE hotelID > ?", BASE);
+            esql.executeUpdate("DELETE FROM Hotel WHERE hotelID > ?", BASE);
+            esql.executeUpdate("DELETE FROM Users WHERE userID > ?", BASE);
+         }
+         esql.cleanup();
+         pool.close();
+      }//end try
+   }//end main
+
+   /*
+    * Inserts managers and customers, hotels spread over the managers, rooms
+    * and bookings on random dates of three years.
+    **/
+   private static void generate(Hotel esql, int bookings) throws Exception {
+      esql.executeUpdate(
+         "INSERT INTO Users (userID, name, password, userType) "
+         + "SELECT g, 'bench user ' || g, 'bench', CASE WHEN g <= ? THEN 'manager' ELSE 'customer' END "
+         + "FROM generate_series(?, ?) g", BASE + MANAGERS, BASE + 1, BASE + MANAGERS + CUSTOMERS);
+      esql.executeUpdate(
+         "INSERT INTO Hotel (hotelID, hotelName, latitude, longitude, dateEstablished, managerUserID) "
+         + "SELECT g, 'bench hotel ' || g, random() * 90, random() * 90, DATE '2000-01-01', ? + g % ? "
+         + "FROM generate_series(?, ?) g", BASE + 1, MANAGERS, BASE + 1, BASE + HOTELS);
+      esql.executeUpdate(
+         "INSERT INTO Rooms (hotelID, roomNumber, price) "
+         + "SELECT h, r, 50 + (random() * 200)::int FROM generate_series(?, ?) h, generate_series(1, ?) r",
+         BASE + 1, BASE + HOTELS, ROOMS);
+      esql.executeUpdate(
+         "INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate) "
+         + "SELECT ? + (random() * ?)::int, ? + (random() * ?)::int, 1 + (random() * ?)::int, "
+         + "DATE '2018-01-01' + (random() * 1095)::int FROM generate_series(1, ?) "
+         + "ON CONFLICT (hotelID, roomNumber, bookingDate) DO NOTHING",
+         BASE + 1, MANAGERS + CUSTOMERS - 1, BASE + 1, HOTELS - 1, ROOMS - 1, bookings);
+      esql.executeUpdate("ANALYZE");
+   }//end generate
+
+   /*
+    * Runs scripted manager sessions one after another: rooms of a hotel on
+    * a date, own bookings, a month of hotel bookings, regular customers and
+    * recent room updates.
+    **/
+   private static void run(ConnectionPool pool, int sessions, long seed) throws Exception {
+      Random random = new Random(seed);
+      for (int i = 0; i < sessions; ++i) {
+         int manager = random.nextInt(MANAGERS);
+         // the hotels of a manager are those with hotelID % MANAGERS == manager.
+         int hotelID = BASE + MANAGERS + manager + MANAGERS * random.nextInt(HOTELS / MANAGERS - 1);
+         int month = 1 + random.nextInt(12);
+         String date = String.format("%02d/%02d/%d", month, 1 + random.nextInt(28), 2018 + random.nextInt(3));
+         String script = "2\n" + (BASE + 1 + manager) + "\nbench\n"
+                       + "2\n" + hotelID + "\n" + date + "\n"
+                       + "4\n"
+                       + "7\n" + String.format("%02d/01/2019\n%02d/28/2019\n", month, month) + "q\n"
+                       + "8\n" + hotelID + "\n"
+                       + "6\n"
+                       + "20\n9\n";
+         Hotel session = new Hotel(pool, new BufferedReader(new StringReader(script)), NULL_OUT);
+         try{
+            Hotel.runSession(session);
+         }finally{
+            session.cleanup();
+         }
+      }
+   }//end run
+
+}//end IndexAdvisorBench
@@ -0,0 +1,160 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks read/write splitting against a primary and its streaming
+ * replicas. One session creates a user (a write, on the primary) and logs
+ * in with it right away (a read-only operation) again and again: every
+ * log-in must find the new user, whichever server it ran on. A second
+ * session that never writes then logs in with the same users once the
+ * replicas caught up; those reads must go to the replicas. Prints where the
+ * reads went and the replicas' lag, deletes the users it created and exits
+ * with status 1 when a check fails.
+ *
+ * Usage: java ReplicaRoutingCheck <dbname> <primary port> <user> <replica port>[,<replica port>...] [rounds]
+ */
+public class ReplicaRoutingCheck {
+
+   // longest wait for the replicas to be seen.
+   private static final long TIMEOUT_MS = 10000;
+
+   /*
+    * Console input the check appends lines to before each operation.
+    **/
+   private static class Script extends Reader {
+      private final StringBuilder _pending = new StringBuilder();
+
+      void add(String... lines) {
+         for (String line : lines)
+            this._pending.append(line).append('\n');
+      }
+
+      public int read(char[] buffer, int offset, int length) {
+         if (this._pending.length() == 0)
+            return -1;
+         int n = Math.min(length, this._pending.length());
+         this._pending.getChars(0, n, buffer, offset);
+         this._pending.delete(0, n);
+         return n;
+      }
+
+      public void close() {
+      }
+   }//end Script
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 4) {
+         System.err.println("Usage: java ReplicaRoutingCheck <dbname> <primary port> <user> <replica port>[,<replica port>...] [rounds]");
+         return;
+      }
+      Class.forName("org.postgresql.Driver").newInstance();
+      int rounds = args.length > 4 ? Integer.parseInt(args[4]) : 200;
+      List<String> urls = new ArrayList<String>();
+      for (String port : args[3].split(","))
+         urls.add(Hotel.connectionUrl(args[0], port.trim()));
+      long checkMs = Long.getLong("hotel.replicaCheckMs", ReplicaRouter.DEFAULT_CHECK_MS);
+      long maxLagMs = Long.getLong("hotel.maxReplicaLagMs", ReplicaRouter.DEFAULT_MAX_LAG_MS);
+
+      ConnectionPool pool = ConnectionPool.fromSystemProperties(Hotel.connectionUrl(args[0], args[1]), args[2], "");
+      ReplicaRouter replicas = new ReplicaRouter(pool, urls, checkMs, maxLagMs);
+      pool.setReplicas(replicas);
+      Hotel admin = new Hotel(pool, null, System.out);
+      List<Integer> created = new ArrayList<Integer>();
+      boolean failed = false;
+      try{
+         long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+         while (!anyUp(replicas) && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+         if (!anyUp(replicas)) {
+            System.err.println("FAILED: no replica is reachable and replaying");
+            System.exit(1);
+         }
+
+         // read-your-writes: log in right after creating the user.
+         Script script = new Script();
+         ByteArrayOutputStream output = new ByteArrayOutputStream();
+         Hotel writer = new Hotel(pool, new BufferedReader(script), new PrintStream(output, true));
+         long replicaReadsBefore = replicaReads(replicas), fallbacksBefore = replicas.getFallbacks();
+         int missed = 0;
+         for (int i = 0; i < rounds; ++i) {
+            script.add("replica-check-" + i, "pw" + i);
+            Hotel.runOperation(writer, "CreateUser");
+            String text = output.toString();
+            output.reset();
+            int at = text.indexOf("userID = ");
+            if (at < 0)
+               throw new Exception("CreateUser failed: " + text);
+            int userID = Integer.parseInt(text.substring(at + 9).trim());
+            created.add(userID);
+            script.add(String.valueOf(userID), "pw" + i);
+            Hotel.runOperation(writer, "LogIn");
+            if (output.toString().contains("Invalid username or password"))
+               missed++;
+            output.reset();
+         }
+         System.out.printf("read-your-writes: %d log-in(s) right after creating the user, %d read(s) on replicas, %d on the primary, %d missed the new user%n",
+                           rounds, replicaReads(replicas) - replicaReadsBefore, replicas.getFallbacks() - fallbacksBefore, missed);
+         if (missed > 0) {
+            System.err.println("FAILED: " + missed + " log-in(s) did not see the user their session had just created");
+            failed = true;
+         }
+
+         // a session that never wrote reads from the replicas once they replayed the users.
+         Thread.sleep(2 * checkMs + 100);
+         Hotel reader = new Hotel(pool, new BufferedReader(script), new PrintStream(output, true));
+         replicaReadsBefore = replicaReads(replicas);
+         fallbacksBefore = replicas.getFallbacks();
+         missed = 0;
+         for (int i = 0; i < created.size(); ++i) {
+            script.add(String.valueOf(created.get(i)), "pw" + i);
+            Hotel.runOperation(reader, "LogIn");
+            if (output.toString().contains("Invalid username or password"))
+               missed++;
+            output.reset();
+         }
+         long onReplicas = replicaReads(replicas) - replicaReadsBefore;
+         System.out.printf("read-only session: %d log-in(s), %d read(s) on replicas, %d on the primary, %d missed the user%n",
+                           created.size(), onReplicas, replicas.getFallbacks() - fallbacksBefore, missed);
+         if (missed > 0) {
+            System.err.println("FAILED: " + missed + " log-in(s) did not see a user created before the replicas caught up");
+            failed = true;
+         }
+         if (onReplicas == 0) {
+            System.err.println("FAILED: no read of a session without writes went to a replica");
+            failed = true;
+         }
+         System.out.println(replicas);
+      }finally{
+         if (!created.isEmpty()) {
+            StringBuilder ids = new StringBuilder();
+            for (int userID : created)
+               ids.append(ids.length() == 0 ? "" : ", ").append(userID);
+            admin.executeUpdate("DELETE FROM Users WHERE userID IN (" + ids + ")");
+         }
+         admin.cleanup();
+         pool.close();
+      }//end try
+      if (failed)
+         System.exit(1);
+      System.out.println("OK");
+   }//end main
+
+   private static boolean anyUp(ReplicaRouter replicas) {
+      for (ReplicaRouter.Replica replica : replicas.getReplicas())
+         if (replica.getReplayLsn() >= 0)
+            return true;
+      return false;
+   }
+
+   private static long replicaReads(ReplicaRouter replicas) {
+      long reads = 0;
+      for (ReplicaRouter.Replica replica : replicas.getReplicas())
+         reads += replica.getReads();
+      return reads;
+   }
+
+}//end ReplicaRoutingCheck
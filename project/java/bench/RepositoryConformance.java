@@ -0,0 +1,281 @@
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the same conformance checks against every HotelRepository: the
+ * in-memory repository always, and the JDBC repository when database
+ * arguments are given. Each run builds its own fixture through the
+ * repository (users, two hotels, rooms, a company), then checks keys,
+ * availability, single and batch bookings, paging, rankings, the update log
+ * and repairs, and the errors of broken constraints. Hotel IDs are above
+ * 1000000 and dates in 2200, so a database with real data is not disturbed;
+ * the fixture rows are deleted from it at the end.
+ *
+ * The exit status is 1 when a check failed.
+ *
+ * Usage: java RepositoryConformance [<dbname> <port> <user>]
+ */
+public class RepositoryConformance {
+
+   private static final int BASE = 1000000;
+
+   private static int _checks = 0;
+   private static int _failures = 0;
+
+   public static void main(String[] args) throws Exception {
+      System.out.println("MemoryHotelRepository");
+      long start = System.nanoTime();
+      run(new MemoryHotelRepository());
+      System.out.printf("  %.1f ms%n", (System.nanoTime() - start) / 1e6);
+
+      if (args.length >= 3) {
+         System.out.println("JdbcHotelRepository");
+         Class.forName("org.postgresql.Driver").newInstance();
+         ConnectionPool pool = ConnectionPool.fromSystemProperties(Hotel.connectionUrl(args[0], args[1]), args[2], "");
+         Hotel esql = new Hotel(pool, new BufferedReader(new StringReader("")), System.out);
+         try{
+            start = System.nanoTime();
+            run(new JdbcHotelRepository(esql));
+            System.out.printf("  %.1f ms%n", (System.nanoTime() - start) / 1e6);
+         }finally{
+            esql.executeUpdate("DELETE FROM RoomRepairRequests WHERE repairID IN (SELECT repairID FROM RoomRepairs WHERE hotelID > ?)", BASE);
+            esql.executeUpdate("DELETE FROM RoomRepairs WHERE hotelID > ?", BASE);
+            esql.executeUpdate("DELETE FROM RoomUpdatesLog WHERE hotelID > ?", BASE);
+            esql.executeUpdate("DELETE FROM RoomBookings WHERE hotelID > ?", BASE);
+            esql.executeUpdate("DELETE FROM Rooms WHERE hotelID > ?", BASE);
+            esql.executeUpdate("DELETE FROM Hotel WHERE hotelID > ?", BASE);
+            esql.executeUpdate("DELETE FROM MaintenanceCompany WHERE companyID > ?", BASE);
+            esql.executeUpdate("DELETE FROM Users WHERE name LIKE 'conformance%'");
+            esql.cleanup();
+            pool.close();
+         }//end try
+      }
+      System.out.println(_checks + " check(s), " + _failures + " failure(s)");
+      System.exit(_failures == 0 ? 0 : 1);
+   }//end main
+
+   private static void run(HotelRepository repository) throws SQLException {
+      // users and keys
+      final int manager = repository.createUser("conformance manager", "secret", "manager");
+      final int customer = repository.createUser("conformance customer", "pw", "customer");
+      final int other = repository.createUser("conformance other", "pw", "customer");
+      check("serial user IDs grow", manager < customer && customer < other);
+      check("user found by password", repository.findUser(customer, "pw").size() == 1
+                                      && repository.findUser(customer, "pw").get(0).get(1) == null);
+      check("wrong password finds nothing", repository.findUser(customer, "nope").isEmpty());
+      check("missing user finds nothing", repository.findUser(Integer.MAX_VALUE, null).isEmpty());
+      fails("name longer than char(50)", "22001", new Action() {
+         void run(HotelRepository r) throws SQLException {
+            r.createUser("conformance " + repeat('x', 50), "pw", "customer");
+         }
+      }, repository);
+
+      // hotels, rooms and companies
+      final int hotel = BASE + 1, far = BASE + 2;
+      repository.addHotel(hotel, "conformance near", 10, 10, "01/01/2000", manager);
+      repository.addHotel(far, "conformance far", 80, 80, "01/01/2000", manager);
+      for (int room = 1; room <= 4; ++room)
+         repository.addRoom(hotel, room, 100 * room, "room" + room + ".jpg");
+      repository.addRoom(far, 1, 500, "far.jpg");
+      final int company = BASE + 1;
+      repository.addCompany(company, "conformance company", "1 Main Street");
+      List<List<String>> managed = repository.findUser(manager, "secret");
+      check("manager sees both hotels", managed.size() == 2 && managed.get(0).get(0).trim().equals("manager")
+                                        && managed.get(0).get(1).equals(String.valueOf(hotel))
+                                        && managed.get(1).get(1).equals(String.valueOf(far)));
+      fails("duplicate hotel", "23505", new Action() {
+         void run(HotelRepository r) throws SQLException {
+            r.addHotel(hotel, "conformance again", 0, 0, null, Integer.MAX_VALUE);
+         }
+      }, repository);
+      fails("room of a missing hotel", "23503", new Action() {
+         void run(HotelRepository r) throws SQLException {
+            r.addRoom(BASE + 3, 1, 100, null);
+         }
+      }, repository);
+      List<String> near = column(1, new Listing() {
+         long list(HotelRepository r, RowHandler h) throws SQLException {
+            return r.hotelsWithin(12, 12, 30, h);
+         }
+      }, repository);
+      check("hotels within a radius", trimmed(near).contains("conformance near") && !trimmed(near).contains("conformance far"));
+      check("room exists", repository.roomExists(hotel, 1) && !repository.roomExists(hotel, 5));
+      check("company exists", repository.companyExists(company) && !repository.companyExists(company + 1));
+      check("room price", repository.roomPrice(hotel, 3) == 300 && repository.roomPrice(hotel, 5) == -1);
+      check("update room", repository.updateRoom(hotel, 4, 450, "new.jpg") && repository.roomPrice(hotel, 4) == 450);
+      check("update missing room", !repository.updateRoom(hotel, 5, 450, "new.jpg"));
+
+      // single bookings
+      int first = repository.bookRoom(customer, hotel, 1, "03/01/2200");
+      check("book a free room", first > 0);
+      check("book a booked room", repository.bookRoom(other, hotel, 1, "03/01/2200") == -1);
+      check("book the next day", repository.bookRoom(other, hotel, 1, "03/02/2200") > first);
+      fails("book a missing room", "23503", new Action() {
+         void run(HotelRepository r) throws SQLException {
+            r.bookRoom(Integer.MAX_VALUE - 1, hotel, 9, "03/01/2200");
+         }
+      }, repository);
+      check("available rooms", column(1, rooms(hotel, "03/01/2200", false), repository).equals(list("2", "3", "4")));
+      check("booked rooms", column(1, rooms(hotel, "03/01/2200", true), repository).equals(list("1")));
+      check("booked room price", column(2, rooms(hotel, "03/01/2200", true), repository).equals(list("100")));
+
+      // batch bookings, all or nothing
+      check("book a batch", repository.bookRooms(customer, hotel, new int[] { 2, 3, 2, 3 },
+            new String[] { "03/01/2200", "03/01/2200", "03/02/2200", "03/02/2200" }) == 1000);
+      check("batch with a booked room", repository.bookRooms(customer, hotel, new int[] { 4, 1 },
+            new String[] { "03/03/2200", "03/02/2200" }) == -1);
+      check("batch with a missing room", repository.bookRooms(customer, hotel, new int[] { 4, 9 },
+            new String[] { "03/03/2200", "03/03/2200" }) == -1);
+      check("batch listing a pair twice", repository.bookRooms(customer, hotel, new int[] { 4, 4 },
+            new String[] { "03/03/2200", "03/03/2200" }) == -1);
+      check("failed batches book nothing", column(1, rooms(hotel, "03/03/2200", true), repository).isEmpty());
+
+      // recent bookings and history pages
+      List<String> dates = column(4, new Listing() {
+         long list(HotelRepository r, RowHandler h) throws SQLException {
+            return r.recentBookings(customer, 3, h);
+         }
+      }, repository);
+      check("recent bookings newest first", dates.size() == 3 && dates.get(0).equals("2200-03-02") && dates.get(2).equals("2200-03-01"));
+      final int[] hotels = { hotel, far };
+      final List<String> page1 = new ArrayList<String>(), page2 = new ArrayList<String>();
+      long rows = repository.bookingHistoryPage(hotels, "03/01/2200", "03/02/2200", "03/02/2200", Integer.MAX_VALUE, 4, collect(1, page1));
+      check("first history page", rows == 4 && page1.size() == 4);
+      // the next page starts after the last row of this one.
+      String lastDate = lastOf(repository, hotels, page1.get(3));
+      rows = repository.bookingHistoryPage(hotels, "03/01/2200", "03/02/2200", lastDate, Integer.parseInt(page1.get(3)), 4, collect(1, page2));
+      check("second history page", rows == 2 && page2.size() == 2 && !page1.contains(page2.get(0)));
+
+      // rankings
+      List<String> regulars = column(1, new Listing() {
+         long list(HotelRepository r, RowHandler h) throws SQLException {
+            return r.regularCustomers(BASE + 1, 5, h);
+         }
+      }, repository);
+      check("regular customers ranked by bookings", regulars.size() == 2 && regulars.get(0).equals(String.valueOf(customer))
+                                                    && regulars.get(1).equals(String.valueOf(other)));
+
+      // update log
+      repository.logRoomUpdate(manager, hotel, 4);
+      repository.logRoomUpdate(manager, far, 1);
+      check("update and log a room", repository.updateRoomAndLog(manager, hotel, 3, 320, "updated.jpg")
+                                     && repository.roomPrice(hotel, 3) == 320);
+      check("update and log a missing room", !repository.updateRoomAndLog(manager, hotel, 9, 320, "updated.jpg"));
+      fails("update logged for a missing manager", "23503", new Action() {
+         void run(HotelRepository r) throws SQLException {
+            r.updateRoomAndLog(Integer.MAX_VALUE, hotel, 3, 999, "bad.jpg");
+         }
+      }, repository);
+      check("failed update leaves the room", repository.roomPrice(hotel, 3) == 320);
+      List<String> updated = column(2, new Listing() {
+         long list(HotelRepository r, RowHandler h) throws SQLException {
+            return r.recentUpdates(manager, 5, h);
+         }
+      }, repository);
+      check("recent updates newest first", updated.equals(list(String.valueOf(hotel), String.valueOf(far), String.valueOf(hotel))));
+
+      // repairs
+      int request = repository.placeRepairRequest(manager, company, hotel, 2);
+      check("repair request placed", request > 0 && repository.placeRepairRequest(manager, company, far, 1) > request);
+      check("repair of a missing room", repository.placeRepairRequest(manager, company, hotel, 9) == -1);
+      check("repair by a missing company", repository.placeRepairRequest(manager, BASE + 99, hotel, 1) == -1);
+      check("repair of a hotel managed by another", repository.placeRepairRequest(customer, company, hotel, 1) == -1);
+      List<String> repaired = column(3, new Listing() {
+         long list(HotelRepository r, RowHandler h) throws SQLException {
+            return r.repairHistory(manager, h);
+         }
+      }, repository);
+      check("repair history", repaired.size() == 2 && repaired.contains(String.valueOf(hotel)) && repaired.contains(String.valueOf(far)));
+   }//end run
+
+   /*
+    * A repository call expected to fail.
+    **/
+   private abstract static class Action {
+      abstract void run(HotelRepository repository) throws SQLException;
+   }
+
+   /*
+    * A repository call listing rows.
+    **/
+   private abstract static class Listing {
+      abstract long list(HotelRepository repository, RowHandler handler) throws SQLException;
+   }
+
+   private static Listing rooms(final int hotelID, final String date, final boolean booked) {
+      return new Listing() {
+         long list(HotelRepository r, RowHandler h) throws SQLException {
+            return booked ? r.bookedRooms(hotelID, date, h) : r.availableRooms(hotelID, date, h);
+         }
+      };
+   }
+
+   private static String lastOf(HotelRepository repository, int[] hotels, final String bookingID) throws SQLException {
+      final String[] date = new String[1];
+      repository.bookingHistoryPage(hotels, "03/01/2200", "03/02/2200", "03/02/2200", Integer.MAX_VALUE, 100, new RowHandler() {
+         public void handle(ResultRow row) throws SQLException {
+            if (row.getString(1).equals(bookingID))
+               date[0] = row.getString(5);
+         }
+      });
+      return date[0];
+   }
+
+   private static void check(String name, boolean ok) {
+      _checks++;
+      if (!ok) {
+         _failures++;
+         System.out.println("  FAILED " + name);
+      }
+   }//end check
+
+   private static void fails(String name, String sqlState, Action action, HotelRepository repository) {
+      try{
+         action.run(repository);
+         check(name + " fails", false);
+      }catch (SQLException e){
+         check(name + " fails with " + sqlState + " (got " + e.getSQLState() + ": " + e.getMessage() + ")",
+               sqlState.equals(e.getSQLState()));
+      }//end try
+   }//end fails
+
+   private static List<String> column(int column, Listing listing, HotelRepository repository) throws SQLException {
+      List<String> values = new ArrayList<String>();
+      long rows = listing.list(repository, collect(column, values));
+      check("row count matches the rows handed out", rows == values.size());
+      return values;
+   }//end column
+
+   private static RowHandler collect(final int column, final List<String> values) {
+      return new RowHandler() {
+         public void handle(ResultRow row) throws SQLException {
+            values.add(row.getString(column));
+         }
+      };
+   }
+
+   private static List<String> trimmed(List<String> values) {
+      List<String> result = new ArrayList<String>();
+      for (String value : values)
+         result.add(value.trim());
+      return result;
+   }
+
+   private static List<String> list(String... values) {
+      List<String> result = new ArrayList<String>();
+      for (String value : values)
+         result.add(value);
+      return result;
+   }
+
+   private static String repeat(char c, int n) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < n; ++i)
+         sb.append(c);
+      return sb.toString();
+   }
+
+}//end RepositoryConformance
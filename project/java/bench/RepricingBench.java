@@ -0,0 +1,105 @@
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares a repricing run across the rooms of a manager's hotels through
+ * the old path (an autocommit UPDATE of Rooms followed by an autocommit
+ * INSERT into RoomUpdatesLog, two commits per room) with RoomUpdateWriter,
+ * which commits the update and its log entry together and groups the
+ * updates of all threads into shared commits. Each path reprices every room
+ * once per thread; prices are restored and the log entries written by the
+ * run are deleted at the end.
+ *
+ * Usage: java RepricingBench <dbname> <port> <user> <managerID> [threads] [flush ms]
+ */
+public class RepricingBench {
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 4) {
+         System.err.println("Usage: java RepricingBench <dbname> <port> <user> <managerID> [threads] [flush ms]");
+         return;
+      }
+      Class.forName("org.postgresql.Driver").newInstance();
+      final int managerID = Integer.parseInt(args[3]);
+      int threads = args.length > 4 ? Integer.parseInt(args[4]) : 8;
+      long flushMs = args.length > 5 ? Long.parseLong(args[5]) : RoomUpdateWriter.DEFAULT_MAX_LATENCY_MS;
+
+      final ConnectionPool pool = ConnectionPool.fromSystemProperties(Hotel.connectionUrl(args[0], args[1]), args[2], "");
+      Hotel esql = new Hotel(pool, new BufferedReader(new StringReader("")), System.out);
+      final List<List<String>> rooms = esql.executeQueryAndReturnResult(
+         "SELECT r.hotelID, r.roomNumber, r.price, r.imageURL FROM Rooms r JOIN Hotel h ON h.hotelID = r.hotelID "
+         + "WHERE h.managerUserID = ? ORDER BY r.hotelID, r.roomNumber", managerID);
+      int lastUpdate = esql.executeQueryForInt("SELECT COALESCE(MAX(updateNumber), 0) FROM RoomUpdatesLog");
+      RoomUpdateWriter writer = new RoomUpdateWriter(new JdbcHotelRepository(new Hotel(pool, null, null)),
+                                                     RoomUpdateWriter.DEFAULT_CAPACITY, flushMs, RoomUpdateWriter.DEFAULT_MAX_BATCH);
+      try{
+         if (rooms.isEmpty()) {
+            System.err.println("Manager #" + managerID + " manages no room");
+            return;
+         }
+         System.out.println(rooms.size() + " room(s), " + threads + " thread(s), flush deadline " + flushMs + " ms");
+         System.out.println("path\tupdates\tseconds\tupdates/sec\tfailed");
+         for (int pass = 0; pass < 2; ++pass) {
+            // pass 0 warms up, pass 1 is reported.
+            for (int grouped = 0; grouped < 2; ++grouped) {
+               final RoomUpdateWriter through = grouped == 1 ? writer : null;
+               final AtomicInteger failed = new AtomicInteger();
+               List<Thread> workers = new ArrayList<Thread>();
+               long start = System.nanoTime();
+               for (int t = 0; t < threads; ++t) {
+                  final int offset = t;
+                  Thread worker = new Thread(new Runnable() {
+                     public void run() {
+                        Hotel session = new Hotel(pool, null, null);
+                        for (List<String> room : rooms) {
+                           int hotelID = Integer.parseInt(room.get(0));
+                           int roomNumber = Integer.parseInt(room.get(1));
+                           int price = Integer.parseInt(room.get(2)) + 1 + offset;
+                           try{
+                              if (through != null) {
+                                 if (!through.update(managerID, hotelID, roomNumber, price, "repriced.jpg"))
+                                    failed.incrementAndGet();
+                              } else {
+                                 session.executeUpdate("UPDATE Rooms SET price = ?, imageURL = ? WHERE hotelID = ? AND roomNumber = ?",
+                                                       price, "repriced.jpg", hotelID, roomNumber);
+                                 session.executeUpdate("INSERT INTO roomUpdatesLog (managerID, hotelID, roomNumber, updatedOn) "
+                                                       + "VALUES (?, ?, ?, CURRENT_TIMESTAMP)", managerID, hotelID, roomNumber);
+                              }
+                           }catch (SQLException e){
+                              failed.incrementAndGet();
+                           }//end try
+                        }
+                     }
+                  });
+                  worker.start();
+                  workers.add(worker);
+               }
+               for (Thread worker : workers)
+                  worker.join();
+               double seconds = (System.nanoTime() - start) / 1e9;
+               int updates = threads * rooms.size();
+               if (pass == 1)
+                  System.out.printf("%s\t%d\t%.3f\t%.0f\t%d%n", grouped == 1 ? "group commit" : "two commits",
+                                    updates, seconds, updates / seconds, failed.get());
+            }
+         }
+         writer.close();
+         System.out.println(writer.getStats());
+      }finally{
+         writer.close();
+         List<Object[]> restore = new ArrayList<Object[]>();
+         for (List<String> room : rooms)
+            restore.add(new Object[] { Integer.parseInt(room.get(2)), room.get(3),
+                                       Integer.parseInt(room.get(0)), Integer.parseInt(room.get(1)) });
+         esql.executeBatch("UPDATE Rooms SET price = ?, imageURL = ? WHERE hotelID = ? AND roomNumber = ?", restore);
+         esql.executeUpdate("DELETE FROM RoomUpdatesLog WHERE updateNumber > ?", lastUpdate);
+         esql.cleanup();
+         pool.close();
+      }//end try
+   }//end main
+
+}//end RepricingBench
@@ -0,0 +1,118 @@
+import java.io.BufferedReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how many scripted sessions per second one JVM can serve as the
+ * number of concurrent sessions grows. Every session logs in, browses rooms
+ * and hotels, looks at its booking history and exits, exactly as a terminal
+ * would through the session server; only the console is replaced by
+ * in-memory streams. A session fails when it throws or when one of its
+ * menu operations reports an error, such as a pool timeout.
+ *
+ * Usage: java SessionBench <dbname> <port> <user> <userID> <password> [sessions per step]
+ */
+public class SessionBench {
+
+   // discards everything the menus print.
+   private static final PrintStream NULL_OUT = new PrintStream(new OutputStream() {
+      public void write(int b) { }
+      public void write(byte[] b, int off, int len) { }
+   });
+
+   /*
+    * Counts the lines a session prints to its error stream.
+    **/
+   private static class ErrorCounter extends PrintStream {
+      long errors = 0;
+
+      ErrorCounter() {
+         super(NULL_OUT);
+      }
+
+      public void println(String line) {
+         this.errors++;
+      }
+   }//end ErrorCounter
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 5) {
+         System.err.println("Usage: java SessionBench <dbname> <port> <user> <userID> <password> [sessions per step]");
+         return;
+      }
+      Class.forName("org.postgresql.Driver").newInstance();
+      String url = Hotel.connectionUrl(args[0], args[1]);
+      final String script = "2\n" + args[3] + "\n" + args[4] + "\n"
+                          + "2\n1\n01/01/2020\n"
+                          + "1\n10\n10\n"
+                          + "4\n"
+                          + "20\n9\n";
+      final int sessions = args.length > 5 ? Integer.parseInt(args[5]) : 2000;
+      int cores = Runtime.getRuntime().availableProcessors();
+
+      ConnectionPool pool = ConnectionPool.fromSystemProperties(url, args[2], "");
+      System.out.println("pool size " + pool.getMaxSize() + ", " + cores + " core(s), "
+                         + (SessionServer.virtualThreads() ? "virtual" : "platform") + " threads");
+      System.out.println("concurrency\tsessions\tseconds\tsessions/sec");
+
+      // warm up the statement caches and the JIT.
+      run(pool, script, 1, 200);
+      for (int concurrency = 1; concurrency <= cores * 4; concurrency *= 2) {
+         long start = System.nanoTime();
+         int failed = run(pool, script, concurrency, sessions);
+         double seconds = (System.nanoTime() - start) / 1e9;
+         System.out.printf("%d\t%d\t%.3f\t%.1f%s%n", concurrency, sessions, seconds, sessions / seconds,
+                           failed > 0 ? "\t(" + failed + " failed)" : "");
+      }
+      System.out.println(pool);
+      System.out.println(pool.getStatementCacheStats());
+      pool.close();
+   }//end main
+
+   /*
+    * Runs the given number of sessions, at most concurrency of them at once.
+    * @return the number of sessions that failed
+    **/
+   private static int run(final ConnectionPool pool, final String script, int concurrency, int sessions)
+         throws InterruptedException {
+      final AtomicInteger remaining = new AtomicInteger(sessions);
+      final AtomicLong failed = new AtomicLong();
+      final CountDownLatch done = new CountDownLatch(concurrency);
+      List<Thread> workers = new ArrayList<Thread>();
+      for (int i = 0; i < concurrency; ++i) {
+         workers.add(SessionServer.newSessionThread(new Runnable() {
+            public void run() {
+               try{
+                  while (remaining.getAndDecrement() > 0) {
+                     Hotel esql = new Hotel(pool, new BufferedReader(new StringReader(script)), NULL_OUT);
+                     ErrorCounter err = new ErrorCounter();
+                     esql.err = err;
+                     try{
+                        Hotel.runSession(esql);
+                        if (err.errors > 0)
+                           failed.incrementAndGet();
+                     }catch (Exception e){
+                        failed.incrementAndGet();
+                     }finally{
+                        esql.cleanup();
+                     }
+                  }
+               }finally{
+                  done.countDown();
+               }
+            }
+         }, "bench-" + i));
+      }
+      for (Thread worker : workers)
+         worker.start();
+      done.await();
+      return (int) failed.get();
+   }//end run
+
+}//end SessionBench
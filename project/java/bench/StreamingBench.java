@@ -0,0 +1,121 @@
+import java.io.BufferedReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Compares the materialized and the streamed ways of reading a large
+ * booking history: wall time and peak heap of building the whole result as
+ * List<List<String>>, of streaming it with typed accessors, and of printing
+ * it cell by cell to the console versus through the buffered print path.
+ * The history is generated by the query itself, so no table is touched.
+ *
+ * Usage: java StreamingBench <dbname> <port> <user> [rows]
+ */
+public class StreamingBench {
+
+   private static final String HISTORY =
+      "SELECT g AS bookingID, 'customer ' || (g % 1000) AS name, 1 + g % 200 AS hotelID, 1 + g % 50 AS roomNumber, "
+      + "DATE '2018-01-01' + g % 1095 AS bookingDate FROM generate_series(1, ?) g";
+
+   // discards everything printed, so only the cost of producing the output counts.
+   private static final PrintStream NULL_OUT = new PrintStream(new OutputStream() {
+      public void write(int b) { }
+      public void write(byte[] b, int off, int len) { }
+   }, true);
+
+   /*
+    * Samples the used heap while a run is in progress and keeps the peak.
+    **/
+   private static class HeapSampler extends Thread {
+      volatile boolean running = true;
+      volatile long peak = 0;
+
+      HeapSampler() {
+         setDaemon(true);
+      }
+
+      public void run() {
+         Runtime rt = Runtime.getRuntime();
+         while (running) {
+            peak = Math.max(peak, rt.totalMemory() - rt.freeMemory());
+            try{
+               Thread.sleep(5);
+            }catch (InterruptedException e){
+               return;
+            }//end try
+         }
+      }
+   }//end HeapSampler
+
+   private interface Run {
+      long run() throws SQLException;
+   }
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java StreamingBench <dbname> <port> <user> [rows]");
+         return;
+      }
+      final int rows = args.length > 3 ? Integer.parseInt(args[3]) : 1000000;
+      Class.forName("org.postgresql.Driver").newInstance();
+      ConnectionPool pool = ConnectionPool.fromSystemProperties(Hotel.connectionUrl(args[0], args[1]), args[2], "");
+      final Hotel esql = new Hotel(pool, new BufferedReader(new StringReader("")), NULL_OUT);
+      System.out.println(rows + " rows, fetch size " + Integer.getInteger("hotel.fetchSize", 1000)
+                         + ", max heap " + Runtime.getRuntime().maxMemory() / (1 << 20) + " MB");
+      System.out.println("method\tseconds\trows/sec\tpeak heap MB");
+      try{
+         measure("materialize", rows, new Run() {
+            public long run() throws SQLException {
+               return esql.executeQueryAndReturnResult(HISTORY, rows).size();
+            }
+         });
+         measure("stream", rows, new Run() {
+            public long run() throws SQLException {
+               final long[] sum = { 0 };
+               long n = esql.streamQuery(HISTORY, new RowHandler() {
+                  public void handle(ResultRow row) throws SQLException {
+                     sum[0] += row.getInt(1) + row.getInt(3) + row.getInt(4);
+                  }
+               }, rows);
+               return sum[0] == 0 ? 0 : n;
+            }
+         });
+         measure("print per cell", rows, new Run() {
+            public long run() throws SQLException {
+               // the print path before streaming: materialize, then one console write per cell.
+               List<List<String>> result = esql.executeQueryAndReturnResult(HISTORY, rows);
+               for (List<String> record : result) {
+                  for (String value : record)
+                     NULL_OUT.print(value + "\t");
+                  NULL_OUT.println();
+               }
+               return result.size();
+            }
+         });
+         measure("print buffered", rows, new Run() {
+            public long run() throws SQLException {
+               return esql.executeQueryAndPrintResult(HISTORY, rows);
+            }
+         });
+      }finally{
+         esql.cleanup();
+         pool.close();
+      }//end try
+   }//end main
+
+   private static void measure(String name, int rows, Run run) throws SQLException {
+      System.gc();
+      HeapSampler sampler = new HeapSampler();
+      sampler.start();
+      long start = System.nanoTime();
+      long n = run.run();
+      double seconds = (System.nanoTime() - start) / 1e9;
+      sampler.running = false;
+      System.out.printf("%s\t%.3f\t%.0f\t%.1f%s%n", name, seconds, n / seconds, sampler.peak / 1048576.0,
+                        n == rows ? "" : "\t(" + n + " rows!)");
+   }//end measure
+
+}//end StreamingBench
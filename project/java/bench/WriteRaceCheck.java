@@ -0,0 +1,122 @@
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Races sessions creating users and placing repair requests, once through
+ * the old two-statement writes (an INSERT followed by reading the key back
+ * from last_value or the latest repairID) and once through the repository's
+ * single INSERT ... RETURNING statements, and checks the keys the sessions
+ * were given. A user key is wrong when the user it names has another name;
+ * a repair is wrong when the run left it with no request or with several.
+ * Round trips per write are reported with the timings. The manager must
+ * manage the hotel; everything the run inserted is deleted at the end.
+ *
+ * The exit status is 1 when the single-statement writes gave a wrong key.
+ *
+ * Usage: java WriteRaceCheck <dbname> <port> <user> <managerID> <hotelID> <companyID> [threads] [operations]
+ */
+public class WriteRaceCheck {
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 6) {
+         System.err.println("Usage: java WriteRaceCheck <dbname> <port> <user> <managerID> <hotelID> <companyID> [threads] [operations]");
+         return;
+      }
+      Class.forName("org.postgresql.Driver").newInstance();
+      final int managerID = Integer.parseInt(args[3]);
+      final int hotelID = Integer.parseInt(args[4]);
+      final int companyID = Integer.parseInt(args[5]);
+      int threads = args.length > 6 ? Integer.parseInt(args[6]) : 16;
+      final int operations = args.length > 7 ? Integer.parseInt(args[7]) : 200;
+
+      final ConnectionPool pool = ConnectionPool.fromSystemProperties(Hotel.connectionUrl(args[0], args[1]), args[2], "");
+      Hotel esql = new Hotel(pool, new BufferedReader(new StringReader("")), System.out);
+      int lastRepair = esql.executeQueryForInt("SELECT COALESCE(MAX(repairID), 0) FROM RoomRepairs");
+      int lastRequest = esql.executeQueryForInt("SELECT COALESCE(MAX(requestNumber), 0) FROM RoomRepairRequests");
+      boolean failed = false;
+      try{
+         final List<List<String>> rooms = esql.executeQueryAndReturnResult(
+            "SELECT r.roomNumber FROM Rooms r WHERE r.hotelID = ? ORDER BY r.roomNumber", hotelID);
+         if (rooms.isEmpty()) {
+            System.err.println("Hotel #" + hotelID + " has no room");
+            return;
+         }
+         System.out.println(threads + " thread(s) x " + operations + " user(s) and repair request(s)");
+         System.out.println("path\toperations\tseconds\tround trips/write\twrong user keys\twrong repair links");
+         for (int single = 0; single < 2; ++single) {
+            final boolean returning = single == 1;
+            final AtomicInteger wrongUsers = new AtomicInteger();
+            final AtomicInteger errors = new AtomicInteger();
+            final long[] trips = new long[threads];
+            int repairsBefore = esql.executeQueryForInt("SELECT COALESCE(MAX(repairID), 0) FROM RoomRepairs");
+            List<Thread> workers = new ArrayList<Thread>();
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; ++t) {
+               final int thread = t;
+               Thread worker = new Thread(new Runnable() {
+                  public void run() {
+                     Hotel session = new Hotel(pool, null, null);
+                     JdbcHotelRepository repository = new JdbcHotelRepository(session);
+                     int roomNumber = Integer.parseInt(rooms.get(thread % rooms.size()).get(0));
+                     for (int i = 0; i < operations; ++i) {
+                        String name = "race " + (returning ? "returning " : "two statements ") + thread + " " + i;
+                        try{
+                           long before = session.getRoundTrips();
+                           int userID;
+                           if (returning) {
+                              userID = repository.createUser(name, "pw", "customer");
+                              if (repository.placeRepairRequest(managerID, companyID, hotelID, roomNumber) < 0)
+                                 errors.incrementAndGet();
+                           } else {
+                              session.executeUpdate("INSERT INTO USERS (name, password, userType) VALUES (?, ?, ?)", name, "pw", "customer");
+                              userID = session.getNewUserID("SELECT last_value FROM users_userID_seq");
+                              session.executeUpdate("INSERT INTO roomRepairs (companyID, hotelID, roomNumber, repairDate) VALUES (?, ?, ?, CURRENT_DATE)",
+                                                    companyID, hotelID, roomNumber);
+                              session.executeUpdate("INSERT INTO roomRepairRequests (managerID, repairID) VALUES (?, "
+                                                    + "(SELECT r.repairID FROM roomRepairs r ORDER BY repairID DESC LIMIT 1))", managerID);
+                           }
+                           trips[thread] += session.getRoundTrips() - before;
+                           List<List<String>> found = session.executeQueryAndReturnResult("SELECT u.name FROM Users u WHERE u.userID = ?", userID);
+                           if (found.isEmpty() || !found.get(0).get(0).trim().equals(name))
+                              wrongUsers.incrementAndGet();
+                        }catch (SQLException e){
+                           errors.incrementAndGet();
+                        }//end try
+                     }
+                     session.cleanup();
+                  }
+               });
+               worker.start();
+               workers.add(worker);
+            }
+            for (Thread worker : workers)
+               worker.join();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long totalTrips = 0;
+            for (long n : trips)
+               totalTrips += n;
+            int wrongRepairs = esql.executeQueryForInt(
+               "SELECT COUNT(*) FROM RoomRepairs r WHERE r.repairID > ? "
+               + "AND (SELECT COUNT(*) FROM RoomRepairRequests q WHERE q.repairID = r.repairID) <> 1", repairsBefore);
+            int total = threads * operations;
+            System.out.printf("%s\t%d\t%.3f\t%.1f\t%d\t%d%s%n", returning ? "returning" : "two statements", total, seconds,
+                              totalTrips / (2.0 * total), wrongUsers.get(), wrongRepairs,
+                              errors.get() > 0 ? "\t" + errors.get() + " error(s)" : "");
+            if (returning && (wrongUsers.get() > 0 || wrongRepairs > 0 || errors.get() > 0))
+               failed = true;
+         }
+      }finally{
+         esql.executeUpdate("DELETE FROM RoomRepairRequests WHERE requestNumber > ?", lastRequest);
+         esql.executeUpdate("DELETE FROM RoomRepairs WHERE repairID > ?", lastRepair);
+         esql.executeUpdate("DELETE FROM Users WHERE name LIKE 'race %'");
+         esql.cleanup();
+         pool.close();
+      }//end try
+      System.exit(failed ? 1 : 0);
+   }//end main
+
+}//end WriteRaceCheck
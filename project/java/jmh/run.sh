@@ -0,0 +1,40 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# Runs the JMH suite against a throwaway PostgreSQL cluster seeded by DatasetSeeder.
+#   ./run.sh                          all benchmarks, with -prof gc, compared with baseline.csv when it exists
+#   ./run.sh viewRooms bookRooms      only the benchmarks matching the given patterns
+#   SCALE=10 ./run.sh                 seed 10x the default dataset
+#   SAVE_BASELINE=1 ./run.sh          store the results as the new baseline.csv
+# Extra JMH options go in JMH_OPTS, e.g. JMH_OPTS="-f 1 -wi 2 -i 3" for a quick run.
+SCALE=${SCALE:-1}
+BENCH_PORT=${BENCH_PORT:-55432}
+BENCH_DB=hotel_bench
+CLUSTER=$DIR/target/pgdata
+SQL=$DIR/../../sql/src
+
+set -e
+cd $DIR
+mvn -q -B package
+mkdir -p target/results
+
+# a fresh cluster for every run, so results do not depend on earlier runs.
+rm -rf $CLUSTER
+initdb -D $CLUSTER -A trust -U $USER > target/initdb.log
+pg_ctl -D $CLUSTER -o "-p $BENCH_PORT -c fsync=off" -l target/postgres.log -w start
+trap 'pg_ctl -D $CLUSTER -m fast stop' EXIT
+createdb -h localhost -p $BENCH_PORT $BENCH_DB
+psql -q -h localhost -p $BENCH_PORT -d $BENCH_DB -f $SQL/create_tables.sql
+psql -q -h localhost -p $BENCH_PORT -d $BENCH_DB -f $SQL/create_indexes.sql
+java -cp target/benchmarks.jar benchmarks.DatasetSeeder $BENCH_DB $BENCH_PORT $USER $SCALE
+
+RESULTS=target/results/scale$SCALE-$(date +%Y%m%d-%H%M%S).csv
+java -Duser.language=en -Duser.country=US -Dbench.db=$BENCH_DB -Dbench.port=$BENCH_PORT -Dbench.user=$USER \
+     -jar target/benchmarks.jar -prof gc -rf csv -rff $RESULTS $JMH_OPTS "$@"
+
+if [ -n "$SAVE_BASELINE" ]; then
+   cp $RESULTS baseline.csv
+   echo "saved $RESULTS as baseline.csv"
+elif [ -f baseline.csv ]; then
+   java -cp target/benchmarks.jar benchmarks.BaselineCompare baseline.csv $RESULTS ${THRESHOLD:-10}
+fi
@@ -0,0 +1,123 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares a JMH result file (-rf csv) with a baseline result file and
+ * prints every benchmark's time and allocation per operation side by side.
+ * A benchmark regresses when it got slower, or allocates more per
+ * operation, by more than the threshold and by more than the two error
+ * margins together. The exit status is 1 when any benchmark regressed.
+ *
+ * Usage: java -cp benchmarks.jar benchmarks.BaselineCompare <baseline.csv> <results.csv> [threshold %]
+ */
+public class BaselineCompare {
+
+   // secondary result of -prof gc compared besides the score.
+   private static final String ALLOCATION = "gc.alloc.rate.norm";
+
+   /*
+    * One row of a JMH csv result.
+    **/
+   private static class Result {
+      final double score;
+      final double error;
+      final String unit;
+
+      Result(double score, double error, String unit) {
+         this.score = score;
+         this.error = error;
+         this.unit = unit;
+      }
+   }//end Result
+
+   public static void main(String[] args) throws IOException {
+      if (args.length < 2) {
+         System.err.println("Usage: java -cp benchmarks.jar benchmarks.BaselineCompare <baseline.csv> <results.csv> [threshold %]");
+         System.exit(2);
+      }
+      double threshold = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.10;
+      Map<String, Result> baseline = read(args[0]);
+      Map<String, Result> results = read(args[1]);
+      int regressions = 0;
+      System.out.printf("%-64s %12s %12s %8s%n", "benchmark", "baseline", "now", "change");
+      for (Map.Entry<String, Result> entry : results.entrySet()) {
+         String name = entry.getKey();
+         // timings and allocation per operation; rates per second depend on the timings.
+         if (name.contains(":") && !name.endsWith(ALLOCATION))
+            continue;
+         Result now = entry.getValue();
+         Result before = baseline.get(name);
+         if (before == null) {
+            System.out.printf("%-64s %12s %12.2f %8s  %s%n", name, "-", now.score, "new", now.unit);
+            continue;
+         }
+         double change = before.score == 0 ? 0 : (now.score - before.score) / before.score;
+         boolean regressed = change > threshold && now.score - before.score > before.error + now.error;
+         if (regressed)
+            regressions++;
+         System.out.printf("%-64s %12.2f %12.2f %+7.1f%%  %s%s%n", name, before.score, now.score, change * 100,
+                           now.unit, regressed ? "  REGRESSION" : "");
+      }
+      for (String name : baseline.keySet())
+         if (!results.containsKey(name) && (!name.contains(":") || name.endsWith(ALLOCATION)))
+            System.out.printf("%-64s %12.2f %12s %8s%n", name, baseline.get(name).score, "-", "missing");
+      System.out.println(regressions + " regression(s) above " + Math.round(threshold * 100) + "%");
+      System.exit(regressions == 0 ? 0 : 1);
+   }//end main
+
+   /*
+    * Reads a csv result into benchmark name (with its parameters and the
+    * secondary metric, if any) -> result.
+    **/
+   private static Map<String, Result> read(String file) throws IOException {
+      Map<String, Result> results = new LinkedHashMap<String, Result>();
+      BufferedReader reader = new BufferedReader(new FileReader(file));
+      try{
+         List<String> header = split(reader.readLine());
+         int score = header.indexOf("Score"), error = score + 1, unit = header.indexOf("Unit");
+         String line;
+         while ((line = reader.readLine()) != null) {
+            List<String> fields = split(line);
+            // "benchmarks.HotelBenchmarks.viewRooms:gc.alloc.rate.norm", older versions put a middle dot after the colon.
+            StringBuilder name = new StringBuilder(fields.get(0).replace(":\u00b7", ":"));
+            for (int i = unit + 1; i < fields.size(); ++i)
+               if (fields.get(i).length() > 0)
+                  name.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(fields.get(i));
+            results.put(name.toString(), new Result(number(fields.get(score)), number(fields.get(error)), fields.get(unit)));
+         }
+      }finally{
+         reader.close();
+      }//end try
+      return results;
+   }//end read
+
+   private static double number(String field) {
+      return field.length() == 0 || field.equals("NaN") ? 0 : Double.parseDouble(field);
+   }
+
+   private static List<String> split(String line) {
+      List<String> fields = new ArrayList<String>();
+      StringBuilder field = new StringBuilder();
+      boolean quoted = false;
+      for (int i = 0; i < line.length(); ++i) {
+         char c = line.charAt(i);
+         if (c == '"')
+            quoted = !quoted;
+         else if (c == ',' && !quoted) {
+            fields.add(field.toString());
+            field.setLength(0);
+         } else
+            field.append(c);
+      }
+      fields.add(field.toString());
+      return fields;
+   }//end split
+
+}//end BaselineCompare
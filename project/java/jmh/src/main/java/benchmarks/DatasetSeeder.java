@@ -0,0 +1,134 @@
+package benchmarks;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Fills an empty benchmark database with a synthetic dataset whose size
+ * grows linearly with a scale factor. The rows are generated on the server
+ * from setseed, so the same scale always gives the same dataset and results
+ * of different runs can be compared.
+ *
+ * At scale s the dataset holds:
+ *    10s managers (userIDs 1..10s) and 1000s customers after them, all with password "pw",
+ *    100s hotels, hotel h managed by manager 1 + (h - 1) % 10s, with 50 rooms each,
+ *    100000s bookings from 2015 to 2020, 5000s room updates and 2000s repair requests.
+ *
+ * Every table is emptied first, so never point it at a real database.
+ *
+ * Usage: java -cp benchmarks.jar benchmarks.DatasetSeeder <dbname> <port> <user> [scale]
+ */
+public class DatasetSeeder {
+
+   public static final int MANAGERS = 10;
+   public static final int CUSTOMERS = 1000;
+   public static final int HOTELS = 100;
+   public static final int ROOMS = 50;
+   public static final int BOOKINGS = 100000;
+   public static final int UPDATES = 5000;
+   public static final int REPAIRS = 2000;
+   public static final int COMPANIES = 20;
+   public static final String PASSWORD = "pw";
+
+   // years of the generated bookings; the benchmarks book from 2100 on.
+   public static final int FIRST_YEAR = 2015;
+   public static final int LAST_YEAR = 2020;
+   public static final int FUTURE_YEAR = 2100;
+
+   public static void main(String[] args) throws SQLException {
+      if (args.length < 3) {
+         System.err.println("Usage: java -cp benchmarks.jar benchmarks.DatasetSeeder <dbname> <port> <user> [scale]");
+         return;
+      }
+      int scale = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+      Connection connection = DriverManager.getConnection(
+         "jdbc:postgresql://localhost:" + args[1] + "/" + args[0], args[2], System.getProperty("bench.password", ""));
+      try{
+         long start = System.nanoTime();
+         seed(connection, scale);
+         System.out.printf("seeded scale %d in %.1f s%n", scale, (System.nanoTime() - start) / 1e9);
+      }finally{
+         connection.close();
+      }//end try
+   }//end main
+
+   /**
+    * Replaces the content of every table with the dataset of a scale.
+    *
+    * @param connection a connection in autocommit mode
+    * @param scale the scale factor, at least 1
+    * @throws java.sql.SQLException when a statement fails
+    */
+   public static void seed(Connection connection, int scale) throws SQLException {
+      int managers = MANAGERS * scale, customers = CUSTOMERS * scale, hotels = HOTELS * scale;
+      Statement statement = connection.createStatement();
+      try{
+         statement.execute("TRUNCATE Users, Hotel, Rooms, MaintenanceCompany, RoomBookings, RoomRepairs, "
+                           + "RoomRepairRequests, RoomUpdatesLog RESTART IDENTITY CASCADE");
+         statement.execute("SELECT create_booking_partitions(" + FIRST_YEAR + ", " + LAST_YEAR + ")");
+         statement.execute("SELECT create_booking_partitions(" + FUTURE_YEAR + ", " + (FUTURE_YEAR + 10) + ")");
+         statement.execute("SELECT setseed(0.42)");
+      }finally{
+         statement.close();
+      }//end try
+
+      update(connection,
+         "INSERT INTO Users (userID, name, password, userType) "
+         + "SELECT g, 'user ' || g, ?, CASE WHEN g <= ? THEN 'manager' ELSE 'customer' END "
+         + "FROM generate_series(1, ?) g", PASSWORD, managers, managers + customers);
+      update(connection,
+         "INSERT INTO MaintenanceCompany (companyID, name, addrress) "
+         + "SELECT g, 'company ' || g, g || ' Main Street' FROM generate_series(1, ?) g", COMPANIES);
+      update(connection,
+         "INSERT INTO Hotel (hotelID, hotelName, latitude, longitude, dateEstablished, managerUserID) "
+         + "SELECT g, 'hotel ' || g, random() * 90, random() * 90, DATE '2000-01-01' + (random() * 5000)::int, 1 + (g - 1) % ? "
+         + "FROM generate_series(1, ?) g", managers, hotels);
+      update(connection,
+         "INSERT INTO Rooms (hotelID, roomNumber, price, imageURL) "
+         + "SELECT h, r, 50 + (random() * 250)::int, 'room' || r || '.jpg' "
+         + "FROM generate_series(1, ?) h, generate_series(1, ?) r", hotels, ROOMS);
+      update(connection,
+         "INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate) "
+         + "SELECT ? + 1 + (random() * (? - 1))::int, 1 + (random() * (? - 1))::int, 1 + (random() * (? - 1))::int, "
+         + "make_date(?, 1, 1) + (random() * (make_date(? + 1, 1, 1) - make_date(?, 1, 1) - 1))::int "
+         + "FROM generate_series(1, ?) ON CONFLICT (hotelID, roomNumber, bookingDate) DO NOTHING",
+         managers, customers, hotels, ROOMS, FIRST_YEAR, LAST_YEAR, FIRST_YEAR, BOOKINGS * scale);
+      update(connection,
+         "INSERT INTO RoomUpdatesLog (managerID, hotelID, roomNumber, updatedOn) "
+         + "SELECT 1 + (h - 1) % ?, h, r, TIMESTAMP '2015-01-01' + random() * INTERVAL '2190 days' "
+         + "FROM (SELECT 1 + (random() * (? - 1))::int h, 1 + (random() * (? - 1))::int r FROM generate_series(1, ?)) u",
+         managers, hotels, ROOMS, UPDATES * scale);
+      update(connection,
+         "INSERT INTO RoomRepairs (companyID, hotelID, roomNumber, repairDate) "
+         + "SELECT 1 + (random() * (? - 1))::int, 1 + (random() * (? - 1))::int, 1 + (random() * (? - 1))::int, "
+         + "DATE '2015-01-01' + (random() * 2190)::int FROM generate_series(1, ?)",
+         COMPANIES, hotels, ROOMS, REPAIRS * scale);
+      update(connection,
+         "INSERT INTO RoomRepairRequests (managerID, repairID) "
+         + "SELECT h.managerUserID, r.repairID FROM RoomRepairs r JOIN Hotel h ON h.hotelID = r.hotelID ORDER BY r.repairID");
+
+      statement = connection.createStatement();
+      try{
+         // the program reads new keys from the sequences, they must follow the explicit IDs.
+         statement.execute("SELECT setval('users_userid_seq', (SELECT MAX(userID) FROM Users))");
+         statement.execute("ANALYZE");
+      }finally{
+         statement.close();
+      }//end try
+   }//end seed
+
+   private static void update(Connection connection, String sql, Object... params) throws SQLException {
+      PreparedStatement statement = connection.prepareStatement(sql);
+      try{
+         for (int i = 0; i < params.length; ++i)
+            statement.setObject(i + 1, params[i]);
+         statement.executeUpdate();
+      }finally{
+         statement.close();
+      }//end try
+   }//end update
+
+}//end DatasetSeeder
@@ -0,0 +1,224 @@
+package benchmarks;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One benchmark per menu operation of the Hotel program, each running the
+ * operation's data-access path end to end on a dataset made by
+ * DatasetSeeder, plus the raw query methods the operations are built on.
+ * Inputs are drawn from a fixed seed, so every run sends the same
+ * statements with the same parameters.
+ *
+ * The in-memory caches are switched off in the forked JVMs, so every
+ * operation reaches the database; pass -jvmArgsAppend -Dhotel.spatialIndex=true
+ * (or availabilityCalendar, regularCustomers, roomCache) to measure a cached path.
+ * The database is named by -Dbench.db, -Dbench.port and -Dbench.user.
+ *
+ * Writes go to dates from 2100 on and to users named "jmh user", and are
+ * deleted when the trial ends.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 2, jvmArgsAppend = {
+   "-Dhotel.spatialIndex=false", "-Dhotel.availabilityCalendar=false", "-Dhotel.regularCustomers=false",
+   "-Dhotel.roomCache=false" })
+public class HotelBenchmarks {
+
+   private static final long SEED = 42;
+
+   private Object _pool;
+   private HotelDriver _customer;
+   private HotelDriver _manager;
+   private Random _random;
+
+   // shape of the seeded dataset, read back from the database.
+   private int _managers;
+   private int _customers;
+   private int _hotels;
+   private final List<Integer> _managedHotels = new ArrayList<Integer>();
+
+   // next free slot for the booking benchmarks, walking hotels, then rooms, then days from 2100.
+   private long _nextBooking;
+
+   @Setup(Level.Trial)
+   public void setUp() throws SQLException {
+      this._pool = HotelDriver.openPool(System.getProperty("bench.db", "hotel_bench"),
+                                        System.getProperty("bench.port", "5432"),
+                                        System.getProperty("bench.user", System.getProperty("user.name")),
+                                        System.getProperty("bench.password", ""));
+      this._customer = new HotelDriver(this._pool);
+      this._manager = new HotelDriver(this._pool);
+      List<List<String>> shape = this._customer.executeQueryAndReturnResult(
+         "SELECT (SELECT COUNT(*) FROM Users WHERE userType = 'manager'), "
+         + "(SELECT COUNT(*) FROM Users WHERE userType = 'customer'), (SELECT COUNT(*) FROM Hotel)");
+      this._managers = Integer.parseInt(shape.get(0).get(0));
+      this._customers = Integer.parseInt(shape.get(0).get(1));
+      this._hotels = Integer.parseInt(shape.get(0).get(2));
+      if (this._managers == 0 || this._customers == 0 || this._hotels == 0)
+         throw new IllegalStateException("the benchmark database is empty, run DatasetSeeder first");
+      for (int h = 1; h <= this._hotels; h += this._managers)
+         this._managedHotels.add(h);
+      this._random = new Random(SEED);
+      this._customer.logIn(this._managers + 1 + this._random.nextInt(this._customers), DatasetSeeder.PASSWORD);
+      this._manager.logIn(1, DatasetSeeder.PASSWORD);
+      this._nextBooking = 0;
+   }//end setUp
+
+   @TearDown(Level.Trial)
+   public void tearDown() throws SQLException {
+      try{
+         this._customer.executeUpdate("DELETE FROM RoomBookings WHERE bookingDate >= make_date(?, 1, 1)", DatasetSeeder.FUTURE_YEAR);
+         this._customer.executeUpdate("DELETE FROM Users WHERE name = 'jmh user'");
+      }finally{
+         this._customer.close();
+         this._manager.close();
+         HotelDriver.closePool(this._pool);
+      }//end try
+   }//end tearDown
+
+   @Benchmark
+   public void logIn() {
+      this._customer.logIn(this._managers + 1 + this._random.nextInt(this._customers), DatasetSeeder.PASSWORD);
+   }
+
+   @Benchmark
+   public void createUser() {
+      this._customer.run("CreateUser", "jmh user\njmh\n");
+   }
+
+   @Benchmark
+   public void viewHotels() {
+      this._customer.run("viewHotels", this._random.nextDouble() * 90 + "\n" + this._random.nextDouble() * 90 + "\n");
+   }
+
+   @Benchmark
+   public void viewRooms() {
+      this._customer.run("viewRooms", hotel() + "\n" + pastDate() + "\n");
+   }
+
+   @Benchmark
+   public void bookRooms() {
+      long slot = this._nextBooking++;
+      this._customer.run("bookRooms", (1 + slot % this._hotels) + "\n"
+                         + (1 + slot / this._hotels % DatasetSeeder.ROOMS) + "\n"
+                         + futureDate((int) (slot / this._hotels / DatasetSeeder.ROOMS)) + "\n");
+   }
+
+   @Benchmark
+   public void bookRoomsBatch() {
+      // two neighbouring rooms for three nights, in slots bookRooms does not reach.
+      long slot = this._nextBooking++;
+      int room = 1 + (int) (slot / this._hotels % (DatasetSeeder.ROOMS / 2)) * 2;
+      this._customer.run("bookRoomsBatch", (1 + slot % this._hotels) + "\n" + room + "," + (room + 1) + "\n"
+                         + futureDate(3650 + 3 * (int) (slot / this._hotels / (DatasetSeeder.ROOMS / 2))) + "\n3\n");
+   }
+
+   @Benchmark
+   public void viewRecentBookingsfromCustomer() {
+      this._customer.run("viewRecentBookingsfromCustomer", "");
+   }
+
+   @Benchmark
+   public void updateRoomInfo() {
+      this._manager.run("updateRoomInfo", managedHotel() + "\n" + room() + "\n"
+                        + (50 + this._random.nextInt(250)) + "\njmh.jpg\n");
+   }
+
+   @Benchmark
+   public void viewRecentUpdates() {
+      this._manager.run("viewRecentUpdates", "");
+   }
+
+   @Benchmark
+   public void viewBookingHistoryofHotel() {
+      String start = pastDate();
+      this._manager.run("viewBookingHistoryofHotel", start + "\n" + start.substring(0, 6) + (Integer.parseInt(start.substring(6)) + 1) + "\nq\n");
+   }
+
+   @Benchmark
+   public void viewRegularCustomers() {
+      this._manager.run("viewRegularCustomers", managedHotel() + "\n");
+   }
+
+   @Benchmark
+   public void placeRoomRepairRequests() {
+      this._manager.run("placeRoomRepairRequests", managedHotel() + "\n" + room() + "\n"
+                        + (1 + this._random.nextInt(DatasetSeeder.COMPANIES)) + "\n");
+   }
+
+   @Benchmark
+   public void viewRoomRepairHistory() {
+      this._manager.run("viewRoomRepairHistory", "");
+   }
+
+   @Benchmark
+   public void managerDashboard() {
+      String start = pastDate();
+      this._manager.run("managerDashboard", start + "\n" + start.substring(0, 6) + (Integer.parseInt(start.substring(6)) + 1) + "\n");
+   }
+
+   @Benchmark
+   public int executeQuery() throws SQLException {
+      return this._customer.executeQuery(
+         "SELECT r.price FROM Rooms r WHERE r.hotelID = ? AND r.roomNumber = ?", hotel(), room());
+   }
+
+   @Benchmark
+   public List<List<String>> executeQueryAndReturnResult() throws SQLException {
+      return this._customer.executeQueryAndReturnResult(
+         "SELECT rb.bookingID, rb.roomNumber, rb.bookingDate FROM RoomBookings rb WHERE rb.hotelID = ? AND rb.bookingDate = ?",
+         hotel(), java.sql.Date.valueOf(isoPastDate()));
+   }
+
+   private int hotel() {
+      return 1 + this._random.nextInt(this._hotels);
+   }
+
+   private int managedHotel() {
+      return this._managedHotels.get(this._random.nextInt(this._managedHotels.size()));
+   }
+
+   private int room() {
+      return 1 + this._random.nextInt(DatasetSeeder.ROOMS);
+   }
+
+   // a day of the seeded years, as the menus read it (MM/dd/yyyy).
+   private String pastDate() {
+      String iso = isoPastDate();
+      return iso.substring(5, 7) + "/" + iso.substring(8, 10) + "/" + iso.substring(0, 4);
+   }
+
+   private String isoPastDate() {
+      int year = DatasetSeeder.FIRST_YEAR + this._random.nextInt(DatasetSeeder.LAST_YEAR - DatasetSeeder.FIRST_YEAR + 1);
+      return String.format("%d-%02d-%02d", year, 1 + this._random.nextInt(12), 1 + this._random.nextInt(28));
+   }
+
+   // the day so many days after 01/01/2100, as the menus read it.
+   private static String futureDate(int days) {
+      java.util.Calendar calendar = new java.util.GregorianCalendar(DatasetSeeder.FUTURE_YEAR, 0, 1);
+      calendar.add(java.util.Calendar.DAY_OF_MONTH, days);
+      return String.format("%02d/%02d/%d", calendar.get(java.util.Calendar.MONTH) + 1,
+                           calendar.get(java.util.Calendar.DAY_OF_MONTH), calendar.get(java.util.Calendar.YEAR));
+   }
+
+}//end HotelBenchmarks
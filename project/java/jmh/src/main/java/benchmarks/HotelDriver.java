@@ -0,0 +1,169 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Drives one session of the Hotel program from the benchmarks. The program
+ * lives in the default package, which a named package cannot import, so its
+ * classes are looked up by name and called through reflection. A reflective
+ * call costs nanoseconds, next to the round trips it measures.
+ *
+ * Operations read their inputs from a console script, as in WorkloadDriver,
+ * and everything they print is discarded.
+ *
+ */
+public class HotelDriver {
+
+   // discards everything the menus print.
+   static final PrintStream NULL_OUT = new PrintStream(new OutputStream() {
+      public void write(int b) { }
+      public void write(byte[] b, int off, int len) { }
+   });
+
+   private static final Class<?> HOTEL;
+   private static final Class<?> POOL;
+   private static final Constructor<?> NEW_SESSION;
+   private static final Method FROM_PROPERTIES;
+   private static final Method CONNECTION_URL;
+   private static final Method RUN_OPERATION;
+   private static final Method EXECUTE_QUERY;
+   private static final Method EXECUTE_UPDATE;
+   private static final Method RETURN_RESULT;
+   private static final Method CLEANUP;
+   private static final Method CLOSE_POOL;
+   private static final Field IN;
+   private static final Field USER_ID;
+
+   static {
+      try{
+         HOTEL = Class.forName("Hotel");
+         POOL = Class.forName("ConnectionPool");
+         NEW_SESSION = HOTEL.getConstructor(POOL, BufferedReader.class, PrintStream.class);
+         FROM_PROPERTIES = POOL.getMethod("fromSystemProperties", String.class, String.class, String.class);
+         CONNECTION_URL = HOTEL.getMethod("connectionUrl", String.class, String.class);
+         RUN_OPERATION = HOTEL.getMethod("runOperation", HOTEL, String.class);
+         EXECUTE_QUERY = HOTEL.getMethod("executeQuery", String.class, Object[].class);
+         EXECUTE_UPDATE = HOTEL.getMethod("executeUpdate", String.class, Object[].class);
+         RETURN_RESULT = HOTEL.getMethod("executeQueryAndReturnResult", String.class, Object[].class);
+         CLEANUP = HOTEL.getMethod("cleanup");
+         CLOSE_POOL = POOL.getMethod("close");
+         IN = HOTEL.getDeclaredField("in");
+         IN.setAccessible(true);
+         USER_ID = HOTEL.getDeclaredField("hotel_userID");
+         USER_ID.setAccessible(true);
+      }catch (ReflectiveOperationException e){
+         throw new ExceptionInInitializerError(e);
+      }//end try
+   }
+
+   private final Object _session;
+
+   /**
+    * Opens the connection pool of a local database, configured by the
+    * hotel.* system properties like the program.
+    *
+    * @return the pool, to be passed to new sessions and to closePool
+    */
+   public static Object openPool(String dbname, String dbport, String user, String passwd) {
+      return call(FROM_PROPERTIES, null, call(CONNECTION_URL, null, dbname, dbport), user, passwd);
+   }
+
+   public static void closePool(Object pool) {
+      call(CLOSE_POOL, pool);
+   }
+
+   /**
+    * Creates a session on a pool, logged out.
+    */
+   public HotelDriver(Object pool) {
+      try{
+         this._session = NEW_SESSION.newInstance(pool, new BufferedReader(new StringReader("")), NULL_OUT);
+      }catch (ReflectiveOperationException e){
+         throw new IllegalStateException(e);
+      }//end try
+   }//end HotelDriver
+
+   /**
+    * Logs the session in through the LogIn operation.
+    *
+    * @throws IllegalStateException when the user ID and password are not accepted
+    */
+   public void logIn(int userID, String password) {
+      run("LogIn", userID + "\n" + password + "\n");
+      try{
+         if (USER_ID.get(this._session) == null)
+            throw new IllegalStateException("user " + userID + " could not log in");
+      }catch (IllegalAccessException e){
+         throw new IllegalStateException(e);
+      }//end try
+   }//end logIn
+
+   /**
+    * Runs one menu operation by name with its console input, as
+    * Hotel.runOperation does.
+    *
+    * @param operation the operation name
+    * @param input the lines the operation reads, each ending with a newline
+    */
+   public void run(String operation, String input) {
+      try{
+         IN.set(this._session, new BufferedReader(new StringReader(input)));
+      }catch (IllegalAccessException e){
+         throw new IllegalStateException(e);
+      }//end try
+      if (!(Boolean) call(RUN_OPERATION, null, this._session, operation))
+         throw new IllegalArgumentException("unknown operation " + operation);
+   }//end run
+
+   public int executeQuery(String query, Object... params) throws SQLException {
+      return (Integer) callSql(EXECUTE_QUERY, query, params);
+   }
+
+   public void executeUpdate(String sql, Object... params) throws SQLException {
+      callSql(EXECUTE_UPDATE, sql, params);
+   }
+
+   @SuppressWarnings("unchecked")
+   public List<List<String>> executeQueryAndReturnResult(String query, Object... params) throws SQLException {
+      return (List<List<String>>) callSql(RETURN_RESULT, query, params);
+   }
+
+   /**
+    * Gives the session's connections back to the pool.
+    */
+   public void close() {
+      call(CLEANUP, this._session);
+   }
+
+   private Object callSql(Method method, String sql, Object[] params) throws SQLException {
+      try{
+         return method.invoke(this._session, sql, params);
+      }catch (InvocationTargetException e){
+         if (e.getCause() instanceof SQLException)
+            throw (SQLException) e.getCause();
+         throw new IllegalStateException(e.getCause());
+      }catch (IllegalAccessException e){
+         throw new IllegalStateException(e);
+      }//end try
+   }//end callSql
+
+   private static Object call(Method method, Object target, Object... args) {
+      try{
+         return method.invoke(target, args);
+      }catch (InvocationTargetException e){
+         throw new IllegalStateException(e.getCause());
+      }catch (IllegalAccessException e){
+         throw new IllegalStateException(e);
+      }//end try
+   }//end call
+
+}//end HotelDriver
@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# compile the java program together with the benchmarks
+mkdir -p $DIR/../bench-classes
+javac -d $DIR/../bench-classes -cp $DIR/../lib/pg73jdbc3.jar $DIR/../src/*.java $DIR/../bench/*.java
+
+#run one benchmark, e.g. ./bench.sh SessionBench $USER"_DB" $PGPORT $USER 101 password
+BENCH=$1
+shift
+java -cp $DIR/../bench-classes:$DIR/../lib/pg73jdbc3.jar $BENCH "$@"
@@ -0,0 +1,9 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# compile the java program
+javac -d $DIR/../classes -cp "$DIR/../lib/*" $DIR/../src/*.java
+
+#load the csv files of the given directory (default: project/data) into the database
+#Use your database name, port number and login
+java -cp $DIR/../classes:$DIR/../lib/* BulkLoader $USER"_DB" $PGPORT $USER ${1:-$DIR/../../data} $2
@@ -0,0 +1,9 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# compile the java program
+javac -d $DIR/../classes -cp "$DIR/../lib/*" $DIR/../src/*.java
+
+#run a workload file (or "synthetic") with N users at a target rate, e.g. ./workload.sh synthetic 50 200 60
+#Use your database name, port number and login
+java -cp $DIR/../classes:$DIR/../lib/* WorkloadDriver $USER"_DB" $PGPORT $USER ${1:-synthetic} $2 $3 $4
@@ -0,0 +1,357 @@
+import java.sql.SQLException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TimeZone;
+import java.util.regex.Pattern;
+
+/**
+ * This class answers room availability questions without a round trip to
+ * the database. For every hotel it keeps the sorted room numbers and prices
+ * from the Rooms table and, for every day, a bitset over those rooms with one
+ * bit set per booked room. The bitsets of one hotel live back to back in a
+ * single long[] indexed by day, so a hotel with up to 64 rooms costs one long
+ * per day no matter how many bookings it has.
+ *
+ * The calendar is loaded from Rooms and RoomBookings and shared by all
+ * sessions; bookRooms marks each successful booking and updateRoomInfo
+ * records each new price.
+ *
+ * Only the days within a number of years of today are covered, so a stray
+ * booking far in the past or future cannot grow the bitsets of its hotel
+ * without bound. Callers check covers() and answer the other days in SQL.
+ *
+ */
+public class AvailabilityCalendar {
+
+   private static final long MS_PER_DAY = 24L * 60 * 60 * 1000;
+
+   /**
+    * Default number of years before and after today that are covered.
+    */
+   public static final int DEFAULT_YEARS = 50;
+
+   // the date forms parseDate reads, with four-digit years only.
+   private static final Pattern US_DATE = Pattern.compile("\\d{1,2}/\\d{1,2}/\\d{4}");
+   private static final Pattern ISO_DATE = Pattern.compile("\\d{4}-\\d{1,2}-\\d{1,2}");
+
+   /*
+    * The rooms and booking bitsets of one hotel.
+    **/
+   private static class HotelRooms {
+      // room numbers in ascending order, a room's bit is its index here.
+      final int[] roomNumbers;
+      final int[] prices;
+      // number of longs per day.
+      final int words;
+      // epoch day of the first bitset in booked.
+      int firstDay = 0;
+      int days = 0;
+      long[] booked = new long[0];
+
+      HotelRooms(int[] roomNumbers, int[] prices) {
+         this.roomNumbers = roomNumbers;
+         this.prices = prices;
+         this.words = Math.max(1, (roomNumbers.length + 63) >>> 6);
+      }
+
+      int bit(int roomNumber) {
+         return Arrays.binarySearch(this.roomNumbers, roomNumber);
+      }
+
+      /*
+       * Index of the first long of a day's bitset, growing the array when
+       * the day lies outside the covered range. The array never grows past
+       * the days from minDay to maxDay, which must include the day.
+       */
+      int offset(int day, int minDay, int maxDay) {
+         if (this.days == 0) {
+            this.firstDay = Math.max(minDay, Math.min(day, maxDay - 63));
+            this.days = Math.min(64, maxDay - this.firstDay + 1);
+            this.booked = new long[this.words * this.days];
+         } else if (day < this.firstDay) {
+            int shift = Math.min(Math.max(this.firstDay - day, this.days / 2), this.firstDay - minDay);
+            long[] grown = new long[(this.days + shift) * this.words];
+            System.arraycopy(this.booked, 0, grown, shift * this.words, this.days * this.words);
+            this.booked = grown;
+            this.firstDay -= shift;
+            this.days += shift;
+         } else if (day >= this.firstDay + this.days) {
+            int needed = day - this.firstDay + 1;
+            if (needed * this.words > this.booked.length)
+               this.booked = Arrays.copyOf(this.booked,
+                  Math.min(Math.max(needed, this.days * 2), maxDay - this.firstDay + 1) * this.words);
+            this.days = Math.max(needed, this.booked.length / this.words);
+         }
+         return (day - this.firstDay) * this.words;
+      }
+
+      boolean isBooked(int bit, int day) {
+         if (day < this.firstDay || day >= this.firstDay + this.days)
+            return false;
+         return (this.booked[(day - this.firstDay) * this.words + (bit >>> 6)] & (1L << bit)) != 0;
+      }
+   }//end HotelRooms
+
+   private final HashMap<Integer, HotelRooms> _hotels = new HashMap<Integer, HotelRooms>();
+   // epoch days of the covered window, inclusive.
+   private final int _firstDay;
+   private final int _lastDay;
+
+   /**
+    * Creates a calendar covering DEFAULT_YEARS years either side of today.
+    */
+   public AvailabilityCalendar() {
+      this(DEFAULT_YEARS);
+   }
+
+   /**
+    * Creates a calendar covering the given number of years either side of
+    * today.
+    *
+    * @param years the years covered before and after today
+    */
+   public AvailabilityCalendar(int years) {
+      if (years < 1)
+         throw new IllegalArgumentException("years must be positive: " + years);
+      int today = (int) Math.floor(System.currentTimeMillis() / (double) MS_PER_DAY);
+      // 366 days a year keeps the window at least that many calendar years wide.
+      this._firstDay = today - 366 * years;
+      this._lastDay = today + 366 * years;
+   }
+
+   /**
+    * @return true when the calendar knows the bookings of the epoch day
+    */
+   public boolean covers(int day) {
+      return day >= this._firstDay && day <= this._lastDay;
+   }
+
+   /**
+    * Replaces the content of the calendar with the Rooms and RoomBookings
+    * tables.
+    *
+    * @param esql the session used to read the tables
+    * @throws java.sql.SQLException when the tables cannot be read
+    */
+   public void load(Hotel esql) throws SQLException {
+      // rows arrive ordered by hotel, each hotel is added once its last room is read.
+      final HashMap<Integer, HotelRooms> hotels = new HashMap<Integer, HotelRooms>();
+      final int[][] current = { new int[64], new int[64] };
+      final int[] hotel = { -1, 0 };
+      esql.streamQuery(
+         "SELECT r.hotelID, r.roomNumber, r.price FROM Rooms r ORDER BY r.hotelID, r.roomNumber",
+         new RowHandler() {
+            public void handle(ResultRow row) throws SQLException {
+               int hotelID = row.getInt(1);
+               if (hotelID != hotel[0]) {
+                  if (hotel[1] > 0)
+                     hotels.put(hotel[0], new HotelRooms(Arrays.copyOf(current[0], hotel[1]), Arrays.copyOf(current[1], hotel[1])));
+                  hotel[0] = hotelID;
+                  hotel[1] = 0;
+               }
+               if (hotel[1] == current[0].length) {
+                  current[0] = Arrays.copyOf(current[0], hotel[1] * 2);
+                  current[1] = Arrays.copyOf(current[1], hotel[1] * 2);
+               }
+               current[0][hotel[1]] = row.getInt(2);
+               current[1][hotel[1]] = row.getInt(3);
+               hotel[1]++;
+            }
+         });
+      if (hotel[1] > 0)
+         hotels.put(hotel[0], new HotelRooms(Arrays.copyOf(current[0], hotel[1]), Arrays.copyOf(current[1], hotel[1])));
+
+      // bookings are streamed straight into the bitsets, never held as rows; days outside the window stay in SQL.
+      esql.streamQuery(
+         "SELECT rb.hotelID, rb.roomNumber, rb.bookingDate - DATE '1970-01-01' FROM RoomBookings rb "
+         + "WHERE rb.bookingDate BETWEEN DATE '1970-01-01' + ? AND DATE '1970-01-01' + ?",
+         new RowHandler() {
+            public void handle(ResultRow row) throws SQLException {
+               HotelRooms rooms = hotels.get(row.getInt(1));
+               int bit = rooms == null ? -1 : rooms.bit(row.getInt(2));
+               if (bit >= 0) {
+                  int day = row.getInt(3);
+                  rooms.booked[rooms.offset(day, _firstDay, _lastDay) + (bit >>> 6)] |= 1L << bit;
+               }
+            }
+         }, this._firstDay, this._lastDay);
+      synchronized (this) {
+         this._hotels.clear();
+         this._hotels.putAll(hotels);
+      }
+   }//end load
+
+   /**
+    * Adds a hotel with its rooms, replacing what was known about it.
+    *
+    * @param hotelID the hotel
+    * @param roomNumbers its room numbers in ascending order
+    * @param prices the price of each room
+    */
+   public synchronized void addHotel(int hotelID, int[] roomNumbers, int[] prices) {
+      this._hotels.put(hotelID, new HotelRooms(roomNumbers.clone(), prices.clone()));
+   }//end addHotel
+
+   /**
+    * Marks a room as booked on a day.
+    *
+    * @return false when the room is unknown, the day is not covered or the
+    *         room was booked already
+    */
+   public synchronized boolean book(int hotelID, int roomNumber, int day) {
+      HotelRooms hotel = this._hotels.get(hotelID);
+      int bit = hotel == null ? -1 : hotel.bit(roomNumber);
+      if (bit < 0 || !covers(day))
+         return false;
+      int word = hotel.offset(day, this._firstDay, this._lastDay) + (bit >>> 6);
+      long mask = 1L << bit;
+      if ((hotel.booked[word] & mask) != 0)
+         return false;
+      hotel.booked[word] |= mask;
+      return true;
+   }//end book
+
+   /**
+    * Clears the booking of a room on a day.
+    */
+   public synchronized void cancel(int hotelID, int roomNumber, int day) {
+      HotelRooms hotel = this._hotels.get(hotelID);
+      int bit = hotel == null ? -1 : hotel.bit(roomNumber);
+      if (bit >= 0 && hotel.isBooked(bit, day))
+         hotel.booked[hotel.offset(day, this._firstDay, this._lastDay) + (bit >>> 6)] &= ~(1L << bit);
+   }//end cancel
+
+   /**
+    * Records the new price of a room.
+    */
+   public synchronized void setPrice(int hotelID, int roomNumber, int price) {
+      HotelRooms hotel = this._hotels.get(hotelID);
+      int bit = hotel == null ? -1 : hotel.bit(roomNumber);
+      if (bit >= 0)
+         hotel.prices[bit] = price;
+   }//end setPrice
+
+   /**
+    * @return the price of the room, -1 when the room is unknown
+    */
+   public synchronized int getPrice(int hotelID, int roomNumber) {
+      HotelRooms hotel = this._hotels.get(hotelID);
+      int bit = hotel == null ? -1 : hotel.bit(roomNumber);
+      return bit >= 0 ? hotel.prices[bit] : -1;
+   }
+
+   /**
+    * @return true when the hotel and room are known to the calendar
+    */
+   public synchronized boolean hasRoom(int hotelID, int roomNumber) {
+      HotelRooms hotel = this._hotels.get(hotelID);
+      return hotel != null && hotel.bit(roomNumber) >= 0;
+   }
+
+   /**
+    * @return true when the room is booked on the day, false as well for a
+    *         day the calendar does not cover
+    */
+   public synchronized boolean isBooked(int hotelID, int roomNumber, int day) {
+      HotelRooms hotel = this._hotels.get(hotelID);
+      int bit = hotel == null ? -1 : hotel.bit(roomNumber);
+      return bit >= 0 && hotel.isBooked(bit, day);
+   }
+
+   /**
+    * Lists the free or the booked rooms of a hotel on a day.
+    *
+    * @param hotelID the hotel
+    * @param day the epoch day, which must be covered
+    * @param free true for the free rooms, false for the booked ones
+    * @return pairs of room number and price, flattened as {room, price, room, price, ...}
+    */
+   public synchronized int[] rooms(int hotelID, int day, boolean free) {
+      HotelRooms hotel = this._hotels.get(hotelID);
+      if (hotel == null)
+         return new int[0];
+      int[] result = new int[hotel.roomNumbers.length * 2];
+      int n = 0;
+      for (int bit = 0; bit < hotel.roomNumbers.length; ++bit) {
+         if (hotel.isBooked(bit, day) != free) {
+            result[n++] = hotel.roomNumbers[bit];
+            result[n++] = hotel.prices[bit];
+         }
+      }
+      return Arrays.copyOf(result, n);
+   }//end rooms
+
+   /**
+    * Lists the days a room is free in a range of days.
+    *
+    * @param hotelID the hotel
+    * @param roomNumber the room
+    * @param fromDay the first epoch day, inclusive, which must be covered
+    * @param toDay the last epoch day, inclusive, which must be covered
+    * @return the free epoch days in ascending order, empty for an unknown room
+    */
+   public synchronized int[] freeDays(int hotelID, int roomNumber, int fromDay, int toDay) {
+      HotelRooms hotel = this._hotels.get(hotelID);
+      int bit = hotel == null ? -1 : hotel.bit(roomNumber);
+      if (bit < 0 || toDay < fromDay)
+         return new int[0];
+      int[] result = new int[toDay - fromDay + 1];
+      int n = 0;
+      for (int day = fromDay; day <= toDay; ++day)
+         if (!hotel.isBooked(bit, day))
+            result[n++] = day;
+      return Arrays.copyOf(result, n);
+   }//end freeDays
+
+   /**
+    * @return the bytes held by the room tables and booking bitsets
+    */
+   public synchronized long memoryBytes() {
+      long bytes = 0;
+      for (HotelRooms hotel : this._hotels.values()) {
+         // array headers plus payloads, and the map entry of the hotel.
+         bytes += 3 * 16 + 4L * hotel.roomNumbers.length + 4L * hotel.prices.length + 8L * hotel.booked.length;
+         bytes += 64;
+      }
+      return bytes;
+   }//end memoryBytes
+
+   /**
+    * Converts a date as entered in the menus or returned by Postgres
+    * (MM/DD/YYYY or YYYY-MM-DD) to an epoch day. Only the whole text in one
+    * of those forms with a four-digit year is read: SimpleDateFormat alone
+    * would ignore trailing text and read 1/1/15 as the year 15, where
+    * Postgres stores 2015, and the calendar would answer for another day.
+    * Callers leave the dates it refuses to SQL.
+    *
+    * @param date the date text
+    * @return the epoch day
+    * @throws java.lang.IllegalArgumentException when the text is not such a date
+    */
+   public static int parseDate(String date) {
+      String text = date.trim();
+      boolean us = text.indexOf('/') >= 0;
+      if (!(us ? US_DATE : ISO_DATE).matcher(text).matches())
+         throw new IllegalArgumentException("Invalid date: " + date);
+      SimpleDateFormat format = new SimpleDateFormat(us ? "MM/dd/yyyy" : "yyyy-MM-dd");
+      format.setLenient(false);
+      format.setTimeZone(TimeZone.getTimeZone("UTC"));
+      ParsePosition position = new ParsePosition(0);
+      java.util.Date parsed = format.parse(text, position);
+      if (parsed == null || position.getIndex() != text.length())
+         throw new IllegalArgumentException("Invalid date: " + date);
+      return (int) Math.floor(parsed.getTime() / (double) MS_PER_DAY);
+   }//end parseDate
+
+   /**
+    * Converts an epoch day back to MM/DD/YYYY.
+    */
+   public static String formatDate(int day) {
+      SimpleDateFormat format = new SimpleDateFormat("MM/dd/yyyy");
+      format.setTimeZone(TimeZone.getTimeZone("UTC"));
+      return format.format(new java.util.Date(day * MS_PER_DAY));
+   }//end formatDate
+
+}//end AvailabilityCalendar
@@ -0,0 +1,256 @@
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class computes occupancy and revenue reports over a BookingSnapshot:
+ * for every hotel and month (or year) the room nights available and booked,
+ * the occupancy rate, the revenue, the average daily rate and the revenue
+ * per available room (RevPAR), and for every room the share of the nights
+ * it was booked.
+ *
+ * The bookings are split into ranges that are summed in parallel on a
+ * fork/join pool, each into counters of its own, and the counters are added
+ * up as the ranges join; nothing is shared or locked while summing. Revenue
+ * is the current price of the room per booked night, the schema keeps no
+ * price history.
+ *
+ * Usage: java BookingAnalytics <dbname> <port> <user> <first date> <last date> [month|year] [threads]
+ */
+public class BookingAnalytics {
+
+   // fewest bookings a range is split into further, below it forking costs more than it gains.
+   private static final int MIN_SPLIT = 1 << 16;
+
+   /**
+    * The totals of a report.
+    */
+   public static class Report {
+      // periods, by period index: epoch day of the first day in the snapshot and number of its days.
+      public final int[] periodStart;
+      public final int[] periodDays;
+
+      // by hotel * periods + period: room nights booked and revenue.
+      public final long[] bookedNights;
+      public final long[] revenue;
+
+      // by room index: nights booked.
+      public final int[] roomNights;
+
+      // rooms by hotel index.
+      public final int[] hotelRooms;
+
+      Report(int[] periodStart, int[] periodDays, int hotels, int rooms) {
+         this.periodStart = periodStart;
+         this.periodDays = periodDays;
+         this.bookedNights = new long[hotels * periodStart.length];
+         this.revenue = new long[hotels * periodStart.length];
+         this.roomNights = new int[rooms];
+         this.hotelRooms = new int[hotels];
+      }
+
+      public int getPeriods() {
+         return this.periodStart.length;
+      }
+
+      /**
+       * @return the room nights a hotel could sell in a period
+       */
+      public long availableNights(int hotel, int period) {
+         return (long) this.hotelRooms[hotel] * this.periodDays[period];
+      }
+
+      public double occupancy(int hotel, int period) {
+         long available = availableNights(hotel, period);
+         return available == 0 ? 0 : this.bookedNights[hotel * getPeriods() + period] / (double) available;
+      }
+
+      /**
+       * @return the revenue per booked night, the average daily rate
+       */
+      public double averageRate(int hotel, int period) {
+         long booked = this.bookedNights[hotel * getPeriods() + period];
+         return booked == 0 ? 0 : this.revenue[hotel * getPeriods() + period] / (double) booked;
+      }
+
+      /**
+       * @return the revenue per available room night
+       */
+      public double revPAR(int hotel, int period) {
+         long available = availableNights(hotel, period);
+         return available == 0 ? 0 : this.revenue[hotel * getPeriods() + period] / (double) available;
+      }
+   }//end Report
+
+   private final BookingSnapshot _snapshot;
+
+   // period of every day of the snapshot.
+   private final int[] _dayPeriod;
+   private final int[] _periodStart;
+   private final int[] _periodDays;
+
+   /**
+    * Creates the reports of a snapshot
+    *
+    * @param snapshot the bookings and rooms
+    * @param yearly true for one period per calendar year, false for one per month
+    */
+   public BookingAnalytics(BookingSnapshot snapshot, boolean yearly) {
+      this._snapshot = snapshot;
+      this._dayPeriod = new int[snapshot.getDays()];
+      int[] start = new int[16], days = new int[16];
+      int periods = 0, key = -1;
+      Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+      calendar.setTimeInMillis(snapshot.getFirstDay() * 86400000L);
+      for (int day = 0; day < snapshot.getDays(); ++day) {
+         int dayKey = calendar.get(Calendar.YEAR) * 12 + (yearly ? 0 : calendar.get(Calendar.MONTH));
+         if (dayKey != key) {
+            if (periods == start.length) {
+               start = Arrays.copyOf(start, periods * 2);
+               days = Arrays.copyOf(days, periods * 2);
+            }
+            start[periods++] = snapshot.getFirstDay() + day;
+            key = dayKey;
+         }
+         days[periods - 1]++;
+         this._dayPeriod[day] = periods - 1;
+         calendar.add(Calendar.DAY_OF_MONTH, 1);
+      }
+      this._periodStart = Arrays.copyOf(start, periods);
+      this._periodDays = Arrays.copyOf(days, periods);
+   }//end BookingAnalytics
+
+   /**
+    * Computes the report on a pool.
+    *
+    * @param pool the pool the bookings are summed on, its parallelism sets how many ranges are summed at once
+    * @return the report
+    */
+   public Report compute(ForkJoinPool pool) {
+      int bookings = this._snapshot.getBookingCount();
+      // a few ranges per worker, so a worker that finishes early steals the rest of another's.
+      int split = Math.max(MIN_SPLIT, bookings / (pool.getParallelism() * 8) + 1);
+      Report report = pool.invoke(new Sum(0, bookings, split));
+      for (int room = 0; room < this._snapshot.getRoomCount(); ++room)
+         report.hotelRooms[this._snapshot.getRoomHotel(room)]++;
+      return report;
+   }//end compute
+
+   /*
+    * Sums the bookings of a range into a report of its own.
+    **/
+   private class Sum extends RecursiveTask<Report> {
+      private static final long serialVersionUID = 1L;
+
+      private final int _from;
+      private final int _to;
+      private final int _split;
+
+      Sum(int from, int to, int split) {
+         this._from = from;
+         this._to = to;
+         this._split = split;
+      }
+
+      protected Report compute() {
+         if (this._to - this._from <= this._split)
+            return sum();
+         int middle = (this._from + this._to) >>> 1;
+         Sum left = new Sum(this._from, middle, this._split);
+         left.fork();
+         Report right = new Sum(middle, this._to, this._split).compute();
+         Report total = left.join();
+         add(total.bookedNights, right.bookedNights);
+         add(total.revenue, right.revenue);
+         for (int i = 0; i < total.roomNights.length; ++i)
+            total.roomNights[i] += right.roomNights[i];
+         return total;
+      }
+
+      private Report sum() {
+         BookingSnapshot snapshot = BookingAnalytics.this._snapshot;
+         Report report = new Report(_periodStart, _periodDays, snapshot.getHotelCount(), snapshot.getRoomCount());
+         int periods = _periodStart.length;
+         int[] bookingRooms = snapshot.bookingRooms();
+         char[] bookingDays = snapshot.bookingDays();
+         int[] roomHotels = snapshot.roomHotels();
+         int[] roomPrices = snapshot.roomPrices();
+         int[] dayPeriod = _dayPeriod;
+         long[] booked = report.bookedNights, revenue = report.revenue;
+         int[] roomNights = report.roomNights;
+         for (int i = this._from; i < this._to; ++i) {
+            int room = bookingRooms[i];
+            int cell = roomHotels[room] * periods + dayPeriod[bookingDays[i]];
+            booked[cell]++;
+            revenue[cell] += roomPrices[room];
+            roomNights[room]++;
+         }
+         return report;
+      }
+
+      private void add(long[] total, long[] part) {
+         for (int i = 0; i < total.length; ++i)
+            total[i] += part[i];
+      }
+   }//end Sum
+
+   /**
+    * Prints a report: one line per hotel and period, then the booked share
+    * of every room.
+    *
+    * @param report the report of this snapshot
+    * @param out the stream to print to
+    */
+   public void print(Report report, PrintStream out) {
+      BookingSnapshot snapshot = this._snapshot;
+      out.println("hotel\tperiod\trooms\tavailable nights\tbooked nights\toccupancy %\trevenue\tADR\tRevPAR");
+      for (int hotel = 0; hotel < snapshot.getHotelCount(); ++hotel)
+         for (int period = 0; period < report.getPeriods(); ++period)
+            out.printf("%d\t%s\t%d\t%d\t%d\t%.1f\t%d\t%.2f\t%.2f%n", snapshot.getHotelID(hotel),
+                       AvailabilityCalendar.formatDate(report.periodStart[period]), report.hotelRooms[hotel],
+                       report.availableNights(hotel, period), report.bookedNights[hotel * report.getPeriods() + period],
+                       100 * report.occupancy(hotel, period), report.revenue[hotel * report.getPeriods() + period],
+                       report.averageRate(hotel, period), report.revPAR(hotel, period));
+      out.println();
+      out.println("hotel\troom\tbooked nights\tutilization %");
+      for (int room = 0; room < snapshot.getRoomCount(); ++room)
+         out.printf("%d\t%d\t%d\t%.1f%n", snapshot.getHotelID(snapshot.getRoomHotel(room)), snapshot.getRoomNumber(room),
+                    report.roomNights[room], 100.0 * report.roomNights[room] / snapshot.getDays());
+      out.flush();
+   }//end print
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 5) {
+         System.err.println("Usage: java [-classpath <classpath>] BookingAnalytics <dbname> <port> <user> <first date> <last date> [month|year] [threads]");
+         return;
+      }
+      Class.forName("org.postgresql.Driver").newInstance();
+      boolean yearly = args.length > 5 && args[5].equals("year");
+      int threads = args.length > 6 ? Integer.parseInt(args[6]) : Runtime.getRuntime().availableProcessors();
+      ConnectionPool pool = ConnectionPool.fromSystemProperties(Hotel.connectionUrl(args[0], args[1]), args[2], "");
+      Hotel esql = new Hotel(pool, new BufferedReader(new InputStreamReader(System.in)), System.out);
+      ForkJoinPool workers = new ForkJoinPool(threads);
+      try{
+         long start = System.nanoTime();
+         BookingSnapshot snapshot = BookingSnapshot.load(esql, AvailabilityCalendar.parseDate(args[3]),
+                                                         AvailabilityCalendar.parseDate(args[4]));
+         System.err.printf("%s, read in %.0f ms%n", snapshot, (System.nanoTime() - start) / 1e6);
+         BookingAnalytics analytics = new BookingAnalytics(snapshot, yearly);
+         start = System.nanoTime();
+         Report report = analytics.compute(workers);
+         System.err.printf("Summed on %d thread(s) in %.0f ms%n", threads, (System.nanoTime() - start) / 1e6);
+         analytics.print(report, System.out);
+      }finally{
+         workers.shutdown();
+         esql.cleanup();
+         pool.close();
+      }//end try
+   }//end main
+
+}//end BookingAnalytics
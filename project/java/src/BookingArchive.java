@@ -0,0 +1,581 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class writes and reads booking archives: the Users, Hotel, Rooms
+ * and RoomBookings tables in one compact binary file for offline analysis.
+ * Every table is stored column by column in fixed-width little-endian
+ * values: keys and numbers as 4-byte ints, dates as epoch days,
+ * coordinates as doubles, and text as 4-byte ids into one dictionary of
+ * distinct trimmed UTF-8 strings, so the char(50) padding of names is
+ * dropped and a user type is stored once. Passwords are not archived.
+ *
+ * The reader memory-maps the file. Its columns are IntBuffer and
+ * DoubleBuffer views on the mapped pages: nothing is copied or parsed when
+ * it opens, and scans read the values straight from the page cache.
+ * Bookings are sorted by date, so a date range is found by binary search;
+ * users and hotels are sorted by key, rooms by hotel and number.
+ *
+ * Layout: a header of 64 bytes (magic, version, the four row counts, the
+ * number of strings and the length of their text), the columns of every
+ * table in the order of WIDTHS, each starting on a multiple of 8 bytes,
+ * then the end offset of every string and the text of the strings.
+ *
+ */
+public class BookingArchive {
+
+   // "HBA1" as the first four bytes of the file.
+   public static final int MAGIC = 0x31414248;
+   public static final int VERSION = 1;
+
+   // tables, in file order.
+   public static final int USERS = 0;
+   public static final int HOTELS = 1;
+   public static final int ROOMS = 2;
+   public static final int BOOKINGS = 3;
+
+   // text and date values standing for null; null coordinates are NaN.
+   public static final int NO_STRING = -1;
+   public static final int NO_DATE = Integer.MIN_VALUE;
+
+   // bytes of every column of every table, in file order.
+   private static final int[][] WIDTHS = {
+      { 4, 4, 4 },            // Users: userID, name, userType
+      { 4, 4, 8, 8, 4, 4 },   // Hotel: hotelID, hotelName, latitude, longitude, dateEstablished, managerUserID
+      { 4, 4, 4, 4 },         // Rooms: hotelID, roomNumber, price, imageURL
+      { 4, 4, 4, 4, 4 } };    // RoomBookings: bookingID, customerID, hotelID, roomNumber, bookingDate
+
+   private static final int HEADER = 64;
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   /*
+    * Start of every column for the given row counts; the single entry after
+    * the last table is the end of the columns.
+    **/
+   private static long[][] layout(int[] rows) {
+      long[][] offsets = new long[WIDTHS.length + 1][];
+      long at = HEADER;
+      for (int table = 0; table < WIDTHS.length; ++table) {
+         offsets[table] = new long[WIDTHS[table].length];
+         for (int column = 0; column < WIDTHS[table].length; ++column) {
+            offsets[table][column] = at;
+            at = (at + (long) rows[table] * WIDTHS[table][column] + 7) & ~7L;
+         }
+      }
+      offsets[WIDTHS.length] = new long[] { at };
+      return offsets;
+   }//end layout
+
+   /**
+    * Writes an archive. The row count of every table is fixed up front, so
+    * every column has its place in the file and rows are written straight
+    * into it through mapped buffers; each table must then get exactly that
+    * many rows, in the order the reader searches them by.
+    */
+   public static class Writer {
+      private final RandomAccessFile _file;
+      private final int[] _rows;
+      private final long _columnsEnd;
+      private final ByteBuffer[][] _columns;
+      private final int[] _written = new int[WIDTHS.length];
+      private final long[] _lastKey = new long[WIDTHS.length];
+
+      // dictionary: id of every string, end offset of every string in the text, and the text.
+      private final HashMap<String, Integer> _strings = new HashMap<String, Integer>();
+      private int[] _stringEnds = new int[1024];
+      private byte[] _text = new byte[1 << 16];
+      private int _textLength = 0;
+
+      /**
+       * Creates an archive file, replacing the file if it exists
+       *
+       * @param file the file
+       * @param users the number of users that will be written
+       * @param hotels the number of hotels that will be written
+       * @param rooms the number of rooms that will be written
+       * @param bookings the number of bookings that will be written
+       * @throws java.io.IOException when the file cannot be created
+       */
+      public Writer(File file, int users, int hotels, int rooms, int bookings) throws IOException {
+         this._rows = new int[] { users, hotels, rooms, bookings };
+         long[][] layout = layout(this._rows);
+         this._columnsEnd = layout[WIDTHS.length][0];
+         this._file = new RandomAccessFile(file, "rw");
+         // no byte of an older file may survive, its header least of all.
+         this._file.setLength(0);
+         this._file.setLength(this._columnsEnd);
+         FileChannel channel = this._file.getChannel();
+         this._columns = new ByteBuffer[WIDTHS.length][];
+         for (int table = 0; table < WIDTHS.length; ++table) {
+            this._columns[table] = new ByteBuffer[WIDTHS[table].length];
+            for (int column = 0; column < WIDTHS[table].length; ++column)
+               this._columns[table][column] = channel.map(FileChannel.MapMode.READ_WRITE, layout[table][column],
+                                                          (long) this._rows[table] * WIDTHS[table][column])
+                                                     .order(ByteOrder.LITTLE_ENDIAN);
+         }
+         Arrays.fill(this._lastKey, Long.MIN_VALUE);
+      }//end Writer
+
+      /**
+       * Writes a user; users come in ascending userID.
+       */
+      public void user(int userID, String name, String userType) {
+         ByteBuffer[] columns = next(USERS, userID);
+         columns[0].putInt(userID);
+         columns[1].putInt(string(name));
+         columns[2].putInt(string(userType));
+      }//end user
+
+      /**
+       * Writes a hotel; hotels come in ascending hotelID.
+       *
+       * @param latitude the latitude, NaN for null
+       * @param longitude the longitude, NaN for null
+       * @param established the epoch day the hotel was established, NO_DATE for null
+       */
+      public void hotel(int hotelID, String hotelName, double latitude, double longitude, int established, int managerUserID) {
+         ByteBuffer[] columns = next(HOTELS, hotelID);
+         columns[0].putInt(hotelID);
+         columns[1].putInt(string(hotelName));
+         columns[2].putDouble(latitude);
+         columns[3].putDouble(longitude);
+         columns[4].putInt(established);
+         columns[5].putInt(managerUserID);
+      }//end hotel
+
+      /**
+       * Writes a room; rooms come in ascending hotelID, then roomNumber.
+       */
+      public void room(int hotelID, int roomNumber, int price, String imageURL) {
+         ByteBuffer[] columns = next(ROOMS, ((long) hotelID << 32) + roomNumber);
+         columns[0].putInt(hotelID);
+         columns[1].putInt(roomNumber);
+         columns[2].putInt(price);
+         columns[3].putInt(string(imageURL));
+      }//end room
+
+      /**
+       * Writes a booking; bookings come in ascending day.
+       *
+       * @param day the epoch day booked
+       */
+      public void booking(int bookingID, int customerID, int hotelID, int roomNumber, int day) {
+         ByteBuffer[] columns = next(BOOKINGS, day);
+         columns[0].putInt(bookingID);
+         columns[1].putInt(customerID);
+         columns[2].putInt(hotelID);
+         columns[3].putInt(roomNumber);
+         columns[4].putInt(day);
+      }//end booking
+
+      private ByteBuffer[] next(int table, long key) {
+         if (this._written[table] == this._rows[table])
+            throw new IllegalStateException("More rows than the " + this._rows[table] + " announced for table " + table);
+         // keys of users, hotels and rooms are unique, days of bookings are not.
+         if (key < this._lastKey[table] || (key == this._lastKey[table] && table != BOOKINGS))
+            throw new IllegalArgumentException("Rows of table " + table + " out of order at " + key);
+         this._lastKey[table] = key;
+         this._written[table]++;
+         return this._columns[table];
+      }//end next
+
+      /*
+       * Returns the id of a string, trimmed, adding it to the dictionary
+       * when it is new.
+       **/
+      private int string(String text) {
+         if (text == null)
+            return NO_STRING;
+         text = text.trim();
+         Integer id = this._strings.get(text);
+         if (id != null)
+            return id;
+         byte[] bytes = text.getBytes(UTF8);
+         int n = this._strings.size();
+         if (n == this._stringEnds.length)
+            this._stringEnds = Arrays.copyOf(this._stringEnds, n * 2);
+         if (this._textLength + bytes.length > this._text.length)
+            this._text = Arrays.copyOf(this._text, Math.max(this._text.length * 2, this._textLength + bytes.length));
+         System.arraycopy(bytes, 0, this._text, this._textLength, bytes.length);
+         this._textLength += bytes.length;
+         this._stringEnds[n] = this._textLength;
+         this._strings.put(text, n);
+         return n;
+      }//end string
+
+      /**
+       * Writes the dictionary and the header and closes the file.
+       *
+       * @return the size of the file in bytes
+       * @throws java.io.IOException when a table did not get its rows or the file cannot be written
+       */
+      public long close() throws IOException {
+         try{
+            for (int table = 0; table < WIDTHS.length; ++table)
+               if (this._written[table] != this._rows[table])
+                  throw new IOException("Table " + table + " got " + this._written[table] + " of its " + this._rows[table] + " rows");
+            FileChannel channel = this._file.getChannel();
+            int strings = this._strings.size();
+            ByteBuffer ends = ByteBuffer.allocate(4 * strings).order(ByteOrder.LITTLE_ENDIAN);
+            ends.asIntBuffer().put(this._stringEnds, 0, strings);
+            writeFully(channel, ends, this._columnsEnd);
+            writeFully(channel, ByteBuffer.wrap(this._text, 0, this._textLength), this._columnsEnd + 4L * strings);
+            ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION);
+            for (int rows : this._rows)
+               header.putInt(rows);
+            header.putInt(strings).putLong(this._textLength);
+            header.clear();
+            writeFully(channel, header, 0);
+            return this._columnsEnd + 4L * strings + this._textLength;
+         }finally{
+            this._file.close();
+         }//end try
+      }//end close
+
+      /**
+       * Closes the file without finishing it, after writing failed; the
+       * reader refuses the file.
+       */
+      public void abandon() {
+         try{
+            this._file.close();
+         }catch (IOException e){
+            // ignored.
+         }//end try
+      }//end abandon
+
+      private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+         while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+      }
+   }//end Writer
+
+   private final File _file;
+   private final long _bytes;
+   private final int[] _rows = new int[WIDTHS.length];
+   private final IntBuffer[][] _ints = new IntBuffer[WIDTHS.length][];
+   private final DoubleBuffer[][] _doubles = new DoubleBuffer[WIDTHS.length][];
+   private final int _strings;
+   private final IntBuffer _stringEnds;
+   private final ByteBuffer _text;
+
+   /*
+    * Maps an archive; the mappings stay valid once the file is closed.
+    **/
+   private BookingArchive(File file) throws IOException {
+      this._file = file;
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try{
+         FileChannel channel = raf.getChannel();
+         this._bytes = channel.size();
+         if (this._bytes < HEADER)
+            throw new IOException(file + " is no booking archive");
+         ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER).order(ByteOrder.LITTLE_ENDIAN);
+         if (header.getInt() != MAGIC)
+            throw new IOException(file + " is no booking archive");
+         int version = header.getInt();
+         if (version != VERSION)
+            throw new IOException(file + " is a booking archive of version " + version + ", not " + VERSION);
+         for (int table = 0; table < WIDTHS.length; ++table)
+            this._rows[table] = header.getInt();
+         this._strings = header.getInt();
+         long textLength = header.getLong();
+         long[][] layout = layout(this._rows);
+         long columnsEnd = layout[WIDTHS.length][0];
+         if (columnsEnd + 4L * this._strings + textLength != this._bytes)
+            throw new IOException(file + " is truncated or damaged");
+         for (int table = 0; table < WIDTHS.length; ++table) {
+            this._ints[table] = new IntBuffer[WIDTHS[table].length];
+            this._doubles[table] = new DoubleBuffer[WIDTHS[table].length];
+            for (int column = 0; column < WIDTHS[table].length; ++column) {
+               ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, layout[table][column],
+                                              (long) this._rows[table] * WIDTHS[table][column]).order(ByteOrder.LITTLE_ENDIAN);
+               if (WIDTHS[table][column] == 8)
+                  this._doubles[table][column] = bytes.asDoubleBuffer();
+               else
+                  this._ints[table][column] = bytes.asIntBuffer();
+            }
+         }
+         this._stringEnds = channel.map(FileChannel.MapMode.READ_ONLY, columnsEnd, 4L * this._strings)
+                                   .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+         this._text = channel.map(FileChannel.MapMode.READ_ONLY, columnsEnd + 4L * this._strings, textLength);
+      }finally{
+         raf.close();
+      }//end try
+   }//end BookingArchive
+
+   /**
+    * Opens an archive by mapping it into memory.
+    *
+    * @param file the archive
+    * @return the archive
+    * @throws java.io.IOException when the file cannot be read or is no archive of this version
+    */
+   public static BookingArchive open(File file) throws IOException {
+      return new BookingArchive(file);
+   }//end open
+
+   public int getUserCount() {
+      return this._rows[USERS];
+   }
+
+   public int getHotelCount() {
+      return this._rows[HOTELS];
+   }
+
+   public int getRoomCount() {
+      return this._rows[ROOMS];
+   }
+
+   public int getBookingCount() {
+      return this._rows[BOOKINGS];
+   }
+
+   /*
+    * The columns, by row. Each call returns a view of its own on the mapped
+    * file, so readers do not share positions; the values are not copied.
+    **/
+   public IntBuffer userIDs() {
+      return this._ints[USERS][0].duplicate();
+   }
+
+   public IntBuffer userNames() {
+      return this._ints[USERS][1].duplicate();
+   }
+
+   public IntBuffer userTypes() {
+      return this._ints[USERS][2].duplicate();
+   }
+
+   public IntBuffer hotelIDs() {
+      return this._ints[HOTELS][0].duplicate();
+   }
+
+   public IntBuffer hotelNames() {
+      return this._ints[HOTELS][1].duplicate();
+   }
+
+   public DoubleBuffer hotelLatitudes() {
+      return this._doubles[HOTELS][2].duplicate();
+   }
+
+   public DoubleBuffer hotelLongitudes() {
+      return this._doubles[HOTELS][3].duplicate();
+   }
+
+   public IntBuffer hotelEstablished() {
+      return this._ints[HOTELS][4].duplicate();
+   }
+
+   public IntBuffer hotelManagers() {
+      return this._ints[HOTELS][5].duplicate();
+   }
+
+   public IntBuffer roomHotels() {
+      return this._ints[ROOMS][0].duplicate();
+   }
+
+   public IntBuffer roomNumbers() {
+      return this._ints[ROOMS][1].duplicate();
+   }
+
+   public IntBuffer roomPrices() {
+      return this._ints[ROOMS][2].duplicate();
+   }
+
+   public IntBuffer roomImages() {
+      return this._ints[ROOMS][3].duplicate();
+   }
+
+   public IntBuffer bookingIDs() {
+      return this._ints[BOOKINGS][0].duplicate();
+   }
+
+   public IntBuffer bookingCustomers() {
+      return this._ints[BOOKINGS][1].duplicate();
+   }
+
+   public IntBuffer bookingHotels() {
+      return this._ints[BOOKINGS][2].duplicate();
+   }
+
+   public IntBuffer bookingRooms() {
+      return this._ints[BOOKINGS][3].duplicate();
+   }
+
+   public IntBuffer bookingDays() {
+      return this._ints[BOOKINGS][4].duplicate();
+   }
+
+   /**
+    * Decodes a string of the dictionary.
+    *
+    * @param id the id stored in a text column
+    * @return the text, or null for NO_STRING
+    */
+   public String string(int id) {
+      if (id == NO_STRING)
+         return null;
+      int start = id == 0 ? 0 : this._stringEnds.get(id - 1);
+      byte[] bytes = new byte[this._stringEnds.get(id) - start];
+      ByteBuffer text = this._text.duplicate();
+      text.position(start);
+      text.get(bytes);
+      return new String(bytes, UTF8);
+   }//end string
+
+   /**
+    * Looks a string up in the dictionary, comparing bytes in place, so a
+    * filter on a text column compares ids instead of strings.
+    *
+    * @param value the text, trimmed as the archive stores it
+    * @return its id, or NO_STRING when no row holds it
+    */
+   public int stringID(String value) {
+      if (value == null)
+         return NO_STRING;
+      byte[] bytes = value.trim().getBytes(UTF8);
+      int start = 0;
+      for (int id = 0; id < this._strings; ++id) {
+         int end = this._stringEnds.get(id);
+         if (end - start == bytes.length) {
+            int i = 0;
+            while (i < bytes.length && this._text.get(start + i) == bytes[i])
+               i++;
+            if (i == bytes.length)
+               return id;
+         }
+         start = end;
+      }
+      return NO_STRING;
+   }//end stringID
+
+   /**
+    * Finds the first booking on or after a day by binary search.
+    *
+    * @return the row of that booking, getBookingCount() when there is none
+    */
+   public int firstBooking(int day) {
+      IntBuffer days = this._ints[BOOKINGS][4];
+      int low = 0, high = this._rows[BOOKINGS];
+      while (low < high) {
+         int middle = (low + high) >>> 1;
+         if (days.get(middle) < day)
+            low = middle + 1;
+         else
+            high = middle;
+      }
+      return low;
+   }//end firstBooking
+
+   /**
+    * Receives the rows of a scan.
+    */
+   public interface RowVisitor {
+      /**
+       * @param row the row, to read the columns at
+       */
+      void visit(int row);
+   }//end RowVisitor
+
+   /**
+    * Visits the bookings of a date range, optionally of one hotel. The
+    * range is found by binary search and the hotel compared in the mapped
+    * column; nothing is decoded or allocated per booking.
+    *
+    * @param firstDay the first epoch day, inclusive
+    * @param lastDay the last epoch day, inclusive
+    * @param hotelID the hotel, or a negative number for every hotel
+    * @param visitor called with the row of every booking found, in date order
+    * @return the number of bookings visited
+    */
+   public long scanBookings(int firstDay, int lastDay, int hotelID, RowVisitor visitor) {
+      IntBuffer days = this._ints[BOOKINGS][4];
+      IntBuffer hotels = this._ints[BOOKINGS][2];
+      long found = 0;
+      for (int row = firstBooking(firstDay); row < this._rows[BOOKINGS] && days.get(row) <= lastDay; ++row) {
+         if (hotelID < 0 || hotels.get(row) == hotelID) {
+            visitor.visit(row);
+            found++;
+         }
+      }
+      return found;
+   }//end scanBookings
+
+   /**
+    * Finds a user by binary search.
+    *
+    * @return the row of the user, -1 when there is none
+    */
+   public int userRow(int userID) {
+      return search(this._ints[USERS][0], null, this._rows[USERS], userID, 0);
+   }
+
+   /**
+    * Finds a hotel by binary search.
+    *
+    * @return the row of the hotel, -1 when there is none
+    */
+   public int hotelRow(int hotelID) {
+      return search(this._ints[HOTELS][0], null, this._rows[HOTELS], hotelID, 0);
+   }
+
+   /**
+    * Finds a room by binary search, for instance to read the price of a
+    * booking's room.
+    *
+    * @return the row of the room, -1 when there is none
+    */
+   public int roomRow(int hotelID, int roomNumber) {
+      return search(this._ints[ROOMS][0], this._ints[ROOMS][1], this._rows[ROOMS], hotelID, roomNumber);
+   }
+
+   /*
+    * Binary search on a sorted key column, or on two columns sorted
+    * together when minor is not null.
+    **/
+   private static int search(IntBuffer major, IntBuffer minor, int rows, int majorKey, int minorKey) {
+      int low = 0, high = rows - 1;
+      while (low <= high) {
+         int middle = (low + high) >>> 1;
+         int c = compare(major.get(middle), majorKey);
+         if (c == 0 && minor != null)
+            c = compare(minor.get(middle), minorKey);
+         if (c < 0)
+            low = middle + 1;
+         else if (c > 0)
+            high = middle - 1;
+         else
+            return middle;
+      }
+      return -1;
+   }//end search
+
+   private static int compare(int a, int b) {
+      return a < b ? -1 : (a == b ? 0 : 1);
+   }
+
+   /**
+    * @return the size of the file in bytes
+    */
+   public long getBytes() {
+      return this._bytes;
+   }
+
+   public String toString() {
+      return String.format("Booking archive %s: %d user(s), %d hotel(s), %d room(s), %d booking(s), %d string(s), %.1f MB",
+                           this._file, this._rows[USERS], this._rows[HOTELS], this._rows[ROOMS], this._rows[BOOKINGS],
+                           this._strings, this._bytes / 1e6);
+   }
+
+}//end BookingArchive
@@ -0,0 +1,116 @@
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * This class exports the Users, Hotel, Rooms and RoomBookings tables into a
+ * booking archive (see BookingArchive) for offline analysis. All tables are
+ * read in one read-only repeatable-read transaction, so the archive is a
+ * consistent picture of the database even while bookings go on; each table
+ * is streamed in the order the archive keeps it and written straight into
+ * the file, so memory use does not grow with the number of bookings.
+ *
+ * Usage: java BookingExport <dbname> <port> <user> <archive file>
+ */
+public class BookingExport {
+
+   private final Hotel _esql;
+
+   public BookingExport(Hotel esql) {
+      this._esql = esql;
+   }
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 4) {
+         System.err.println("Usage: java [-classpath <classpath>] BookingExport <dbname> <port> <user> <archive file>");
+         return;
+      }
+      Class.forName("org.postgresql.Driver").newInstance();
+      ConnectionPool pool = ConnectionPool.fromSystemProperties(Hotel.connectionUrl(args[0], args[1]), args[2], "");
+      Hotel esql = new Hotel(pool, null, System.out);
+      try{
+         new BookingExport(esql).export(new File(args[3]));
+      }finally{
+         esql.cleanup();
+         pool.close();
+      }//end try
+   }//end main
+
+   /**
+    * Writes the archive.
+    *
+    * @param file the archive, replaced if it exists
+    * @return the size of the archive in bytes
+    * @throws java.sql.SQLException when a table could not be read
+    * @throws java.io.IOException when the archive could not be written
+    */
+   public long export(File file) throws SQLException, IOException {
+      long start = System.nanoTime();
+      this._esql.beginSnapshot();
+      try{
+         // counted in the snapshot the rows are read from, so the counts are exact.
+         List<String> counts = this._esql.executeQueryAndReturnResult(
+            "SELECT (SELECT COUNT(*) FROM Users), (SELECT COUNT(*) FROM Hotel), "
+            + "(SELECT COUNT(*) FROM Rooms), (SELECT COUNT(*) FROM RoomBookings)").get(0);
+         final BookingArchive.Writer writer = new BookingArchive.Writer(file, Integer.parseInt(counts.get(0)),
+            Integer.parseInt(counts.get(1)), Integer.parseInt(counts.get(2)), Integer.parseInt(counts.get(3)));
+         boolean written = false;
+         try{
+            this._esql.streamQuery(
+               "SELECT userID, name, userType FROM Users ORDER BY userID",
+               new RowHandler() {
+                  public void handle(ResultRow row) throws SQLException {
+                     writer.user(row.getInt(1), row.getString(2), row.getString(3));
+                  }
+               });
+            this._esql.streamQuery(
+               "SELECT hotelID, hotelName, latitude, longitude, dateEstablished - DATE '1970-01-01', managerUserID "
+               + "FROM Hotel ORDER BY hotelID",
+               new RowHandler() {
+                  public void handle(ResultRow row) throws SQLException {
+                     int hotelID = row.getInt(1);
+                     String name = row.getString(2);
+                     double latitude = row.getDouble(3);
+                     if (row.wasNull())
+                        latitude = Double.NaN;
+                     double longitude = row.getDouble(4);
+                     if (row.wasNull())
+                        longitude = Double.NaN;
+                     int established = row.getInt(5);
+                     if (row.wasNull())
+                        established = BookingArchive.NO_DATE;
+                     writer.hotel(hotelID, name, latitude, longitude, established, row.getInt(6));
+                  }
+               });
+            this._esql.streamQuery(
+               "SELECT hotelID, roomNumber, price, imageURL FROM Rooms ORDER BY hotelID, roomNumber",
+               new RowHandler() {
+                  public void handle(ResultRow row) throws SQLException {
+                     writer.room(row.getInt(1), row.getInt(2), row.getInt(3), row.getString(4));
+                  }
+               });
+            this._esql.streamQuery(
+               "SELECT bookingID, customerID, hotelID, roomNumber, bookingDate - DATE '1970-01-01' "
+               + "FROM RoomBookings ORDER BY bookingDate, hotelID, roomNumber",
+               new RowHandler() {
+                  public void handle(ResultRow row) throws SQLException {
+                     writer.booking(row.getInt(1), row.getInt(2), row.getInt(3), row.getInt(4), row.getInt(5));
+                  }
+               });
+            written = true;
+         }finally{
+            if (!written)
+               writer.abandon();
+         }//end try
+         long bytes = writer.close();
+         System.out.printf("Exported %s user(s), %s hotel(s), %s room(s), %s booking(s) to %s: %.1f MB in %.0f ms%n",
+                           counts.get(0), counts.get(1), counts.get(2), counts.get(3), file, bytes / 1e6,
+                           (System.nanoTime() - start) / 1e6);
+         return bytes;
+      }finally{
+         this._esql.endSnapshot();
+      }//end try
+   }//end export
+
+}//end BookingExport
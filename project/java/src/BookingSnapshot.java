@@ -0,0 +1,269 @@
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * This class is a read-only copy of the bookings and room prices of a date
+ * range, held column by column in primitive arrays for reporting. Every
+ * room gets an index with its hotel, number and price; every booking is one
+ * room index and one day, counted from the first day of the range. A
+ * booking costs 6 bytes and no object, so tens of millions fit in the heap
+ * and are scanned at memory speed by BookingAnalytics.
+ *
+ * The snapshot is read with a single statement, so rooms and bookings come
+ * from the same database snapshot, and only once: reports run on the copy
+ * instead of joining RoomBookings with Rooms on the primary every time.
+ *
+ */
+public class BookingSnapshot {
+
+   // most days a snapshot covers, a day is stored in a char.
+   public static final int MAX_DAYS = Character.MAX_VALUE + 1;
+
+   // epoch day of day 0 and number of days covered.
+   private final int _firstDay;
+   private final int _days;
+
+   // hotels in ascending order.
+   private final int[] _hotelIDs;
+
+   // rooms, by room index: index of the hotel in _hotelIDs, room number and price per night.
+   private final int[] _roomHotel;
+   private final int[] _roomNumbers;
+   private final int[] _roomPrices;
+
+   // bookings, by booking index: room index and day.
+   private final int[] _bookingRoom;
+   private final char[] _bookingDay;
+   private final int _bookings;
+
+   /*
+    * Creates a snapshot from its columns, which it takes over.
+    **/
+   BookingSnapshot(int firstDay, int days, int[] hotelIDs, int[] roomHotel, int[] roomNumbers, int[] roomPrices,
+                   int[] bookingRoom, char[] bookingDay, int bookings) {
+      this._firstDay = firstDay;
+      this._days = days;
+      this._hotelIDs = hotelIDs;
+      this._roomHotel = roomHotel;
+      this._roomNumbers = roomNumbers;
+      this._roomPrices = roomPrices;
+      this._bookingRoom = bookingRoom;
+      this._bookingDay = bookingDay;
+      this._bookings = bookings;
+   }//end BookingSnapshot
+
+   /**
+    * Reads the rooms of every hotel and their bookings between two dates.
+    *
+    * @param esql the session to read on
+    * @param firstDay the first epoch day, inclusive
+    * @param lastDay the last epoch day, inclusive
+    * @return the snapshot
+    * @throws java.sql.SQLException when the tables cannot be read
+    */
+   public static BookingSnapshot load(Hotel esql, final int firstDay, int lastDay) throws SQLException {
+      final int days = lastDay - firstDay + 1;
+      if (days < 1 || days > MAX_DAYS)
+         throw new IllegalArgumentException("A snapshot covers 1 to " + MAX_DAYS + " days, not " + days);
+      final Builder builder = new Builder();
+      // one statement, so rooms and bookings are one consistent snapshot; a room without bookings comes once with no day.
+      esql.streamQuery(
+         "SELECT r.hotelID, r.roomNumber, r.price, rb.bookingDate - DATE '1970-01-01' FROM Rooms r "
+         + "LEFT JOIN RoomBookings rb ON rb.hotelID = r.hotelID AND rb.roomNumber = r.roomNumber "
+         + "AND rb.bookingDate BETWEEN DATE '1970-01-01' + ? AND DATE '1970-01-01' + ?",
+         new RowHandler() {
+            public void handle(ResultRow row) throws SQLException {
+               int room = builder.room(row.getInt(1), row.getInt(2), row.getInt(3));
+               int day = row.getInt(4);
+               if (!row.wasNull())
+                  builder.booking(room, (char) (day - firstDay));
+            }
+         }, firstDay, lastDay);
+      return builder.build(firstDay, days);
+   }//end load
+
+   /*
+    * Collects rooms and bookings as they are read, growing the columns.
+    **/
+   static class Builder {
+      private final RoomIndex _index = new RoomIndex();
+      private final HashSet<Integer> _hotels = new HashSet<Integer>();
+      private int[] _roomHotelID = new int[1024];
+      private int[] _roomNumbers = new int[1024];
+      private int[] _roomPrices = new int[1024];
+      private int _rooms = 0;
+      private int[] _bookingRoom = new int[1 << 16];
+      private char[] _bookingDay = new char[1 << 16];
+      private int _bookings = 0;
+
+      /*
+       * Returns the index of a room, adding it when it is new.
+       */
+      int room(int hotelID, int roomNumber, int price) {
+         long key = ((long) hotelID << 32) | (roomNumber & 0xffffffffL);
+         int room = this._index.get(key);
+         if (room >= 0)
+            return room;
+         if (this._rooms == this._roomNumbers.length) {
+            this._roomHotelID = Arrays.copyOf(this._roomHotelID, this._rooms * 2);
+            this._roomNumbers = Arrays.copyOf(this._roomNumbers, this._rooms * 2);
+            this._roomPrices = Arrays.copyOf(this._roomPrices, this._rooms * 2);
+         }
+         this._roomHotelID[this._rooms] = hotelID;
+         this._roomNumbers[this._rooms] = roomNumber;
+         this._roomPrices[this._rooms] = price;
+         this._hotels.add(hotelID);
+         this._index.put(key, this._rooms);
+         return this._rooms++;
+      }
+
+      void booking(int room, char day) {
+         if (this._bookings == this._bookingRoom.length) {
+            int grown = (int) Math.min(Integer.MAX_VALUE - 8, this._bookings * 2L);
+            this._bookingRoom = Arrays.copyOf(this._bookingRoom, grown);
+            this._bookingDay = Arrays.copyOf(this._bookingDay, grown);
+         }
+         this._bookingRoom[this._bookings] = room;
+         this._bookingDay[this._bookings] = day;
+         this._bookings++;
+      }
+
+      BookingSnapshot build(int firstDay, int days) {
+         int[] hotelIDs = new int[this._hotels.size()];
+         int n = 0;
+         for (int hotelID : this._hotels)
+            hotelIDs[n++] = hotelID;
+         Arrays.sort(hotelIDs);
+         int[] roomHotel = new int[this._rooms];
+         for (int i = 0; i < this._rooms; ++i)
+            roomHotel[i] = Arrays.binarySearch(hotelIDs, this._roomHotelID[i]);
+         return new BookingSnapshot(firstDay, days, hotelIDs, roomHotel, Arrays.copyOf(this._roomNumbers, this._rooms),
+                                    Arrays.copyOf(this._roomPrices, this._rooms), this._bookingRoom, this._bookingDay,
+                                    this._bookings);
+      }
+   }//end Builder
+
+   /*
+    * An open-addressing map from room keys to room indexes, so looking up
+    * the room of every booking read allocates nothing.
+    **/
+   private static class RoomIndex {
+      private long[] _keys = new long[1 << 12];
+      private int[] _values = new int[1 << 12];
+      private boolean[] _used = new boolean[1 << 12];
+      private int _size = 0;
+
+      int get(long key) {
+         int mask = this._keys.length - 1;
+         for (int slot = hash(key) & mask; this._used[slot]; slot = (slot + 1) & mask)
+            if (this._keys[slot] == key)
+               return this._values[slot];
+         return -1;
+      }
+
+      void put(long key, int value) {
+         if (2 * (this._size + 1) > this._keys.length)
+            grow();
+         int mask = this._keys.length - 1;
+         int slot = hash(key) & mask;
+         while (this._used[slot])
+            slot = (slot + 1) & mask;
+         this._keys[slot] = key;
+         this._values[slot] = value;
+         this._used[slot] = true;
+         this._size++;
+      }
+
+      private void grow() {
+         long[] keys = this._keys;
+         int[] values = this._values;
+         boolean[] used = this._used;
+         this._keys = new long[keys.length * 2];
+         this._values = new int[keys.length * 2];
+         this._used = new boolean[keys.length * 2];
+         this._size = 0;
+         for (int i = 0; i < keys.length; ++i)
+            if (used[i])
+               put(keys[i], values[i]);
+      }
+
+      private static int hash(long key) {
+         long h = key * 0x9E3779B97F4A7C15L;
+         return (int) (h ^ (h >>> 32));
+      }
+   }//end RoomIndex
+
+   public int getFirstDay() {
+      return this._firstDay;
+   }
+
+   public int getDays() {
+      return this._days;
+   }
+
+   public int getHotelCount() {
+      return this._hotelIDs.length;
+   }
+
+   public int getHotelID(int hotel) {
+      return this._hotelIDs[hotel];
+   }
+
+   public int getRoomCount() {
+      return this._roomNumbers.length;
+   }
+
+   /**
+    * @return the index of the hotel of a room in getHotelID
+    */
+   public int getRoomHotel(int room) {
+      return this._roomHotel[room];
+   }
+
+   public int getRoomNumber(int room) {
+      return this._roomNumbers[room];
+   }
+
+   public int getRoomPrice(int room) {
+      return this._roomPrices[room];
+   }
+
+   public int getBookingCount() {
+      return this._bookings;
+   }
+
+   /*
+    * The columns themselves, for the aggregation to scan without a call per
+    * booking; they must not be changed.
+    **/
+   int[] roomHotels() {
+      return this._roomHotel;
+   }
+
+   int[] roomPrices() {
+      return this._roomPrices;
+   }
+
+   int[] bookingRooms() {
+      return this._bookingRoom;
+   }
+
+   char[] bookingDays() {
+      return this._bookingDay;
+   }
+
+   /**
+    * @return the bytes held by the columns
+    */
+   public long getBytes() {
+      return 4L * (this._hotelIDs.length + 3L * this._roomNumbers.length) + 6L * this._bookingRoom.length;
+   }
+
+   public String toString() {
+      return String.format("Booking snapshot: %d hotel(s), %d room(s), %d booking(s) over %d day(s) from %s, %.1f MB",
+                           this._hotelIDs.length, this._roomNumbers.length, this._bookings, this._days,
+                           AvailabilityCalendar.formatDate(this._firstDay), getBytes() / 1e6);
+   }
+
+}//end BookingSnapshot
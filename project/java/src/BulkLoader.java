@@ -0,0 +1,511 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class seeds the Hotel database from CSV files on the client machine.
+ * The files are streamed to the server through the JDBC COPY API, tables that
+ * do not reference each other are loaded in parallel, large files are split
+ * into several COPY streams, secondary indexes are dropped for the load and
+ * rebuilt afterwards, and every serial sequence is set past the highest
+ * loaded key. Yearly partitions of RoomBookings are created for the years
+ * in the file before it is loaded.
+ *
+ * COPY needs a PostgreSQL JDBC driver with org.postgresql.copy.CopyManager
+ * (8.4 or newer). With the bundled pg73 driver the rows are sent as batched
+ * INSERTs instead, which is slower but still parallel.
+ *
+ * Usage: java BulkLoader <dbname> <port> <user> <csv directory> [threads]
+ */
+public class BulkLoader {
+
+   /*
+    * A table, its CSV file and its serial key, in foreign-key order: a table
+    * only references tables of lower levels, so one level loads in parallel.
+    * Tables partitioned by year name the CSV column of their partition key.
+    **/
+   private static final Object[][] TABLES = {
+      // table, file, level, serial column, partition key column
+      { "Users",              "users.csv",              0, "userID",        null },
+      { "MaintenanceCompany", "company.csv",            0, null,            null },
+      { "Hotel",              "hotels.csv",             1, null,            null },
+      { "Rooms",              "rooms.csv",              2, null,            null },
+      { "RoomBookings",       "bookings.csv",           3, "bookingID",     4 },
+      { "RoomRepairs",        "roomRepairs.csv",        3, "repairID",      null },
+      { "RoomUpdatesLog",     "roomUpdatesLog.csv",     3, "updateNumber",  null },
+      { "RoomRepairRequests", "roomRepairRequests.csv", 4, "requestNumber", null },
+   };
+
+   // files larger than this are split into several COPY streams.
+   private static final long CHUNK_BYTES = 64L * 1024 * 1024;
+
+   // rows per executeBatch in the INSERT fallback.
+   private static final int BATCH_ROWS = 1000;
+
+   private final ConnectionPool _pool;
+   private final File _directory;
+   private final int _threads;
+
+   /**
+    * Creates a new loader
+    *
+    * @param pool the pool the load connections are borrowed from
+    * @param directory the directory holding the CSV files
+    * @param threads the number of COPY streams run at the same time
+    */
+   public BulkLoader(ConnectionPool pool, File directory, int threads) {
+      this._pool = pool;
+      this._directory = directory;
+      this._threads = Math.max(1, threads);
+   }//end BulkLoader
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 4) {
+         System.err.println("Usage: java [-classpath <classpath>] BulkLoader <dbname> <port> <user> <csv directory> [threads]");
+         return;
+      }
+      Class.forName("org.postgresql.Driver").newInstance();
+      int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+      ConnectionPool pool = new ConnectionPool(Hotel.connectionUrl(args[0], args[1]), args[2], "",
+                                               threads + 1, ConnectionPool.DEFAULT_ACQUIRE_TIMEOUT_MS, 0);
+      try{
+         new BulkLoader(pool, new File(args[3]), threads).load();
+      }finally{
+         pool.close();
+      }//end try
+   }//end main
+
+   /**
+    * Loads every table whose CSV file exists in the directory.
+    *
+    * @throws java.lang.Exception when a table fails to load
+    */
+   public void load() throws Exception {
+      System.out.println("Loading from " + this._directory + " with " + this._threads + " stream(s) using "
+                         + (copySupported() ? "COPY" : "batched INSERT (driver has no CopyManager)"));
+      long start = System.nanoTime();
+      List<String> indexes = dropSecondaryIndexes();
+
+      ExecutorService executor = Executors.newFixedThreadPool(this._threads);
+      try{
+         for (int level = 0; level <= 4; ++level) {
+            List<Object[]> tables = new ArrayList<Object[]>();
+            List<List<Future<long[]>>> chunks = new ArrayList<List<Future<long[]>>>();
+            for (Object[] table : TABLES) {
+               if ((Integer) table[2] != level)
+                  continue;
+               File file = new File(this._directory, (String) table[1]);
+               if (!file.exists()) {
+                  System.out.println("  " + table[0] + ": " + file + " not found, skipped");
+                  continue;
+               }
+               tables.add(table);
+               if (table[4] != null)
+                  createPartitions((String) table[0], file, (Integer) table[4]);
+               chunks.add(submitChunks(executor, (String) table[0], file));
+            }
+            // the next level references this one, so wait for all of it.
+            for (int i = 0; i < tables.size(); ++i) {
+               // from the start of the table's first chunk to the end of its last, not counting the wait for other tables.
+               long rows = 0, first = Long.MAX_VALUE, last = Long.MIN_VALUE;
+               for (Future<long[]> chunk : chunks.get(i)) {
+                  long[] loaded = chunk.get();
+                  rows += loaded[0];
+                  first = Math.min(first, loaded[1]);
+                  last = Math.max(last, loaded[2]);
+               }
+               double seconds = Math.max(1, last - first) / 1e9;
+               System.out.printf("  %-20s %,12d rows %8.2f s %,12.0f rows/sec (%d stream(s))%n",
+                                 tables.get(i)[0], rows, seconds, rows / seconds, chunks.get(i).size());
+            }
+         }
+      }finally{
+         executor.shutdown();
+      }//end try
+
+      long indexStart = System.nanoTime();
+      rebuildIndexes(indexes);
+      if (!indexes.isEmpty())
+         System.out.printf("  rebuilt %d index(es) in %.2f s%n", indexes.size(), (System.nanoTime() - indexStart) / 1e9);
+      resetSequences();
+      notifyResync();
+      System.out.printf("Done in %.2f s%n", (System.nanoTime() - start) / 1e9);
+   }//end load
+
+   /*
+    * Creates the yearly partitions covering the dates of a CSV column
+    * before the file is loaded, so no row lands in the default partition.
+    * Does nothing when the table is not partitioned.
+    **/
+   private void createPartitions(String table, File file, int column) throws Exception {
+      StatementCache statements = this._pool.acquire();
+      try{
+         Connection connection = statements.getConnection();
+         PreparedStatement partitioned = connection.prepareStatement(
+            "SELECT 1 FROM pg_partitioned_table p WHERE p.partrelid = CAST(? AS regclass)");
+         partitioned.setString(1, table.toLowerCase());
+         ResultSet rs = partitioned.executeQuery();
+         boolean isPartitioned = rs.next();
+         rs.close();
+         partitioned.close();
+         if (!isPartitioned)
+            return;
+
+         int firstYear = Integer.MAX_VALUE, lastYear = Integer.MIN_VALUE;
+         BufferedReader lines = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), 1 << 16);
+         try{
+            lines.readLine();
+            for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+               List<String> values = parseCsvLine(line);
+               if (values.size() <= column || values.get(column).length() == 0)
+                  continue;
+               // M/D/YYYY as in the files, or YYYY-MM-DD.
+               String date = values.get(column).trim();
+               int year = Integer.parseInt(date.indexOf('/') >= 0 ? date.substring(date.lastIndexOf('/') + 1) : date.substring(0, 4));
+               firstYear = Math.min(firstYear, year);
+               lastYear = Math.max(lastYear, year);
+            }
+         }finally{
+            lines.close();
+         }//end try
+         if (firstYear > lastYear)
+            return;
+
+         PreparedStatement create = connection.prepareStatement("SELECT create_booking_partitions(?, ?)");
+         create.setInt(1, firstYear);
+         create.setInt(2, lastYear);
+         rs = create.executeQuery();
+         rs.next();
+         System.out.println("  " + table + ": " + rs.getInt(1) + " new partition(s) for " + firstYear + "-" + lastYear);
+         rs.close();
+         create.close();
+      }finally{
+         this._pool.release(statements);
+      }//end try
+   }//end createPartitions
+
+   /*
+    * Splits a file at line boundaries into chunks of about CHUNK_BYTES and
+    * submits one load task per chunk. The header line is never loaded.
+    * Each task returns the rows it loaded and the times it started and
+    * finished, in System.nanoTime.
+    **/
+   private List<Future<long[]>> submitChunks(ExecutorService executor, final String table, final File file)
+         throws IOException {
+      List<Long> bounds = new ArrayList<Long>();
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try{
+         long length = raf.length();
+         raf.readLine();
+         bounds.add(raf.getFilePointer());
+         int pieces = (int) Math.min(this._threads, Math.max(1, length / CHUNK_BYTES));
+         for (int i = 1; i < pieces; ++i) {
+            raf.seek(length * i / pieces);
+            raf.readLine();
+            if (raf.getFilePointer() > bounds.get(bounds.size() - 1) && raf.getFilePointer() < length)
+               bounds.add(raf.getFilePointer());
+         }
+         bounds.add(length);
+      }finally{
+         raf.close();
+      }//end try
+
+      List<Future<long[]>> chunks = new ArrayList<Future<long[]>>();
+      for (int i = 0; i + 1 < bounds.size(); ++i) {
+         final long from = bounds.get(i), to = bounds.get(i + 1);
+         chunks.add(executor.submit(new java.util.concurrent.Callable<long[]>() {
+            public long[] call() throws Exception {
+               long start = System.nanoTime();
+               long rows = loadChunk(table, file, from, to);
+               return new long[] { rows, start, System.nanoTime() };
+            }
+         }));
+      }
+      return chunks;
+   }//end submitChunks
+
+   /*
+    * Streams the bytes [from, to) of a CSV file into a table in one
+    * transaction.
+    **/
+   private long loadChunk(String table, File file, long from, long to) throws Exception {
+      StatementCache statements = this._pool.acquire();
+      Connection connection = statements.getConnection();
+      InputStream in = new RangeInputStream(file, from, to);
+      try{
+         Statement stmt = connection.createStatement();
+         // the CSV files write dates as M/D/YYYY.
+         stmt.execute("SET DateStyle = 'ISO, MDY'");
+         stmt.close();
+         connection.setAutoCommit(false);
+         // one NOTIFY per loaded row would flood the change feed, running instances resynchronize once at the end.
+         stmt = connection.createStatement();
+         stmt.execute("SET LOCAL hotel.changefeed = 'off'");
+         stmt.close();
+         Reader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"), 1 << 16);
+         long rows = copySupported()
+            ? copyIn(connection, "COPY " + table + " FROM STDIN WITH DELIMITER ',' CSV", reader)
+            : insertBatches(connection, table, reader);
+         connection.commit();
+         return rows;
+      }catch (Exception e){
+         connection.rollback();
+         throw new SQLException("Loading " + table + " failed: " + e.getMessage());
+      }finally{
+         in.close();
+         this._pool.release(statements);
+      }//end try
+   }//end loadChunk
+
+   /**
+    * @return true when the JDBC driver on the classpath has the COPY API
+    */
+   public static boolean copySupported() {
+      try{
+         Class.forName("org.postgresql.copy.CopyManager");
+         return true;
+      }catch (ClassNotFoundException e){
+         return false;
+      }//end try
+   }//end copySupported
+
+   /*
+    * Runs COPY ... FROM STDIN through the driver's CopyManager. The driver
+    * is only known at run time, so the API is reached by reflection.
+    **/
+   private static long copyIn(Connection connection, String sql, Reader reader) throws Exception {
+      Class<?> pgConnection = Class.forName("org.postgresql.PGConnection");
+      Object target = connection;
+      if (!pgConnection.isInstance(target))
+         target = Connection.class.getMethod("unwrap", Class.class).invoke(connection, pgConnection);
+      Object copyManager = pgConnection.getMethod("getCopyAPI").invoke(target);
+      Method copyIn = copyManager.getClass().getMethod("copyIn", String.class, Reader.class);
+      return (Long) copyIn.invoke(copyManager, sql, reader);
+   }//end copyIn
+
+   /*
+    * Sends CSV rows as batched INSERTs, casting every value from text to the
+    * type of its column.
+    **/
+   private static long insertBatches(Connection connection, String table, Reader reader) throws Exception {
+      List<String> types = new ArrayList<String>();
+      PreparedStatement columns = connection.prepareStatement(
+         "SELECT format_type(a.atttypid, a.atttypmod) FROM pg_attribute a " +
+         "WHERE a.attrelid = CAST(? AS regclass) AND a.attnum > 0 AND NOT a.attisdropped ORDER BY a.attnum");
+      columns.setString(1, table.toLowerCase());
+      ResultSet rs = columns.executeQuery();
+      while (rs.next())
+         types.add(rs.getString(1));
+      rs.close();
+      columns.close();
+
+      StringBuilder sql = new StringBuilder("INSERT INTO " + table + " VALUES (");
+      for (int i = 0; i < types.size(); ++i)
+         sql.append(i == 0 ? "" : ", ").append("CAST(? AS ").append(types.get(i)).append(")");
+      PreparedStatement insert = connection.prepareStatement(sql.append(")").toString());
+
+      BufferedReader lines = new BufferedReader(reader);
+      long rows = 0;
+      for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+         if (line.length() == 0)
+            continue;
+         List<String> values = parseCsvLine(line);
+         for (int i = 0; i < types.size(); ++i) {
+            String value = i < values.size() ? values.get(i) : null;
+            insert.setString(i + 1, value == null || value.length() == 0 ? null : value);
+         }
+         insert.addBatch();
+         if (++rows % BATCH_ROWS == 0)
+            insert.executeBatch();
+      }
+      insert.executeBatch();
+      insert.close();
+      return rows;
+   }//end insertBatches
+
+   /*
+    * Splits one CSV line, honouring double-quoted values.
+    **/
+   static List<String> parseCsvLine(String line) {
+      List<String> values = new ArrayList<String>();
+      StringBuilder value = new StringBuilder();
+      boolean quoted = false;
+      for (int i = 0; i < line.length(); ++i) {
+         char c = line.charAt(i);
+         if (quoted) {
+            if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+               value.append('"');
+               ++i;
+            } else if (c == '"') {
+               quoted = false;
+            } else {
+               value.append(c);
+            }
+         } else if (c == '"') {
+            quoted = true;
+         } else if (c == ',') {
+            values.add(value.toString());
+            value.setLength(0);
+         } else if (c != '\r') {
+            value.append(c);
+         }
+      }
+      values.add(value.toString());
+      return values;
+   }//end parseCsvLine
+
+   /*
+    * Drops the indexes of the loaded tables that do not back a constraint
+    * and returns their definitions for rebuildIndexes. Primary keys and
+    * unique constraints stay, foreign keys need them.
+    **/
+   private List<String> dropSecondaryIndexes() throws SQLException {
+      List<String> definitions = new ArrayList<String>();
+      List<String> names = new ArrayList<String>();
+      StatementCache statements = this._pool.acquire();
+      try{
+         Statement stmt = statements.getConnection().createStatement();
+         StringBuilder tables = new StringBuilder();
+         for (Object[] table : TABLES)
+            tables.append(tables.length() == 0 ? "'" : ", '").append(((String) table[0]).toLowerCase()).append("'");
+         ResultSet rs = stmt.executeQuery(
+            "SELECT i.indexname, i.indexdef FROM pg_indexes i " +
+            "WHERE i.schemaname = current_schema() AND i.tablename IN (" + tables + ") " +
+            "AND NOT EXISTS (SELECT 1 FROM pg_constraint c WHERE c.conname = i.indexname)");
+         while (rs.next()) {
+            names.add(rs.getString(1));
+            definitions.add(rs.getString(2));
+         }
+         rs.close();
+         for (String name : names)
+            stmt.executeUpdate("DROP INDEX " + name);
+         stmt.close();
+      }finally{
+         this._pool.release(statements);
+      }//end try
+      if (!names.isEmpty())
+         System.out.println("  dropped " + names.size() + " secondary index(es) for the load");
+      return definitions;
+   }//end dropSecondaryIndexes
+
+   /*
+    * Recreates the dropped indexes, several at a time.
+    **/
+   private void rebuildIndexes(List<String> definitions) throws Exception {
+      ExecutorService executor = Executors.newFixedThreadPool(this._threads);
+      try{
+         List<Future<Object>> builds = new ArrayList<Future<Object>>();
+         for (final String definition : definitions) {
+            builds.add(executor.submit(new java.util.concurrent.Callable<Object>() {
+               public Object call() throws Exception {
+                  StatementCache statements = _pool.acquire();
+                  try{
+                     Statement stmt = statements.getConnection().createStatement();
+                     stmt.executeUpdate(definition);
+                     stmt.close();
+                  }finally{
+                     _pool.release(statements);
+                  }//end try
+                  return null;
+               }
+            }));
+         }
+         for (Future<Object> build : builds)
+            build.get();
+      }finally{
+         executor.shutdown();
+      }//end try
+   }//end rebuildIndexes
+
+   /*
+    * Moves every serial sequence to max(key)+1 of its table and refreshes
+    * the planner statistics of the loaded tables.
+    **/
+   private void resetSequences() throws SQLException {
+      StatementCache statements = this._pool.acquire();
+      try{
+         Statement stmt = statements.getConnection().createStatement();
+         for (Object[] table : TABLES) {
+            String name = (String) table[0], column = (String) table[3];
+            if (column != null) {
+               ResultSet rs = stmt.executeQuery(String.format(
+                  "SELECT setval(pg_get_serial_sequence('%s', '%s'), COALESCE(MAX(%s), 0) + 1, false) FROM %s",
+                  name.toLowerCase(), column.toLowerCase(), column, name));
+               rs.next();
+               System.out.println("  " + name + "." + column + " sequence restarts at " + rs.getLong(1));
+               rs.close();
+            }
+            stmt.executeUpdate("ANALYZE " + name);
+         }
+         stmt.close();
+      }finally{
+         this._pool.release(statements);
+      }//end try
+   }//end resetSequences
+
+   /*
+    * Tells running instances to reload their caches; the rows were loaded
+    * without change notifications.
+    **/
+   private void notifyResync() throws SQLException {
+      StatementCache statements = this._pool.acquire();
+      try{
+         Statement stmt = statements.getConnection().createStatement();
+         stmt.execute("NOTIFY " + ChangeFeed.CHANNEL + ", '*'");
+         stmt.close();
+      }finally{
+         this._pool.release(statements);
+      }//end try
+   }//end notifyResync
+
+   /*
+    * The bytes [from, to) of a file.
+    **/
+   private static class RangeInputStream extends InputStream {
+      private final FileInputStream _in;
+      private long _remaining;
+
+      RangeInputStream(File file, long from, long to) throws IOException {
+         this._in = new FileInputStream(file);
+         this._in.getChannel().position(from);
+         this._remaining = to - from;
+      }
+
+      public int read() throws IOException {
+         if (this._remaining <= 0)
+            return -1;
+         this._remaining--;
+         return this._in.read();
+      }
+
+      public int read(byte[] b, int off, int len) throws IOException {
+         if (this._remaining <= 0)
+            return -1;
+         int n = this._in.read(b, off, (int) Math.min(len, this._remaining));
+         if (n > 0)
+            this._remaining -= n;
+         return n;
+      }
+
+      public void close() throws IOException {
+         this._in.close();
+      }
+   }//end RangeInputStream
+
+}//end BulkLoader
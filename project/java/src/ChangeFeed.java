@@ -0,0 +1,378 @@
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This class follows the changes other instances of the program make to
+ * Hotel, Rooms and RoomBookings, so the data kept in this process can be
+ * kept in step with the database. The triggers of create_tables.sql send
+ * every changed row as a NOTIFY on the channel hotel_changes; a listener
+ * thread, on a connection of its own, hands each of them to the registered
+ * consumers. Changes made through this instance's own pool are skipped, its
+ * caches were updated when it wrote them.
+ *
+ * Notifications sent while the listener is disconnected are lost, so after
+ * every reconnect the consumers are told to resynchronize fully. Drivers
+ * older than 8.0 do not deliver payloads; every notification then asks for
+ * a resynchronization, at most one per poll.
+ *
+ * Payloads are comma-separated, the table and operation first:
+ * h,I|U|D,hotelID,managerUserID,oldManagerUserID;
+ * r,I|U|D,hotelID,roomNumber,price;
+ * b,I|D,hotelID,roomNumber,day,customerID,bookingID and
+ * b,U,hotelID,roomNumber,day,customerID,bookingID,oldHotelID,oldRoomNumber,oldDay,oldCustomerID,
+ * with days counted from 1970-01-01; a lone * asks for a resynchronization.
+ *
+ */
+public class ChangeFeed {
+
+   // channel the triggers notify on.
+   public static final String CHANNEL = "hotel_changes";
+
+   // default time the listener waits for notifications before looking again.
+   public static final long DEFAULT_POLL_MS = 50;
+
+   // default time between two attempts to reconnect.
+   public static final long DEFAULT_RETRY_MS = 1000;
+
+   /**
+    * A row changed by another instance.
+    */
+   public static class Change {
+      // 'h' for Hotel, 'r' for Rooms, 'b' for RoomBookings.
+      public final char table;
+      // 'I', 'U' or 'D'.
+      public final char operation;
+      // the columns of the payload after the table and operation.
+      public final int[] values;
+
+      Change(char table, char operation, int[] values) {
+         this.table = table;
+         this.operation = operation;
+         this.values = values;
+      }
+
+      public String toString() {
+         StringBuilder text = new StringBuilder().append(this.table).append(',').append(this.operation);
+         for (int value : this.values)
+            text.append(',').append(value);
+         return text.toString();
+      }
+   }//end Change
+
+   /**
+    * Receives the changes, on the listener thread.
+    */
+   public interface Consumer {
+      /**
+       * Applies a change of another instance.
+       *
+       * @throws java.sql.SQLException when the change could not be applied; a resynchronization follows
+       */
+      void changed(Change change) throws SQLException;
+
+      /**
+       * Ends a batch of changes received together, so work they have in
+       * common, such as a reload, is done once per batch.
+       */
+      void flush() throws SQLException;
+
+      /**
+       * Reloads everything, changes may have been missed.
+       */
+      void resync() throws SQLException;
+   }//end Consumer
+
+   // PGConnection.getNotifications(int) of drivers 42.2 and newer, which waits for notifications, or null.
+   private static final Method WAIT = method(org.postgresql.PGConnection.class, "getNotifications", int.class);
+
+   // PGNotification.getParameter() of drivers 8.0 and newer, the payload, or null.
+   private static final Method PAYLOAD = method(org.postgresql.PGNotification.class, "getParameter");
+
+   private final ConnectionPool _pool;
+   private final long _pollMs;
+   private final long _retryMs;
+   private final List<Consumer> _consumers = new CopyOnWriteArrayList<Consumer>();
+   private Thread _listener = null;
+   private volatile boolean _closed = false;
+
+   // backend of the listening connection, 0 while disconnected.
+   private volatile int _backendPID = 0;
+
+   // set when a change could not be applied or has no payload.
+   private boolean _resyncPending = false;
+
+   private long _received = 0;
+   private long _skipped = 0;
+   private long _applied = 0;
+   private long _resyncs = 0;
+   private long _connects = 0;
+
+   /**
+    * Creates a change feed, which does nothing until started
+    *
+    * @param pool the pool of this instance; changes of its connections are skipped
+    * @param pollMs the time the listener waits for notifications before looking again
+    * @param retryMs the time between two attempts to reconnect
+    */
+   public ChangeFeed(ConnectionPool pool, long pollMs, long retryMs) {
+      this._pool = pool;
+      this._pollMs = Math.max(1, pollMs);
+      this._retryMs = Math.max(1, retryMs);
+   }//end ChangeFeed
+
+   /**
+    * Creates a change feed configured from the system properties
+    * hotel.changeFeedPollMs and hotel.changeFeedRetryMs.
+    */
+   public static ChangeFeed fromSystemProperties(ConnectionPool pool) {
+      return new ChangeFeed(pool, Long.getLong("hotel.changeFeedPollMs", DEFAULT_POLL_MS),
+                            Long.getLong("hotel.changeFeedRetryMs", DEFAULT_RETRY_MS));
+   }//end fromSystemProperties
+
+   public void register(Consumer consumer) {
+      this._consumers.add(consumer);
+   }
+
+   /**
+    * Starts the listener thread.
+    */
+   public synchronized void start() {
+      if (this._listener != null)
+         return;
+      this._listener = new Thread(new Runnable() {
+         public void run() {
+            listen();
+         }
+      }, "change-feed");
+      this._listener.setDaemon(true);
+      this._listener.start();
+   }//end start
+
+   /**
+    * Stops the listener thread and closes its connection.
+    */
+   public void close() {
+      Thread listener;
+      synchronized (this) {
+         this._closed = true;
+         listener = this._listener;
+      }
+      if (listener == null)
+         return;
+      listener.interrupt();
+      try{
+         listener.join(this._pollMs + 5000);
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }//end try
+   }//end close
+
+   private void listen() {
+      boolean reconnected = false;
+      while (!this._closed) {
+         Connection connection = null;
+         try{
+            connection = this._pool.openConnection();
+            Statement stmt = connection.createStatement();
+            stmt.execute("LISTEN " + CHANNEL);
+            ResultSet rs = stmt.executeQuery("SELECT pg_backend_pid()");
+            rs.next();
+            this._backendPID = rs.getInt(1);
+            rs.close();
+            synchronized (this) {
+               this._connects++;
+               // whatever changed while disconnected was not heard; listening again first, so nothing is missed after.
+               this._resyncPending |= reconnected;
+            }
+            reconnected = true;
+            while (!this._closed) {
+               org.postgresql.PGNotification[] notifications = poll(connection, stmt);
+               if (notifications != null && notifications.length > 0) {
+                  for (org.postgresql.PGNotification notification : notifications)
+                     dispatch(notification);
+                  flush();
+               }
+               boolean resync;
+               synchronized (this) {
+                  resync = this._resyncPending;
+                  this._resyncPending = false;
+               }
+               if (resync)
+                  resync();
+            }
+         }catch (SQLException e){
+            if (this._closed)
+               break;
+            System.err.println("Change feed disconnected, reconnecting in " + this._retryMs + " ms: " + e.getMessage());
+            try{
+               Thread.sleep(this._retryMs);
+            }catch (InterruptedException ie){
+               break;
+            }//end try
+         }catch (InterruptedException e){
+            break;
+         }finally{
+            this._backendPID = 0;
+            if (connection != null) {
+               try{
+                  connection.close();
+               }catch (SQLException e){
+                  // ignored.
+               }//end try
+            }
+         }//end try
+      }//end while
+   }//end listen
+
+   /*
+    * Waits up to the poll interval for notifications.
+    **/
+   private org.postgresql.PGNotification[] poll(Connection connection, Statement stmt) throws SQLException, InterruptedException {
+      if (WAIT != null) {
+         try{
+            return (org.postgresql.PGNotification[]) WAIT.invoke(connection, (int) this._pollMs);
+         }catch (InvocationTargetException e){
+            if (e.getCause() instanceof SQLException)
+               throw (SQLException) e.getCause();
+            throw new SQLException(String.valueOf(e.getCause()));
+         }catch (IllegalAccessException e){
+            throw new SQLException(e.getMessage());
+         }//end try
+      }
+      // older drivers only read notifications along with the answer to a query.
+      stmt.executeQuery("SELECT 1").close();
+      org.postgresql.PGNotification[] notifications = ((org.postgresql.PGConnection) connection).getNotifications();
+      if (notifications == null || notifications.length == 0)
+         Thread.sleep(this._pollMs);
+      return notifications;
+   }//end poll
+
+   private void dispatch(org.postgresql.PGNotification notification) {
+      Change change;
+      synchronized (this) {
+         this._received++;
+         if (this._pool.ownsBackend(notification.getPID())) {
+            this._skipped++;
+            return;
+         }
+         change = parse(payload(notification));
+         if (change == null) {
+            this._resyncPending = true;
+            return;
+         }
+      }
+      try{
+         for (Consumer consumer : this._consumers)
+            consumer.changed(change);
+         synchronized (this) {
+            this._applied++;
+         }
+      }catch (Exception e){
+         System.err.println("Change " + change + " could not be applied, resynchronizing: " + e.getMessage());
+         synchronized (this) {
+            this._resyncPending = true;
+         }
+      }//end try
+   }//end dispatch
+
+   private void flush() {
+      try{
+         for (Consumer consumer : this._consumers)
+            consumer.flush();
+      }catch (Exception e){
+         System.err.println("Changes could not be applied, resynchronizing: " + e.getMessage());
+         synchronized (this) {
+            this._resyncPending = true;
+         }
+      }//end try
+   }//end flush
+
+   private void resync() {
+      try{
+         for (Consumer consumer : this._consumers)
+            consumer.resync();
+         synchronized (this) {
+            this._resyncs++;
+         }
+      }catch (Exception e){
+         System.err.println("Change feed could not resynchronize, trying again: " + e.getMessage());
+         synchronized (this) {
+            this._resyncPending = true;
+         }
+      }//end try
+   }//end resync
+
+   private static String payload(org.postgresql.PGNotification notification) {
+      if (PAYLOAD == null)
+         return null;
+      try{
+         return (String) PAYLOAD.invoke(notification);
+      }catch (Exception e){
+         return null;
+      }//end try
+   }//end payload
+
+   /**
+    * Reads a payload.
+    *
+    * @return the change, or null when the payload asks for a resynchronization or cannot be read
+    */
+   public static Change parse(String payload) {
+      if (payload == null)
+         return null;
+      String[] fields = payload.split(",");
+      if (fields.length < 2 || fields[0].length() != 1 || fields[1].length() != 1)
+         return null;
+      int[] values = new int[fields.length - 2];
+      try{
+         for (int i = 0; i < values.length; ++i)
+            values[i] = Integer.parseInt(fields[i + 2].trim());
+      }catch (NumberFormatException e){
+         return null;
+      }//end try
+      return new Change(fields[0].charAt(0), fields[1].charAt(0), values);
+   }//end parse
+
+   private static Method method(Class<?> type, String name, Class<?>... parameters) {
+      try{
+         return type.getMethod(name, parameters);
+      }catch (NoSuchMethodException e){
+         return null;
+      }//end try
+   }//end method
+
+   /**
+    * @return the backend of the listening connection, 0 while disconnected
+    */
+   public int getBackendPID() {
+      return this._backendPID;
+   }
+
+   public synchronized long getResyncs() {
+      return this._resyncs;
+   }
+
+   public synchronized long getConnects() {
+      return this._connects;
+   }
+
+   public synchronized long getApplied() {
+      return this._applied;
+   }
+
+   public synchronized long getSkipped() {
+      return this._skipped;
+   }
+
+   public synchronized String toString() {
+      return String.format("Change feed: %d notification(s), %d applied, %d own skipped, %d resync(s), %d connect(s)",
+                           this._received, this._applied, this._skipped, this._resyncs, this._connects);
+   }
+
+}//end ChangeFeed
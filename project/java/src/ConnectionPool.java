@@ -0,0 +1,342 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps a bounded pool of physical database connections shared by
+ * all sessions of one JVM. Each pooled connection carries its own
+ * StatementCache, so prepared statements survive between borrows. Connections
+ * are opened lazily, handed out for at most the pool size at a time and closed
+ * again once they sit idle for longer than the idle timeout.
+ *
+ */
+public class ConnectionPool {
+
+   // default maximum number of open connections.
+   public static final int DEFAULT_SIZE = 10;
+
+   // default time a session waits for a free connection.
+   public static final long DEFAULT_ACQUIRE_TIMEOUT_MS = 5000;
+
+   // default time an unused connection is kept open.
+   public static final long DEFAULT_IDLE_TIMEOUT_MS = 60000;
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+   private final int _maxSize;
+   private final long _acquireTimeoutMs;
+   private final long _idleTimeoutMs;
+
+   // one permit per connection that may be handed out.
+   private final Semaphore _permits;
+
+   // connections not borrowed right now, most recently used first.
+   private final ArrayDeque<Idle> _idle = new ArrayDeque<Idle>();
+
+   // every open connection, borrowed or idle.
+   private final List<StatementCache> _open = new ArrayList<StatementCache>();
+
+   // server process of every open connection, so the change feed can tell this pool's changes from others'.
+   private final HashMap<StatementCache, Integer> _backends = new HashMap<StatementCache, Integer>();
+
+   // replicas the reads of read-only operations go to, null when there are none.
+   private volatile ReplicaRouter _replicas = null;
+
+   private final Thread _reaper;
+   private volatile boolean _closed = false;
+
+   private long _acquired = 0;
+   private long _created = 0;
+   private long _evicted = 0;
+   private long _timeouts = 0;
+
+   /*
+    * An idle connection together with the time it was returned.
+    **/
+   private static class Idle {
+      final StatementCache statements;
+      final long since;
+
+      Idle(StatementCache statements, long since) {
+         this.statements = statements;
+         this.since = since;
+      }
+   }//end Idle
+
+   /**
+    * Creates a new connection pool. No connection is opened until the first
+    * call to acquire.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param maxSize the maximum number of open connections
+    * @param acquireTimeoutMs how long acquire waits for a free connection
+    * @param idleTimeoutMs how long an unused connection is kept open, 0 keeps them forever
+    */
+   public ConnectionPool(String url, String user, String passwd, int maxSize,
+                         long acquireTimeoutMs, long idleTimeoutMs) {
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._maxSize = Math.max(1, maxSize);
+      this._acquireTimeoutMs = acquireTimeoutMs;
+      this._idleTimeoutMs = idleTimeoutMs;
+      this._permits = new Semaphore(this._maxSize, true);
+
+      this._reaper = new Thread(new Runnable() {
+         public void run() {
+            reap();
+         }
+      }, "connection-pool-reaper");
+      this._reaper.setDaemon(true);
+      if (this._idleTimeoutMs > 0)
+         this._reaper.start();
+   }//end ConnectionPool
+
+   /**
+    * Creates a connection pool configured from the system properties
+    * hotel.poolSize, hotel.acquireTimeoutMs and hotel.idleTimeoutMs.
+    */
+   public static ConnectionPool fromSystemProperties(String url, String user, String passwd) {
+      return new ConnectionPool(url, user, passwd,
+                                Integer.getInteger("hotel.poolSize", DEFAULT_SIZE),
+                                Long.getLong("hotel.acquireTimeoutMs", DEFAULT_ACQUIRE_TIMEOUT_MS),
+                                Long.getLong("hotel.idleTimeoutMs", DEFAULT_IDLE_TIMEOUT_MS));
+   }//end fromSystemProperties
+
+   /**
+    * Creates an empty pool with the settings of this one, on another server.
+    *
+    * @param url the JDBC connection URL of the other server
+    */
+   public ConnectionPool withUrl(String url) {
+      return new ConnectionPool(url, this._user, this._passwd, this._maxSize, this._acquireTimeoutMs, this._idleTimeoutMs);
+   }//end withUrl
+
+   /**
+    * Attaches the replicas sessions on this pool send the reads of
+    * read-only operations to; they are closed with the pool.
+    *
+    * @param replicas the replicas, or null for none
+    */
+   public void setReplicas(ReplicaRouter replicas) {
+      this._replicas = replicas;
+   }
+
+   public ReplicaRouter getReplicas() {
+      return this._replicas;
+   }
+
+   /**
+    * Borrows a connection from the pool, opening a new one if none is idle.
+    * Every successful call must be paired with a call to release.
+    *
+    * @return the statement cache of the borrowed connection
+    * @throws java.sql.SQLException when no connection became free in time
+    *         or a new connection could not be opened
+    */
+   public StatementCache acquire() throws SQLException {
+      if (this._closed)
+         throw new SQLException("Connection pool is closed");
+      long start = System.nanoTime();
+      try{
+         if (!this._permits.tryAcquire(this._acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+            synchronized (this) {
+               this._timeouts++;
+            }
+            Metrics.connectionTimeout();
+            throw new SQLException("Timed out after " + this._acquireTimeoutMs + " ms waiting for a database connection");
+         }
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while waiting for a database connection");
+      }//end try
+      Metrics.connectionAcquired(System.nanoTime() - start);
+
+      try{
+         synchronized (this) {
+            this._acquired++;
+            while (!this._idle.isEmpty()) {
+               StatementCache statements = this._idle.pollFirst().statements;
+               if (!statements.getConnection().isClosed())
+                  return statements;
+               discard(statements);
+            }
+         }
+         Connection connection = openConnection();
+         int backend;
+         try{
+            backend = backendPID(connection);
+         }catch (SQLException e){
+            connection.close();
+            throw e;
+         }//end try
+         StatementCache statements = StatementCache.fromSystemProperties(connection);
+         synchronized (this) {
+            this._created++;
+            this._open.add(statements);
+            this._backends.put(statements, backend);
+         }
+         return statements;
+      }catch (SQLException e){
+         this._permits.release();
+         throw e;
+      }//end try
+   }//end acquire
+
+   /**
+    * Opens a physical connection with the settings of the pool, outside of
+    * it: the caller closes it and it does not count against the pool size.
+    *
+    * @return the new connection
+    * @throws java.sql.SQLException when the connection cannot be opened
+    */
+   public Connection openConnection() throws SQLException {
+      return DriverManager.getConnection(this._url, this._user, this._passwd);
+   }//end openConnection
+
+   private static int backendPID(Connection connection) throws SQLException {
+      Statement stmt = connection.createStatement();
+      try{
+         ResultSet rs = stmt.executeQuery("SELECT pg_backend_pid()");
+         rs.next();
+         return rs.getInt(1);
+      }finally{
+         stmt.close();
+      }//end try
+   }//end backendPID
+
+   /**
+    * @return true when a server process serves one of the connections of this pool
+    */
+   public synchronized boolean ownsBackend(int pid) {
+      return this._backends.containsValue(pid);
+   }
+
+   /**
+    * Returns a borrowed connection to the pool. Connections that were closed
+    * while borrowed are dropped instead of being reused.
+    *
+    * @param statements the statement cache returned by acquire
+    */
+   public void release(StatementCache statements) {
+      boolean broken;
+      try{
+         Connection connection = statements.getConnection();
+         broken = connection.isClosed();
+         if (!broken && !connection.getAutoCommit()) {
+            // never hand an open transaction to the next borrower.
+            connection.rollback();
+            connection.setAutoCommit(true);
+         }
+      }catch (SQLException e){
+         broken = true;
+      }//end try
+      synchronized (this) {
+         if (broken || this._closed)
+            discard(statements);
+         else
+            this._idle.addFirst(new Idle(statements, System.currentTimeMillis()));
+      }
+      this._permits.release();
+   }//end release
+
+   /*
+    * Closes connections that stayed idle longer than the idle timeout.
+    **/
+   private void reap() {
+      while (!this._closed) {
+         try{
+            Thread.sleep(Math.max(1000, this._idleTimeoutMs / 2));
+         }catch (InterruptedException e){
+            return;
+         }//end try
+         long cutoff = System.currentTimeMillis() - this._idleTimeoutMs;
+         synchronized (this) {
+            // the deque is ordered most recently used first, so stale ones sit at the tail.
+            while (!this._idle.isEmpty() && this._idle.peekLast().since < cutoff) {
+               discard(this._idle.pollLast().statements);
+               this._evicted++;
+            }
+         }
+      }//end while
+   }//end reap
+
+   private synchronized void discard(StatementCache statements) {
+      this._open.remove(statements);
+      this._backends.remove(statements);
+      statements.clear();
+      try{
+         statements.getConnection().close();
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end discard
+
+   /**
+    * Closes all idle connections and refuses further borrows. Connections
+    * still borrowed are closed when they are released.
+    */
+   public void close() {
+      this._closed = true;
+      this._reaper.interrupt();
+      if (this._replicas != null)
+         this._replicas.close();
+      synchronized (this) {
+         while (!this._idle.isEmpty())
+            discard(this._idle.pollFirst().statements);
+      }
+   }//end close
+
+   public int getMaxSize() {
+      return this._maxSize;
+   }
+
+   public synchronized int getOpenCount() {
+      return this._open.size();
+   }
+
+   public synchronized int getIdleCount() {
+      return this._idle.size();
+   }
+
+   public synchronized long getAcquireCount() {
+      return this._acquired;
+   }
+
+   /**
+    * Method to report how well the statement caches of all open connections
+    * are doing.
+    *
+    * @return the summed hit, miss and eviction counts
+    */
+   public synchronized String getStatementCacheStats() {
+      long hits = 0, misses = 0, evictions = 0, open = 0;
+      for (Iterator<StatementCache> it = this._open.iterator(); it.hasNext(); ) {
+         StatementCache statements = it.next();
+         hits += statements.getHits();
+         misses += statements.getMisses();
+         evictions += statements.getEvictions();
+         open += statements.size();
+      }
+      return String.format("Statement cache: %d hit(s), %d miss(es), %d eviction(s), %d open", hits, misses, evictions, open);
+   }//end getStatementCacheStats
+
+   public synchronized String toString() {
+      return String.format("Connection pool: %d/%d open, %d idle, %d acquired, %d created, %d evicted, %d timeout(s)",
+                           this._open.size(), this._maxSize, this._idle.size(), this._acquired,
+                           this._created, this._evicted, this._timeouts);
+   }
+
+}//end ConnectionPool
@@ -11,18 +11,27 @@
  */
 
 
-import java.sql.DriverManager;
 import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.lang.Math;
 
 /**
@@ -32,15 +41,85 @@ import java.lang.Math;
  */
 public class Hotel {
 
-   static private String hotel_userID;
+   // userID of the user logged in on this session, null before LogIn.
+   private String hotel_userID;
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // role and managed hotels of the logged-in user, loaded at LogIn.
+   private Principal _principal;
+
+   // pool the physical database connections are borrowed from.
+   private ConnectionPool _pool = null;
+
+   // true when this instance created the pool and closes it on cleanup.
+   private boolean _ownsPool = false;
+
+   // statement cache of the connection borrowed right now, null when none is held.
+   private StatementCache _statements = null;
+   private int _holdCount = 0;
+
+   // pool the held connection was borrowed from, the primary's or a replica's.
+   private ConnectionPool _heldPool = null;
+
+   // replica the running operation reads from, kept so its reads are consistent with each other.
+   private ReplicaRouter.Replica _replica = null;
+
+   // WAL position the reads of this session must not go behind: its last write, or the replica it last read.
+   private long _seenLsn = 0;
+
+   // number of statements this session sent to the database.
+   private long _roundTrips = 0;
+
+   // menu operation running right now, the statements it sends are logged under it.
+   private String _operation = null;
+
+   // time this session spent waiting for console input.
+   private long _inputNanos = 0;
+
+   // latencies and slow plans of all statements, shared by every session; null when disabled.
+   private static QueryLog _queryLog = null;
+   private static boolean _queryLogChecked = false;
+
+   // in-memory index over the locations of all hotels, shared by every session.
+   private static HotelSpatialIndex _hotelIndex = null;
+
+   // in-memory room availability by hotel and day, shared by every session.
+   private static AvailabilityCalendar _calendar = null;
+
+   // rows fetched per round trip when a query is streamed, 0 fetches the whole result at once.
+   private static final int _fetchSize = Integer.getInteger("hotel.fetchSize", 1000);
+
+   // size of the buffer printed results are written through.
+   private static final int OUTPUT_BUFFER = 1 << 16;
+
+   // booking counts and top customers per hotel, shared by every session.
+   private static RegularCustomers _regularCustomers = null;
+
+   // true when the menus run on MemoryHotelRepository instead of the database, see getRepository.
+   private static final boolean IN_MEMORY = "memory".equals(System.getProperty("hotel.storage", "jdbc"));
+
+   // tables held in this process, shared by every session; only used when IN_MEMORY.
+   private static MemoryHotelRepository _memoryRepository = null;
+
+   // repository of this session on the database.
+   private JdbcHotelRepository _repository = null;
+
+   // read-through cache of Rooms records, shared by every session.
+   private static RoomCatalog _roomCatalog = null;
+
+   // writer group-committing room updates and their log entries, shared by every session.
+   private static RoomUpdateWriter _roomUpdateWriter = null;
+
+   // follows the changes of other instances into the shared caches, null unless -Dhotel.changeFeed=true.
+   private static ChangeFeed _changeFeed = null;
+
+   // fans the queries of the manager dashboard out over pooled connections.
+   private static final ManagerDashboard _dashboard = ManagerDashboard.fromSystemProperties();
 
    // handling the keyboard inputs through a BufferedReader
-   // This variable can be global for convenience.
-   static BufferedReader in = new BufferedReader(
-                                new InputStreamReader(System.in));
+   // Each session has its own console, stdin/stdout for the interactive program.
+   BufferedReader in;
+   PrintStream out;
+   PrintStream err;
 
    /**
     * Creates a new instance of Hotel 
@@ -52,15 +131,21 @@ public class Hotel {
     * @throws java.sql.SQLException when failed to make a connection.
     */
    public Hotel(String dbname, String dbport, String user, String passwd) throws SQLException {
+      this(ConnectionPool.fromSystemProperties(connectionUrl(dbname, dbport), user, passwd),
+           new BufferedReader(new InputStreamReader(System.in)), System.out);
+      this.err = System.err;
+      this._ownsPool = true;
+      if (IN_MEMORY)
+         return;
+      this._pool.setReplicas (ReplicaRouter.fromSystemProperties (this._pool, dbname));
 
       System.out.print("Connecting to database...");
       try{
-         // constructs the connection URL
-         String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
-         System.out.println ("Connection URL: " + url + "\n");
+         System.out.println ("Connection URL: " + connectionUrl(dbname, dbport) + "\n");
 
          // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         acquire ();
+         release ();
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -69,28 +154,563 @@ public class Hotel {
       }//end catch
    }//end Hotel
 
+   /**
+    * Creates a new session on top of a shared connection pool
+    *
+    * @param pool the pool the session borrows its connections from
+    * @param in the console input of the session
+    * @param out the console output of the session
+    */
+   public Hotel(ConnectionPool pool, BufferedReader in, PrintStream out) {
+      this._pool = pool;
+      // time spent waiting for the user is left out of the operation latencies.
+      this.in = in == null ? null : new BufferedReader(in) {
+         public String readLine() throws IOException {
+            long start = System.nanoTime();
+            try{
+               return super.readLine();
+            }finally{
+               _inputNanos += System.nanoTime() - start;
+            }//end try
+         }
+      };
+      this.out = out;
+      this.err = out;
+   }//end Hotel
+
+   /**
+    * Constructs the connection URL of a local PostgreSQL database
+    *
+    * @param dbname the name of the database
+    * @param dbport the port of the PostgreSQL server
+    * @return the JDBC connection URL
+    */
+   public static String connectionUrl(String dbname, String dbport) {
+      return "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+   }
+
+   /**
+    * Method to borrow a connection from the pool for this session. Calls
+    * nest, the connection goes back to the pool with the last release.
+    * During a read-only operation the connection comes from a replica when
+    * the pool has replicas and one has replayed what this session saw.
+    *
+    * @throws java.sql.SQLException when no connection could be borrowed
+    */
+   public void acquire () throws SQLException {
+      if (this._holdCount == 0) {
+         ReplicaRouter replicas = this._pool.getReplicas ();
+         ReplicaRouter.Replica replica = replicas != null && READ_ONLY_OPERATIONS.contains (this._operation)
+            ? replicas.route (this._seenLsn, this._replica) : null;
+         this._statements = null;
+         if (replica != null) {
+            try{
+               this._statements = replica.getPool ().acquire ();
+               this._heldPool = replica.getPool ();
+               this._replica = replica;
+               this._seenLsn = Math.max (this._seenLsn, replica.getReplayLsn ());
+            }catch (SQLException e){
+               replicas.failed (replica, e);
+            }//end try
+         }//end if
+         if (this._statements == null) {
+            this._statements = this._pool.acquire ();
+            this._heldPool = this._pool;
+         }//end if
+      }//end if
+      this._holdCount++;
+   }//end acquire
+
+   /**
+    * Method to open another session on this session's pool, whose
+    * statements are logged under the same menu operation. Lets an operation
+    * run independent queries at the same time, each worker on a connection
+    * of its own.
+    *
+    * @return the worker session, without a console
+    */
+   Hotel openWorker () {
+      Hotel worker = new Hotel (this._pool, null, null);
+      worker._operation = this._operation;
+      worker._seenLsn = this._seenLsn;
+      return worker;
+   }//end openWorker
+
+   /**
+    * Method to open another session on this session's pool that always
+    * reads from the primary, for reads the shared caches are rebuilt from.
+    *
+    * @return the session, without a console
+    */
+   Hotel openPrimary () {
+      return new Hotel (this._pool, null, null);
+   }//end openPrimary
+
+   /**
+    * Method to tell whether the running operation reads from a replica,
+    * whose rows may be older than the primary's and must not go into the
+    * shared caches.
+    *
+    * @return true when the operation's reads go to a replica
+    */
+   boolean readsReplica () {
+      return this._replica != null;
+   }//end readsReplica
+
+   /**
+    * Method to give back the connection borrowed by acquire.
+    */
+   public void release () {
+      if (--this._holdCount == 0) {
+         this._heldPool.release (this._statements);
+         this._statements = null;
+         this._heldPool = null;
+      }
+   }//end release
+
    // Method to calculate euclidean distance between two latitude, longitude pairs. 
-   public double calculateDistance (double lat1, double long1, double lat2, double long2){
+   public static double calculateDistance (double lat1, double long1, double lat2, double long2){
       double t1 = (lat1 - lat2) * (lat1 - lat2);
       double t2 = (long1 - long2) * (long1 - long2);
       return Math.sqrt(t1 + t2); 
    }
+   /**
+    * Method to prepare a SQL template through the statement cache and bind
+    * its parameters. Parameters are bound in order to the '?' placeholders
+    * of the template.
+    *
+    * @param sql the SQL template
+    * @param params the values for the placeholders
+    * @return the cached statement, ready to execute
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   private PreparedStatement prepare (String sql, Object... params) throws SQLException {
+      PreparedStatement stmt = this._statements.prepare (sql);
+      // every prepared statement is executed exactly once, one round trip each.
+      this._roundTrips++;
+      Metrics.roundTrip ();
+      bind (stmt, params);
+      return stmt;
+   }//end prepare
+
+   private static void bind (PreparedStatement stmt, Object[] params) throws SQLException {
+      for (int i = 0; i < params.length; ++i) {
+         Object param = params[i];
+         if (param == null)
+            stmt.setNull (i + 1, Types.VARCHAR);
+         else if (param instanceof Integer)
+            stmt.setInt (i + 1, (Integer) param);
+         else if (param instanceof Double)
+            stmt.setDouble (i + 1, (Double) param);
+         else if (param instanceof String)
+            stmt.setString (i + 1, (String) param);
+         else
+            stmt.setObject (i + 1, param);
+      }
+   }//end bind
+
+   /*
+    * Executes a query through the statement cache, recording its latency
+    * in the query log.
+    **/
+   private ResultSet runQuery (String sql, int fetchSize, Object[] params) throws SQLException {
+      long start = System.nanoTime ();
+      ResultSet rs = openQuery (sql, fetchSize, params);
+      logStatement (sql, params, System.nanoTime () - start);
+      return rs;
+   }//end runQuery
+
+   /*
+    * Executes a query through the statement cache without logging it.
+    **/
+   private ResultSet openQuery (String sql, int fetchSize, Object[] params) throws SQLException {
+      PreparedStatement stmt = prepare (sql, params);
+      // set on every execution, the statement is cached and shared with other callers.
+      stmt.setFetchSize (fetchSize);
+      try{
+         return stmt.executeQuery ();
+      }catch (SQLException e){
+         Metrics.sqlError (e);
+         throw e;
+      }//end try
+   }//end openQuery
+
+   /*
+    * Executes an update through the statement cache, recording its latency
+    * in the query log.
+    **/
+   private int runUpdate (String sql, Object[] params) throws SQLException {
+      PreparedStatement stmt = prepare (sql, params);
+      long start = System.nanoTime ();
+      int rows;
+      try{
+         rows = stmt.executeUpdate ();
+      }catch (SQLException e){
+         Metrics.sqlError (e);
+         throw e;
+      }//end try
+      logStatement (sql, params, System.nanoTime () - start);
+      return rows;
+   }//end runUpdate
+
+   private void logStatement (String sql, Object[] params, long nanos) {
+      Metrics.statement (sql, nanos);
+      QueryLog log = getQueryLog ();
+      if (log != null && log.record (this._operation, sql, nanos))
+         log.addPlan (sql, explain (sql, params));
+   }//end logStatement
+
+   /*
+    * Captures the plan of a slow statement by running it again under
+    * EXPLAIN (ANALYZE, BUFFERS) in a transaction that is rolled back, so
+    * updates leave no trace. Inside a transaction of the caller only the
+    * estimated plan is taken, since a rollback would undo the caller's work.
+    **/
+   private String explain (String sql, Object[] params) {
+      Connection conn = this._statements.getConnection ();
+      StringBuilder plan = new StringBuilder();
+      try{
+         boolean autoCommit = conn.getAutoCommit ();
+         if (autoCommit)
+            conn.setAutoCommit (false);
+         try{
+            PreparedStatement stmt = conn.prepareStatement ((autoCommit ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ") + sql);
+            bind (stmt, params);
+            ResultSet rs = stmt.executeQuery ();
+            while (rs.next())
+               plan.append (rs.getString (1)).append ('\n');
+            rs.close ();
+            stmt.close ();
+         }finally{
+            if (autoCommit){
+               conn.rollback ();
+               conn.setAutoCommit (true);
+            }//end if
+         }//end try
+      }catch (SQLException e){
+         plan.append ("(no plan: ").append (e.getMessage ()).append (')');
+      }//end try
+      return plan.toString ();
+   }//end explain
+
+   /**
+    * Method to get the query log shared by all sessions. The log is enabled
+    * with -Dhotel.queryLog=true; -Dhotel.slowQueryMs sets the latency from
+    * which the plan of a statement is captured.
+    *
+    * @return the shared query log or null when disabled
+    */
+   public static QueryLog getQueryLog () {
+      synchronized (Hotel.class) {
+         if (!_queryLogChecked) {
+            if (Boolean.getBoolean("hotel.queryLog"))
+               _queryLog = new QueryLog(Long.getLong("hotel.slowQueryMs", QueryLog.DEFAULT_SLOW_MS));
+            _queryLogChecked = true;
+         }
+         return _queryLog;
+      }
+   }//end getQueryLog
+
+   /**
+    * Method to choose the session the shared caches are loaded and checked
+    * on: this one, or one on the primary while this one reads from a
+    * replica, which may lag. A session on the primary reads on its own
+    * connection, so it never waits for a second one from the pool.
+    *
+    * @return the session to read on
+    */
+   Hotel cacheLoader () {
+      return readsReplica () ? openPrimary () : this;
+   }//end cacheLoader
+
+   /**
+    * Method to get the spatial index over all hotels, building it from the
+    * Hotel table on first use. Returns null when the index is disabled with
+    * -Dhotel.spatialIndex=false, in which case searches run in SQL.
+    *
+    * @return the shared spatial index or null
+    * @throws java.sql.SQLException when the Hotel table cannot be read
+    */
+   public HotelSpatialIndex getHotelIndex () throws SQLException {
+      if (!Boolean.parseBoolean(System.getProperty("hotel.spatialIndex", "true")))
+         return null;
+      synchronized (Hotel.class) {
+         if (_hotelIndex == null) {
+            HotelSpatialIndex index = new HotelSpatialIndex(HotelSpatialIndex.DEFAULT_CELL_SIZE);
+            index.load (cacheLoader ());
+            _hotelIndex = index;
+         }
+         return _hotelIndex;
+      }
+   }//end getHotelIndex
+
+   /**
+    * Method to get the availability calendar of all rooms, loading it from
+    * the Rooms and RoomBookings tables on first use. Returns null when the
+    * calendar is disabled with -Dhotel.availabilityCalendar=false, in which
+    * case availability is checked in SQL.
+    *
+    * @return the shared availability calendar or null
+    * @throws java.sql.SQLException when the tables cannot be read
+    */
+   public AvailabilityCalendar getAvailabilityCalendar () throws SQLException {
+      if (!Boolean.parseBoolean(System.getProperty("hotel.availabilityCalendar", "true")))
+         return null;
+      synchronized (Hotel.class) {
+         if (_calendar == null) {
+            AvailabilityCalendar calendar = new AvailabilityCalendar(
+               Integer.getInteger("hotel.calendarYears", AvailabilityCalendar.DEFAULT_YEARS));
+            calendar.load (cacheLoader ());
+            _calendar = calendar;
+         }
+         return _calendar;
+      }
+   }//end getAvailabilityCalendar
+
+   /**
+    * Method to get the per-hotel booking counts of every customer, loading
+    * them from RoomBookings on first use. Returns null when the counters are
+    * disabled with -Dhotel.regularCustomers=false, in which case regular
+    * customers are aggregated in SQL.
+    *
+    * @return the shared counters or null
+    * @throws java.sql.SQLException when the table cannot be read
+    */
+   public RegularCustomers getRegularCustomers () throws SQLException {
+      if (!Boolean.parseBoolean(System.getProperty("hotel.regularCustomers", "true")))
+         return null;
+      synchronized (Hotel.class) {
+         if (_regularCustomers == null) {
+            RegularCustomers counters = new RegularCustomers(5, Long.getLong("hotel.driftCheckMs", 60000));
+            counters.load (cacheLoader ());
+            _regularCustomers = counters;
+         }
+         return _regularCustomers;
+      }
+   }//end getRegularCustomers
+
+   /**
+    * Method to get the read-through cache of room prices and images, keeping
+    * at most -Dhotel.roomCacheSize rooms. Returns null when the cache is
+    * disabled with -Dhotel.roomCache=false, in which case rooms are joined
+    * in SQL.
+    *
+    * @return the shared room catalog or null
+    */
+   public static RoomCatalog getRoomCatalog () {
+      if (!Boolean.parseBoolean(System.getProperty("hotel.roomCache", "true")))
+         return null;
+      synchronized (Hotel.class) {
+         if (_roomCatalog == null)
+            _roomCatalog = new RoomCatalog(Integer.getInteger("hotel.roomCacheSize", RoomCatalog.DEFAULT_SIZE));
+         return _roomCatalog;
+      }
+   }//end getRoomCatalog
+
+   /**
+    * Method to get the writer that group-commits room updates with their
+    * log entries, starting it on first use on a session of its own. Returns
+    * null when group commit is disabled with -Dhotel.groupCommit=false, in
+    * which case every update commits on its own. The queue size, flush
+    * deadline and batch size are set with -Dhotel.updateQueueSize,
+    * -Dhotel.updateFlushMs and -Dhotel.updateBatchSize.
+    *
+    * @return the shared writer or null
+    */
+   public RoomUpdateWriter getRoomUpdateWriter () {
+      if (!Boolean.parseBoolean(System.getProperty("hotel.groupCommit", "true")))
+         return null;
+      synchronized (Hotel.class) {
+         if (_roomUpdateWriter == null) {
+            final RoomUpdateWriter writer = new RoomUpdateWriter(
+               new JdbcHotelRepository (new Hotel (this._pool, null, null)),
+               Integer.getInteger("hotel.updateQueueSize", RoomUpdateWriter.DEFAULT_CAPACITY),
+               Long.getLong("hotel.updateFlushMs", RoomUpdateWriter.DEFAULT_MAX_LATENCY_MS),
+               Integer.getInteger("hotel.updateBatchSize", RoomUpdateWriter.DEFAULT_MAX_BATCH));
+            // queued updates are committed before the JVM exits.
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+               public void run() {
+                  writer.close();
+               }
+            });
+            _roomUpdateWriter = writer;
+         }
+         return _roomUpdateWriter;
+      }
+   }//end getRoomUpdateWriter
+
+   /*
+    * Commits the updates still queued in the room update writer, if one was
+    * started, and stops it.
+    **/
+   private static void closeRoomUpdateWriter () {
+      RoomUpdateWriter writer;
+      synchronized (Hotel.class) {
+         writer = _roomUpdateWriter;
+      }
+      if (writer != null) {
+         writer.close ();
+         System.out.println (writer.getStats ());
+      }
+   }//end closeRoomUpdateWriter
+
+   /**
+    * Method to get the repository the menu operations read and write
+    * through. With -Dhotel.storage=memory it is the in-memory repository
+    * shared by all sessions, filled on first use from the CSV files of
+    * -Dhotel.dataDir (default ../data); otherwise it is this session's
+    * repository on the database.
+    *
+    * @return the repository
+    * @throws java.sql.SQLException when the in-memory tables cannot be loaded
+    */
+   public HotelRepository getRepository () throws SQLException {
+      if (!IN_MEMORY) {
+         if (this._repository == null)
+            this._repository = new JdbcHotelRepository (this);
+         return this._repository;
+      }
+      synchronized (Hotel.class) {
+         if (_memoryRepository == null) {
+            MemoryHotelRepository repository = new MemoryHotelRepository();
+            try{
+               repository.load (new File (System.getProperty ("hotel.dataDir", "../data")));
+            }catch (IOException e){
+               throw new SQLException (e.getMessage (), e);
+            }//end try
+            _memoryRepository = repository;
+         }
+         return _memoryRepository;
+      }
+   }//end getRepository
+
+   /*
+    * Converts a menu date to an epoch day, or returns null when the
+    * in-memory structures cannot interpret it and SQL has to.
+    **/
+   private static Integer epochDay (String date) {
+      try{
+         return AvailabilityCalendar.parseDate (date);
+      }catch (IllegalArgumentException e){
+         return null;
+      }//end try
+   }//end epochDay
+
+   /*
+    * Finishes a section printed through a printer: flushes the rows and
+    * prints the empty message when there were none.
+    **/
+   private void endSection (PrintWriter writer, long rowCount, String emptyMessage) {
+      writer.flush ();
+      if (rowCount == 0 && emptyMessage != null)
+         this.out.println (emptyMessage);
+   }//end endSection
+
+   /**
+    * Method to start a transaction on this session's connection, unless the
+    * caller already runs one. The session holds its connection until
+    * endTransaction.
+    *
+    * @return true when the transaction was started here, endTransaction commits or rolls it back then
+    * @throws java.sql.SQLException when the transaction could not be started
+    */
+   boolean beginTransaction () throws SQLException {
+      acquire ();
+      boolean started = false;
+      try{
+         Connection conn = this._statements.getConnection ();
+         boolean ownTransaction = conn.getAutoCommit ();
+         if (ownTransaction)
+            conn.setAutoCommit (false);
+         started = true;
+         return ownTransaction;
+      }finally{
+         if (!started)
+            release ();
+      }//end try
+   }//end beginTransaction
+
+   /**
+    * Method to end what beginTransaction started: the transaction, when it
+    * was started there, and the hold on the connection.
+    *
+    * @param ownTransaction what beginTransaction returned
+    * @param commit true to commit the transaction, false to roll it back
+    * @throws java.sql.SQLException when the commit failed
+    */
+   void endTransaction (boolean ownTransaction, boolean commit) throws SQLException {
+      try{
+         if (ownTransaction){
+            Connection conn = this._statements.getConnection ();
+            // the COMMIT or ROLLBACK is a round trip of its own.
+            this._roundTrips++;
+            Metrics.roundTrip ();
+            try{
+               if (commit)
+                  conn.commit ();
+               else
+                  conn.rollback ();
+            }finally{
+               conn.setAutoCommit (true);
+            }//end try
+         }//end if
+      }finally{
+         release ();
+      }//end try
+   }//end endTransaction
+
+   /**
+    * Method to execute an update SQL statement once per row of parameters,
+    * sent to the database as one JDBC batch.
+    *
+    * @param sql the input SQL template
+    * @param rows the values for the '?' placeholders, one array per execution
+    * @return the number of rows affected by each execution
+    * @throws java.sql.SQLException when the batch failed
+    */
+   public int[] executeBatch (String sql, List<Object[]> rows) throws SQLException {
+      acquire ();
+      try{
+         PreparedStatement stmt = this._statements.prepare (sql);
+         // the whole batch goes out in one round trip.
+         this._roundTrips++;
+         Metrics.roundTrip ();
+         for (Object[] row : rows){
+            bind (stmt, row);
+            stmt.addBatch ();
+         }//end for
+         long start = System.nanoTime ();
+         int[] counts;
+         try{
+            counts = stmt.executeBatch ();
+         }catch (SQLException e){
+            Metrics.sqlError (e);
+            throw e;
+         }//end try
+         logStatement (sql, rows.isEmpty () ? new Object[0] : rows.get (0), System.nanoTime () - start);
+         return counts;
+      }finally{
+         release ();
+      }//end try
+   }//end executeBatch
+
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
     *
-    * @param sql the input SQL string
+    * @param sql the input SQL template
+    * @param params the values for the '?' placeholders
+    * @return the number of rows affected
     * @throws java.sql.SQLException when update failed
     */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the update instruction
-      stmt.executeUpdate (sql);
-
-      // close the instruction
-      stmt.close ();
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      acquire ();
+      try{
+         // issues the update instruction through the cached statement
+         return runUpdate (sql, params);
+      }finally{
+         release ();
+      }//end try
    }//end executeUpdate
 
    /**
@@ -98,59 +718,211 @@ public class Hotel {
     * method issues the query to the DBMS and outputs the results to
     * standard out.
     *
-    * @param query the input query string
+    * @param query the input query template
+    * @param params the values for the '?' placeholders
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+   public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+      return executeQueryAndPrintSection (null, null, query, params);
+   }//end executeQueryAndPrintResult
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT) once and
+    * output its results to standard out under a heading. The heading is only
+    * printed when the query returns rows, the empty message only when it
+    * returns none, so callers need no separate query to count the rows.
+    *
+    * @param heading the line printed before the rows, or null
+    * @param emptyMessage the line printed when there are no rows, or null
+    * @param query the input query template
+    * @param params the values for the '?' placeholders
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndPrintSection (final String heading, String emptyMessage, String query, Object... params) throws SQLException {
+      // one buffered writer for the whole result instead of a console write per cell.
+      final PrintWriter writer = openWriter ();
+      long rowCount;
+      try{
+         rowCount = streamQuery (query, printer (writer, heading), params);
+      }finally{
+         writer.flush ();
+      }//end try
+      if (rowCount == 0 && emptyMessage != null)
+         this.out.println (emptyMessage);
+      return (int) rowCount;
+   }//end executeQueryAndPrintSection
 
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
+   /*
+    * Opens the buffered writer printed results go through.
+    **/
+   private PrintWriter openWriter () {
+      return new PrintWriter (new BufferedWriter (new OutputStreamWriter (this.out), OUTPUT_BUFFER));
+   }//end openWriter
 
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-		 if(outputHeader){
-			for(int i = 1; i <= numCol; i++){
-			System.out.print(rsmd.getColumnName(i) + "\t");
-			}
-			System.out.println();
-			outputHeader = false;
-		 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
-      return rowCount;
-   }//end executeQuery
+   /*
+    * Returns a handler printing rows as the menus do: the heading and the
+    * column names before the first row, then the tab-separated values of
+    * every row.
+    **/
+   private static RowHandler printer (final PrintWriter writer, final String heading) {
+      return new RowHandler() {
+         public void handle (ResultRow row) throws SQLException {
+            int numCol = row.getColumnCount ();
+            if (row.getNumber () == 1){
+               if (heading != null)
+                  writer.println (heading);
+               for (int i = 1; i <= numCol; ++i)
+                  writer.print (row.getColumnName (i) + "\t");
+               writer.println ();
+            }//end if
+            for (int i = 1; i <= numCol; ++i){
+               writer.print (row.getString (i));
+               writer.print ('\t');
+            }//end for
+            writer.println ();
+         }
+      };
+   }//end printer
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT) and hand
+    * its rows one at a time to a handler. A query without a LIMIT of its own
+    * is read through a cursor, -Dhotel.fetchSize rows per round trip, so
+    * memory use does not grow with the size of the result; the transaction
+    * the cursor needs costs a COMMIT, so a query with a LIMIT is read whole.
+    * The plan of a slow query is captured once its rows are read.
+    *
+    * @param query the input query template
+    * @param handler the handler called for every row, in order
+    * @param params the values for the '?' placeholders
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query or the handler failed
+    */
+   public long streamQuery (String query, RowHandler handler, Object... params) throws SQLException {
+      acquire ();
+      try{
+         Connection conn = this._statements.getConnection ();
+         // the driver only reads through a cursor inside a transaction.
+         boolean cursor = _fetchSize > 0 && !hasLimit (query);
+         boolean ownTransaction = cursor && conn.getAutoCommit ();
+         if (ownTransaction)
+            conn.setAutoCommit (false);
+         boolean done = false;
+         long nanos;
+         long rows;
+         try{
+            long start = System.nanoTime ();
+            ResultSet rs = openQuery (query, cursor ? _fetchSize : 0, params);
+            nanos = System.nanoTime () - start;
+            try{
+               ResultRow row = new ResultRow (rs);
+               while (row.next ())
+                  handler.handle (row);
+               done = true;
+               rows = row.getNumber ();
+            }finally{
+               rs.close ();
+            }//end try
+         }finally{
+            if (ownTransaction){
+               // the COMMIT or ROLLBACK is a round trip of its own.
+               this._roundTrips++;
+               Metrics.roundTrip ();
+               if (done)
+                  conn.commit ();
+               else
+                  conn.rollback ();
+               conn.setAutoCommit (true);
+            }//end if
+         }//end try
+         Metrics.rowsFetched (rows);
+         // logged with the cursor closed, so an EXPLAIN of a slow query runs on its own.
+         logStatement (query, params, nanos);
+         return rows;
+      }finally{
+         release ();
+      }//end try
+   }//end streamQuery
+
+   /*
+    * Tells whether a query ends in a LIMIT of its own rather than one of a
+    * subquery, so its result is bounded.
+    **/
+   private static boolean hasLimit (String query) {
+      int limit = query.toUpperCase ().lastIndexOf ("LIMIT");
+      if (limit < 0)
+         return false;
+      int depth = 0;
+      for (int i = 0; i < limit; ++i) {
+         char c = query.charAt (i);
+         if (c == '(')
+            depth++;
+         else if (c == ')')
+            depth--;
+      }
+      return depth == 0;
+   }//end hasLimit
+
+   /**
+    * Method to start a read-only transaction that sees the database as it
+    * was when its first query ran, so the queries of a long export agree
+    * with each other while other sessions keep writing. The session holds
+    * its connection until endSnapshot.
+    *
+    * @throws java.sql.SQLException when the transaction could not be started
+    */
+   public void beginSnapshot () throws SQLException {
+      acquire ();
+      boolean started = false;
+      try{
+         this._statements.getConnection ().setAutoCommit (false);
+         runUpdate ("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ, READ ONLY", new Object[0]);
+         started = true;
+      }finally{
+         if (!started)
+            endSnapshot ();
+      }//end try
+   }//end beginSnapshot
+
+   /**
+    * Method to end the transaction started by beginSnapshot and give back
+    * its connection.
+    *
+    * @throws java.sql.SQLException when the transaction could not be ended
+    */
+   public void endSnapshot () throws SQLException {
+      try{
+         Connection conn = this._statements.getConnection ();
+         conn.rollback ();
+         conn.setAutoCommit (true);
+      }finally{
+         release ();
+      }//end try
+   }//end endSnapshot
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and returns the results as
-    * a list of records. Each record in turn is a list of attribute values
+    * a list of records. Each record in turn is a list of attribute values.
+    * The whole result is held in memory; large results should use streamQuery.
     *
-    * @param query the input query string
+    * @param query the input query template
+    * @param params the values for the '?' placeholders
     * @return the query result as a list of records
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+   public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+      acquire ();
+      try{
+         return returnResult (runQuery (query, 0, params));
+      }finally{
+         release ();
+      }//end try
+   }//end executeQueryAndReturnResult
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+   private List<List<String>> returnResult (ResultSet rs) throws SQLException {
 
       /*
        ** obtains the metadata object for the returned result set.  The metadata
@@ -158,10 +930,8 @@ public class Hotel {
        */
       ResultSetMetaData rsmd = rs.getMetaData ();
       int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
 
       // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
       List<List<String>> result  = new ArrayList<List<String>>();
       while (rs.next()){
         List<String> record = new ArrayList<String>();
@@ -169,33 +939,38 @@ public class Hotel {
 			record.add(rs.getString (i));
         result.add(record);
       }//end while
-      stmt.close ();
+      rs.close ();
+      Metrics.rowsFetched (result.size ());
       return result;
-   }//end executeQueryAndReturnResult
+   }//end returnResult
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and returns the number of results
     *
-    * @param query the input query string
+    * @param query the input query template
+    * @param params the values for the '?' placeholders
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
-
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+   public int executeQuery (String query, Object... params) throws SQLException {
+      acquire ();
+      try{
+         // issues the query instruction
+         ResultSet rs = runQuery (query, 0, params);
 
-       int rowCount = 0;
+         int rowCount = 0;
 
-       // iterates through the result set and count nuber of results.
-       while (rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
+         // iterates through the result set and count nuber of results.
+         while (rs.next()){
+            rowCount++;
+         }//end while
+         rs.close ();
+         Metrics.rowsFetched (rowCount);
+         return rowCount;
+      }finally{
+         release ();
+      }//end try
    }
 
    /**
@@ -208,50 +983,239 @@ public class Hotel {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int getCurrSeqVal(String sequence) throws SQLException {
-      Statement stmt = this._connection.createStatement ();
+      return executeQueryForInt("SELECT currval(?)", sequence);
+   }
 
-      ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-      if (rs.next())
-         return rs.getInt(1);
-      return -1;
+   public int getNewUserID(String sql, Object... params) throws SQLException {
+      return executeQueryForInt(sql, params);
    }
 
-   public int getNewUserID(String sql) throws SQLException {
-      Statement stmt = this._connection.createStatement ();
-      ResultSet rs = stmt.executeQuery (sql);
-      if (rs.next())
-         return rs.getInt(1);
-      return -1;
+   /**
+    * Method to execute a query whose answer is a single integer, such as a
+    * generated key returned by INSERT ... RETURNING.
+    *
+    * @param sql the input query template
+    * @param params the values for the '?' placeholders
+    * @return the first column of the first row, -1 when there is no row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryForInt(String sql, Object... params) throws SQLException {
+      acquire ();
+      try{
+         ResultSet rs = runQuery (sql, 0, params);
+         int value = -1;
+         if (rs.next()){
+            value = rs.getInt(1);
+            Metrics.rowsFetched (1);
+         }//end if
+         rs.close ();
+         return value;
+      }finally{
+         release ();
+      }//end try
+   }
+
+   /**
+    * Method to get the role and managed hotels of the logged-in user,
+    * reloading them when they were invalidated since LogIn.
+    *
+    * @return the principal, or null when nobody is logged in
+    * @throws java.sql.SQLException when a stale principal cannot be reloaded
+    */
+   public Principal getPrincipal() throws SQLException {
+      if (this._principal != null && this._principal.isStale())
+         this._principal = Principal.load(this, this._principal.getUserID());
+      return this._principal;
+   }
+
+   /**
+    * Method to report how many statements this session sent to the database.
+    *
+    * @return the number of round trips since the session started
+    */
+   public long getRoundTrips() {
+      return this._roundTrips;
    }
+
+   /**
+    * Method to report how well the statement cache is doing.
+    *
+    * @return the hit, miss and eviction counts of the statement cache
+    */
+   public String getStatementCacheStats() {
+      return this._pool.getStatementCacheStats ();
+   }
+
    /**
-    * Method to close the physical connection if it is open.
+    * Method to give back a held connection and, when this instance owns the
+    * pool, close the physical connections.
     */
    public void cleanup(){
       try{
-         if (this._connection != null){
-            this._connection.close ();
+         if (this._statements != null){
+            this._pool.release (this._statements);
+            this._statements = null;
+            this._holdCount = 0;
          }//end if
-      }catch (SQLException e){
+         if (this._ownsPool){
+            this._pool.close ();
+         }//end if
+      }catch (Exception e){
          // ignored.
       }//end try
    }//end cleanup
 
+   /*
+    * Starts following the changes other instances make, when enabled with
+    * -Dhotel.changeFeed=true, so the shared caches stay in step with them.
+    * It listens before the caches are loaded, so no change is missed between
+    * the two.
+    **/
+   private static void startChangeFeed (Hotel esql) {
+      if (!Boolean.getBoolean("hotel.changeFeed"))
+         return;
+      ChangeFeed feed = ChangeFeed.fromSystemProperties (esql._pool);
+      feed.register (new CacheCoherence (new Hotel (esql._pool, null, null)));
+      feed.start ();
+      synchronized (Hotel.class) {
+         _changeFeed = feed;
+      }
+   }//end startChangeFeed
+
+   /*
+    * Applies the changes of other instances to the shared caches loaded so
+    * far, on the thread of the change feed. Caches not loaded yet are left
+    * alone, they read the change with the table. Reloads a change needs are
+    * done once per batch, a deleted hotel removes its rooms one row at a time.
+    **/
+   private static class CacheCoherence implements ChangeFeed.Consumer {
+      // session the caches are read on.
+      private final Hotel _esql;
+      private boolean _reloadCalendar = false;
+      private boolean _reloadCounters = false;
+
+      CacheCoherence (Hotel esql) {
+         this._esql = esql;
+      }
+
+      public void changed (ChangeFeed.Change change) throws SQLException {
+         int[] v = change.values;
+         HotelSpatialIndex index;
+         AvailabilityCalendar calendar;
+         RoomCatalog catalog;
+         synchronized (Hotel.class) {
+            index = _hotelIndex;
+            calendar = _calendar;
+            catalog = _roomCatalog;
+         }
+         switch (change.table) {
+            case 'h':
+               // the hotels a manager manages are part of the principal.
+               Principal.invalidate (v[1]);
+               Principal.invalidate (v[2]);
+               if (index != null) {
+                  List<List<String>> rows = change.operation == 'D' ? new ArrayList<List<String>>() :
+                     this._esql.executeQueryAndReturnResult (
+                        "SELECT h.hotelName, h.latitude, h.longitude FROM Hotel h WHERE h.hotelID = ? AND h.latitude IS NOT NULL AND h.longitude IS NOT NULL",
+                        v[0]);
+                  if (rows.isEmpty ())
+                     index.remove (v[0]);
+                  else
+                     index.put (v[0], rows.get(0).get(0), Double.parseDouble (rows.get(0).get(1)), Double.parseDouble (rows.get(0).get(2)));
+               }
+               break;
+            case 'r':
+               if (catalog != null)
+                  catalog.invalidate (v[0], v[1]);
+               if (calendar != null) {
+                  if (change.operation == 'U')
+                     calendar.setPrice (v[0], v[1], v[2]);
+                  else
+                     this._reloadCalendar = true;
+               }
+               break;
+            case 'b':
+               if (calendar != null) {
+                  if (change.operation == 'D')
+                     calendar.cancel (v[0], v[1], v[2]);
+                  else if (change.operation == 'U')
+                     calendar.cancel (v[5], v[6], v[7]);
+                  if (change.operation != 'D')
+                     calendar.book (v[0], v[1], v[2]);
+               }
+               if (change.operation == 'I') {
+                  RegularCustomers counters;
+                  synchronized (Hotel.class) {
+                     counters = _regularCustomers;
+                  }
+                  if (counters != null)
+                     counters.record (v[0], v[3], v[4]);
+               } else if (change.operation == 'D' || v[0] != v[5] || v[3] != v[8]) {
+                  // counts only grow in place, a booking that leaves a customer or hotel is recounted.
+                  this._reloadCounters = true;
+               }
+               break;
+            default:
+               throw new SQLException ("Unknown change " + change);
+         }//end switch
+      }//end changed
+
+      public void flush () throws SQLException {
+         AvailabilityCalendar calendar;
+         RegularCustomers counters;
+         synchronized (Hotel.class) {
+            calendar = _calendar;
+            counters = _regularCustomers;
+         }
+         if (this._reloadCalendar && calendar != null)
+            calendar.load (this._esql);
+         this._reloadCalendar = false;
+         if (this._reloadCounters && counters != null)
+            counters.load (this._esql);
+         this._reloadCounters = false;
+      }//end flush
+
+      public void resync () throws SQLException {
+         HotelSpatialIndex index;
+         AvailabilityCalendar calendar;
+         RegularCustomers counters;
+         RoomCatalog catalog;
+         synchronized (Hotel.class) {
+            index = _hotelIndex;
+            calendar = _calendar;
+            counters = _regularCustomers;
+            catalog = _roomCatalog;
+         }
+         this._reloadCalendar = this._reloadCounters = false;
+         Principal.invalidateAll ();
+         if (catalog != null)
+            catalog.clear ();
+         if (index != null)
+            index.load (this._esql);
+         if (calendar != null)
+            calendar.load (this._esql);
+         if (counters != null)
+            counters.load (this._esql);
+      }//end resync
+   }//end CacheCoherence
+
    /**
     * The main execution method
     *
     * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
     */
    public static void main (String[] args) {
-      if (args.length != 3) {
+      if (args.length != 3 && args.length != 4) {
          System.err.println (
             "Usage: " +
             "java [-classpath <classpath>] " +
             Hotel.class.getName () +
-            " <dbname> <port> <user>");
+            " <dbname> <port> <user> [<session server port>]");
          return;
       }//end if
 
-      Greeting();
+      Greeting(System.out);
+      Metrics.startDump();
       Hotel esql = null;
       try{
          // use postgres JDBC driver.
@@ -262,65 +1226,45 @@ public class Hotel {
          String dbport = args[1];
          String user = args[2];
          esql = new Hotel (dbname, dbport, user, "");
+         if (IN_MEMORY) {
+            esql.getRepository ();
+         } else {
+            startChangeFeed (esql);
+            esql.getHotelIndex ();
+            esql.getAvailabilityCalendar ();
+            esql.getRegularCustomers ();
+         }
 
-         boolean keepon = true;
-         while(keepon) {
-            // These are sample SQL statements
-            System.out.println("MAIN MENU");
-            System.out.println("---------");
-            System.out.println("1. Create user");
-            System.out.println("2. Log in");
-            System.out.println("9. < EXIT");
-            String authorisedUser = null;
-            switch (readChoice()){
-               case 1: CreateUser(esql); break;
-               case 2: authorisedUser = LogIn(esql); break;
-               case 9: keepon = false; break;
-               default : System.out.println("Unrecognized choice!"); break;
-            }//end switch
-            if (authorisedUser != null) {
-              boolean usermenu = true;
-              while(usermenu) {
-                System.out.println("MAIN MENU");
-                System.out.println("---------");
-                System.out.println("1. View Hotels within 30 units");
-                System.out.println("2. View Rooms");
-                System.out.println("3. Book a Room");
-                System.out.println("4. View recent booking history");
-
-                //the following functionalities basically used by managers
-                System.out.println("5. Update Room Information");
-                System.out.println("6. View 5 recent Room Updates Info");
-                System.out.println("7. View booking history of the hotel");
-                System.out.println("8. View 5 regular Customers");
-                System.out.println("9. Place room repair Request to a company");
-                System.out.println("10. View room repair Requests history");
-
-                System.out.println(".........................");
-                System.out.println("20. Log out");
-                switch (readChoice()){
-                   case 1: viewHotels(esql); break;
-                   case 2: viewRooms(esql); break;
-                   case 3: bookRooms(esql); break;
-                   case 4: viewRecentBookingsfromCustomer(esql); break;
-                   case 5: updateRoomInfo(esql); break;
-                   case 6: viewRecentUpdates(esql); break;
-                   case 7: viewBookingHistoryofHotel(esql); break;
-                   case 8: viewRegularCustomers(esql); break;
-                   case 9: placeRoomRepairRequests(esql); break;
-                   case 10: viewRoomRepairHistory(esql); break;
-                   case 20: usermenu = false; break;
-                   default : System.out.println("Unrecognized choice!"); break;
-                }
-              }
-            }
-         }//end while
+         if (args.length == 4) {
+            // serve many terminals from this JVM instead of the local console.
+            final SessionServer server = new SessionServer(esql._pool, Integer.parseInt(args[3]));
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+               public void run() {
+                  server.close();
+               }
+            });
+            server.run();
+         } else {
+            runSession(esql);
+         }
       }catch(Exception e) {
          System.err.println (e.getMessage ());
       }finally{
          // make sure to cleanup the created table and close the connection.
          try{
             if(esql != null) {
+               System.out.println(esql.getStatementCacheStats());
+               if (getRoomCatalog() != null)
+                  System.out.println(getRoomCatalog());
+               if (esql._pool.getReplicas() != null)
+                  System.out.println(esql._pool.getReplicas());
+               reportQueryLog();
+               if (_changeFeed != null) {
+                  _changeFeed.close();
+                  System.out.println(_changeFeed);
+               }
+               closeRoomUpdateWriter();
+               Metrics.stopDump();
                System.out.print("Disconnecting from database...");
                esql.cleanup ();
                System.out.println("Done\n\nBye !");
@@ -331,8 +1275,195 @@ public class Hotel {
       }//end try
    }//end main
 
-   public static void Greeting(){
-      System.out.println(
+   /*
+    * Prints the query log and writes its index advice to the file named by
+    * -Dhotel.indexAdviceFile.
+    **/
+   private static void reportQueryLog() {
+      QueryLog log = getQueryLog();
+      if (log == null)
+         return;
+      log.report(System.out);
+      String file = System.getProperty("hotel.indexAdviceFile");
+      if (file != null) {
+         try{
+            log.writeIndexAdvice(new File(file));
+            System.out.println("Index advice written to " + file);
+         }catch (IOException e){
+            System.err.println(e.getMessage());
+         }//end try
+      }//end if
+   }//end reportQueryLog
+
+   // names of the menu operations by choice, the query log groups statements by them.
+   private static final String[] MAIN_OPERATIONS = { null, "CreateUser", "LogIn" };
+   private static final String[] USER_OPERATIONS = {
+      null, "viewHotels", "viewRooms", "bookRooms", "viewRecentBookingsfromCustomer", "updateRoomInfo",
+      "viewRecentUpdates", "viewBookingHistoryofHotel", "viewRegularCustomers", "placeRoomRepairRequests",
+      "viewRoomRepairHistory", "bookRoomsBatch", "managerDashboard" };
+
+   // operations that only read, sent to the replicas when there are some.
+   private static final Set<String> READ_ONLY_OPERATIONS = new HashSet<String>(Arrays.asList(
+      "LogIn", "viewHotels", "viewRooms", "viewRecentBookingsfromCustomer", "viewRecentUpdates",
+      "viewBookingHistoryofHotel", "viewRegularCustomers", "viewRoomRepairHistory", "managerDashboard"));
+
+   private static String operationName(String[] operations, int choice) {
+      return choice > 0 && choice < operations.length ? operations[choice] : null;
+   }
+
+   /**
+    * Runs the main menu for one session until the user exits or the
+    * console is closed.
+    *
+    * @param esql the session
+    * @throws java.io.IOException when the console cannot be read
+    */
+   public static void runSession(Hotel esql) throws IOException {
+      PrintStream out = esql.out;
+      // prints the number of round trips every menu operation made.
+      boolean showRoundTrips = Boolean.getBoolean("hotel.showRoundTrips");
+      boolean keepon = true;
+      while(keepon) {
+         // These are sample SQL statements
+         out.println("MAIN MENU");
+         out.println("---------");
+         out.println("1. Create user");
+         out.println("2. Log in");
+         out.println("9. < EXIT");
+         String authorisedUser = null;
+         long trips = esql.getRoundTrips();
+         int choice = readChoice(esql);
+         esql._operation = operationName(MAIN_OPERATIONS, choice);
+         long started = System.nanoTime(), input = esql._inputNanos;
+         switch (choice){
+            case 1: CreateUser(esql); break;
+            case 2: authorisedUser = LogIn(esql); break;
+            case 9: keepon = false; break;
+            default : out.println("Unrecognized choice!"); break;
+         }//end switch
+         finishOperation(esql, started, input);
+         if (showRoundTrips)
+            out.println("(" + (esql.getRoundTrips() - trips) + " round trip(s))");
+         if (authorisedUser != null) {
+           boolean usermenu = true;
+           while(usermenu) {
+             out.println("MAIN MENU");
+             out.println("---------");
+             out.println("1. View Hotels within 30 units");
+             out.println("2. View Rooms");
+             out.println("3. Book a Room");
+             out.println("4. View recent booking history");
+
+             //the following functionalities basically used by managers
+             out.println("5. Update Room Information");
+             out.println("6. View 5 recent Room Updates Info");
+             out.println("7. View booking history of the hotel");
+             out.println("8. View 5 regular Customers");
+             out.println("9. Place room repair Request to a company");
+             out.println("10. View room repair Requests history");
+             out.println("11. Book several rooms or nights");
+             out.println("12. Manager dashboard of all your hotels");
+
+             out.println(".........................");
+             out.println("20. Log out");
+             trips = esql.getRoundTrips();
+             choice = readChoice(esql);
+             esql._operation = operationName(USER_OPERATIONS, choice);
+             started = System.nanoTime();
+             input = esql._inputNanos;
+             if (choice == 20) {
+                usermenu = false; esql.hotel_userID = null; esql._principal = null;
+             } else if (!runUserOperation(esql, choice)) {
+                out.println("Unrecognized choice!");
+             }
+             finishOperation(esql, started, input);
+             if (showRoundTrips)
+                out.println("(" + (esql.getRoundTrips() - trips) + " round trip(s))");
+           }
+         }
+      }//end while
+   }//end runSession
+
+   /*
+    * Runs the operation of a choice of the user menu.
+    * @return false when the choice has no operation
+    **/
+   private static boolean runUserOperation(Hotel esql, int choice) {
+      switch (choice){
+         case 1: viewHotels(esql); break;
+         case 2: viewRooms(esql); break;
+         case 3: bookRooms(esql); break;
+         case 4: viewRecentBookingsfromCustomer(esql); break;
+         case 5: updateRoomInfo(esql); break;
+         case 6: viewRecentUpdates(esql); break;
+         case 7: viewBookingHistoryofHotel(esql); break;
+         case 8: viewRegularCustomers(esql); break;
+         case 9: placeRoomRepairRequests(esql); break;
+         case 10: viewRoomRepairHistory(esql); break;
+         case 11: bookRoomsBatch(esql); break;
+         case 12: managerDashboard(esql); break;
+         default : return false;
+      }//end switch
+      return true;
+   }//end runUserOperation
+
+   /**
+    * Runs one menu operation by name, as the menus do once the user chose
+    * it, reading its inputs from the session's console. Lets drivers replay
+    * operations without walking through the menus; the user operations
+    * need a session that is logged in.
+    *
+    * @param esql the session
+    * @param operation CreateUser, LogIn, or the name of a user menu operation such as viewRooms
+    * @return false when there is no operation of that name
+    */
+   public static boolean runOperation(Hotel esql, String operation) {
+      esql._operation = operation;
+      long started = System.nanoTime(), input = esql._inputNanos;
+      boolean found = true;
+      if (MAIN_OPERATIONS[1].equals(operation))
+         CreateUser(esql);
+      else if (MAIN_OPERATIONS[2].equals(operation))
+         LogIn(esql);
+      else
+         found = runUserOperation(esql, Arrays.asList(USER_OPERATIONS).indexOf(operation));
+      if (found)
+         finishOperation(esql, started, input);
+      return found;
+   }//end runOperation
+
+   /*
+    * Records the latency of the operation that started at a time, less
+    * the time it waited for console input since then. After an operation
+    * that may have written, later reads of the session wait for a replica
+    * that replayed the primary's WAL up to here.
+    **/
+   private static void finishOperation(Hotel esql, long started, long inputBefore) {
+      Metrics.operation(esql._operation, System.nanoTime() - started - (esql._inputNanos - inputBefore));
+      esql._replica = null;
+      if (esql._pool.getReplicas() != null && esql._operation != null && !READ_ONLY_OPERATIONS.contains(esql._operation)) {
+         try{
+            esql._seenLsn = Math.max(esql._seenLsn, ReplicaRouter.currentLsn(esql));
+         }catch (SQLException e){
+            // without the position, the session reads from the primary from now on.
+            esql._seenLsn = Long.MAX_VALUE;
+            esql.err.println(e.getMessage());
+         }//end try
+      }//end if
+   }//end finishOperation
+
+   /**
+    * @return the names of all operations runOperation accepts
+    */
+   public static List<String> operationNames() {
+      List<String> names = new ArrayList<String>();
+      names.addAll(Arrays.asList(MAIN_OPERATIONS).subList(1, MAIN_OPERATIONS.length));
+      names.addAll(Arrays.asList(USER_OPERATIONS).subList(1, USER_OPERATIONS.length));
+      return names;
+   }//end operationNames
+
+   public static void Greeting(PrintStream out){
+      out.println(
          "\n\n*******************************************************\n" +
          "              User Interface      	               \n" +
          "*******************************************************\n");
@@ -342,16 +1473,19 @@ public class Hotel {
     * Reads the users choice given from the keyboard
     * @int
     **/
-   public static int readChoice() {
+   public static int readChoice(Hotel esql) throws IOException {
       int input;
       // returns only if a correct value is given.
       do {
-         System.out.print("Please make your choice: ");
-         try { // read the integer, parse it and break.
-            input = Integer.parseInt(in.readLine());
+         esql.out.print("Please make your choice: ");
+         String line = esql.in.readLine();
+         if (line == null)
+            throw new EOFException("Session closed");
+         try { // parse the integer and break.
+            input = Integer.parseInt(line.trim());
             break;
          }catch (Exception e) {
-            System.out.println("Your input is invalid!");
+            esql.out.println("Your input is invalid!");
             continue;
          }//end try
       }while (true);
@@ -363,17 +1497,16 @@ public class Hotel {
     **/
    public static void CreateUser(Hotel esql){
       try{
-         System.out.print("\tEnter name: ");
-         String name = in.readLine();
-         System.out.print("\tEnter password: ");
-         String password = in.readLine(); 
+         esql.out.print("\tEnter name: ");
+         String name = esql.in.readLine();
+         esql.out.print("\tEnter password: ");
+         String password = esql.in.readLine(); 
          String type="Customer";
-	 String query = String.format("INSERT INTO USERS (name, password, userType) VALUES ('%s','%s', '%s')", name, password, type);
-         esql.executeUpdate(query);
-         System.out.println ("User successfully created with userID = " + esql.getNewUserID("SELECT last_value FROM users_userID_seq"));
+         int userID = esql.getRepository().createUser(name, password, type);
+         esql.out.println ("User successfully created with userID = " + userID);
         
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         esql.err.println (e.getMessage ());
       }
    }//end CreateUser
 
@@ -384,21 +1517,21 @@ public class Hotel {
     **/
    public static String LogIn(Hotel esql){
       try{
-         System.out.print("\tEnter userID: ");
-         String userID = in.readLine();
-         System.out.print("\tEnter password: ");
-         String password = in.readLine();
-
-         String query = String.format("SELECT * FROM USERS WHERE userID = '%s' AND password = '%s'", userID, password);
-         int userNum = esql.executeQuery(query);
-         if (userNum > 0) {
-            hotel_userID = userID;
+         esql.out.print("\tEnter userID: ");
+         String userID = esql.in.readLine();
+         esql.out.print("\tEnter password: ");
+         String password = esql.in.readLine();
+
+         Principal principal = Principal.logIn(esql, Integer.parseInt(userID), password);
+         if (principal != null) {
+            esql.hotel_userID = userID;
+            esql._principal = principal;
             return userID;
 	 }
-         System.out.println("Invalid username or password.");
+         esql.out.println("Invalid username or password.");
          return null;
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         esql.err.println (e.getMessage ());
          return null;
       }
    }//end
@@ -409,376 +1542,367 @@ public class Hotel {
      try{
          String latitude, longitude;
 
-         System.out.println("Enter latitude: ");
-         latitude = in.readLine();
+         esql.out.println("Enter latitude: ");
+         latitude = esql.in.readLine();
 
-         System.out.println("Enter longitude: ");
-         longitude = in.readLine();
+         esql.out.println("Enter longitude: ");
+         longitude = esql.in.readLine();
 
-         String query = "SELECT h.hotelname " +
-                        "FROM Hotel h " +
-                        "WHERE calculate_distance(h.latitude, h.longitude, " + latitude + ", " + longitude + ") <= 30;";
+         double lat = Double.parseDouble(latitude);
+         double lon = Double.parseDouble(longitude);
+         esql.out.println("Hotels within 30 units of (" + latitude + ", " + longitude + "):");
 
-         System.out.println("Hotels within 30 units of (" + latitude + ", " + longitude + "):");
-         int rowCount = esql.executeQueryAndPrintResult(query);
-         System.out.println("total row(s): " + rowCount);
+         PrintWriter writer = esql.openWriter();
+         long rowCount = esql.getRepository().hotelsWithin(lat, lon, 30, printer(writer, null));
+         esql.endSection(writer, rowCount, null);
+         esql.out.println("total row(s): " + rowCount);
 
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         esql.err.println (e.getMessage ());
       }
    }
    public static void viewRooms(Hotel esql) {
      try{
-      System.out.println("Enter Hotel ID: ");
-      String input = in.readLine();
+      esql.out.println("Enter Hotel ID: ");
+      String input = esql.in.readLine();
       int HotelID_input = Integer.parseInt(input);
-      System.out.println("Enter date for booking: MM/DD/YYYY");
-      input = in.readLine();
+      esql.out.println("Enter date for booking: MM/DD/YYYY");
+      input = esql.in.readLine();
       String date_input = input;
-      String query = "SELECT  r.roomNumber AS Room, r.price FROM Rooms r WHERE r.hotelID = ";
-      query += HotelID_input + " AND r.roomNumber NOT IN (";
-      query += "SELECT rb.roomNumber FROM RoomBookings rb WHERE rb.hotelID = ";
-      query += HotelID_input + " AND rb.bookingDate = '";
-      query += date_input  + "')";
-      System.out.println("Available rooms in hotel #" + HotelID_input + " for " + date_input + ":");
-      int rowCount = esql.executeQuery(query);
-      if(rowCount <= 0) {
-       System.out.println("\tNo available rooms for given date.");
-      }
-      esql.executeQueryAndPrintResult(query);
-      query = "SELECT rb.roomNumber AS Room, r.price FROM RoomBookings rb, Rooms r  WHERE r.roomNumber = rb.roomNumber AND rb.hotelID = ";
-      query += HotelID_input + " AND r.hotelID = rb.hotelID AND rb.bookingDate = '";
-      query += date_input  + "'";
-      System.out.println("Uavailable rooms in hotel #" + HotelID_input + " for " + date_input + ":");
-      rowCount = esql.executeQuery(query);
-      if(rowCount <= 0) {
-       System.out.println("\tAll rooms are available for the given date.");
-      }
-      esql.executeQueryAndPrintResult(query);
+      HotelRepository repository = esql.getRepository();
+      esql.out.println("Available rooms in hotel #" + HotelID_input + " for " + date_input + ":");
+      PrintWriter writer = esql.openWriter();
+      long rowCount = repository.availableRooms(HotelID_input, date_input, printer(writer, null));
+      esql.endSection(writer, rowCount, "\tNo available rooms for given date.");
+      esql.out.println("Uavailable rooms in hotel #" + HotelID_input + " for " + date_input + ":");
+      rowCount = repository.bookedRooms(HotelID_input, date_input, printer(writer, null));
+      esql.endSection(writer, rowCount, "\tAll rooms are available for the given date.");
      }catch(Exception e){
-      System.err.println (e.getMessage());
+      esql.err.println (e.getMessage());
      }
    }
    public static void bookRooms(Hotel esql) {
      try {
-        System.out.println("Enter Hotel ID: ");
-        String hotelID = in.readLine();
+        esql.out.println("Enter Hotel ID: ");
+        int hotelID = Integer.parseInt(esql.in.readLine());
+
+        esql.out.println("Enter Room #: ");
+        int roomNumber = Integer.parseInt(esql.in.readLine());
+
+        esql.out.println("Enter the date (MM/DD/YYYY): ");
+        String bookingDate = esql.in.readLine();
+
+        HotelRepository repository = esql.getRepository();
+        int bookingID = repository.bookRoom(Integer.parseInt(esql.hotel_userID), hotelID, roomNumber, bookingDate);
 
-        System.out.println("Enter Room #: ");
-        String roomNumber = in.readLine();
+        if (bookingID < 0) {
+           esql.out.println("Sorry, that room is booked.");
+           return;
+        }
 
-        System.out.println("Enter the date (MM/DD/YYYY): ");
-        String bookingDate = in.readLine();
+        esql.out.println("Room #" + roomNumber + " at Hotel #" + hotelID + " has been booked for " + bookingDate + ". The price is listed below. ");
+        esql.out.println("price\t");
+        esql.out.println(repository.roomPrice(hotelID, roomNumber) + "\t");
+        esql.out.println("total row(s): 1");
 
-        String query = "SELECT * " +
-                       "FROM RoomBookings rb " +
-                       "WHERE rb.hotelID = " + hotelID + " AND rb.roomNumber = " + roomNumber + " AND rb.bookingDate = '" + bookingDate + "';";
+     }catch(Exception e){
+        esql.err.println (e.getMessage ());
+     }
+   }
+   public static void bookRoomsBatch(Hotel esql) {
+     try {
+        esql.out.println("Enter Hotel ID: ");
+        int hotelID = Integer.parseInt(esql.in.readLine());
 
-        int rowCount = esql.executeQuery(query);
+        esql.out.println("Enter Room #s, separated by commas: ");
+        String[] rooms = esql.in.readLine().split(",");
 
-        if (rowCount > 0) {
-           System.out.println("Sorry, that room is booked.");
+        esql.out.println("Enter the first night (MM/DD/YYYY): ");
+        String firstNight = esql.in.readLine();
+        Integer firstDay = epochDay(firstNight);
+        if (firstDay == null) {
+           esql.out.println("Sorry, that is not a valid date. ");
            return;
         }
 
-        query = String.format("INSERT INTO ROOMBOOKINGS (customerID, hotelID, roomNumber, bookingDate) VALUES ('%s','%s', '%s', '%s')", hotel_userID, hotelID, roomNumber, bookingDate);
-        esql.executeUpdate(query);
-
-        /* checks to see if INSERT worked
- *         query = "SELECT * " +
- *                 "FROM Roombookings rb " +
- *                         "WHERE rb.customerID = " + hotel_userID + ";";
- *                                 rowCount = esql.executeQueryAndPrintResult(query);
- *                                         System.out.println("total row(s): " + rowCount);*/
-
-        query = "SELECT r.price " +
-                "FROM Rooms r " +
-                "JOIN RoomBookings rb ON rb.hotelID = r.hotelID " +
-                "WHERE rb.hotelID = " + hotelID + " AND r.roomNumber = " + roomNumber +
-                "LIMIT 1;";
-        System.out.println("Room #" + roomNumber + " at Hotel #" + hotelID + " has been booked for " + bookingDate + ". The price is listed below. ");
-        rowCount = esql.executeQueryAndPrintResult(query);
-        System.out.println("total row(s): " + rowCount);
+        esql.out.println("Enter the number of nights: ");
+        int nights = Integer.parseInt(esql.in.readLine());
+        if (nights < 1) {
+           esql.out.println("Sorry, that is not a valid number of nights. ");
+           return;
+        }
+
+        int[] roomNumbers = new int[rooms.length * nights];
+        String[] bookingDates = new String[rooms.length * nights];
+        for (int r = 0; r < rooms.length; ++r) {
+           for (int night = 0; night < nights; ++night) {
+              roomNumbers[r * nights + night] = Integer.parseInt(rooms[r].trim());
+              bookingDates[r * nights + night] = AvailabilityCalendar.formatDate(firstDay + night);
+           }
+        }
 
+        int total = esql.getRepository().bookRooms(Integer.parseInt(esql.hotel_userID), hotelID, roomNumbers, bookingDates);
+        if (total < 0) {
+           esql.out.println("Sorry, at least one of those rooms is booked or does not exist. Nothing was booked.");
+           return;
+        }
+        esql.out.println(roomNumbers.length + " room night(s) at Hotel #" + hotelID + " from " + firstNight + " have been booked. The total price is " + total + ".");
      }catch(Exception e){
-        System.err.println (e.getMessage ());
+        esql.err.println (e.getMessage ());
      }
    }
    public static void viewRecentBookingsfromCustomer(Hotel esql) {
      try{
-      String query = "SELECT rb.hotelID AS hotel, rb.roomNumber AS room, r.price AS price, rb.bookingDate AS date FROM Rooms r, RoomBookings rb WHERE r.hotelID = rb.HotelID AND r.roomNumber = rb.roomNumber AND rb.customerID = " + hotel_userID + " ORDER BY rb.bookingDate DESC LIMIT 5";
-      int rowCount = esql.executeQuery(query);
-      if(rowCount <= 0) {
-       System.out.println("No recent bookings.");
-      } else {
-        System.out.println("Latest 5 recent bookings:");
-      }
-      esql.executeQueryAndPrintResult(query);
+      int userID = Integer.parseInt(esql.hotel_userID);
+      PrintWriter writer = esql.openWriter();
+      long rowCount = esql.getRepository().recentBookings(userID, 5, printer(writer, "Latest 5 recent bookings:"));
+      esql.endSection(writer, rowCount, "No recent bookings.");
      }catch(Exception e){
-       System.err.println (e.getMessage());
+       esql.err.println (e.getMessage());
      }
    }
    public static void updateRoomInfo(Hotel esql) {
      try {
-        String query = "SELECT * " +
-                       "FROM USERS u " +
-                       "WHERE u.userID = " + hotel_userID + " AND u.userType = 'manager';";
-        int rowCount = esql.executeQuery(query);
+        int userID = Integer.parseInt(esql.hotel_userID);
+        Principal principal = esql.getPrincipal();
 
         /*check if user is a manger*/
-        if (rowCount != 1) {
-           System.out.println("Sorry, you do not have access.");
+        if (principal == null || !principal.isManager()) {
+           esql.out.println("Sorry, you do not have access.");
            return;
         }
 
-        System.out.println("Enter Hotel ID: ");
-        String hotelID = in.readLine();
-
-        query = "SELECT * " +
-                "FROM Users u " +
-                "JOIN Hotel h ON h.managerUserID = u.userID " +
-                "WHERE h.manageruserID = " + hotel_userID + " AND h.hotelID = " + hotelID + ";";
-        rowCount = esql.executeQuery(query);
+        esql.out.println("Enter Hotel ID: ");
+        int hotelID = Integer.parseInt(esql.in.readLine());
 
         /*check if user is a manager of specified hotel*/
-        if (rowCount != 1) {
-           System.out.println("Sorry, you do not have access. You are not the manager of this hotel. ");
+        if (!principal.manages(hotelID)) {
+           esql.out.println("Sorry, you do not have access. You are not the manager of this hotel. ");
            return;
         }
 
-        System.out.println("Enter Room #: ");
-        String roomNumber = in.readLine();
+        esql.out.println("Enter Room #: ");
+        int roomNumber = Integer.parseInt(esql.in.readLine());
 
-        query = "SELECT * " +
-                "FROM Rooms r " +
-                "WHERE r.hotelID = " + hotelID + " AND r.roomNumber = " + roomNumber + ";";
-        rowCount = esql.executeQuery(query);
+        HotelRepository repository = esql.getRepository();
 
         /*check if user entered valid room*/
-        if (rowCount != 1) {
-           System.out.println("Sorry, that is not a valid room. ");
+        if (!repository.roomExists(hotelID, roomNumber)) {
+           esql.out.println("Sorry, that is not a valid room. ");
            return;
         }
 
-        System.out.println("Enter new room price: ");
-        String price = in.readLine();
+        esql.out.println("Enter new room price: ");
+        String price = esql.in.readLine();
         double newPrice = Double.parseDouble(price);
 
         if (newPrice % 1 != 0 || newPrice <= 0) {
-           System.out.println("Sorry, that is not a valid price. Unable to update room. ");
+           esql.out.println("Sorry, that is not a valid price. Unable to update room. ");
            return;
         }
 
-        System.out.println("Enter Image URL: ");
-        String imageURL = in.readLine();
+        esql.out.println("Enter Image URL: ");
+        String imageURL = esql.in.readLine();
 
         if (imageURL.length() > 30) {
-           System.out.println("The Image URL is too long. Unable to update room. ");
+           esql.out.println("The Image URL is too long. Unable to update room. ");
            return;
         }
         else if (imageURL.length() == 0) {
-           System.out.println("The Image URL is empty. Unable to update room. ");
+           esql.out.println("The Image URL is empty. Unable to update room. ");
            return;
         }
 
-        query = "UPDATE Rooms SET price = " + price + ", imageURL = '" + imageURL + "' WHERE hotelID = " + hotelID + " AND roomNumber = " + roomNumber + ";";
-        esql.executeUpdate(query);
-
-        query = String.format("INSERT INTO roomUpdatesLog (managerID, hotelID, roomNumber, updatedOn) VALUES ('%s','%s', '%s', CURRENT_TIMESTAMP)", hotel_userID, hotelID, roomNumber);
-        esql.executeUpdate(query);
-        System.out.println("Room " + roomNumber + " has been updated. ");
+        if (!repository.updateRoomAndLog(userID, hotelID, roomNumber, (int) newPrice, imageURL)) {
+           esql.out.println("Sorry, that is not a valid room. ");
+           return;
+        }
+        esql.out.println("Room " + roomNumber + " has been updated. ");
 
      }catch(Exception e){
-        System.err.println (e.getMessage ());
+        esql.err.println (e.getMessage ());
      }
    }
    public static void viewRecentUpdates(Hotel esql) {
     try{
-       String query = "SELECT * FROM Users u WHERE u.userID = " + hotel_userID + " AND u.userType = 'manager'";
-       int rowCount = esql.executeQuery(query);
-       if(rowCount <= 0) {
-        System.out.println("Only managers have access to this feature.");
+       int userID = Integer.parseInt(esql.hotel_userID);
+       Principal principal = esql.getPrincipal();
+       if(principal == null || !principal.isManager()) {
+        esql.out.println("Only managers have access to this feature.");
         return;
        }
-       query  = "SELECT updates.updateNumber AS update, updates.hotelID AS hotel, updates.roomNumber AS room, updates.updatedOn AS update_time FROM RoomUpdatesLog updates, Users u WHERE u.userID = updates.managerID AND u.userType = 'manager' AND updates.managerID = " + hotel_userID + " ORDER BY updates.updatedOn DESC LIMIT 5";
-       rowCount = esql.executeQuery(query);
-       if(rowCount <= 0) {
-        System.out.println("No recent updates.");
-       } else {
-         System.out.println("Latest 5 recent updates made to your hotel:");
-       }
-       esql.executeQueryAndPrintResult(query);
+       PrintWriter writer = esql.openWriter();
+       long rowCount = esql.getRepository().recentUpdates(userID, 5, printer(writer, "Latest 5 recent updates made to your hotel:"));
+       esql.endSection(writer, rowCount, "No recent updates.");
      }catch(Exception e){
-       System.err.println (e.getMessage());
+       esql.err.println (e.getMessage());
      }
    }
    public static void viewBookingHistoryofHotel(Hotel esql) {
      try {
-         String query = "SELECT * " +
-                        "FROM USERS u " +
-                        "WHERE u.userID = " + hotel_userID + " AND u.userType = 'manager';";
-         int rowCount = esql.executeQuery(query);
+         Principal principal = esql.getPrincipal();
 
          /*check if user is a manager*/
-         if (rowCount != 1) {
-            System.out.println("Sorry, you do not have access.");
+         if (principal == null || !principal.isManager()) {
+            esql.out.println("Sorry, you do not have access.");
             return;
          }
 
-         System.out.println("Enter start date (MM/DD/YYYY): ");
-         String startDate = in.readLine();
-
-         System.out.println("Enter end date (MM/DD/YYYY): ");
-         String endDate = in.readLine();
-
-         query = "SELECT b.bookingID, u.name, b.hotelID, b.roomNumber, b.bookingDate " +
-                 "FROM RoomBookings b " +
-                 "JOIN Hotel h ON h.hotelID = b.hotelID " +
-                 "JOIN Users u ON u.userID = b.customerID " +
-                 "WHERE h.managerUserID = " + hotel_userID +  " AND b.bookingDate BETWEEN '" + startDate + "' AND '" + endDate + "'" +
-                 "ORDER BY b.bookingDate DESC;";
-         System.out.println("Booking history between " + startDate + "-" + endDate + ": ");
-         rowCount = esql.executeQueryAndPrintResult(query);
+         esql.out.println("Enter start date (MM/DD/YYYY): ");
+         String startDate = esql.in.readLine();
+
+         esql.out.println("Enter end date (MM/DD/YYYY): ");
+         String endDate = esql.in.readLine();
+
+         esql.out.println("Booking history between " + startDate + "-" + endDate + ": ");
+         int pageSize = Integer.getInteger("hotel.historyPageSize", 50);
+         String afterDate = endDate;
+         int afterBookingID = Integer.MAX_VALUE;
+         long rowCount = 0;
+         PrintWriter writer = esql.openWriter();
+         while (true) {
+            // remembers the key of the last row, the next page starts after it.
+            final RowHandler print = printer(writer, null);
+            final String[] last = new String[2];
+            long rows = esql.getRepository().bookingHistoryPage(principal.getHotelIDs(), startDate, endDate, afterDate, afterBookingID, pageSize,
+               new RowHandler() {
+                  public void handle(ResultRow row) throws SQLException {
+                     print.handle(row);
+                     last[0] = row.getString(1);
+                     last[1] = row.getString(5);
+                  }
+               });
+            writer.flush();
+            rowCount += rows;
+            if (rows < pageSize)
+               break;
+            esql.out.println("Rows 1-" + rowCount + " shown. Enter n for the next page, anything else to stop: ");
+            String answer = esql.in.readLine();
+            if (answer == null || !answer.trim().equalsIgnoreCase("n"))
+               break;
+            afterBookingID = Integer.parseInt(last[0]);
+            afterDate = last[1];
+         }
          if (rowCount < 1)
-            System.out.println("\tNo bookings made. ");
+            esql.out.println("\tNo bookings made. ");
          else
-            System.out.println("Total row(s): " + rowCount);
+            esql.out.println("Total row(s): " + rowCount);
 
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         esql.err.println (e.getMessage ());
       }
    }
    public static void viewRegularCustomers(Hotel esql) {
     try{
-       String query = "SELECT * FROM Users u WHERE u.userID = " + hotel_userID + " AND u.userType = 'manager'";
-       int rowCount = esql.executeQuery(query);
-       if(rowCount <= 0) {
-        System.out.println("Only managers have access to this feature.");
+       Principal principal = esql.getPrincipal();
+       if(principal == null || !principal.isManager()) {
+        esql.out.println("Only managers have access to this feature.");
         return;
        }
-       System.out.println("Enter Hotel ID: ");
-       String input = in.readLine();
+       esql.out.println("Enter Hotel ID: ");
+       String input = esql.in.readLine();
        int HotelID_input = Integer.parseInt(input);
-       query = "SELECT * FROM Hotel h WHERE h.managerUserID = " + hotel_userID + " AND h.hotelID = " + HotelID_input;
-       rowCount = esql.executeQuery(query);
-       if(rowCount <= 0) {
-        System.out.println("You must manage this hotel to view this information.");
+       if(!principal.manages(HotelID_input)) {
+        esql.out.println("You must manage this hotel to view this information.");
         return;
        }
-       query = "SELECT books_per_cust.customer_id AS id, u.name AS name  FROM (SELECT rb.customerID AS customer_id, COUNT(rb.bookingID) AS bookings FROM RoomBookings rb WHERE rb.HotelID = " + HotelID_input + " GROUP BY rb.customerID) AS books_per_cust, Users u WHERE u.userID = books_per_cust.customer_id ORDER BY books_per_cust.bookings DESC LIMIT 5";
-       rowCount = esql.executeQuery(query);
-       if(rowCount <= 0) {
-        System.out.println("No regular customers.");
-       } else {
-        System.out.println("Top 5 regular customers for hotel #" + HotelID_input + ":" );
-      }
-       esql.executeQueryAndPrintResult(query);
+       String heading = "Top 5 regular customers for hotel #" + HotelID_input + ":";
+       PrintWriter writer = esql.openWriter();
+       long rowCount = esql.getRepository().regularCustomers(HotelID_input, 5, printer(writer, heading));
+       esql.endSection(writer, rowCount, "No regular customers.");
      }catch(Exception e){
-       System.err.println (e.getMessage());
+       esql.err.println (e.getMessage());
      }
    }
    public static void placeRoomRepairRequests(Hotel esql) {
      try {
-        String query = "SELECT * " +
-                       "FROM USERS u " +
-                       "WHERE u.userID = " + hotel_userID + " AND u.userType = 'manager';";
-        int rowCount = esql.executeQuery(query);
+        int userID = Integer.parseInt(esql.hotel_userID);
+        Principal principal = esql.getPrincipal();
 
         /*check if user is a manager*/
-        if (rowCount != 1) {
-           System.out.println("Sorry, you do not have access.");
+        if (principal == null || !principal.isManager()) {
+           esql.out.println("Sorry, you do not have access.");
            return;
         }
 
-        System.out.println("Enter Hotel ID: ");
-        String hotelID = in.readLine();
-
-        query = "SELECT * " +
-                "FROM Users u " +
-                "JOIN Hotel h ON h.managerUserID = u.userID " +
-                "WHERE h.manageruserID = " + hotel_userID + " AND h.hotelID = " + hotelID + ";";
-        rowCount = esql.executeQuery(query);
+        esql.out.println("Enter Hotel ID: ");
+        int hotelID = Integer.parseInt(esql.in.readLine());
 
         /*check if user is a manager of specified hotel*/
-        if (rowCount != 1) {
-           System.out.println("Sorry, you do not have access. You are not the manager of this hotel. ");
-           return;
-        }
-
-        System.out.println("Enter Room #: ");
-        String roomNumber = in.readLine();
-
-        query = "SELECT * " +
-                "FROM Rooms r " +
-                "WHERE r.hotelID = " + hotelID + " AND r.roomNumber = " + roomNumber + ";";
-        rowCount = esql.executeQuery(query);
-
-        /*check if user entered valid room*/
-        if (rowCount != 1) {
-           System.out.println("Sorry, that is not a valid room. ");
+        if (!principal.manages(hotelID)) {
+           esql.out.println("Sorry, you do not have access. You are not the manager of this hotel. ");
            return;
         }
 
-        System.out.println("Enter Company ID: ");
-        String companyID = in.readLine();
-
-        query = "SELECT * " +
-                "FROM MaintenanceCompany c " +
-                "WHERE c.companyID = " + companyID + ";";
-        rowCount = esql.executeQuery(query);
-
-        if (rowCount != 1) {
-           System.out.println("Sorry, that is not a valid company. ");
+        esql.out.println("Enter Room #: ");
+        int roomNumber = Integer.parseInt(esql.in.readLine());
+
+        esql.out.println("Enter Company ID: ");
+        int companyID = Integer.parseInt(esql.in.readLine());
+
+        /*room, company and manager are checked by the insert itself, one round trip*/
+        HotelRepository repository = esql.getRepository();
+        int requestNumber = repository.placeRepairRequest(userID, companyID, hotelID, roomNumber);
+        if (requestNumber < 0) {
+           if (!repository.roomExists(hotelID, roomNumber))
+              esql.out.println("Sorry, that is not a valid room. ");
+           else if (!repository.companyExists(companyID))
+              esql.out.println("Sorry, that is not a valid company. ");
+           else
+              esql.out.println("Sorry, you do not have access. You are not the manager of this hotel. ");
            return;
         }
-
-        query = String.format("INSERT INTO roomRepairs (companyID, hotelID, roomNumber, repairDate) VALUES ('%s','%s', '%s', CURRENT_DATE)", companyID, hotelID, roomNumber);
-        esql.executeUpdate(query);
-
-        /*check if roomRepairs INSERTED properly
- *         query = "SELECT * " +
- *                         "FROM roomRepairs r " +
- *                                         "ORDER BY repairID DESC " +
- *                                                         "LIMIT 1;";
- *                                                                 rowCount = esql.executeQueryAndPrintResult(query);*/
-
-        query = String.format("INSERT INTO roomRepairRequests (managerID, repairID) VALUES ('%s', " +
-                              "(SELECT r.repairID " +
-                              "FROM roomRepairs r " +
-                              "ORDER BY repairID DESC " +
-                              "LIMIT 1))", hotel_userID);
-        esql.executeUpdate(query);
-        System.out.println("A request has been made for Hotel #" + hotelID + ", Room #" + roomNumber + " with Company #" + companyID + ". ");
-
-        /*check if roomRepairRequests INSERTED properly
- *         query = "SELECT * " +
- *                         "FROM roomRepairRequests r " +
- *                                         "ORDER BY requestNumber DESC " +
- *                                                         "LIMIT 1;";
- *                                                                 rowCount = esql.executeQueryAndPrintResult(query);*/
+        esql.out.println("A request has been made for Hotel #" + hotelID + ", Room #" + roomNumber + " with Company #" + companyID + ". ");
 
      }catch(Exception e){
-        System.err.println (e.getMessage ());
+        esql.err.println (e.getMessage ());
      }
    }
    public static void viewRoomRepairHistory(Hotel esql) {
      try{
-       String query = "SELECT * FROM Users u WHERE u.userID = " + hotel_userID + " AND u.userType = 'manager'";
-       int rowCount = esql.executeQuery(query);
-       if(rowCount <= 0) {
-        System.out.println("Only managers have access to this feature.");
+       int userID = Integer.parseInt(esql.hotel_userID);
+       Principal principal = esql.getPrincipal();
+       if(principal == null || !principal.isManager()) {
+        esql.out.println("Only managers have access to this feature.");
+        return;
+       }
+       PrintWriter writer = esql.openWriter();
+       long rowCount = esql.getRepository().repairHistory(userID, printer(writer, "Room repair requests history:"));
+       esql.endSection(writer, rowCount, "No repair request history.");
+     }catch(Exception e){
+       esql.err.println (e.getMessage());
+     }
+   }
+   public static void managerDashboard(Hotel esql) {
+     try{
+       int userID = Integer.parseInt(esql.hotel_userID);
+       Principal principal = esql.getPrincipal();
+       if(principal == null || !principal.isManager()) {
+        esql.out.println("Only managers have access to this feature.");
         return;
        }
-       query = "SELECT req.requestNumber AS request, repairs.companyID AS company, repairs.HotelID AS hotel, repairs.roomNumber AS room, repairs.repairDate AS date FROM RoomRepairs repairs, RoomRepairRequests req WHERE repairs.repairID = req.repairID AND req.managerID = " + hotel_userID + " ORDER BY repairs.repairDate DESC";
-       rowCount = esql.executeQuery(query);
-       if(rowCount <= 0) {
-        System.out.println("No repair request history.");
-       } else {
-        System.out.println("Room repair requests history:" );
+       esql.out.println("Enter start date (MM/DD/YYYY): ");
+       String startDate = esql.in.readLine();
+       esql.out.println("Enter end date (MM/DD/YYYY): ");
+       String endDate = esql.in.readLine();
+
+       /*every query runs at the same time on a connection of its own, the sections print in order*/
+       List<ManagerDashboard.Section> sections = _dashboard.collect(esql, userID, principal.getHotelIDs(), startDate, endDate,
+                                                                    Integer.getInteger("hotel.historyPageSize", 50));
+       PrintWriter writer = esql.openWriter();
+       for (ManagerDashboard.Section section : sections) {
+          if (section.error != null) {
+             writer.flush();
+             esql.err.println(section.heading + " " + section.error.getMessage());
+             continue;
+          }
+          if (section.rows.isEmpty())
+             writer.println(section.heading);
+          long rowCount = ResultRow.emit(printer(writer, section.heading), section.rows, section.columns);
+          esql.endSection(writer, rowCount, section.emptyMessage);
        }
-       esql.executeQueryAndPrintResult(query);
      }catch(Exception e){
-       System.err.println (e.getMessage());
+       esql.err.println (e.getMessage());
      }
    }
 
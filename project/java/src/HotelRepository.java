@@ -0,0 +1,165 @@
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * This interface is the storage of the hotel data as the menu operations
+ * see it: users, hotels, rooms, bookings, repairs and the room update log.
+ * The menus only go through it, so the same operations run against the
+ * PostgreSQL database (JdbcHotelRepository) or against tables held in the
+ * process (MemoryHotelRepository).
+ *
+ * Listings hand their rows to a RowHandler, one row at a time, with the
+ * column names listed on each method; dates come out as yyyy-mm-dd and
+ * character columns padded to their width, as PostgreSQL returns them.
+ * Dates going in are accepted as MM/DD/YYYY, as the menus read them.
+ * Violated keys and constraints are reported as SQLExceptions carrying the
+ * SQLState PostgreSQL would use.
+ *
+ */
+public interface HotelRepository {
+
+   /**
+    * Adds a user.
+    *
+    * @return the new userID
+    */
+   int createUser(String name, String password, String userType) throws SQLException;
+
+   /**
+    * Looks up a user with the hotels the user manages, as Principal reads it.
+    *
+    * @param userID the user
+    * @param password the password to check, or null to skip the check
+    * @return one row {userType, hotelID} per managed hotel, a single row with a null hotelID when there is none,
+    *         and no row when the user does not exist or the password is wrong
+    */
+   List<List<String>> findUser(int userID, String password) throws SQLException;
+
+   void addHotel(int hotelID, String hotelName, double latitude, double longitude, String dateEstablished,
+                 int managerUserID) throws SQLException;
+
+   /**
+    * Lists the hotels within a distance of a point, by calculate_distance.
+    * Columns: hotelname.
+    *
+    * @return the number of rows
+    */
+   long hotelsWithin(double latitude, double longitude, double radius, RowHandler handler) throws SQLException;
+
+   void addRoom(int hotelID, int roomNumber, int price, String imageURL) throws SQLException;
+
+   boolean roomExists(int hotelID, int roomNumber) throws SQLException;
+
+   /**
+    * @return the price of a room, -1 when the room does not exist
+    */
+   int roomPrice(int hotelID, int roomNumber) throws SQLException;
+
+   /**
+    * Changes the price and image of a room.
+    *
+    * @return false when the room does not exist
+    */
+   boolean updateRoom(int hotelID, int roomNumber, int price, String imageURL) throws SQLException;
+
+   /**
+    * Changes the price and image of a room and records in the update log
+    * that a manager did it, atomically: either both are written or neither.
+    *
+    * @return false when the room does not exist, nothing is written then
+    */
+   boolean updateRoomAndLog(int managerID, int hotelID, int roomNumber, int price, String imageURL) throws SQLException;
+
+   /**
+    * Lists the rooms of a hotel that are free on a date. Columns: room, price.
+    *
+    * @return the number of rows
+    */
+   long availableRooms(int hotelID, String date, RowHandler handler) throws SQLException;
+
+   /**
+    * Lists the rooms of a hotel that are booked on a date. Columns: room, price.
+    *
+    * @return the number of rows
+    */
+   long bookedRooms(int hotelID, String date, RowHandler handler) throws SQLException;
+
+   /**
+    * Books a room for a customer on a date, atomically.
+    *
+    * @return the new bookingID, or -1 when the room is already booked
+    */
+   int bookRoom(int customerID, int hotelID, int roomNumber, String bookingDate) throws SQLException;
+
+   /**
+    * Books several rooms and dates of one hotel, all or nothing.
+    *
+    * @param roomNumbers the room of each booking
+    * @param bookingDates the date of each booking, in the same order
+    * @return the total price of the bookings, -1 when a room does not exist or is booked
+    */
+   int bookRooms(int customerID, int hotelID, int[] roomNumbers, String[] bookingDates) throws SQLException;
+
+   /**
+    * Lists the latest bookings of a customer, newest first. Columns: hotel,
+    * room, price, date.
+    *
+    * @return the number of rows
+    */
+   long recentBookings(int customerID, int limit, RowHandler handler) throws SQLException;
+
+   /**
+    * Lists one page of the booking history of a set of hotels, newest first
+    * by (bookingDate, bookingID). Columns:
+    * bookingid, name, hotelid, roomnumber, bookingdate.
+    *
+    * @param afterDate the bookingDate of the last row of the previous page, endDate for the first page
+    * @param afterBookingID the bookingID of the last row of the previous page, Integer.MAX_VALUE for the first page
+    * @return the number of rows of the page, less than pageSize on the last page
+    */
+   long bookingHistoryPage(int[] hotelIDs, String startDate, String endDate, String afterDate, int afterBookingID,
+                           int pageSize, RowHandler handler) throws SQLException;
+
+   /**
+    * Lists the customers with the most bookings at a hotel, most first, ties
+    * by the lower customerID. Columns: id, name.
+    *
+    * @return the number of rows
+    */
+   long regularCustomers(int hotelID, int limit, RowHandler handler) throws SQLException;
+
+   /**
+    * Records that a manager updated a room, now.
+    */
+   void logRoomUpdate(int managerID, int hotelID, int roomNumber) throws SQLException;
+
+   /**
+    * Lists the latest room updates of a manager, newest first. Columns:
+    * update, hotel, room, update_time.
+    *
+    * @return the number of rows
+    */
+   long recentUpdates(int managerID, int limit, RowHandler handler) throws SQLException;
+
+   void addCompany(int companyID, String name, String address) throws SQLException;
+
+   boolean companyExists(int companyID) throws SQLException;
+
+   /**
+    * Records a repair of a room by a company today and the manager's
+    * request for it, atomically.
+    *
+    * @return the new requestNumber, or -1 when the room or the company does not exist or the hotel is not managed
+    *         by the manager; nothing is written then
+    */
+   int placeRepairRequest(int managerID, int companyID, int hotelID, int roomNumber) throws SQLException;
+
+   /**
+    * Lists the repair requests of a manager, latest repair first. Columns:
+    * request, company, hotel, room, date.
+    *
+    * @return the number of rows
+    */
+   long repairHistory(int managerID, RowHandler handler) throws SQLException;
+
+}//end HotelRepository
@@ -0,0 +1,276 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class keeps every hotel's location in a uniform grid over
+ * latitude/longitude so that "hotels within 30 units" and "k nearest hotels"
+ * can be answered without calling calculate_distance on every row of the
+ * Hotel table. Distances are computed with Hotel.calculateDistance, the Java
+ * twin of the SQL function, so the results match the SQL search.
+ *
+ * The index is shared by all sessions. Code that changes a row of the Hotel
+ * table must call put or remove so the index follows.
+ *
+ */
+public class HotelSpatialIndex {
+
+   // default grid cell size, equal to the radius of the menu search.
+   public static final double DEFAULT_CELL_SIZE = 30;
+
+   /**
+    * A hotel as seen by the index.
+    */
+   public static class Entry {
+      public final int hotelID;
+      public final String hotelName;
+      public final double latitude;
+      public final double longitude;
+
+      // distance to the query point, only set on search results.
+      public final double distance;
+
+      Entry(int hotelID, String hotelName, double latitude, double longitude, double distance) {
+         this.hotelID = hotelID;
+         this.hotelName = hotelName;
+         this.latitude = latitude;
+         this.longitude = longitude;
+         this.distance = distance;
+      }
+   }//end Entry
+
+   /*
+    * The hotels of one grid cell as growable parallel arrays, so a search
+    * scans coordinates without touching the hotel map.
+    **/
+   private static class Cell {
+      int[] hotelIDs = new int[4];
+      double[] latitudes = new double[4];
+      double[] longitudes = new double[4];
+      int size = 0;
+
+      void add(int hotelID, double latitude, double longitude) {
+         if (this.size == this.hotelIDs.length) {
+            this.hotelIDs = java.util.Arrays.copyOf(this.hotelIDs, this.size * 2);
+            this.latitudes = java.util.Arrays.copyOf(this.latitudes, this.size * 2);
+            this.longitudes = java.util.Arrays.copyOf(this.longitudes, this.size * 2);
+         }
+         this.hotelIDs[this.size] = hotelID;
+         this.latitudes[this.size] = latitude;
+         this.longitudes[this.size] = longitude;
+         this.size++;
+      }
+
+      void remove(int hotelID) {
+         for (int i = 0; i < this.size; ++i) {
+            if (this.hotelIDs[i] == hotelID) {
+               --this.size;
+               this.hotelIDs[i] = this.hotelIDs[this.size];
+               this.latitudes[i] = this.latitudes[this.size];
+               this.longitudes[i] = this.longitudes[this.size];
+               return;
+            }
+         }
+      }
+   }//end Cell
+
+   private static final Comparator<Entry> BY_DISTANCE = new Comparator<Entry>() {
+      public int compare(Entry a, Entry b) {
+         int c = Double.compare(a.distance, b.distance);
+         return c != 0 ? c : a.hotelID - b.hotelID;
+      }
+   };
+
+   private final double _cellSize;
+   private final HashMap<Integer, Entry> _hotels = new HashMap<Integer, Entry>();
+   private final HashMap<Long, Cell> _cells = new HashMap<Long, Cell>();
+   private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+
+   // bounding box of the occupied cells, limits the nearest-neighbour search.
+   private int _minX = Integer.MAX_VALUE, _maxX = Integer.MIN_VALUE;
+   private int _minY = Integer.MAX_VALUE, _maxY = Integer.MIN_VALUE;
+
+   /**
+    * Creates an empty index
+    *
+    * @param cellSize the side of one grid cell in latitude/longitude units
+    */
+   public HotelSpatialIndex(double cellSize) {
+      this._cellSize = cellSize;
+   }//end HotelSpatialIndex
+
+   /**
+    * Replaces the content of the index with every row of the Hotel table.
+    *
+    * @param esql the session used to read the table
+    * @throws java.sql.SQLException when the table cannot be read
+    */
+   public void load(Hotel esql) throws SQLException {
+      List<List<String>> rows = esql.executeQueryAndReturnResult(
+         "SELECT h.hotelID, h.hotelName, h.latitude, h.longitude FROM Hotel h WHERE h.latitude IS NOT NULL AND h.longitude IS NOT NULL");
+      this._lock.writeLock().lock();
+      try{
+         this._hotels.clear();
+         this._cells.clear();
+         this._minX = this._minY = Integer.MAX_VALUE;
+         this._maxX = this._maxY = Integer.MIN_VALUE;
+         for (List<String> row : rows)
+            put(Integer.parseInt(row.get(0)), row.get(1), Double.parseDouble(row.get(2)), Double.parseDouble(row.get(3)));
+      }finally{
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end load
+
+   /**
+    * Adds a hotel, or moves it when it is already indexed.
+    */
+   public void put(int hotelID, String hotelName, double latitude, double longitude) {
+      this._lock.writeLock().lock();
+      try{
+         remove(hotelID);
+         int x = cell(latitude), y = cell(longitude);
+         this._hotels.put(hotelID, new Entry(hotelID, hotelName, latitude, longitude, 0));
+         Cell cell = this._cells.get(key(x, y));
+         if (cell == null) {
+            cell = new Cell();
+            this._cells.put(key(x, y), cell);
+         }
+         cell.add(hotelID, latitude, longitude);
+         this._minX = Math.min(this._minX, x);
+         this._maxX = Math.max(this._maxX, x);
+         this._minY = Math.min(this._minY, y);
+         this._maxY = Math.max(this._maxY, y);
+      }finally{
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end put
+
+   /**
+    * Removes a hotel, nothing happens when it is not indexed.
+    */
+   public void remove(int hotelID) {
+      this._lock.writeLock().lock();
+      try{
+         Entry old = this._hotels.remove(hotelID);
+         if (old == null)
+            return;
+         long key = key(cell(old.latitude), cell(old.longitude));
+         Cell cell = this._cells.get(key);
+         cell.remove(hotelID);
+         if (cell.size == 0)
+            this._cells.remove(key);
+      }finally{
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end remove
+
+   /**
+    * Finds every hotel within a radius of a point.
+    *
+    * @param latitude the latitude of the point
+    * @param longitude the longitude of the point
+    * @param radius the maximum distance, inclusive
+    * @return the hotels, nearest first
+    */
+   public List<Entry> within(double latitude, double longitude, double radius) {
+      List<Entry> result = new ArrayList<Entry>();
+      this._lock.readLock().lock();
+      try{
+         int x0 = cell(latitude - radius), x1 = cell(latitude + radius);
+         int y0 = cell(longitude - radius), y1 = cell(longitude + radius);
+         for (int x = Math.max(x0, this._minX); x <= Math.min(x1, this._maxX); ++x) {
+            for (int y = Math.max(y0, this._minY); y <= Math.min(y1, this._maxY); ++y) {
+               Cell cell = this._cells.get(key(x, y));
+               if (cell == null)
+                  continue;
+               for (int i = 0; i < cell.size; ++i) {
+                  double d = Hotel.calculateDistance(cell.latitudes[i], cell.longitudes[i], latitude, longitude);
+                  if (d <= radius)
+                     result.add(found(cell.hotelIDs[i], d));
+               }
+            }
+         }
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+      Collections.sort(result, BY_DISTANCE);
+      return result;
+   }//end within
+
+   /**
+    * Finds the k hotels nearest to a point by searching rings of grid cells
+    * around it until no unvisited cell can hold a nearer hotel.
+    *
+    * @param latitude the latitude of the point
+    * @param longitude the longitude of the point
+    * @param k the number of hotels wanted
+    * @return at most k hotels, nearest first
+    */
+   public List<Entry> nearest(double latitude, double longitude, int k) {
+      // max-heap on distance holding the best k candidates seen so far.
+      PriorityQueue<Entry> best = new PriorityQueue<Entry>(Math.max(1, k), Collections.reverseOrder(BY_DISTANCE));
+      this._lock.readLock().lock();
+      try{
+         if (k <= 0 || this._hotels.isEmpty())
+            return new ArrayList<Entry>();
+         int cx = cell(latitude), cy = cell(longitude);
+         int maxRing = Math.max(Math.max(Math.abs(cx - this._minX), Math.abs(cx - this._maxX)),
+                                Math.max(Math.abs(cy - this._minY), Math.abs(cy - this._maxY)));
+         for (int r = 0; r <= maxRing; ++r) {
+            for (int x = cx - r; x <= cx + r; ++x) {
+               // only the border of the square is new in ring r.
+               int step = (x == cx - r || x == cx + r) ? 1 : 2 * r;
+               for (int y = cy - r; y <= cy + r; y += Math.max(1, step)) {
+                  Cell cell = this._cells.get(key(x, y));
+                  if (cell == null)
+                     continue;
+                  for (int i = 0; i < cell.size; ++i) {
+                     double d = Hotel.calculateDistance(cell.latitudes[i], cell.longitudes[i], latitude, longitude);
+                     if (best.size() < k || d < best.peek().distance) {
+                        best.add(found(cell.hotelIDs[i], d));
+                        if (best.size() > k)
+                           best.poll();
+                     }
+                  }
+               }
+            }
+            // every hotel outside rings 0..r is at least r cells away.
+            if (best.size() == k && best.peek().distance <= r * this._cellSize)
+               break;
+         }
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+      List<Entry> result = new ArrayList<Entry>(best);
+      Collections.sort(result, BY_DISTANCE);
+      return result;
+   }//end nearest
+
+   public int size() {
+      this._lock.readLock().lock();
+      try{
+         return this._hotels.size();
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+   }
+
+   private Entry found(int hotelID, double distance) {
+      Entry hotel = this._hotels.get(hotelID);
+      return new Entry(hotel.hotelID, hotel.hotelName, hotel.latitude, hotel.longitude, distance);
+   }
+
+   private int cell(double coordinate) {
+      return (int) Math.floor(coordinate / this._cellSize);
+   }
+
+   private static long key(int x, int y) {
+      return ((long) x << 32) | (y & 0xffffffffL);
+   }
+
+}//end HotelSpatialIndex
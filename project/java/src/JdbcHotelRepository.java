@@ -0,0 +1,453 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class is the repository of a session on the PostgreSQL database. It
+ * holds the SQL of the menu operations and answers from the shared
+ * in-memory caches of the session (spatial index, availability calendar,
+ * regular customer counters, room catalog) when they are enabled, keeping
+ * them in step with what it writes.
+ *
+ */
+public class JdbcHotelRepository implements HotelRepository {
+
+   private static final String USER_QUERY =
+      "SELECT u.userType, h.hotelID FROM Users u LEFT JOIN Hotel h ON h.managerUserID = u.userID WHERE u.userID = ?";
+
+   private static final String BOOKING_INSERT =
+      "INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate) VALUES (?, ?, ?, CAST(? AS DATE)) "
+      + "ON CONFLICT (hotelID, roomNumber, bookingDate) DO NOTHING";
+
+   // striped locks serializing bookings of one room on one date within this JVM.
+   private static final RoomLocks _roomLocks = new RoomLocks(
+      Integer.getInteger("hotel.bookingLockStripes", RoomLocks.DEFAULT_STRIPES));
+
+   private final Hotel _esql;
+
+   /**
+    * Creates the repository of a session
+    *
+    * @param esql the session whose connections the statements run on
+    */
+   public JdbcHotelRepository(Hotel esql) {
+      this._esql = esql;
+   }//end JdbcHotelRepository
+
+   public int createUser(String name, String password, String userType) throws SQLException {
+      // the key comes back with the insert; the sequence's last_value may already belong to another session.
+      return this._esql.getNewUserID("INSERT INTO USERS (name, password, userType) VALUES (?, ?, ?) RETURNING userID",
+                                     name, password, userType);
+   }//end createUser
+
+   public List<List<String>> findUser(int userID, String password) throws SQLException {
+      if (password == null)
+         return this._esql.executeQueryAndReturnResult(USER_QUERY, userID);
+      return this._esql.executeQueryAndReturnResult(USER_QUERY + " AND u.password = ?", userID, password);
+   }//end findUser
+
+   public void addHotel(int hotelID, String hotelName, double latitude, double longitude, String dateEstablished,
+                        int managerUserID) throws SQLException {
+      this._esql.executeUpdate(
+         "INSERT INTO Hotel (hotelID, hotelName, latitude, longitude, dateEstablished, managerUserID) "
+         + "VALUES (?, ?, ?, ?, CAST(? AS DATE), ?)",
+         hotelID, hotelName, latitude, longitude, dateEstablished, managerUserID);
+      HotelSpatialIndex index = this._esql.getHotelIndex();
+      if (index != null)
+         index.put(hotelID, hotelName, latitude, longitude);
+      Principal.invalidate(managerUserID);
+   }//end addHotel
+
+   public long hotelsWithin(double latitude, double longitude, double radius, RowHandler handler) throws SQLException {
+      HotelSpatialIndex index = this._esql.getHotelIndex();
+      if (index != null) {
+         List<Object[]> rows = new ArrayList<Object[]>();
+         for (HotelSpatialIndex.Entry hotel : index.within(latitude, longitude, radius))
+            rows.add(new Object[] { hotel.hotelName });
+         return ResultRow.emit(handler, rows, "hotelname");
+      }
+      return this._esql.streamQuery(
+         "SELECT h.hotelname FROM Hotel h "
+         + "WHERE calculate_distance(h.latitude, h.longitude, CAST(? AS DECIMAL), CAST(? AS DECIMAL)) <= CAST(? AS DECIMAL)",
+         handler, latitude, longitude, radius);
+   }//end hotelsWithin
+
+   public void addRoom(int hotelID, int roomNumber, int price, String imageURL) throws SQLException {
+      this._esql.executeUpdate("INSERT INTO Rooms (hotelID, roomNumber, price, imageURL) VALUES (?, ?, ?, ?)",
+                               hotelID, roomNumber, price, imageURL);
+      AvailabilityCalendar calendar = this._esql.getAvailabilityCalendar();
+      if (calendar == null)
+         return;
+      // the calendar replaces a hotel's rooms as a whole; with bookings to keep it has to reload.
+      if (this._esql.executeQuery("SELECT 1 FROM RoomBookings rb WHERE rb.hotelID = ? LIMIT 1", hotelID) > 0) {
+         calendar.load(this._esql);
+         return;
+      }
+      List<List<String>> rooms = this._esql.executeQueryAndReturnResult(
+         "SELECT r.roomNumber, r.price FROM Rooms r WHERE r.hotelID = ? ORDER BY r.roomNumber", hotelID);
+      int[] roomNumbers = new int[rooms.size()], prices = new int[rooms.size()];
+      for (int i = 0; i < rooms.size(); ++i) {
+         roomNumbers[i] = Integer.parseInt(rooms.get(i).get(0));
+         prices[i] = Integer.parseInt(rooms.get(i).get(1));
+      }
+      calendar.addHotel(hotelID, roomNumbers, prices);
+   }//end addRoom
+
+   public boolean roomExists(int hotelID, int roomNumber) throws SQLException {
+      RoomCatalog catalog = Hotel.getRoomCatalog();
+      if (catalog != null)
+         return catalog.get(this._esql, hotelID, roomNumber) != null;
+      return this._esql.executeQuery("SELECT * FROM Rooms r WHERE r.hotelID = ? AND r.roomNumber = ?", hotelID, roomNumber) == 1;
+   }//end roomExists
+
+   public int roomPrice(int hotelID, int roomNumber) throws SQLException {
+      AvailabilityCalendar calendar = this._esql.getAvailabilityCalendar();
+      if (calendar != null && calendar.hasRoom(hotelID, roomNumber))
+         return calendar.getPrice(hotelID, roomNumber);
+      RoomCatalog catalog = Hotel.getRoomCatalog();
+      if (catalog != null) {
+         RoomCatalog.Room room = catalog.get(this._esql, hotelID, roomNumber);
+         return room == null ? -1 : room.price;
+      }
+      List<List<String>> rows = this._esql.executeQueryAndReturnResult(
+         "SELECT r.price FROM Rooms r WHERE r.hotelID = ? AND r.roomNumber = ?", hotelID, roomNumber);
+      return rows.isEmpty() ? -1 : Integer.parseInt(rows.get(0).get(0));
+   }//end roomPrice
+
+   public boolean updateRoom(int hotelID, int roomNumber, int price, String imageURL) throws SQLException {
+      int count = this._esql.executeUpdate("UPDATE Rooms SET price = ?, imageURL = ? WHERE hotelID = ? AND roomNumber = ?",
+                                           price, imageURL, hotelID, roomNumber);
+      AvailabilityCalendar calendar = this._esql.getAvailabilityCalendar();
+      if (calendar != null && count > 0)
+         calendar.setPrice(hotelID, roomNumber, price);
+      RoomCatalog catalog = Hotel.getRoomCatalog();
+      if (catalog != null)
+         catalog.invalidate(hotelID, roomNumber);
+      return count > 0;
+   }//end updateRoom
+
+   public boolean updateRoomAndLog(int managerID, int hotelID, int roomNumber, int price, String imageURL) throws SQLException {
+      RoomUpdateWriter writer = this._esql.getRoomUpdateWriter();
+      if (writer != null)
+         return writer.update(managerID, hotelID, roomNumber, price, imageURL);
+      Object[] row = { price, imageURL, hotelID, roomNumber, managerID, new Timestamp(System.currentTimeMillis()) };
+      return applyRoomUpdates(Collections.singletonList(row))[0] != 0;
+   }//end updateRoomAndLog
+
+   /**
+    * Updates rooms and logs each update in RoomUpdatesLog, all in one
+    * transaction. Every room update and its log entry are one statement, so
+    * the log row exists exactly when the room was changed. This is the
+    * commit RoomUpdateWriter groups many sessions' updates into.
+    *
+    * @param rows one {price, imageURL, hotelID, roomNumber, managerID, updatedOn} array per update, applied in order
+    * @return 1 for each update whose room exists, 0 for the others
+    * @throws java.sql.SQLException when an update fails; nothing is written then
+    */
+   public int[] applyRoomUpdates(List<Object[]> rows) throws SQLException {
+      int[] counts;
+      boolean ownTransaction = this._esql.beginTransaction();
+      boolean done = false;
+      try{
+         counts = this._esql.executeBatch(
+            "WITH updated AS (UPDATE Rooms SET price = ?, imageURL = ? WHERE hotelID = ? AND roomNumber = ? "
+            + "RETURNING hotelID, roomNumber) "
+            + "INSERT INTO RoomUpdatesLog (managerID, hotelID, roomNumber, updatedOn) "
+            + "SELECT ?, u.hotelID, u.roomNumber, CAST(? AS TIMESTAMP) FROM updated u", rows);
+         done = true;
+      }finally{
+         this._esql.endTransaction(ownTransaction, done);
+      }//end try
+
+      AvailabilityCalendar calendar = this._esql.getAvailabilityCalendar();
+      RoomCatalog catalog = Hotel.getRoomCatalog();
+      for (int i = 0; i < counts.length; ++i) {
+         if (counts[i] == 0)
+            continue;
+         int hotelID = (Integer) rows.get(i)[2], roomNumber = (Integer) rows.get(i)[3];
+         if (calendar != null)
+            calendar.setPrice(hotelID, roomNumber, (Integer) rows.get(i)[0]);
+         if (catalog != null)
+            catalog.invalidate(hotelID, roomNumber);
+      }
+      return counts;
+   }//end applyRoomUpdates
+
+   public long availableRooms(int hotelID, String date, RowHandler handler) throws SQLException {
+      AvailabilityCalendar calendar = this._esql.getAvailabilityCalendar();
+      Integer day = epochDay(date);
+      if (calendar != null && day != null && calendar.covers(day))
+         return emitRooms(calendar.rooms(hotelID, day, true), handler);
+      return this._esql.streamQuery(
+         "SELECT r.roomNumber AS Room, r.price FROM Rooms r WHERE r.hotelID = ? AND r.roomNumber NOT IN ("
+         + "SELECT rb.roomNumber FROM RoomBookings rb WHERE rb.hotelID = ? AND rb.bookingDate = CAST(? AS DATE))",
+         handler, hotelID, hotelID, date);
+   }//end availableRooms
+
+   public long bookedRooms(int hotelID, String date, RowHandler handler) throws SQLException {
+      AvailabilityCalendar calendar = this._esql.getAvailabilityCalendar();
+      Integer day = epochDay(date);
+      if (calendar != null && day != null && calendar.covers(day))
+         return emitRooms(calendar.rooms(hotelID, day, false), handler);
+      RoomCatalog catalog = Hotel.getRoomCatalog();
+      if (catalog != null) {
+         // only the booked room numbers come from the database, the prices from the catalog.
+         List<List<String>> booked = this._esql.executeQueryAndReturnResult(
+            "SELECT rb.roomNumber FROM RoomBookings rb WHERE rb.hotelID = ? AND rb.bookingDate = CAST(? AS DATE)", hotelID, date);
+         int[] keys = new int[2 * booked.size()];
+         for (int i = 0; i < booked.size(); ++i) {
+            keys[2 * i] = hotelID;
+            keys[2 * i + 1] = Integer.parseInt(booked.get(i).get(0));
+         }
+         Map<Long, RoomCatalog.Room> rooms = catalog.getAll(this._esql, keys);
+         List<Object[]> rows = new ArrayList<Object[]>();
+         for (int i = 0; i < booked.size(); ++i)
+            rows.add(new Object[] { keys[2 * i + 1], RoomCatalog.lookup(rooms, hotelID, keys[2 * i + 1]).price });
+         return ResultRow.emit(handler, rows, "room", "price");
+      }
+      return this._esql.streamQuery(
+         "SELECT rb.roomNumber AS Room, r.price FROM RoomBookings rb, Rooms r WHERE r.roomNumber = rb.roomNumber "
+         + "AND rb.hotelID = ? AND r.hotelID = rb.hotelID AND rb.bookingDate = CAST(? AS DATE)",
+         handler, hotelID, date);
+   }//end bookedRooms
+
+   public int bookRoom(int customerID, int hotelID, int roomNumber, String bookingDate) throws SQLException {
+      AvailabilityCalendar calendar = this._esql.getAvailabilityCalendar();
+      Integer day = epochDay(bookingDate);
+      // unparseable dates still need a stable stripe; Postgres decides whether they are valid.
+      int stripe = day != null ? day : bookingDate.trim().hashCode();
+
+      // the unique constraint keeps other clients from double booking, the lock keeps the calendar in step.
+      ReentrantLock lock = _roomLocks.lockFor(hotelID, roomNumber, stripe);
+      lock.lock();
+      try{
+         if (calendar != null && day != null && calendar.isBooked(hotelID, roomNumber, day))
+            return -1;
+         int bookingID = this._esql.executeQueryForInt(BOOKING_INSERT + " RETURNING bookingID",
+                                                       customerID, hotelID, roomNumber, bookingDate);
+         // a conflict means another instance booked it, the calendar learns that too.
+         if (calendar != null && day != null)
+            calendar.book(hotelID, roomNumber, day);
+         RegularCustomers counters = this._esql.getRegularCustomers();
+         if (counters != null && bookingID > 0)
+            counters.record(hotelID, customerID, bookingID);
+         return bookingID;
+      }finally{
+         lock.unlock();
+      }//end try
+   }//end bookRoom
+
+   public int bookRooms(int customerID, int hotelID, int[] roomNumbers, String[] bookingDates) throws SQLException {
+      AvailabilityCalendar calendar = this._esql.getAvailabilityCalendar();
+      RegularCustomers counters = this._esql.getRegularCustomers();
+      int n = roomNumbers.length;
+      Integer[] days = new Integer[n];
+      int[] stripes = new int[n];
+      for (int i = 0; i < n; ++i) {
+         days[i] = epochDay(bookingDates[i]);
+         stripes[i] = days[i] != null ? days[i] : bookingDates[i].trim().hashCode();
+         if (calendar != null && days[i] != null && calendar.isBooked(hotelID, roomNumbers[i], days[i]))
+            return -1;
+      }
+
+      ReentrantLock[] locks = _roomLocks.lockAll(hotelID, roomNumbers, stripes);
+      try{
+         int total;
+         int maxBookingID = 0;
+         // the check and the inserts run in one transaction, nothing is booked unless every pair is free.
+         boolean ownTransaction = this._esql.beginTransaction();
+         boolean done = false;
+         try{
+            // one row per requested pair: the room if it exists, a booking if it is taken.
+            StringBuilder check = new StringBuilder(
+               "SELECT COUNT(r.roomNumber), COUNT(b.bookingID), COALESCE(SUM(r.price), 0) FROM (VALUES ");
+            Object[] params = new Object[2 * n + 2];
+            List<Object[]> rows = new ArrayList<Object[]>();
+            for (int i = 0; i < n; ++i) {
+               check.append(i == 0 ? "" : ", ").append("(CAST(? AS INTEGER), CAST(? AS DATE))");
+               params[2 * i] = roomNumbers[i];
+               params[2 * i + 1] = bookingDates[i];
+               rows.add(new Object[] { customerID, hotelID, roomNumbers[i], bookingDates[i] });
+            }
+            check.append(") AS req(roomNumber, bookingDate) "
+                         + "LEFT JOIN Rooms r ON r.hotelID = ? AND r.roomNumber = req.roomNumber "
+                         + "LEFT JOIN RoomBookings b ON b.hotelID = ? AND b.roomNumber = req.roomNumber AND b.bookingDate = req.bookingDate");
+            params[2 * n] = hotelID;
+            params[2 * n + 1] = hotelID;
+            List<String> result = this._esql.executeQueryAndReturnResult(check.toString(), params).get(0);
+            if (Integer.parseInt(result.get(0)) != n || Integer.parseInt(result.get(1)) != 0)
+               return -1;
+            total = Integer.parseInt(result.get(2));
+
+            // a pair taken since the check, or listed twice, inserts nothing and undoes the batch.
+            for (int count : this._esql.executeBatch(BOOKING_INSERT, rows))
+               if (count == 0)
+                  return -1;
+            if (counters != null)
+               maxBookingID = this._esql.getCurrSeqVal("roombookings_bookingid_seq");
+            done = true;
+         }finally{
+            this._esql.endTransaction(ownTransaction, done);
+         }//end try
+
+         for (int i = 0; i < n; ++i) {
+            if (calendar != null && days[i] != null)
+               calendar.book(hotelID, roomNumbers[i], days[i]);
+            if (counters != null)
+               counters.record(hotelID, customerID, maxBookingID);
+         }
+         return total;
+      }finally{
+         for (ReentrantLock lock : locks)
+            lock.unlock();
+      }//end try
+   }//end bookRooms
+
+   public long recentBookings(int customerID, int limit, RowHandler handler) throws SQLException {
+      RoomCatalog catalog = Hotel.getRoomCatalog();
+      if (catalog != null) {
+         List<List<String>> bookings = this._esql.executeQueryAndReturnResult(
+            "SELECT rb.hotelID, rb.roomNumber, rb.bookingDate FROM RoomBookings rb WHERE rb.customerID = ? "
+            + "ORDER BY rb.bookingDate DESC LIMIT ?", customerID, limit);
+         int[] keys = new int[2 * bookings.size()];
+         for (int i = 0; i < bookings.size(); ++i) {
+            keys[2 * i] = Integer.parseInt(bookings.get(i).get(0));
+            keys[2 * i + 1] = Integer.parseInt(bookings.get(i).get(1));
+         }
+         Map<Long, RoomCatalog.Room> rooms = catalog.getAll(this._esql, keys);
+         List<Object[]> rows = new ArrayList<Object[]>();
+         for (int i = 0; i < bookings.size(); ++i)
+            rows.add(new Object[] { keys[2 * i], keys[2 * i + 1], RoomCatalog.lookup(rooms, keys[2 * i], keys[2 * i + 1]).price,
+                                    bookings.get(i).get(2) });
+         return ResultRow.emit(handler, rows, "hotel", "room", "price", "date");
+      }
+      return this._esql.streamQuery(
+         "SELECT rb.hotelID AS hotel, rb.roomNumber AS room, r.price AS price, rb.bookingDate AS date "
+         + "FROM Rooms r, RoomBookings rb WHERE r.hotelID = rb.HotelID AND r.roomNumber = rb.roomNumber AND rb.customerID = ? "
+         + "ORDER BY rb.bookingDate DESC LIMIT ?", handler, customerID, limit);
+   }//end recentBookings
+
+   public long bookingHistoryPage(int[] hotelIDs, String startDate, String endDate, String afterDate, int afterBookingID,
+                                  int pageSize, RowHandler handler) throws SQLException {
+      if (hotelIDs.length == 0)
+         return 0;
+      StringBuilder query = new StringBuilder("SELECT p.bookingID, u.name, p.hotelID, p.roomNumber, p.bookingDate FROM (VALUES ");
+      Object[] params = new Object[hotelIDs.length + 6];
+      for (int i = 0; i < hotelIDs.length; ++i) {
+         query.append(i == 0 ? "" : ", ").append("(CAST(? AS INTEGER))");
+         params[i] = hotelIDs[i];
+      }
+      // the newest pageSize rows of every hotel after the key of the previous page, merged and cut to one page.
+      query.append(") AS m(hotelID) CROSS JOIN LATERAL ("
+                   + "SELECT b.bookingID, b.customerID, b.hotelID, b.roomNumber, b.bookingDate FROM RoomBookings b "
+                   + "WHERE b.hotelID = m.hotelID AND b.bookingDate BETWEEN CAST(? AS DATE) AND CAST(? AS DATE) "
+                   + "AND (b.bookingDate, b.bookingID) < (CAST(? AS DATE), ?) "
+                   + "ORDER BY b.bookingDate DESC, b.bookingID DESC LIMIT ?) p "
+                   + "JOIN Users u ON u.userID = p.customerID "
+                   + "ORDER BY p.bookingDate DESC, p.bookingID DESC LIMIT ?");
+      int n = hotelIDs.length;
+      params[n] = startDate;
+      params[n + 1] = endDate;
+      params[n + 2] = afterDate;
+      params[n + 3] = afterBookingID;
+      params[n + 4] = pageSize;
+      params[n + 5] = pageSize;
+      return this._esql.streamQuery(query.toString(), handler, params);
+   }//end bookingHistoryPage
+
+   public long regularCustomers(int hotelID, int limit, RowHandler handler) throws SQLException {
+      RegularCustomers counters = this._esql.getRegularCustomers();
+      if (counters != null && limit <= counters.getK()) {
+         // on the primary, a lagging replica would look like drift.
+         counters.checkDrift(this._esql.cacheLoader());
+         int[] top = counters.top(hotelID);
+         int n = Math.min(limit, top.length / 2);
+         if (n == 0)
+            return 0;
+         // only the names are read from the database, by primary key.
+         StringBuilder query = new StringBuilder("SELECT u.userID, u.name FROM Users u WHERE u.userID IN (");
+         Object[] ids = new Object[n];
+         for (int i = 0; i < n; ++i) {
+            ids[i] = top[2 * i];
+            query.append(i == 0 ? "?" : ", ?");
+         }
+         HashMap<String, String> names = new HashMap<String, String>();
+         for (List<String> row : this._esql.executeQueryAndReturnResult(query.append(")").toString(), ids))
+            names.put(row.get(0), row.get(1));
+         List<Object[]> rows = new ArrayList<Object[]>();
+         for (Object id : ids)
+            rows.add(new Object[] { id, names.get(String.valueOf(id)) });
+         return ResultRow.emit(handler, rows, "id", "name");
+      }
+      return this._esql.streamQuery(
+         "SELECT books_per_cust.customer_id AS id, u.name AS name FROM (SELECT rb.customerID AS customer_id, COUNT(rb.bookingID) AS bookings "
+         + "FROM RoomBookings rb WHERE rb.HotelID = ? GROUP BY rb.customerID) AS books_per_cust, Users u "
+         + "WHERE u.userID = books_per_cust.customer_id ORDER BY books_per_cust.bookings DESC, books_per_cust.customer_id LIMIT ?",
+         handler, hotelID, limit);
+   }//end regularCustomers
+
+   public void logRoomUpdate(int managerID, int hotelID, int roomNumber) throws SQLException {
+      this._esql.executeUpdate(
+         "INSERT INTO roomUpdatesLog (managerID, hotelID, roomNumber, updatedOn) VALUES (?, ?, ?, CURRENT_TIMESTAMP)",
+         managerID, hotelID, roomNumber);
+   }//end logRoomUpdate
+
+   public long recentUpdates(int managerID, int limit, RowHandler handler) throws SQLException {
+      return this._esql.streamQuery(
+         "SELECT updates.updateNumber AS update, updates.hotelID AS hotel, updates.roomNumber AS room, updates.updatedOn AS update_time "
+         + "FROM RoomUpdatesLog updates WHERE updates.managerID = ? ORDER BY updates.updatedOn DESC, updates.updateNumber DESC LIMIT ?",
+         handler, managerID, limit);
+   }//end recentUpdates
+
+   public void addCompany(int companyID, String name, String address) throws SQLException {
+      this._esql.executeUpdate("INSERT INTO MaintenanceCompany (companyID, name, addrress) VALUES (?, ?, ?)", companyID, name, address);
+   }
+
+   public boolean companyExists(int companyID) throws SQLException {
+      return this._esql.executeQuery("SELECT * FROM MaintenanceCompany c WHERE c.companyID = ?", companyID) == 1;
+   }
+
+   public int placeRepairRequest(int managerID, int companyID, int hotelID, int roomNumber) throws SQLException {
+      // one statement checks the room, company and manager, inserts the repair and links the request to
+      // the repairID it returned, instead of to the latest repair of any session.
+      return this._esql.executeQueryForInt(
+         "WITH repair AS (INSERT INTO roomRepairs (companyID, hotelID, roomNumber, repairDate) "
+         + "SELECT c.companyID, r.hotelID, r.roomNumber, CURRENT_DATE FROM Rooms r, Hotel h, MaintenanceCompany c "
+         + "WHERE r.hotelID = ? AND r.roomNumber = ? AND h.hotelID = r.hotelID AND h.managerUserID = ? AND c.companyID = ? "
+         + "RETURNING repairID) "
+         + "INSERT INTO roomRepairRequests (managerID, repairID) SELECT ?, repair.repairID FROM repair RETURNING requestNumber",
+         hotelID, roomNumber, managerID, companyID, managerID);
+   }//end placeRepairRequest
+
+   public long repairHistory(int managerID, RowHandler handler) throws SQLException {
+      return this._esql.streamQuery(
+         "SELECT req.requestNumber AS request, repairs.companyID AS company, repairs.HotelID AS hotel, repairs.roomNumber AS room, "
+         + "repairs.repairDate AS date FROM RoomRepairs repairs, RoomRepairRequests req "
+         + "WHERE repairs.repairID = req.repairID AND req.managerID = ? ORDER BY repairs.repairDate DESC, req.requestNumber DESC",
+         handler, managerID);
+   }//end repairHistory
+
+   /*
+    * Hands {room, price} pairs of the calendar to a handler as rows.
+    **/
+   private static long emitRooms(int[] rooms, RowHandler handler) throws SQLException {
+      List<Object[]> rows = new ArrayList<Object[]>();
+      for (int i = 0; i < rooms.length; i += 2)
+         rows.add(new Object[] { rooms[i], rooms[i + 1] });
+      return ResultRow.emit(handler, rows, "room", "price");
+   }//end emitRooms
+
+   private static Integer epochDay(String date) {
+      try{
+         return AvailabilityCalendar.parseDate(date);
+      }catch (IllegalArgumentException e){
+         return null;
+      }//end try
+   }//end epochDay
+
+}//end JdbcHotelRepository
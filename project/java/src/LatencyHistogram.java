@@ -0,0 +1,122 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class counts latencies in fixed log-linear buckets: every power of
+ * two of microseconds is split into 8 buckets, so any recorded value is
+ * reported within 12.5% from 1 microsecond up to about 50 days. Recording
+ * is a few atomic increments on preallocated arrays, with no allocation and
+ * no lock, so it can run on every statement of every session.
+ *
+ */
+public class LatencyHistogram {
+
+   // sub-buckets per power of two, as a number of bits.
+   private static final int SUB_BITS = 3;
+   private static final int SUB_COUNT = 1 << SUB_BITS;
+
+   // values below this many microseconds get a bucket each.
+   private static final int LINEAR = 2 * SUB_COUNT;
+
+   // buckets up to 2^42 microseconds.
+   private static final int MAX_MAGNITUDE = 42;
+   private static final int BUCKETS = LINEAR + (MAX_MAGNITUDE - SUB_BITS - 1) * SUB_COUNT;
+
+   private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+   private final AtomicLong _count = new AtomicLong();
+   private final AtomicLong _totalNanos = new AtomicLong();
+   private final AtomicLong _maxNanos = new AtomicLong();
+
+   /**
+    * Records one latency.
+    *
+    * @param nanos the latency in nanoseconds
+    */
+   public void record(long nanos) {
+      if (nanos < 0)
+         nanos = 0;
+      this._buckets.incrementAndGet(bucket(nanos / 1000));
+      this._count.incrementAndGet();
+      this._totalNanos.addAndGet(nanos);
+      long max = this._maxNanos.get();
+      while (nanos > max && !this._maxNanos.compareAndSet(max, nanos))
+         max = this._maxNanos.get();
+   }//end record
+
+   private static int bucket(long micros) {
+      if (micros < LINEAR)
+         return (int) micros;
+      int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+      if (magnitude >= MAX_MAGNITUDE)
+         return BUCKETS - 1;
+      int sub = (int) (micros >>> (magnitude - SUB_BITS)) & (SUB_COUNT - 1);
+      return LINEAR + (magnitude - SUB_BITS - 1) * SUB_COUNT + sub;
+   }//end bucket
+
+   /*
+    * The highest latency in microseconds that falls into a bucket.
+    **/
+   private static long upperBound(int bucket) {
+      if (bucket < LINEAR)
+         return bucket;
+      int magnitude = (bucket - LINEAR) / SUB_COUNT + SUB_BITS + 1;
+      int sub = (bucket - LINEAR) % SUB_COUNT;
+      long width = 1L << (magnitude - SUB_BITS);
+      return (1L << magnitude) + (sub + 1) * width - 1;
+   }//end upperBound
+
+   public long getCount() {
+      return this._count.get();
+   }
+
+   public double getMeanMillis() {
+      long count = this._count.get();
+      return count == 0 ? 0 : this._totalNanos.get() / 1e6 / count;
+   }
+
+   public double getMaxMillis() {
+      return this._maxNanos.get() / 1e6;
+   }
+
+   /**
+    * Returns a percentile of the recorded latencies, as the upper bound of
+    * the bucket it falls in and never above the maximum.
+    *
+    * @param percentile between 0 and 100
+    * @return the latency in milliseconds, 0 when nothing was recorded
+    */
+   public double getPercentileMillis(double percentile) {
+      long[] counts = new long[BUCKETS];
+      long total = 0;
+      for (int i = 0; i < BUCKETS; ++i)
+         total += counts[i] = this._buckets.get(i);
+      if (total == 0)
+         return 0;
+      long rank = (long) Math.ceil(percentile / 100 * total);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; ++i) {
+         seen += counts[i];
+         if (seen >= Math.max(1, rank))
+            return Math.min(upperBound(i) / 1e3, getMaxMillis());
+      }
+      return getMaxMillis();
+   }//end getPercentileMillis
+
+   /**
+    * Forgets every recorded latency.
+    */
+   public void reset() {
+      for (int i = 0; i < BUCKETS; ++i)
+         this._buckets.set(i, 0);
+      this._count.set(0);
+      this._totalNanos.set(0);
+      this._maxNanos.set(0);
+   }//end reset
+
+   public String toString() {
+      return String.format("n=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms",
+                           getCount(), getMeanMillis(), getPercentileMillis(50), getPercentileMillis(90),
+                           getPercentileMillis(99), getPercentileMillis(99.9), getMaxMillis());
+   }
+
+}//end LatencyHistogram
@@ -0,0 +1,225 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class collects everything a manager looks at for all of the hotels
+ * the manager runs at once: the regular customers and the latest bookings
+ * of every hotel, the recent room updates and the repair history. The
+ * queries do not depend on each other, so they are handed to up to
+ * parallelism worker sessions, each on a pooled connection of its own, and
+ * the dashboard takes about as long as its slowest query instead of the
+ * sum of all of them.
+ *
+ * The results are buffered and come back in a fixed order, whatever order
+ * the queries finished in. A query that fails only fails its own section.
+ *
+ */
+public class ManagerDashboard {
+
+   // default number of queries of one dashboard run at the same time.
+   public static final int DEFAULT_PARALLELISM = 4;
+
+   /**
+    * The rows of one part of the dashboard.
+    */
+   public static class Section {
+      public final String heading;
+      public final String emptyMessage;
+      public final List<Object[]> rows = new ArrayList<Object[]>();
+      public String[] columns = new String[0];
+
+      // the error of the query, null when it ran.
+      public SQLException error = null;
+
+      // the time the query took on its worker.
+      public long nanos = 0;
+
+      // set once the query ran or failed.
+      boolean done = false;
+
+      Section(String heading, String emptyMessage) {
+         this.heading = heading;
+         this.emptyMessage = emptyMessage;
+      }
+   }//end Section
+
+   /*
+    * The query filling one section.
+    **/
+   private static abstract class Query {
+      final Section section;
+
+      Query(Section section) {
+         this.section = section;
+      }
+
+      abstract long run(HotelRepository repository, RowHandler handler) throws SQLException;
+   }//end Query
+
+   // threads of all dashboards; they only live while there is work.
+   private static final ExecutorService _threads = Executors.newCachedThreadPool(new ThreadFactory() {
+      private final AtomicInteger _count = new AtomicInteger();
+
+      public Thread newThread(Runnable task) {
+         Thread thread = new Thread(task, "dashboard-" + _count.incrementAndGet());
+         thread.setDaemon(true);
+         return thread;
+      }
+   });
+
+   // most queries of one dashboard running at the same time, and so most connections it borrows.
+   private final int _parallelism;
+
+   /**
+    * Creates a dashboard
+    *
+    * @param parallelism the most queries run at the same time, 1 runs them one after another
+    */
+   public ManagerDashboard(int parallelism) {
+      this._parallelism = Math.max(1, parallelism);
+   }//end ManagerDashboard
+
+   /**
+    * Creates a dashboard whose parallelism is set with the system property
+    * hotel.dashboardParallelism.
+    */
+   public static ManagerDashboard fromSystemProperties() {
+      return new ManagerDashboard(Integer.getInteger("hotel.dashboardParallelism", DEFAULT_PARALLELISM));
+   }//end fromSystemProperties
+
+   public int getParallelism() {
+      return this._parallelism;
+   }
+
+   /**
+    * Collects the dashboard of a manager.
+    *
+    * @param esql the session of the manager; the queries run on worker sessions of its pool
+    * @param managerID the manager
+    * @param hotelIDs the hotels of the manager
+    * @param startDate the first date of the bookings listed, inclusive
+    * @param endDate the last date of the bookings listed, inclusive
+    * @param bookings the most bookings listed per hotel, newest first
+    * @return the sections: for every hotel its regular customers and bookings, then the room updates and repairs
+    * @throws java.sql.SQLException when interrupted while waiting for the queries
+    */
+   public List<Section> collect(Hotel esql, final int managerID, int[] hotelIDs, final String startDate,
+                                final String endDate, final int bookings) throws SQLException {
+      List<Query> queries = new ArrayList<Query>();
+      for (final int hotelID : hotelIDs) {
+         queries.add(new Query(new Section("Top 5 regular customers for hotel #" + hotelID + ":", "No regular customers.")) {
+            long run(HotelRepository repository, RowHandler handler) throws SQLException {
+               return repository.regularCustomers(hotelID, 5, handler);
+            }
+         });
+         queries.add(new Query(new Section("Latest bookings of hotel #" + hotelID + " between " + startDate + "-" + endDate + ":",
+                                           "No bookings made.")) {
+            long run(HotelRepository repository, RowHandler handler) throws SQLException {
+               return repository.bookingHistoryPage(new int[] { hotelID }, startDate, endDate, endDate, Integer.MAX_VALUE,
+                                                    bookings, handler);
+            }
+         });
+      }
+      queries.add(new Query(new Section("Latest 5 recent updates made to your hotel:", "No recent updates.")) {
+         long run(HotelRepository repository, RowHandler handler) throws SQLException {
+            return repository.recentUpdates(managerID, 5, handler);
+         }
+      });
+      queries.add(new Query(new Section("Room repair requests history:", "No repair request history.")) {
+         long run(HotelRepository repository, RowHandler handler) throws SQLException {
+            return repository.repairHistory(managerID, handler);
+         }
+      });
+
+      List<Section> sections = new ArrayList<Section>();
+      final ConcurrentLinkedQueue<Query> pending = new ConcurrentLinkedQueue<Query>();
+      for (Query query : queries) {
+         sections.add(query.section);
+         pending.add(query);
+      }
+      int workers = Math.min(this._parallelism, queries.size());
+      final CountDownLatch finished = new CountDownLatch(workers);
+      final SQLException[] acquireError = new SQLException[1];
+      for (int i = 0; i < workers; ++i) {
+         final Hotel worker = esql.openWorker();
+         _threads.execute(new Runnable() {
+            public void run() {
+               try{
+                  work(worker, pending);
+               }catch (SQLException e){
+                  // no connection for this worker, the others take over its queries.
+                  synchronized (acquireError) {
+                     acquireError[0] = e;
+                  }
+               }finally{
+                  finished.countDown();
+               }//end try
+            }
+         });
+      }
+      try{
+         finished.await();
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while collecting the dashboard");
+      }//end try
+      // queries left over when no worker got a connection fail with the reason.
+      synchronized (acquireError) {
+         for (Section section : sections)
+            if (!section.done)
+               section.error = acquireError[0];
+      }
+      return sections;
+   }//end collect
+
+   /*
+    * Runs queries on one worker session, holding one connection, until
+    * there are none left.
+    **/
+   private static void work(Hotel worker, ConcurrentLinkedQueue<Query> pending) throws SQLException {
+      HotelRepository repository = worker.getRepository();
+      // the in-memory repository has no connection to hold.
+      boolean pooled = repository instanceof JdbcHotelRepository;
+      if (pooled)
+         worker.acquire();
+      try{
+         Query query;
+         while ((query = pending.poll()) != null) {
+            final Section section = query.section;
+            long start = System.nanoTime();
+            try{
+               query.run(repository, new RowHandler() {
+                  public void handle(ResultRow row) throws SQLException {
+                     int columns = row.getColumnCount();
+                     if (row.getNumber() == 1) {
+                        section.columns = new String[columns];
+                        for (int i = 1; i <= columns; ++i)
+                           section.columns[i - 1] = row.getColumnName(i);
+                     }
+                     Object[] values = new Object[columns];
+                     for (int i = 1; i <= columns; ++i)
+                        values[i - 1] = row.getString(i);
+                     section.rows.add(values);
+                  }
+               });
+            }catch (SQLException e){
+               section.rows.clear();
+               section.error = e;
+            }//end try
+            section.nanos = System.nanoTime() - start;
+            section.done = true;
+         }
+      }finally{
+         if (pooled)
+            worker.release();
+      }//end try
+   }//end work
+
+}//end ManagerDashboard
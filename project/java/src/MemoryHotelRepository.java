@@ -0,0 +1,828 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class is a repository that keeps every table in the memory of the
+ * process, for deployments without a database server and for tests. Each
+ * table has its primary key and the secondary indexes of create_tables.sql
+ * and create_indexes.sql as hash maps and sorted sets, and enforces the
+ * same keys, foreign keys, NOT NULL and character widths, so the menus see
+ * the answers and the errors they would get from PostgreSQL.
+ *
+ * Reads share one lock and writes take it exclusively. Rows are collected
+ * under the lock and handed to the RowHandler after it is released, so a
+ * handler may call back into the repository.
+ *
+ */
+public class MemoryHotelRepository implements HotelRepository {
+
+   private static class User {
+      int userID;
+      String name, password, userType;
+   }//end User
+
+   private static class HotelRow {
+      int hotelID;
+      String hotelName;
+      double latitude, longitude;
+      Integer dateEstablished;
+      int managerUserID;
+   }//end HotelRow
+
+   private static class Room {
+      int hotelID, roomNumber, price;
+      String imageURL;
+   }//end Room
+
+   private static class Company {
+      int companyID;
+      String name, address;
+   }//end Company
+
+   private static class Booking {
+      int bookingID, customerID, hotelID, roomNumber, bookingDate;
+   }//end Booking
+
+   private static class Repair {
+      int repairID, companyID, hotelID, roomNumber, repairDate;
+   }//end Repair
+
+   private static class Request {
+      int requestNumber, managerID, repairID;
+   }//end Request
+
+   private static class Update {
+      int updateNumber, managerID, hotelID, roomNumber;
+      // wall-clock time of the update as milliseconds in UTC, like a timestamp without time zone.
+      long updatedOn;
+   }//end Update
+
+   /*
+    * Key of the unique constraint on (hotelID, roomNumber, bookingDate).
+    **/
+   private static class Slot {
+      final int hotelID, roomNumber, day;
+
+      Slot(int hotelID, int roomNumber, int day) {
+         this.hotelID = hotelID;
+         this.roomNumber = roomNumber;
+         this.day = day;
+      }
+
+      public boolean equals(Object o) {
+         if (!(o instanceof Slot))
+            return false;
+         Slot slot = (Slot) o;
+         return slot.hotelID == this.hotelID && slot.roomNumber == this.roomNumber && slot.day == this.day;
+      }
+
+      public int hashCode() {
+         return (this.hotelID * 31 + this.roomNumber) * 0x9E3779B1 + this.day;
+      }
+   }//end Slot
+
+   // order of the (customerID, bookingDate) and (hotelID, bookingDate, bookingID) indexes within one key.
+   private static final Comparator<Booking> BY_DATE = new Comparator<Booking>() {
+      public int compare(Booking a, Booking b) {
+         if (a.bookingDate != b.bookingDate)
+            return a.bookingDate < b.bookingDate ? -1 : 1;
+         return a.bookingID < b.bookingID ? -1 : a.bookingID == b.bookingID ? 0 : 1;
+      }
+   };
+
+   // order of the (managerID, updatedOn) index within one manager.
+   private static final Comparator<Update> BY_TIME = new Comparator<Update>() {
+      public int compare(Update a, Update b) {
+         if (a.updatedOn != b.updatedOn)
+            return a.updatedOn < b.updatedOn ? -1 : 1;
+         return a.updateNumber < b.updateNumber ? -1 : a.updateNumber == b.updateNumber ? 0 : 1;
+      }
+   };
+
+   private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+   private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+
+   // Users, primary key userID.
+   private final HashMap<Integer, User> _users = new HashMap<Integer, User>();
+   // Hotel, primary key hotelID, index on managerUserID, and the locations in a grid.
+   private final HashMap<Integer, HotelRow> _hotels = new HashMap<Integer, HotelRow>();
+   private final HashMap<Integer, TreeSet<Integer>> _hotelsByManager = new HashMap<Integer, TreeSet<Integer>>();
+   private final HotelSpatialIndex _locations = new HotelSpatialIndex(HotelSpatialIndex.DEFAULT_CELL_SIZE);
+   // Rooms, primary key (hotelID, roomNumber).
+   private final HashMap<Integer, TreeMap<Integer, Room>> _rooms = new HashMap<Integer, TreeMap<Integer, Room>>();
+   // MaintenanceCompany, primary key companyID.
+   private final HashMap<Integer, Company> _companies = new HashMap<Integer, Company>();
+   // RoomBookings, primary key bookingID, unique (hotelID, roomNumber, bookingDate),
+   // indexes on (customerID, bookingDate) and (hotelID, bookingDate, bookingID).
+   private final HashMap<Integer, Booking> _bookings = new HashMap<Integer, Booking>();
+   private final HashMap<Slot, Booking> _bookingsBySlot = new HashMap<Slot, Booking>();
+   private final HashMap<Integer, TreeSet<Booking>> _bookingsByCustomer = new HashMap<Integer, TreeSet<Booking>>();
+   private final HashMap<Integer, TreeSet<Booking>> _bookingsByHotel = new HashMap<Integer, TreeSet<Booking>>();
+   // RoomRepairs, primary key repairID; RoomRepairRequests, primary key requestNumber, index on managerID.
+   private final HashMap<Integer, Repair> _repairs = new HashMap<Integer, Repair>();
+   private final HashMap<Integer, Request> _requests = new HashMap<Integer, Request>();
+   private final HashMap<Integer, List<Request>> _requestsByManager = new HashMap<Integer, List<Request>>();
+   // RoomUpdatesLog, primary key updateNumber, index on (managerID, updatedOn).
+   private final HashMap<Integer, Update> _updates = new HashMap<Integer, Update>();
+   private final HashMap<Integer, TreeSet<Update>> _updatesByManager = new HashMap<Integer, TreeSet<Update>>();
+
+   // next values of the serial columns.
+   private int _nextUserID = 1;
+   private int _nextBookingID = 1;
+   private int _nextRepairID = 1;
+   private int _nextRequestNumber = 1;
+   private int _nextUpdateNumber = 1;
+
+   /**
+    * Fills the tables from the CSV files of project/data, in the order of
+    * their foreign keys. Missing files leave their table empty.
+    *
+    * @param directory the directory holding users.csv, hotels.csv, ...
+    * @throws java.io.IOException when a file cannot be read
+    * @throws java.sql.SQLException when a row breaks a key or constraint
+    */
+   public void load(File directory) throws IOException, SQLException {
+      for (String[] row : readCsv(new File(directory, "users.csv"))) {
+         User user = newUser(Integer.parseInt(row[0]), row[1], row[2], row[3]);
+         insertUser(user);
+      }
+      for (String[] row : readCsv(new File(directory, "company.csv")))
+         addCompany(Integer.parseInt(row[0]), row[1], row[2]);
+      for (String[] row : readCsv(new File(directory, "hotels.csv")))
+         addHotel(Integer.parseInt(row[0]), row[1], Double.parseDouble(row[2]), Double.parseDouble(row[3]),
+                  row[4].length() == 0 ? null : row[4], Integer.parseInt(row[5]));
+      for (String[] row : readCsv(new File(directory, "rooms.csv")))
+         addRoom(Integer.parseInt(row[0]), Integer.parseInt(row[1]), Integer.parseInt(row[2]), row[3]);
+      this._lock.writeLock().lock();
+      try{
+         for (String[] row : readCsv(new File(directory, "bookings.csv"))) {
+            Booking booking = new Booking();
+            booking.bookingID = Integer.parseInt(row[0]);
+            booking.customerID = Integer.parseInt(row[1]);
+            booking.hotelID = Integer.parseInt(row[2]);
+            booking.roomNumber = Integer.parseInt(row[3]);
+            booking.bookingDate = day(row[4]);
+            checkBooking(booking.customerID, booking.hotelID, booking.roomNumber);
+            if (this._bookingsBySlot.containsKey(new Slot(booking.hotelID, booking.roomNumber, booking.bookingDate)))
+               throw new SQLException("duplicate key value violates unique constraint \"roombookings_hotelid_roomnumber_bookingdate_key\"", "23505");
+            insertBooking(booking);
+         }
+         for (String[] row : readCsv(new File(directory, "roomRepairs.csv"))) {
+            Repair repair = new Repair();
+            repair.repairID = Integer.parseInt(row[0]);
+            repair.companyID = Integer.parseInt(row[1]);
+            repair.hotelID = Integer.parseInt(row[2]);
+            repair.roomNumber = Integer.parseInt(row[3]);
+            repair.repairDate = day(row[4]);
+            insertRepair(repair);
+         }
+         for (String[] row : readCsv(new File(directory, "roomUpdatesLog.csv"))) {
+            Update update = new Update();
+            update.updateNumber = Integer.parseInt(row[0]);
+            update.managerID = Integer.parseInt(row[1]);
+            update.hotelID = Integer.parseInt(row[2]);
+            update.roomNumber = Integer.parseInt(row[3]);
+            update.updatedOn = timestamp(row[4]);
+            insertUpdate(update);
+         }
+         for (String[] row : readCsv(new File(directory, "roomRepairRequests.csv"))) {
+            Request request = new Request();
+            request.requestNumber = Integer.parseInt(row[0]);
+            request.managerID = Integer.parseInt(row[1]);
+            request.repairID = Integer.parseInt(row[2]);
+            insertRequest(request);
+         }
+      }finally{
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end load
+
+   public int createUser(String name, String password, String userType) throws SQLException {
+      this._lock.writeLock().lock();
+      try{
+         User user = newUser(this._nextUserID, name, password, userType);
+         // like a serial column, a failed insert still uses up its value.
+         this._nextUserID++;
+         insertUser(user);
+         return user.userID;
+      }finally{
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end createUser
+
+   public List<List<String>> findUser(int userID, String password) throws SQLException {
+      List<List<String>> rows = new ArrayList<List<String>>();
+      this._lock.readLock().lock();
+      try{
+         User user = this._users.get(userID);
+         if (user == null || (password != null && !rtrim(user.password).equals(rtrim(password))))
+            return rows;
+         TreeSet<Integer> hotels = this._hotelsByManager.get(userID);
+         if (hotels == null)
+            rows.add(Arrays.asList(user.userType, null));
+         else
+            for (int hotelID : hotels)
+               rows.add(Arrays.asList(user.userType, String.valueOf(hotelID)));
+         return rows;
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+   }//end findUser
+
+   public void addHotel(int hotelID, String hotelName, double latitude, double longitude, String dateEstablished,
+                        int managerUserID) throws SQLException {
+      HotelRow hotel = new HotelRow();
+      hotel.hotelID = hotelID;
+      hotel.hotelName = bpchar(notNull(hotelName, "hotelname"), 30);
+      hotel.latitude = decimal(latitude, 8, 6);
+      hotel.longitude = decimal(longitude, 9, 6);
+      hotel.dateEstablished = dateEstablished == null ? null : day(dateEstablished);
+      hotel.managerUserID = managerUserID;
+      this._lock.writeLock().lock();
+      try{
+         if (this._hotels.containsKey(hotelID))
+            throw duplicate("hotel_pkey");
+         if (!this._users.containsKey(managerUserID))
+            throw foreignKey("Hotel", "hotel_manageruserid_fkey");
+         this._hotels.put(hotelID, hotel);
+         TreeSet<Integer> managed = this._hotelsByManager.get(managerUserID);
+         if (managed == null) {
+            managed = new TreeSet<Integer>();
+            this._hotelsByManager.put(managerUserID, managed);
+         }
+         managed.add(hotelID);
+         this._locations.put(hotelID, hotel.hotelName, hotel.latitude, hotel.longitude);
+      }finally{
+         this._lock.writeLock().unlock();
+      }//end try
+      Principal.invalidate(managerUserID);
+   }//end addHotel
+
+   public long hotelsWithin(double latitude, double longitude, double radius, RowHandler handler) throws SQLException {
+      List<Object[]> rows = new ArrayList<Object[]>();
+      for (HotelSpatialIndex.Entry hotel : this._locations.within(latitude, longitude, radius))
+         rows.add(new Object[] { hotel.hotelName });
+      return ResultRow.emit(handler, rows, "hotelname");
+   }//end hotelsWithin
+
+   public void addRoom(int hotelID, int roomNumber, int price, String imageURL) throws SQLException {
+      Room room = new Room();
+      room.hotelID = hotelID;
+      room.roomNumber = roomNumber;
+      room.price = price;
+      room.imageURL = bpchar(imageURL, 30);
+      this._lock.writeLock().lock();
+      try{
+         if (room(hotelID, roomNumber) != null)
+            throw duplicate("rooms_pkey");
+         if (!this._hotels.containsKey(hotelID))
+            throw foreignKey("Rooms", "rooms_hotelid_fkey");
+         TreeMap<Integer, Room> rooms = this._rooms.get(hotelID);
+         if (rooms == null) {
+            rooms = new TreeMap<Integer, Room>();
+            this._rooms.put(hotelID, rooms);
+         }
+         rooms.put(roomNumber, room);
+      }finally{
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end addRoom
+
+   public boolean roomExists(int hotelID, int roomNumber) {
+      return roomPrice(hotelID, roomNumber) >= 0;
+   }
+
+   public int roomPrice(int hotelID, int roomNumber) {
+      this._lock.readLock().lock();
+      try{
+         Room room = room(hotelID, roomNumber);
+         return room == null ? -1 : room.price;
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+   }//end roomPrice
+
+   public boolean updateRoom(int hotelID, int roomNumber, int price, String imageURL) throws SQLException {
+      String url = bpchar(imageURL, 30);
+      this._lock.writeLock().lock();
+      try{
+         Room room = room(hotelID, roomNumber);
+         if (room == null)
+            return false;
+         room.price = price;
+         room.imageURL = url;
+         return true;
+      }finally{
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end updateRoom
+
+   public boolean updateRoomAndLog(int managerID, int hotelID, int roomNumber, int price, String imageURL) throws SQLException {
+      String url = bpchar(imageURL, 30);
+      long now = System.currentTimeMillis();
+      this._lock.writeLock().lock();
+      try{
+         Room room = room(hotelID, roomNumber);
+         if (room == null)
+            return false;
+         // the log entry's keys are checked before the room changes, so a failure leaves both untouched.
+         if (!this._users.containsKey(managerID))
+            throw foreignKey("RoomUpdatesLog", "roomupdateslog_managerid_fkey");
+         room.price = price;
+         room.imageURL = url;
+         insertUpdate(newUpdate(managerID, hotelID, roomNumber, now));
+         return true;
+      }finally{
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end updateRoomAndLog
+
+   public long availableRooms(int hotelID, String date, RowHandler handler) throws SQLException {
+      return rooms(hotelID, day(date), false, handler);
+   }
+
+   public long bookedRooms(int hotelID, String date, RowHandler handler) throws SQLException {
+      return rooms(hotelID, day(date), true, handler);
+   }
+
+   private long rooms(int hotelID, int day, boolean booked, RowHandler handler) throws SQLException {
+      List<Object[]> rows = new ArrayList<Object[]>();
+      this._lock.readLock().lock();
+      try{
+         TreeMap<Integer, Room> rooms = this._rooms.get(hotelID);
+         if (rooms != null)
+            for (Room room : rooms.values())
+               if (this._bookingsBySlot.containsKey(new Slot(hotelID, room.roomNumber, day)) == booked)
+                  rows.add(new Object[] { room.roomNumber, room.price });
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+      return ResultRow.emit(handler, rows, "room", "price");
+   }//end rooms
+
+   public int bookRoom(int customerID, int hotelID, int roomNumber, String bookingDate) throws SQLException {
+      int day = day(bookingDate);
+      this._lock.writeLock().lock();
+      try{
+         checkBooking(customerID, hotelID, roomNumber);
+         if (this._bookingsBySlot.containsKey(new Slot(hotelID, roomNumber, day)))
+            return -1;
+         return insertBooking(newBooking(customerID, hotelID, roomNumber, day)).bookingID;
+      }finally{
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end bookRoom
+
+   public int bookRooms(int customerID, int hotelID, int[] roomNumbers, String[] bookingDates) throws SQLException {
+      int[] days = new int[roomNumbers.length];
+      for (int i = 0; i < days.length; ++i)
+         days[i] = day(bookingDates[i]);
+      this._lock.writeLock().lock();
+      try{
+         if (!this._users.containsKey(customerID))
+            throw foreignKey("RoomBookings", "roombookings_customerid_fkey");
+         int total = 0;
+         HashMap<Slot, Boolean> requested = new HashMap<Slot, Boolean>();
+         for (int i = 0; i < days.length; ++i) {
+            Room room = room(hotelID, roomNumbers[i]);
+            Slot slot = new Slot(hotelID, roomNumbers[i], days[i]);
+            if (room == null || this._bookingsBySlot.containsKey(slot) || requested.put(slot, Boolean.TRUE) != null)
+               return -1;
+            total += room.price;
+         }
+         for (int i = 0; i < days.length; ++i)
+            insertBooking(newBooking(customerID, hotelID, roomNumbers[i], days[i]));
+         return total;
+      }finally{
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end bookRooms
+
+   public long recentBookings(int customerID, int limit, RowHandler handler) throws SQLException {
+      List<Object[]> rows = new ArrayList<Object[]>();
+      this._lock.readLock().lock();
+      try{
+         TreeSet<Booking> bookings = this._bookingsByCustomer.get(customerID);
+         if (bookings != null) {
+            for (Booking booking : bookings.descendingSet()) {
+               if (rows.size() == limit)
+                  break;
+               rows.add(new Object[] { booking.hotelID, booking.roomNumber,
+                                       room(booking.hotelID, booking.roomNumber).price, date(booking.bookingDate) });
+            }
+         }
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+      return ResultRow.emit(handler, rows, "hotel", "room", "price", "date");
+   }//end recentBookings
+
+   public long bookingHistoryPage(int[] hotelIDs, String startDate, String endDate, String afterDate, int afterBookingID,
+                                  int pageSize, RowHandler handler) throws SQLException {
+      int start = day(startDate), end = day(endDate);
+      Booking after = new Booking();
+      after.bookingDate = day(afterDate);
+      after.bookingID = afterBookingID;
+      List<Booking> page = new ArrayList<Booking>();
+      List<Object[]> rows = new ArrayList<Object[]>();
+      this._lock.readLock().lock();
+      try{
+         // the newest pageSize rows of every hotel, merged and cut to one page.
+         for (int hotelID : hotelIDs) {
+            TreeSet<Booking> bookings = this._bookingsByHotel.get(hotelID);
+            if (bookings == null)
+               continue;
+            int n = 0;
+            for (Booking booking : bookings.headSet(after, false).descendingSet()) {
+               if (booking.bookingDate < start || n == pageSize)
+                  break;
+               if (booking.bookingDate <= end) {
+                  page.add(booking);
+                  n++;
+               }
+            }
+         }
+         Collections.sort(page, Collections.reverseOrder(BY_DATE));
+         for (Booking booking : page.subList(0, Math.min(pageSize, page.size())))
+            rows.add(new Object[] { booking.bookingID, this._users.get(booking.customerID).name, booking.hotelID,
+                                    booking.roomNumber, date(booking.bookingDate) });
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+      return ResultRow.emit(handler, rows, "bookingid", "name", "hotelid", "roomnumber", "bookingdate");
+   }//end bookingHistoryPage
+
+   public long regularCustomers(int hotelID, int limit, RowHandler handler) throws SQLException {
+      List<Object[]> rows = new ArrayList<Object[]>();
+      this._lock.readLock().lock();
+      try{
+         TreeSet<Booking> bookings = this._bookingsByHotel.get(hotelID);
+         if (bookings != null) {
+            final HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+            for (Booking booking : bookings) {
+               Integer count = counts.get(booking.customerID);
+               counts.put(booking.customerID, count == null ? 1 : count + 1);
+            }
+            List<Integer> customers = new ArrayList<Integer>(counts.keySet());
+            Collections.sort(customers, new Comparator<Integer>() {
+               public int compare(Integer a, Integer b) {
+                  int c = counts.get(b) - counts.get(a);
+                  return c != 0 ? c : a - b;
+               }
+            });
+            for (Integer customerID : customers.subList(0, Math.min(limit, customers.size())))
+               rows.add(new Object[] { customerID, this._users.get(customerID).name });
+         }
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+      return ResultRow.emit(handler, rows, "id", "name");
+   }//end regularCustomers
+
+   public void logRoomUpdate(int managerID, int hotelID, int roomNumber) throws SQLException {
+      long now = System.currentTimeMillis();
+      this._lock.writeLock().lock();
+      try{
+         insertUpdate(newUpdate(managerID, hotelID, roomNumber, now));
+      }finally{
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end logRoomUpdate
+
+   private Update newUpdate(int managerID, int hotelID, int roomNumber, long now) {
+      Update update = new Update();
+      update.updateNumber = this._nextUpdateNumber++;
+      update.managerID = managerID;
+      update.hotelID = hotelID;
+      update.roomNumber = roomNumber;
+      // CURRENT_TIMESTAMP stored in a timestamp without time zone is the local wall-clock time.
+      update.updatedOn = now + TimeZone.getDefault().getOffset(now);
+      return update;
+   }//end newUpdate
+
+   public long recentUpdates(int managerID, int limit, RowHandler handler) throws SQLException {
+      List<Object[]> rows = new ArrayList<Object[]>();
+      this._lock.readLock().lock();
+      try{
+         TreeSet<Update> updates = this._updatesByManager.get(managerID);
+         if (updates != null) {
+            for (Update update : updates.descendingSet()) {
+               if (rows.size() == limit)
+                  break;
+               rows.add(new Object[] { update.updateNumber, update.hotelID, update.roomNumber, formatTimestamp(update.updatedOn) });
+            }
+         }
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+      return ResultRow.emit(handler, rows, "update", "hotel", "room", "update_time");
+   }//end recentUpdates
+
+   public void addCompany(int companyID, String name, String address) throws SQLException {
+      Company company = new Company();
+      company.companyID = companyID;
+      company.name = bpchar(name, 50);
+      company.address = bpchar(address, 50);
+      this._lock.writeLock().lock();
+      try{
+         if (this._companies.containsKey(companyID))
+            throw duplicate("maintenancecompany_pkey");
+         this._companies.put(companyID, company);
+      }finally{
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end addCompany
+
+   public boolean companyExists(int companyID) {
+      this._lock.readLock().lock();
+      try{
+         return this._companies.containsKey(companyID);
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+   }//end companyExists
+
+   public int placeRepairRequest(int managerID, int companyID, int hotelID, int roomNumber) throws SQLException {
+      long now = System.currentTimeMillis();
+      int today = (int) Math.floor((now + TimeZone.getDefault().getOffset(now)) / 86400000.0);
+      this._lock.writeLock().lock();
+      try{
+         HotelRow hotel = this._hotels.get(hotelID);
+         if (room(hotelID, roomNumber) == null || !this._companies.containsKey(companyID) || hotel.managerUserID != managerID)
+            return -1;
+         Repair repair = new Repair();
+         repair.repairID = this._nextRepairID++;
+         repair.companyID = companyID;
+         repair.hotelID = hotelID;
+         repair.roomNumber = roomNumber;
+         repair.repairDate = today;
+         insertRepair(repair);
+         Request request = new Request();
+         request.requestNumber = this._nextRequestNumber++;
+         request.managerID = managerID;
+         request.repairID = repair.repairID;
+         insertRequest(request);
+         return request.requestNumber;
+      }finally{
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end placeRepairRequest
+
+   public long repairHistory(int managerID, RowHandler handler) throws SQLException {
+      List<Object[]> rows = new ArrayList<Object[]>();
+      this._lock.readLock().lock();
+      try{
+         List<Request> requests = this._requestsByManager.get(managerID);
+         if (requests != null) {
+            final HashMap<Request, Repair> repairs = new HashMap<Request, Repair>();
+            for (Request request : requests)
+               repairs.put(request, this._repairs.get(request.repairID));
+            List<Request> sorted = new ArrayList<Request>(requests);
+            Collections.sort(sorted, new Comparator<Request>() {
+               public int compare(Request a, Request b) {
+                  int c = repairs.get(b).repairDate - repairs.get(a).repairDate;
+                  return c != 0 ? c : b.requestNumber - a.requestNumber;
+               }
+            });
+            for (Request request : sorted) {
+               Repair repair = repairs.get(request);
+               rows.add(new Object[] { request.requestNumber, repair.companyID, repair.hotelID, repair.roomNumber, date(repair.repairDate) });
+            }
+         }
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+      return ResultRow.emit(handler, rows, "request", "company", "hotel", "room", "date");
+   }//end repairHistory
+
+   /*
+    * The inserts below expect the write lock and check the keys of the row.
+    **/
+
+   private User newUser(int userID, String name, String password, String userType) throws SQLException {
+      User user = new User();
+      user.userID = userID;
+      user.name = bpchar(name, 50);
+      user.password = bpchar(notNull(password, "password"), 11);
+      user.userType = bpchar(userType, 10);
+      return user;
+   }//end newUser
+
+   private void insertUser(User user) throws SQLException {
+      this._lock.writeLock().lock();
+      try{
+         if (this._users.containsKey(user.userID))
+            throw duplicate("users_pkey");
+         this._users.put(user.userID, user);
+         this._nextUserID = Math.max(this._nextUserID, user.userID + 1);
+      }finally{
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end insertUser
+
+   private Booking newBooking(int customerID, int hotelID, int roomNumber, int day) {
+      Booking booking = new Booking();
+      booking.bookingID = this._nextBookingID++;
+      booking.customerID = customerID;
+      booking.hotelID = hotelID;
+      booking.roomNumber = roomNumber;
+      booking.bookingDate = day;
+      return booking;
+   }//end newBooking
+
+   private void checkBooking(int customerID, int hotelID, int roomNumber) throws SQLException {
+      if (!this._users.containsKey(customerID))
+         throw foreignKey("RoomBookings", "roombookings_customerid_fkey");
+      if (room(hotelID, roomNumber) == null)
+         throw foreignKey("RoomBookings", "roombookings_hotelid_roomnumber_fkey");
+   }//end checkBooking
+
+   private Booking insertBooking(Booking booking) throws SQLException {
+      if (this._bookings.containsKey(booking.bookingID))
+         throw duplicate("roombookings_pkey");
+      this._bookings.put(booking.bookingID, booking);
+      this._bookingsBySlot.put(new Slot(booking.hotelID, booking.roomNumber, booking.bookingDate), booking);
+      index(this._bookingsByCustomer, booking.customerID, booking);
+      index(this._bookingsByHotel, booking.hotelID, booking);
+      this._nextBookingID = Math.max(this._nextBookingID, booking.bookingID + 1);
+      return booking;
+   }//end insertBooking
+
+   private static void index(HashMap<Integer, TreeSet<Booking>> index, int key, Booking booking) {
+      TreeSet<Booking> bookings = index.get(key);
+      if (bookings == null) {
+         bookings = new TreeSet<Booking>(BY_DATE);
+         index.put(key, bookings);
+      }
+      bookings.add(booking);
+   }//end index
+
+   private void insertRepair(Repair repair) throws SQLException {
+      if (this._repairs.containsKey(repair.repairID))
+         throw duplicate("roomrepairs_pkey");
+      if (!this._companies.containsKey(repair.companyID))
+         throw foreignKey("RoomRepairs", "roomrepairs_companyid_fkey");
+      if (room(repair.hotelID, repair.roomNumber) == null)
+         throw foreignKey("RoomRepairs", "roomrepairs_hotelid_roomnumber_fkey");
+      this._repairs.put(repair.repairID, repair);
+      this._nextRepairID = Math.max(this._nextRepairID, repair.repairID + 1);
+   }//end insertRepair
+
+   private void insertRequest(Request request) throws SQLException {
+      if (this._requests.containsKey(request.requestNumber))
+         throw duplicate("roomrepairrequests_pkey");
+      if (!this._users.containsKey(request.managerID))
+         throw foreignKey("RoomRepairRequests", "roomrepairrequests_managerid_fkey");
+      if (!this._repairs.containsKey(request.repairID))
+         throw foreignKey("RoomRepairRequests", "roomrepairrequests_repairid_fkey");
+      this._requests.put(request.requestNumber, request);
+      List<Request> requests = this._requestsByManager.get(request.managerID);
+      if (requests == null) {
+         requests = new ArrayList<Request>();
+         this._requestsByManager.put(request.managerID, requests);
+      }
+      requests.add(request);
+      this._nextRequestNumber = Math.max(this._nextRequestNumber, request.requestNumber + 1);
+   }//end insertRequest
+
+   private void insertUpdate(Update update) throws SQLException {
+      if (this._updates.containsKey(update.updateNumber))
+         throw duplicate("roomupdateslog_pkey");
+      if (!this._users.containsKey(update.managerID))
+         throw foreignKey("RoomUpdatesLog", "roomupdateslog_managerid_fkey");
+      if (room(update.hotelID, update.roomNumber) == null)
+         throw foreignKey("RoomUpdatesLog", "roomupdateslog_hotelid_roomnumber_fkey");
+      this._updates.put(update.updateNumber, update);
+      TreeSet<Update> updates = this._updatesByManager.get(update.managerID);
+      if (updates == null) {
+         updates = new TreeSet<Update>(BY_TIME);
+         this._updatesByManager.put(update.managerID, updates);
+      }
+      updates.add(update);
+      this._nextUpdateNumber = Math.max(this._nextUpdateNumber, update.updateNumber + 1);
+   }//end insertUpdate
+
+   private Room room(int hotelID, int roomNumber) {
+      TreeMap<Integer, Room> rooms = this._rooms.get(hotelID);
+      return rooms == null ? null : rooms.get(roomNumber);
+   }
+
+   /*
+    * Conversions and constraints of the column types of create_tables.sql.
+    **/
+
+   // char(n): blank-padded to n, longer values are an error unless the excess is blanks.
+   private static String bpchar(String value, int n) throws SQLException {
+      if (value == null)
+         return null;
+      String trimmed = rtrim(value);
+      if (trimmed.length() > n)
+         throw new SQLException("ERROR: value too long for type character(" + n + ")", "22001");
+      StringBuilder padded = new StringBuilder(n).append(trimmed);
+      while (padded.length() < n)
+         padded.append(' ');
+      return padded.toString();
+   }//end bpchar
+
+   private static String rtrim(String value) {
+      int end = value.length();
+      while (end > 0 && value.charAt(end - 1) == ' ')
+         end--;
+      return value.substring(0, end);
+   }
+
+   // decimal(precision, scale): rounded to scale digits, at most precision - scale digits before the point.
+   private static double decimal(double value, int precision, int scale) throws SQLException {
+      double rounded = Math.round(value * Math.pow(10, scale)) / Math.pow(10, scale);
+      if (Math.abs(rounded) >= Math.pow(10, precision - scale))
+         throw new SQLException("ERROR: numeric field overflow", "22003");
+      return rounded;
+   }//end decimal
+
+   private static String notNull(String value, String column) throws SQLException {
+      if (value == null)
+         throw new SQLException("ERROR: null value in column \"" + column + "\" violates not-null constraint", "23502");
+      return value;
+   }
+
+   private static int day(String date) throws SQLException {
+      try{
+         return AvailabilityCalendar.parseDate(date);
+      }catch (IllegalArgumentException e){
+         throw new SQLException("ERROR: invalid input syntax for type date: \"" + date + "\"", "22007");
+      }//end try
+   }//end day
+
+   private static java.sql.Date date(int day) {
+      SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+      format.setTimeZone(UTC);
+      return java.sql.Date.valueOf(format.format(new java.util.Date(day * 86400000L)));
+   }//end date
+
+   private static long timestamp(String value) throws SQLException {
+      SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+      format.setTimeZone(UTC);
+      try{
+         return format.parse(value.trim()).getTime();
+      }catch (ParseException e){
+         throw new SQLException("ERROR: invalid input syntax for type timestamp: \"" + value + "\"", "22007");
+      }//end try
+   }//end timestamp
+
+   // a timestamp as PostgreSQL prints it, fractional seconds only when there are some.
+   private static String formatTimestamp(long millis) {
+      SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+      format.setTimeZone(UTC);
+      String text = format.format(new java.util.Date(millis));
+      int fraction = (int) (((millis % 1000) + 1000) % 1000);
+      if (fraction == 0)
+         return text;
+      String digits = String.format("%03d", fraction);
+      return text + "." + digits.replaceAll("0+$", "");
+   }//end formatTimestamp
+
+   private static SQLException duplicate(String constraint) {
+      return new SQLException("ERROR: duplicate key value violates unique constraint \"" + constraint + "\"", "23505");
+   }
+
+   private static SQLException foreignKey(String table, String constraint) {
+      return new SQLException("ERROR: insert or update on table \"" + table.toLowerCase()
+                              + "\" violates foreign key constraint \"" + constraint + "\"", "23503");
+   }
+
+   /*
+    * Reads the rows of a CSV file with a header line, no quoting.
+    **/
+   private static List<String[]> readCsv(File file) throws IOException {
+      List<String[]> rows = new ArrayList<String[]>();
+      if (!file.exists())
+         return rows;
+      BufferedReader reader = new BufferedReader(new FileReader(file));
+      try{
+         String line = reader.readLine();
+         while ((line = reader.readLine()) != null)
+            if (line.trim().length() > 0)
+               rows.add(line.split(",", -1));
+      }finally{
+         reader.close();
+      }//end try
+      return rows;
+   }//end readCsv
+
+}//end MemoryHotelRepository
@@ -0,0 +1,330 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class holds the operational metrics of the program, shared by every
+ * session of the JVM: a latency histogram per menu operation and per SQL
+ * statement template, the wait for a pooled connection, and counters of
+ * round trips, rows fetched, connection acquisitions and SQL errors by
+ * SQLState. Recording allocates nothing once an operation or statement has
+ * been seen, so it stays on in production.
+ *
+ * Everything is registered as MXBeans under the "hotel" JMX domain
+ * (hotel:type=Operation,name="bookRooms", hotel:type=Statement,name=s1,
+ * hotel:type=Counters), and, with -Dhotel.metricsDumpMs, written as text
+ * every so many milliseconds to the file named by -Dhotel.metricsFile or
+ * standard error. -Dhotel.metrics=false turns all of it off.
+ *
+ */
+public class Metrics {
+
+   // true unless disabled with -Dhotel.metrics=false.
+   public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("hotel.metrics", "true"));
+
+   // most statement templates with a histogram of their own, the rest share one.
+   private static final int MAX_STATEMENTS = 500;
+
+   private static final String OTHER_STATEMENTS = "(other statements)";
+
+   /**
+    * The latency of a menu operation or statement over JMX.
+    */
+   public interface LatencyMXBean {
+      String getName();
+      long getCount();
+      double getMeanMillis();
+      double getP50Millis();
+      double getP90Millis();
+      double getP99Millis();
+      double getP999Millis();
+      double getMaxMillis();
+      void reset();
+   }
+
+   /**
+    * The counters over JMX.
+    */
+   public interface CountersMXBean {
+      long getRoundTrips();
+      long getRowsFetched();
+      long getConnectionAcquisitions();
+      long getConnectionTimeouts();
+      long getSqlErrors();
+      Map<String, Long> getSqlErrorsByState();
+   }
+
+   /*
+    * A histogram with the name it is reported under.
+    **/
+   private static class Latency implements LatencyMXBean {
+      final String name;
+      final LatencyHistogram histogram = new LatencyHistogram();
+
+      Latency(String name) {
+         this.name = name;
+      }
+
+      public String getName() { return this.name; }
+      public long getCount() { return this.histogram.getCount(); }
+      public double getMeanMillis() { return this.histogram.getMeanMillis(); }
+      public double getP50Millis() { return this.histogram.getPercentileMillis(50); }
+      public double getP90Millis() { return this.histogram.getPercentileMillis(90); }
+      public double getP99Millis() { return this.histogram.getPercentileMillis(99); }
+      public double getP999Millis() { return this.histogram.getPercentileMillis(99.9); }
+      public double getMaxMillis() { return this.histogram.getMaxMillis(); }
+      public void reset() { this.histogram.reset(); }
+   }//end Latency
+
+   private static class Counters implements CountersMXBean {
+      public long getRoundTrips() { return _roundTrips.get(); }
+      public long getRowsFetched() { return _rowsFetched.get(); }
+      public long getConnectionAcquisitions() { return _acquisitions.get(); }
+      public long getConnectionTimeouts() { return _timeouts.get(); }
+
+      public long getSqlErrors() {
+         long total = 0;
+         for (AtomicLong count : _errors.values())
+            total += count.get();
+         return total;
+      }
+
+      public Map<String, Long> getSqlErrorsByState() {
+         Map<String, Long> counts = new TreeMap<String, Long>();
+         for (Map.Entry<String, AtomicLong> entry : _errors.entrySet())
+            counts.put(entry.getKey(), entry.getValue().get());
+         return counts;
+      }
+   }//end Counters
+
+   private static final ConcurrentHashMap<String, Latency> _operations = new ConcurrentHashMap<String, Latency>();
+   private static final ConcurrentHashMap<String, Latency> _statements = new ConcurrentHashMap<String, Latency>();
+   private static final AtomicInteger _statementIDs = new AtomicInteger();
+   private static final Latency _connectionWait = new Latency("connection wait");
+   private static final AtomicLong _roundTrips = new AtomicLong();
+   private static final AtomicLong _rowsFetched = new AtomicLong();
+   private static final AtomicLong _acquisitions = new AtomicLong();
+   private static final AtomicLong _timeouts = new AtomicLong();
+   private static final ConcurrentHashMap<String, AtomicLong> _errors = new ConcurrentHashMap<String, AtomicLong>();
+   private static final Counters _counters = new Counters();
+
+   private static Thread _dumper = null;
+
+   static {
+      if (ENABLED) {
+         register("hotel:type=Counters", _counters);
+         register("hotel:type=Connection,name=wait", _connectionWait);
+      }
+   }
+
+   private Metrics() {
+   }
+
+   /**
+    * Records the latency of a menu operation.
+    *
+    * @param operation the name of the operation, as Hotel.operationNames lists them
+    * @param nanos the time the operation ran, without the time it waited for input
+    */
+   public static void operation(String operation, long nanos) {
+      if (!ENABLED || operation == null)
+         return;
+      Latency latency = _operations.get(operation);
+      if (latency == null)
+         latency = add(_operations, operation, "hotel:type=Operation,name=" + ObjectName.quote(operation));
+      latency.histogram.record(nanos);
+   }//end operation
+
+   /**
+    * Records the latency of a statement sent to the database.
+    *
+    * @param sql the statement template
+    * @param nanos the time the database took to answer
+    */
+   public static void statement(String sql, long nanos) {
+      if (!ENABLED)
+         return;
+      Latency latency = _statements.get(sql);
+      if (latency == null) {
+         // statements built with a variable number of placeholders could otherwise grow without bound.
+         if (_statements.size() >= MAX_STATEMENTS)
+            latency = _statements.get(OTHER_STATEMENTS);
+         if (latency == null)
+            latency = add(_statements, _statements.size() >= MAX_STATEMENTS ? OTHER_STATEMENTS : sql,
+                          "hotel:type=Statement,name=s" + _statementIDs.incrementAndGet());
+      }
+      latency.histogram.record(nanos);
+   }//end statement
+
+   private static Latency add(ConcurrentHashMap<String, Latency> map, String name, String objectName) {
+      Latency latency = new Latency(name);
+      Latency existing = map.putIfAbsent(name, latency);
+      if (existing != null)
+         return existing;
+      register(objectName, latency);
+      return latency;
+   }//end add
+
+   private static void register(String name, Object bean) {
+      try{
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName objectName = new ObjectName(name);
+         if (!server.isRegistered(objectName))
+            server.registerMBean(bean, objectName);
+      }catch (Exception e){
+         // metrics stay readable from the dump without JMX.
+      }//end try
+   }//end register
+
+   public static void roundTrip() {
+      if (ENABLED)
+         _roundTrips.incrementAndGet();
+   }
+
+   public static void rowsFetched(long rows) {
+      if (ENABLED)
+         _rowsFetched.addAndGet(rows);
+   }
+
+   /**
+    * Records a connection borrowed from the pool.
+    *
+    * @param waitNanos how long the borrower waited for it
+    */
+   public static void connectionAcquired(long waitNanos) {
+      if (!ENABLED)
+         return;
+      _acquisitions.incrementAndGet();
+      _connectionWait.histogram.record(waitNanos);
+   }//end connectionAcquired
+
+   public static void connectionTimeout() {
+      if (ENABLED)
+         _timeouts.incrementAndGet();
+   }
+
+   /**
+    * Counts a failed statement under its SQLState.
+    */
+   public static void sqlError(SQLException e) {
+      if (!ENABLED)
+         return;
+      String state = e.getSQLState() == null ? "(none)" : e.getSQLState();
+      AtomicLong count = _errors.get(state);
+      if (count == null) {
+         AtomicLong added = new AtomicLong();
+         count = _errors.putIfAbsent(state, added);
+         if (count == null)
+            count = added;
+      }
+      count.incrementAndGet();
+   }//end sqlError
+
+   /**
+    * Writes every metric as text.
+    *
+    * @param out the stream to write to
+    */
+   public static void dump(PrintStream out) {
+      out.println("== metrics " + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()) + " ==");
+      out.println("operations:");
+      for (Latency latency : sorted(_operations))
+         out.println("  " + latency.name + "\t" + latency.histogram);
+      out.println("statements:");
+      for (Latency latency : sorted(_statements)) {
+         String sql = latency.name.length() > 100 ? latency.name.substring(0, 97) + "..." : latency.name;
+         out.println("  " + latency.histogram + "\t" + sql);
+      }
+      out.println("connection wait\t" + _connectionWait.histogram);
+      out.println("round trips " + _roundTrips.get() + ", rows fetched " + _rowsFetched.get()
+                  + ", connections acquired " + _acquisitions.get() + ", acquire timeouts " + _timeouts.get());
+      out.println("sql errors " + _counters.getSqlErrors() + " " + _counters.getSqlErrorsByState());
+      out.flush();
+   }//end dump
+
+   /*
+    * The histograms of a map, the busiest first.
+    **/
+   private static List<Latency> sorted(ConcurrentHashMap<String, Latency> map) {
+      List<Latency> latencies = new ArrayList<Latency>(map.values());
+      Collections.sort(latencies, new Comparator<Latency>() {
+         public int compare(Latency a, Latency b) {
+            return Long.compare(b.histogram.getCount(), a.histogram.getCount());
+         }
+      });
+      return latencies;
+   }//end sorted
+
+   /**
+    * Starts the periodic dump when -Dhotel.metricsDumpMs is set; calling it
+    * again does nothing.
+    */
+   public static synchronized void startDump() {
+      final long periodMs = Long.getLong("hotel.metricsDumpMs", 0);
+      if (!ENABLED || periodMs <= 0 || _dumper != null)
+         return;
+      _dumper = new Thread(new Runnable() {
+         public void run() {
+            while (true) {
+               try{
+                  Thread.sleep(periodMs);
+               }catch (InterruptedException e){
+                  return;
+               }//end try
+               write();
+            }
+         }
+      }, "metrics-dump");
+      _dumper.setDaemon(true);
+      _dumper.start();
+   }//end startDump
+
+   /**
+    * Stops the periodic dump, writing the metrics one last time so the end
+    * of a run is not lost.
+    */
+   public static synchronized void stopDump() {
+      if (_dumper == null)
+         return;
+      _dumper.interrupt();
+      _dumper = null;
+      write();
+   }//end stopDump
+
+   /*
+    * Writes a dump to -Dhotel.metricsFile, or standard error.
+    **/
+   private static void write() {
+      String file = System.getProperty("hotel.metricsFile");
+      if (file == null) {
+         dump(System.err);
+         return;
+      }
+      try{
+         PrintStream out = new PrintStream(new FileOutputStream(file, true));
+         try{
+            dump(out);
+         }finally{
+            out.close();
+         }//end try
+      }catch (IOException e){
+         System.err.println("Cannot write metrics to " + file + ": " + e.getMessage());
+      }//end try
+   }//end write
+
+}//end Metrics
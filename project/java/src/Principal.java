@@ -0,0 +1,140 @@
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class holds what a session knows about its logged-in user: the user
+ * type and the hotels the user manages. It is loaded once at LogIn, so the
+ * manager screens authorize from memory instead of querying Users and Hotel
+ * before every action.
+ *
+ * Code that changes Users.userType or Hotel.managerUserID must call
+ * invalidate (or invalidateAll); every session holding a principal for that
+ * user reloads it before its next authorization check.
+ *
+ */
+public class Principal {
+
+   // bumped by invalidateAll, makes every principal stale.
+   private static final AtomicLong _globalVersion = new AtomicLong();
+
+   // bumped per user by invalidate.
+   private static final ConcurrentHashMap<Integer, Long> _userVersions = new ConcurrentHashMap<Integer, Long>();
+
+   private final int _userID;
+   private final String _userType;
+   // hotels managed by the user, in ascending order.
+   private final int[] _hotelIDs;
+   private final long _globalSeen;
+   private final long _userSeen;
+
+   private Principal(int userID, String userType, int[] hotelIDs, long globalSeen, long userSeen) {
+      this._userID = userID;
+      this._userType = userType;
+      this._hotelIDs = hotelIDs;
+      this._globalSeen = globalSeen;
+      this._userSeen = userSeen;
+   }//end Principal
+
+   /**
+    * Checks credentials and loads the principal of a user in one lookup.
+    *
+    * @param esql the session whose repository is read
+    * @param userID the user logging in
+    * @param password the password entered
+    * @return the principal, or null when the credentials are wrong
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public static Principal logIn(Hotel esql, int userID, String password) throws SQLException {
+      // read the versions before querying, so an invalidate racing the query is not lost.
+      long globalSeen = _globalVersion.get();
+      long userSeen = userVersion(userID);
+      return fromRows(userID, esql.getRepository().findUser(userID, password), globalSeen, userSeen);
+   }//end logIn
+
+   /**
+    * Loads the principal of a user.
+    *
+    * @param esql the session whose repository is read
+    * @param userID the user
+    * @return the principal, or null when the user does not exist
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public static Principal load(Hotel esql, int userID) throws SQLException {
+      long globalSeen = _globalVersion.get();
+      long userSeen = userVersion(userID);
+      return fromRows(userID, esql.getRepository().findUser(userID, null), globalSeen, userSeen);
+   }//end load
+
+   private static Principal fromRows(int userID, List<List<String>> rows, long globalSeen, long userSeen) {
+      if (rows.isEmpty())
+         return null;
+      String userType = rows.get(0).get(0);
+      int[] hotelIDs = new int[rows.size()];
+      int n = 0;
+      for (List<String> row : rows)
+         if (row.get(1) != null)
+            hotelIDs[n++] = Integer.parseInt(row.get(1));
+      hotelIDs = Arrays.copyOf(hotelIDs, n);
+      Arrays.sort(hotelIDs);
+      return new Principal(userID, userType == null ? "" : userType.trim(), hotelIDs, globalSeen, userSeen);
+   }//end fromRows
+
+   /**
+    * Marks the principals of one user as stale, after a change to the user's
+    * type or to the hotels the user manages.
+    */
+   public static void invalidate(int userID) {
+      synchronized (_userVersions) {
+         _userVersions.put(userID, userVersion(userID) + 1);
+      }
+   }//end invalidate
+
+   /**
+    * Marks every principal as stale.
+    */
+   public static void invalidateAll() {
+      _globalVersion.incrementAndGet();
+   }//end invalidateAll
+
+   private static long userVersion(int userID) {
+      Long version = _userVersions.get(userID);
+      return version == null ? 0 : version;
+   }
+
+   /**
+    * @return true when the principal was invalidated after it was loaded
+    */
+   public boolean isStale() {
+      return this._globalSeen != _globalVersion.get() || this._userSeen != userVersion(this._userID);
+   }
+
+   public int getUserID() {
+      return this._userID;
+   }
+
+   public String getUserType() {
+      return this._userType;
+   }
+
+   public boolean isManager() {
+      return "manager".equals(this._userType);
+   }
+
+   /**
+    * @return true when the user is a manager of the hotel
+    */
+   public boolean manages(int hotelID) {
+      return isManager() && Arrays.binarySearch(this._hotelIDs, hotelID) >= 0;
+   }
+
+   /**
+    * @return the hotels managed by the user, in ascending order
+    */
+   public int[] getHotelIDs() {
+      return this._hotelIDs.clone();
+   }
+
+}//end Principal
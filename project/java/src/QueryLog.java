@@ -0,0 +1,257 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class records every statement the menus send to the database with its
+ * latency, grouped by menu operation. The first time a statement runs slower
+ * than the threshold its EXPLAIN (ANALYZE, BUFFERS) plan is captured, and the
+ * sequential scans with filters in those plans are turned into CREATE INDEX
+ * recommendations in the format of create_indexes.sql.
+ *
+ */
+public class QueryLog {
+
+   // default latency above which a statement counts as slow.
+   public static final long DEFAULT_SLOW_MS = 100;
+
+   /*
+    * Latency totals of one statement template within one operation.
+    **/
+   private static class Stats {
+      long count = 0;
+      long totalNanos = 0;
+      long maxNanos = 0;
+      long slow = 0;
+   }//end Stats
+
+   private static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (\\w+)(?: (\\w+))?");
+   private static final Pattern FILTER = Pattern.compile("^\\s*Filter: (.*)$");
+   private static final Pattern SORT_KEY = Pattern.compile("^\\s*Sort Key: (.*)$");
+   private static final Pattern COMPARISON = Pattern.compile("(?:\\b(\\w+)\\.)?\\b([A-Za-z_]\\w*)\\)?\\s*(=|<=|>=|<|>)\\s");
+
+   private final long _slowNanos;
+
+   // operation -> statement template -> stats, in first-seen order.
+   private final LinkedHashMap<String, LinkedHashMap<String, Stats>> _stats = new LinkedHashMap<String, LinkedHashMap<String, Stats>>();
+
+   // statement template -> captured plan.
+   private final LinkedHashMap<String, String> _plans = new LinkedHashMap<String, String>();
+
+   /**
+    * Creates an empty log
+    *
+    * @param slowMs latency in milliseconds from which a plan is captured
+    */
+   public QueryLog(long slowMs) {
+      this._slowNanos = slowMs * 1000000L;
+   }//end QueryLog
+
+   /**
+    * Records one execution of a statement.
+    *
+    * @param operation the menu operation that ran it, or null outside the menus
+    * @param sql the statement template
+    * @param nanos the latency of the execution
+    * @return true when the caller should capture the plan of the statement
+    */
+   public synchronized boolean record(String operation, String sql, long nanos) {
+      String op = operation == null ? "(none)" : operation;
+      LinkedHashMap<String, Stats> statements = this._stats.get(op);
+      if (statements == null) {
+         statements = new LinkedHashMap<String, Stats>();
+         this._stats.put(op, statements);
+      }
+      Stats stats = statements.get(sql);
+      if (stats == null) {
+         stats = new Stats();
+         statements.put(sql, stats);
+      }
+      stats.count++;
+      stats.totalNanos += nanos;
+      stats.maxNanos = Math.max(stats.maxNanos, nanos);
+      if (nanos < this._slowNanos)
+         return false;
+      stats.slow++;
+      return !this._plans.containsKey(sql);
+   }//end record
+
+   /**
+    * Stores the captured plan of a slow statement.
+    */
+   public synchronized void addPlan(String sql, String plan) {
+      this._plans.put(sql, plan);
+   }
+
+   /**
+    * Forgets all latencies, keeping the captured plans.
+    */
+   public synchronized void reset() {
+      this._stats.clear();
+   }
+
+   /**
+    * @return the mean latency in milliseconds of every operation, summed over its statements
+    */
+   public synchronized Map<String, Double> operationMeans() {
+      Map<String, Double> means = new LinkedHashMap<String, Double>();
+      for (Map.Entry<String, LinkedHashMap<String, Stats>> op : this._stats.entrySet()) {
+         double ms = 0;
+         for (Stats stats : op.getValue().values())
+            ms += stats.totalNanos / 1e6 / stats.count;
+         means.put(op.getKey(), ms);
+      }
+      return means;
+   }//end operationMeans
+
+   /**
+    * Prints the workload per menu operation, the plans of the slow
+    * statements and the recommended indexes.
+    */
+   public synchronized void report(PrintStream out) {
+      out.println("Query log (slow from " + this._slowNanos / 1000000 + " ms)");
+      out.println("=========");
+      for (Map.Entry<String, LinkedHashMap<String, Stats>> op : this._stats.entrySet()) {
+         out.println(op.getKey() + ":");
+         for (Map.Entry<String, Stats> statement : op.getValue().entrySet()) {
+            Stats stats = statement.getValue();
+            out.printf("  %6d x  mean %8.2f ms  max %8.2f ms  total %9.1f ms  slow %d%n    %s%n",
+                       stats.count, stats.totalNanos / 1e6 / stats.count, stats.maxNanos / 1e6,
+                       stats.totalNanos / 1e6, stats.slow, statement.getKey());
+         }
+      }
+      for (Map.Entry<String, String> plan : this._plans.entrySet()) {
+         out.println();
+         out.println("Plan of " + plan.getKey());
+         out.println(plan.getValue());
+      }
+      List<String> indexes = recommendIndexes();
+      out.println();
+      out.println("-- recommended indexes");
+      for (String index : indexes)
+         out.println(index);
+      if (indexes.isEmpty())
+         out.println("-- none");
+   }//end report
+
+   /**
+    * Writes the recommended indexes as a script like create_indexes.sql.
+    *
+    * @param file the file to write
+    * @throws java.io.IOException when the file cannot be written
+    */
+   public void writeIndexAdvice(File file) throws IOException {
+      PrintWriter writer = new PrintWriter(new FileWriter(file));
+      try{
+         writer.println("---Indexes recommended from the sequential scans of slow menu queries.");
+         for (String index : recommendIndexes())
+            writer.println(index);
+      }finally{
+         writer.close();
+      }//end try
+   }//end writeIndexAdvice
+
+   /**
+    * Derives CREATE INDEX statements from the captured plans. Every
+    * sequential scan with a filter becomes an index on the filtered columns,
+    * equality columns first, then range columns, then the sort key of the
+    * plan when it orders by a column of the same table.
+    *
+    * @return the CREATE INDEX statements, without duplicates
+    */
+   public synchronized List<String> recommendIndexes() {
+      LinkedHashSet<String> indexes = new LinkedHashSet<String>();
+      for (String plan : this._plans.values()) {
+         String[] lines = plan.split("\n");
+         // alias -> table of the scanned relations, for the sort keys.
+         HashMap<String, String> aliases = new HashMap<String, String>();
+         LinkedHashMap<String, List<String>[]> scans = new LinkedHashMap<String, List<String>[]>();
+         for (int i = 0; i < lines.length; ++i) {
+            Matcher scan = SEQ_SCAN.matcher(lines[i]);
+            if (!scan.find())
+               continue;
+            String table = scan.group(1).toLowerCase();
+            aliases.put(scan.group(2) == null ? table : scan.group(2).toLowerCase(), table);
+            aliases.put(table, table);
+            int indent = indentOf(lines[i]);
+            for (int j = i + 1; j < lines.length && !lines[j].trim().startsWith("->") && indentOf(lines[j]) > indent; ++j) {
+               Matcher filter = FILTER.matcher(lines[j]);
+               if (filter.find())
+                  addFilterColumns(scans, table, filter.group(1));
+            }
+         }
+         for (String line : lines) {
+            Matcher sort = SORT_KEY.matcher(line);
+            if (!sort.find())
+               continue;
+            String key = sort.group(1).split(",")[0].trim().split(" ")[0];
+            String[] parts = key.split("\\.");
+            // an unqualified key can only be placed when the plan scans one table.
+            String table = parts.length == 2 ? aliases.get(parts[0].toLowerCase())
+                         : scans.size() == 1 ? scans.keySet().iterator().next() : null;
+            if (table != null && scans.containsKey(table))
+               addColumn(scans.get(table)[2], parts[parts.length - 1].toLowerCase());
+         }
+         for (Map.Entry<String, List<String>[]> scan : scans.entrySet()) {
+            LinkedHashSet<String> columns = new LinkedHashSet<String>();
+            for (List<String> group : scan.getValue())
+               columns.addAll(group);
+            List<String> key = new ArrayList<String>(columns).subList(0, Math.min(3, columns.size()));
+            StringBuilder name = new StringBuilder(scan.getKey());
+            for (String column : key)
+               name.append('_').append(column);
+            indexes.add("CREATE INDEX IF NOT EXISTS " + name + "_idx ON " + scan.getKey()
+                        + " (" + join(key) + ");");
+         }
+      }
+      return new ArrayList<String>(indexes);
+   }//end recommendIndexes
+
+   @SuppressWarnings({"unchecked", "rawtypes"})
+   private static void addFilterColumns(LinkedHashMap<String, List<String>[]> scans, String table, String filter) {
+      List<String>[] groups = scans.get(table);
+      if (groups == null) {
+         groups = new List[] { new ArrayList<String>(), new ArrayList<String>(), new ArrayList<String>() };
+         scans.put(table, groups);
+      }
+      Matcher comparison = COMPARISON.matcher(filter);
+      while (comparison.find()) {
+         String column = comparison.group(2).toLowerCase();
+         if (column.equals("and") || column.equals("or") || column.equals("not"))
+            continue;
+         addColumn("=".equals(comparison.group(3)) ? groups[0] : groups[1], column);
+      }
+      if (groups[0].isEmpty() && groups[1].isEmpty())
+         scans.remove(table);
+   }//end addFilterColumns
+
+   private static void addColumn(List<String> columns, String column) {
+      if (!columns.contains(column))
+         columns.add(column);
+   }
+
+   private static int indentOf(String line) {
+      int i = 0;
+      while (i < line.length() && line.charAt(i) == ' ')
+         ++i;
+      return i;
+   }
+
+   private static String join(List<String> columns) {
+      StringBuilder sb = new StringBuilder();
+      for (String column : columns)
+         sb.append(sb.length() == 0 ? "" : ", ").append(column);
+      return sb.toString();
+   }
+
+}//end QueryLog
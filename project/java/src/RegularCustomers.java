@@ -0,0 +1,245 @@
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * This class keeps, for every hotel, how many bookings each customer made
+ * and the customers with the most bookings, so viewRegularCustomers reads
+ * its answer from memory instead of aggregating the hotel's whole booking
+ * history. Counts live in open-addressing int-to-int maps, and each hotel
+ * keeps its top K customers sorted by count. Counts only grow, so one
+ * increment touches at most K entries of that list.
+ *
+ * bookRoom records every booking it inserts. Bookings made by other
+ * processes, or rows deleted in the database, are caught by drift checks
+ * that compare the row count and highest bookingID of RoomBookings with
+ * what was counted, and reload when they differ.
+ *
+ */
+public class RegularCustomers {
+
+   /*
+    * Open-addressing map from customerID to booking count.
+    **/
+   private static class Counts {
+      private static final int FREE = Integer.MIN_VALUE;
+      int[] keys = newKeys(16);
+      int[] values = new int[16];
+      int size = 0;
+
+      private static int[] newKeys(int capacity) {
+         int[] keys = new int[capacity];
+         Arrays.fill(keys, FREE);
+         return keys;
+      }
+
+      private static int slot(int key, int mask) {
+         int h = key * 0x9E3779B1;
+         return (h ^ (h >>> 16)) & mask;
+      }
+
+      /*
+       * Adds to the count of a key and returns the new count.
+       */
+      int add(int key, int delta) {
+         int mask = this.keys.length - 1;
+         int i = slot(key, mask);
+         while (this.keys[i] != FREE && this.keys[i] != key)
+            i = (i + 1) & mask;
+         if (this.keys[i] == FREE) {
+            if ((this.size + 1) * 4 > this.keys.length * 3) {
+               grow();
+               return add(key, delta);
+            }
+            this.keys[i] = key;
+            this.size++;
+         }
+         return this.values[i] += delta;
+      }
+
+      private void grow() {
+         int[] oldKeys = this.keys, oldValues = this.values;
+         this.keys = newKeys(oldKeys.length * 2);
+         this.values = new int[oldKeys.length * 2];
+         this.size = 0;
+         for (int i = 0; i < oldKeys.length; ++i)
+            if (oldKeys[i] != FREE)
+               add(oldKeys[i], oldValues[i]);
+      }
+   }//end Counts
+
+   /*
+    * The counts and the current top customers of one hotel.
+    **/
+   private static class HotelCounts {
+      final Counts counts = new Counts();
+      // top customers, best first: higher count, then lower customerID.
+      final int[] topIDs;
+      final int[] topCounts;
+      int top = 0;
+
+      HotelCounts(int k) {
+         this.topIDs = new int[k];
+         this.topCounts = new int[k];
+      }
+
+      /*
+       * Moves a customer whose count grew into its place in the top list.
+       */
+      void offer(int customerID, int count) {
+         int pos = 0;
+         while (pos < this.top && this.topIDs[pos] != customerID)
+            pos++;
+         if (pos == this.top) {
+            if (this.top < this.topIDs.length)
+               this.top++;
+            else if (better(count, customerID, this.topCounts[pos - 1], this.topIDs[pos - 1]))
+               pos--;
+            else
+               return;
+         }
+         while (pos > 0 && better(count, customerID, this.topCounts[pos - 1], this.topIDs[pos - 1])) {
+            this.topIDs[pos] = this.topIDs[pos - 1];
+            this.topCounts[pos] = this.topCounts[pos - 1];
+            pos--;
+         }
+         this.topIDs[pos] = customerID;
+         this.topCounts[pos] = count;
+      }
+
+      private static boolean better(int count1, int id1, int count2, int id2) {
+         return count1 > count2 || (count1 == count2 && id1 < id2);
+      }
+   }//end HotelCounts
+
+   private final int _k;
+   private final long _checkIntervalMs;
+   private HashMap<Integer, HotelCounts> _hotels = new HashMap<Integer, HotelCounts>();
+   // number of bookings counted and the highest bookingID seen, compared with the table by checkDrift.
+   private long _total = 0;
+   private long _maxBookingID = 0;
+   private long _lastCheck = 0;
+   private long _reloads = 0;
+
+   /**
+    * Creates an empty set of counters
+    *
+    * @param k the number of top customers kept per hotel
+    * @param checkIntervalMs the minimum time between two drift checks
+    */
+   public RegularCustomers(int k, long checkIntervalMs) {
+      this._k = k;
+      this._checkIntervalMs = checkIntervalMs;
+   }//end RegularCustomers
+
+   /**
+    * Replaces the counters with the bookings in RoomBookings.
+    *
+    * @param esql the session used to read the table
+    * @throws java.sql.SQLException when the table cannot be read
+    */
+   public void load(Hotel esql) throws SQLException {
+      final HashMap<Integer, HotelCounts> hotels = new HashMap<Integer, HotelCounts>();
+      final long[] totals = { 0, 0 };
+      esql.streamQuery(
+         "SELECT rb.hotelID, rb.customerID, COUNT(*), MAX(rb.bookingID) FROM RoomBookings rb GROUP BY rb.hotelID, rb.customerID",
+         new RowHandler() {
+            public void handle(ResultRow row) throws SQLException {
+               HotelCounts hotel = hotels.get(row.getInt(1));
+               if (hotel == null) {
+                  hotel = new HotelCounts(_k);
+                  hotels.put(row.getInt(1), hotel);
+               }
+               int count = row.getInt(3);
+               hotel.offer(row.getInt(2), hotel.counts.add(row.getInt(2), count));
+               totals[0] += count;
+               totals[1] = Math.max(totals[1], row.getLong(4));
+            }
+         });
+      synchronized (this) {
+         this._hotels = hotels;
+         this._total = totals[0];
+         this._maxBookingID = totals[1];
+         this._lastCheck = System.currentTimeMillis();
+         this._reloads++;
+      }
+   }//end load
+
+   /**
+    * Reloads the counters when RoomBookings no longer matches them, at most
+    * once per check interval.
+    *
+    * @param esql the session used to read the table
+    * @return true when the counters were reloaded
+    * @throws java.sql.SQLException when the table cannot be read
+    */
+   public boolean checkDrift(Hotel esql) throws SQLException {
+      long total, maxBookingID;
+      synchronized (this) {
+         long now = System.currentTimeMillis();
+         if (now - this._lastCheck < this._checkIntervalMs)
+            return false;
+         this._lastCheck = now;
+         total = this._total;
+         maxBookingID = this._maxBookingID;
+      }
+      List<List<String>> rows = esql.executeQueryAndReturnResult(
+         "SELECT COUNT(*), COALESCE(MAX(rb.bookingID), 0) FROM RoomBookings rb");
+      if (Long.parseLong(rows.get(0).get(0)) == total && Long.parseLong(rows.get(0).get(1)) == maxBookingID)
+         return false;
+      load(esql);
+      return true;
+   }//end checkDrift
+
+   /**
+    * Counts a new booking.
+    *
+    * @param hotelID the hotel booked
+    * @param customerID the customer who booked
+    * @param bookingID the key of the new RoomBookings row
+    */
+   public synchronized void record(int hotelID, int customerID, int bookingID) {
+      HotelCounts hotel = this._hotels.get(hotelID);
+      if (hotel == null) {
+         hotel = new HotelCounts(this._k);
+         this._hotels.put(hotelID, hotel);
+      }
+      hotel.offer(customerID, hotel.counts.add(customerID, 1));
+      this._total++;
+      this._maxBookingID = Math.max(this._maxBookingID, bookingID);
+   }//end record
+
+   /**
+    * Lists the customers of a hotel with the most bookings.
+    *
+    * @param hotelID the hotel
+    * @return pairs of customerID and booking count, best first, flattened as {id, count, id, count, ...}
+    */
+   public synchronized int[] top(int hotelID) {
+      HotelCounts hotel = this._hotels.get(hotelID);
+      if (hotel == null)
+         return new int[0];
+      int[] result = new int[hotel.top * 2];
+      for (int i = 0; i < hotel.top; ++i) {
+         result[2 * i] = hotel.topIDs[i];
+         result[2 * i + 1] = hotel.topCounts[i];
+      }
+      return result;
+   }//end top
+
+   /**
+    * @return the number of top customers kept per hotel
+    */
+   public int getK() {
+      return this._k;
+   }
+
+   /**
+    * @return how many times the counters were loaded from the database
+    */
+   public synchronized long getReloads() {
+      return this._reloads;
+   }
+
+}//end RegularCustomers
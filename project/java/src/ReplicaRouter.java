@@ -0,0 +1,319 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class sends the reads of read-only menu operations to streaming
+ * replicas of the primary, so heavy screens do not compete with bookings.
+ * Every replica has a connection pool of its own. A monitor thread asks
+ * the primary how far its WAL reached and every replica how far it has
+ * replayed; a replica that fell more than the maximum lag behind, or that
+ * cannot be reached, gets no reads until it catches up, and with no replica
+ * left reads go to the primary.
+ *
+ * Sessions pass the WAL position their reads must not go behind: the
+ * primary's position after their last write, so they read their own
+ * writes, or the position of the replica they last read from, so their
+ * reads never go back in time. Only replicas known to have replayed that
+ * far are chosen, round-robin among them.
+ *
+ */
+public class ReplicaRouter {
+
+   // default time between two looks at the replicas.
+   public static final long DEFAULT_CHECK_MS = 200;
+
+   // default lag beyond which a replica gets no reads.
+   public static final long DEFAULT_MAX_LAG_MS = 1000;
+
+   /**
+    * A replica and what the monitor last saw of it.
+    */
+   public static class Replica {
+      private final String _url;
+      private final ConnectionPool _pool;
+
+      // monitor's connection to the replica, null while unreachable.
+      private Connection _monitor = null;
+
+      // last replayed WAL position, -1 until seen or while unreachable.
+      private volatile long _replayLsn = -1;
+
+      // time the newest position of the primary the replica has replayed was read, by the local clock.
+      private volatile long _caughtUpMs = 0;
+
+      private long _routed = 0;
+      private long _failures = 0;
+
+      Replica(String url, ConnectionPool pool) {
+         this._url = url;
+         this._pool = pool;
+      }
+
+      public ConnectionPool getPool() {
+         return this._pool;
+      }
+
+      /**
+       * @return the WAL position the replica had replayed when last seen, -1 when unknown
+       */
+      public long getReplayLsn() {
+         return this._replayLsn;
+      }
+
+      /**
+       * @return the age of the newest position of the primary the replica has replayed
+       */
+      public long getLagMs() {
+         return this._replayLsn < 0 ? Long.MAX_VALUE : Math.max(0, System.currentTimeMillis() - this._caughtUpMs);
+      }
+
+      public synchronized long getReads() {
+         return this._routed;
+      }
+
+      public synchronized long getFailures() {
+         return this._failures;
+      }
+
+      public synchronized String toString() {
+         return String.format("%s: %s, %d read(s), %d failure(s)", this._url,
+                              this._replayLsn < 0 ? "down" : "lag " + getLagMs() + " ms", this._routed, this._failures);
+      }
+   }//end Replica
+
+   private final ConnectionPool _primary;
+   private final List<Replica> _replicas;
+   private final long _checkMs;
+   private final long _maxLagMs;
+   private final AtomicInteger _next = new AtomicInteger();
+   private final Thread _thread;
+   private volatile boolean _closed = false;
+
+   // monitor's connection to the primary, null while unreachable.
+   private Connection _primaryMonitor = null;
+
+   // recent WAL positions of the primary with the time they were read, newest first.
+   private final ArrayDeque<long[]> _samples = new ArrayDeque<long[]>();
+
+   // reads sent to the primary because no replica was fit.
+   private long _fallbacks = 0;
+
+   /**
+    * Creates a router and starts its monitor
+    *
+    * @param primary the pool of the primary, whose settings the replica pools copy
+    * @param urls the JDBC connection URLs of the replicas
+    * @param checkMs the time between two looks at the replicas
+    * @param maxLagMs the lag beyond which a replica gets no reads
+    */
+   public ReplicaRouter(ConnectionPool primary, List<String> urls, long checkMs, long maxLagMs) {
+      this._primary = primary;
+      this._checkMs = Math.max(1, checkMs);
+      this._maxLagMs = maxLagMs;
+      List<Replica> replicas = new ArrayList<Replica>();
+      for (String url : urls)
+         replicas.add(new Replica(url, primary.withUrl(url)));
+      this._replicas = Collections.unmodifiableList(replicas);
+      this._thread = new Thread(new Runnable() {
+         public void run() {
+            monitor();
+         }
+      }, "replica-monitor");
+      this._thread.setDaemon(true);
+      this._thread.start();
+   }//end ReplicaRouter
+
+   /**
+    * Creates a router for the replicas listed in the system property
+    * hotel.replicas, as comma-separated port or host:port entries serving
+    * the same database, configured from hotel.replicaCheckMs and
+    * hotel.maxReplicaLagMs.
+    *
+    * @return the router, or null when no replica is listed
+    */
+   public static ReplicaRouter fromSystemProperties(ConnectionPool primary, String dbname) {
+      List<String> urls = new ArrayList<String>();
+      for (String entry : System.getProperty("hotel.replicas", "").split(",")) {
+         entry = entry.trim();
+         if (entry.length() > 0)
+            urls.add("jdbc:postgresql://" + (entry.indexOf(':') < 0 ? "localhost:" + entry : entry) + "/" + dbname);
+      }
+      if (urls.isEmpty())
+         return null;
+      return new ReplicaRouter(primary, urls, Long.getLong("hotel.replicaCheckMs", DEFAULT_CHECK_MS),
+                               Long.getLong("hotel.maxReplicaLagMs", DEFAULT_MAX_LAG_MS));
+   }//end fromSystemProperties
+
+   /**
+    * Chooses the replica a read goes to.
+    *
+    * @param minLsn the WAL position the read must not go behind
+    * @param preferred the replica the session read from last, kept while it is fit, or null
+    * @return the replica, or null when the read must go to the primary
+    */
+   public Replica route(long minLsn, Replica preferred) {
+      if (preferred != null && fit(preferred, minLsn)) {
+         synchronized (preferred) {
+            preferred._routed++;
+         }
+         return preferred;
+      }
+      int n = this._replicas.size();
+      int start = (this._next.getAndIncrement() & Integer.MAX_VALUE) % n;
+      for (int i = 0; i < n; ++i) {
+         Replica replica = this._replicas.get((start + i) % n);
+         if (fit(replica, minLsn)) {
+            synchronized (replica) {
+               replica._routed++;
+            }
+            return replica;
+         }
+      }
+      synchronized (this) {
+         this._fallbacks++;
+      }
+      return null;
+   }//end route
+
+   private boolean fit(Replica replica, long minLsn) {
+      long replayed = replica._replayLsn;
+      return replayed >= 0 && replayed >= minLsn && replica.getLagMs() <= this._maxLagMs;
+   }
+
+   /**
+    * Takes a replica out of the routing until the monitor reaches it again,
+    * after a connection to it failed.
+    */
+   public void failed(Replica replica, SQLException e) {
+      System.err.println("Replica " + replica._url + " failed, reading from the primary: " + e.getMessage());
+      synchronized (replica) {
+         replica._failures++;
+      }
+      replica._replayLsn = -1;
+   }//end failed
+
+   /**
+    * Reads the WAL position of the primary, which a session's reads must
+    * reach after it wrote.
+    *
+    * @param esql a session on the primary
+    * @throws java.sql.SQLException when the position cannot be read
+    */
+   public static long currentLsn(Hotel esql) throws SQLException {
+      return parseLsn(esql.executeQueryAndReturnResult("SELECT CAST(pg_current_wal_lsn() AS text)").get(0).get(0));
+   }//end currentLsn
+
+   /**
+    * Reads a WAL position written as two hexadecimal halves, such as 0/16B3748.
+    */
+   public static long parseLsn(String lsn) {
+      int slash = lsn.indexOf('/');
+      return (Long.parseLong(lsn.substring(0, slash), 16) << 32) | Long.parseLong(lsn.substring(slash + 1), 16);
+   }//end parseLsn
+
+   /*
+    * Looks at the primary and every replica once per check interval. The
+    * lag of a replica is the age of the newest position of the primary it
+    * has replayed, so it keeps growing while the replica cannot stream.
+    **/
+   private void monitor() {
+      int keep = (int) Math.min(1024, this._maxLagMs / this._checkMs + 2);
+      while (!this._closed) {
+         try{
+            if (this._primaryMonitor == null)
+               this._primaryMonitor = this._primary.openConnection();
+            long lsn = parseLsn(queryString(this._primaryMonitor, "SELECT CAST(pg_current_wal_lsn() AS text)"));
+            this._samples.addFirst(new long[] { lsn, System.currentTimeMillis() });
+            while (this._samples.size() > keep)
+               this._samples.pollLast();
+         }catch (SQLException e){
+            this._primaryMonitor = close(this._primaryMonitor);
+         }//end try
+         for (Replica replica : this._replicas) {
+            try{
+               if (replica._monitor == null)
+                  replica._monitor = replica._pool.openConnection();
+               String replayed = queryString(replica._monitor, "SELECT CAST(pg_last_wal_replay_lsn() AS text)");
+               if (replayed == null)
+                  throw new SQLException("not in recovery, it is no replica");
+               long replayLsn = parseLsn(replayed);
+               for (long[] sample : this._samples) {
+                  if (sample[0] <= replayLsn) {
+                     replica._caughtUpMs = Math.max(replica._caughtUpMs, sample[1]);
+                     break;
+                  }
+               }
+               replica._replayLsn = replayLsn;
+            }catch (SQLException e){
+               if (replica._replayLsn >= 0)
+                  System.err.println("Replica " + replica._url + " is unreachable: " + e.getMessage());
+               replica._replayLsn = -1;
+               replica._monitor = close(replica._monitor);
+            }//end try
+         }
+         try{
+            Thread.sleep(this._checkMs);
+         }catch (InterruptedException e){
+            break;
+         }//end try
+      }//end while
+      this._primaryMonitor = close(this._primaryMonitor);
+      for (Replica replica : this._replicas)
+         replica._monitor = close(replica._monitor);
+   }//end monitor
+
+   private static String queryString(Connection connection, String sql) throws SQLException {
+      Statement stmt = connection.createStatement();
+      try{
+         ResultSet rs = stmt.executeQuery(sql);
+         rs.next();
+         return rs.getString(1);
+      }finally{
+         stmt.close();
+      }//end try
+   }//end queryString
+
+   private static Connection close(Connection connection) {
+      if (connection != null) {
+         try{
+            connection.close();
+         }catch (SQLException e){
+            // ignored.
+         }//end try
+      }
+      return null;
+   }//end close
+
+   /**
+    * Stops the monitor and closes the replica pools.
+    */
+   public void close() {
+      this._closed = true;
+      this._thread.interrupt();
+      for (Replica replica : this._replicas)
+         replica._pool.close();
+   }//end close
+
+   public List<Replica> getReplicas() {
+      return this._replicas;
+   }
+
+   public synchronized long getFallbacks() {
+      return this._fallbacks;
+   }
+
+   public String toString() {
+      StringBuilder text = new StringBuilder("Replicas: ").append(getFallbacks()).append(" read(s) on the primary");
+      for (Replica replica : this._replicas)
+         text.append("\n  ").append(replica);
+      return text.toString();
+   }
+
+}//end ReplicaRouter
@@ -0,0 +1,158 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * This class is the view of the current row of a streamed query. It gives
+ * typed access to the columns without copying them, so a handler that only
+ * needs integers never allocates a String per column, and it hides the
+ * cursor movement and closing of the underlying ResultSet from the handler.
+ *
+ * Rows that do not come from a ResultSet, such as those of the in-memory
+ * repository or of the in-memory caches, are handed out through the same
+ * view, one array of values at a time.
+ *
+ * Columns are numbered from 1, as in JDBC.
+ *
+ */
+public class ResultRow {
+
+   private final ResultSet _rs;
+   private final ResultSetMetaData _meta;
+   private final int _columns;
+   private long _number = 0;
+
+   // column names and current values of a row built in memory, null for a ResultSet.
+   private final String[] _names;
+   private Object[] _values;
+   private boolean _wasNull = false;
+
+   ResultRow(ResultSet rs) throws SQLException {
+      this._rs = rs;
+      this._meta = rs.getMetaData();
+      this._columns = this._meta.getColumnCount();
+      this._names = null;
+   }//end ResultRow
+
+   /*
+    * Creates the view of rows built in memory, with the column names a
+    * query would label them with.
+    **/
+   ResultRow(String... names) {
+      this._rs = null;
+      this._meta = null;
+      this._columns = names.length;
+      this._names = names;
+   }//end ResultRow
+
+   boolean next() throws SQLException {
+      if (!this._rs.next())
+         return false;
+      this._number++;
+      return true;
+   }//end next
+
+   /*
+    * Moves a view of in-memory rows to the next row.
+    **/
+   void next(Object... values) {
+      this._values = values;
+      this._number++;
+   }//end next
+
+   /**
+    * @return the position of the current row, 1 for the first
+    */
+   public long getNumber() {
+      return this._number;
+   }
+
+   public int getColumnCount() {
+      return this._columns;
+   }
+
+   public String getColumnName(int column) throws SQLException {
+      if (this._rs == null)
+         return this._names[column - 1];
+      return this._meta.getColumnName(column);
+   }
+
+   public String getString(int column) throws SQLException {
+      if (this._rs == null) {
+         Object value = value(column);
+         return value == null ? null : value.toString();
+      }
+      return this._rs.getString(column);
+   }
+
+   /**
+    * @return the value of the column, 0 when it is null
+    */
+   public int getInt(int column) throws SQLException {
+      if (this._rs == null)
+         return (int) getLong(column);
+      return this._rs.getInt(column);
+   }
+
+   /**
+    * @return the value of the column, 0 when it is null
+    */
+   public long getLong(int column) throws SQLException {
+      if (this._rs == null) {
+         Object value = value(column);
+         return value == null ? 0 : value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString().trim());
+      }
+      return this._rs.getLong(column);
+   }
+
+   /**
+    * @return the value of the column, 0 when it is null
+    */
+   public double getDouble(int column) throws SQLException {
+      if (this._rs == null) {
+         Object value = value(column);
+         return value == null ? 0 : value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString().trim());
+      }
+      return this._rs.getDouble(column);
+   }
+
+   public java.sql.Date getDate(int column) throws SQLException {
+      if (this._rs == null) {
+         Object value = value(column);
+         return value == null || value instanceof java.sql.Date ? (java.sql.Date) value : java.sql.Date.valueOf(value.toString().trim());
+      }
+      return this._rs.getDate(column);
+   }
+
+   /**
+    * @return true when the column last read with a typed accessor was null
+    */
+   public boolean wasNull() throws SQLException {
+      if (this._rs == null)
+         return this._wasNull;
+      return this._rs.wasNull();
+   }
+
+   /*
+    * Hands rows built in memory to a handler through one view.
+    * @return the number of rows
+    **/
+   static long emit(RowHandler handler, List<Object[]> rows, String... names) throws SQLException {
+      ResultRow row = new ResultRow(names);
+      for (Object[] values : rows) {
+         row.next(values);
+         handler.handle(row);
+      }
+      return rows.size();
+   }//end emit
+
+   private Object value(int column) throws SQLException {
+      if (column < 1 || column > this._columns)
+         throw new SQLException("The column index is out of range: " + column + ", number of columns: " + this._columns + ".");
+      Object value = this._values[column - 1];
+      this._wasNull = value == null;
+      return value;
+   }
+
+}//end ResultRow
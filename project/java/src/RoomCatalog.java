@@ -0,0 +1,202 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class keeps a bounded, least-recently-used read-through cache of
+ * Rooms records (price and imageURL) keyed by (hotelID, roomNumber). The
+ * customer screens look rooms up here and join their booking rows against
+ * it, instead of joining Rooms in every query; missing rooms are read in one
+ * query per lookup, however many there are.
+ *
+ * Rooms only change through updateRoomInfo, which invalidates the rooms it
+ * updated once the update is committed. A load that raced with such an
+ * invalidation is not cached, so a committed update is never hidden by an
+ * older row. Updates made by other processes are not seen until the room is
+ * evicted.
+ *
+ */
+public class RoomCatalog {
+
+   // default number of rooms kept.
+   public static final int DEFAULT_SIZE = 10000;
+
+   /**
+    * A cached Rooms record.
+    */
+   public static class Room {
+      public final int price;
+      public final String imageURL;
+
+      Room(int price, String imageURL) {
+         this.price = price;
+         this.imageURL = imageURL;
+      }
+   }//end Room
+
+   // maximum number of rooms kept.
+   private final int _maxSize;
+
+   // rooms in access order, keyed by hotelID << 32 | roomNumber; the eldest one goes on overflow.
+   private final LinkedHashMap<Long, Room> _rooms;
+
+   // counts the invalidations, a load only caches its rows when none happened while it ran.
+   private long _version = 0;
+
+   private long _hits = 0;
+   private long _misses = 0;
+   private long _evictions = 0;
+   private long _invalidations = 0;
+
+   /**
+    * Creates a new, empty room catalog
+    *
+    * @param maxSize the maximum number of rooms kept
+    */
+   public RoomCatalog(int maxSize) {
+      this._maxSize = Math.max(1, maxSize);
+      this._rooms = new LinkedHashMap<Long, Room>(16, 0.75f, true) {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<Long, Room> eldest) {
+            if (size() <= _maxSize)
+               return false;
+            _evictions++;
+            return true;
+         }
+      };
+   }//end RoomCatalog
+
+   private static long key(int hotelID, int roomNumber) {
+      return ((long) hotelID << 32) | (roomNumber & 0xffffffffL);
+   }
+
+   /**
+    * Returns a room, reading it from the database on a miss.
+    *
+    * @param esql the session to read missing rooms on, or on the primary when it reads from a replica
+    * @return the room, or null when it does not exist
+    * @throws java.sql.SQLException when the room cannot be read
+    */
+   public Room get(Hotel esql, int hotelID, int roomNumber) throws SQLException {
+      return getAll(esql, new int[] { hotelID, roomNumber }).get(key(hotelID, roomNumber));
+   }
+
+   /**
+    * Returns several rooms, reading the missing ones from the database in
+    * one query. Missing rooms are always read on the primary: a room read
+    * from a lagging replica could put a price the primary already changed
+    * back into the catalog, for every session, until the room changes again.
+    *
+    * @param esql the session to read missing rooms on, or on the primary when it reads from a replica
+    * @param rooms {hotelID, roomNumber} pairs, one after the other
+    * @return the rooms, null for those that do not exist; read them with lookup
+    * @throws java.sql.SQLException when the rooms cannot be read
+    */
+   public Map<Long, Room> getAll(Hotel esql, int[] rooms) throws SQLException {
+      Map<Long, Room> found = new HashMap<Long, Room>();
+      List<Object> missing = new ArrayList<Object>();
+      long version;
+      synchronized (this) {
+         for (int i = 0; i < rooms.length; i += 2) {
+            long key = key(rooms[i], rooms[i + 1]);
+            if (found.containsKey(key))
+               continue;
+            Room room = this._rooms.get(key);
+            if (room != null) {
+               this._hits++;
+               found.put(key, room);
+            } else {
+               this._misses++;
+               // marks the key as looked up, so a room listed twice is read once.
+               found.put(key, null);
+               missing.add(rooms[i]);
+               missing.add(rooms[i + 1]);
+            }
+         }
+         version = this._version;
+      }
+      if (missing.isEmpty())
+         return found;
+
+      StringBuilder query = new StringBuilder(
+         "SELECT r.hotelID, r.roomNumber, r.price, r.imageURL FROM Rooms r WHERE (r.hotelID, r.roomNumber) IN (");
+      for (int i = 0; i < missing.size(); i += 2)
+         query.append(i == 0 ? "(?, ?)" : ", (?, ?)");
+      List<List<String>> rows = esql.cacheLoader().executeQueryAndReturnResult(query.append(")").toString(), missing.toArray());
+
+      synchronized (this) {
+         for (List<String> row : rows) {
+            long key = key(Integer.parseInt(row.get(0)), Integer.parseInt(row.get(1)));
+            Room room = new Room(Integer.parseInt(row.get(2)), row.get(3));
+            found.put(key, room);
+            if (this._version == version)
+               this._rooms.put(key, room);
+         }
+      }
+      return found;
+   }//end getAll
+
+   /**
+    * Looks a room up in the result of getAll.
+    */
+   public static Room lookup(Map<Long, Room> rooms, int hotelID, int roomNumber) {
+      return rooms.get(key(hotelID, roomNumber));
+   }
+
+   /**
+    * Drops a room, to be called once a change of it is committed.
+    */
+   public synchronized void invalidate(int hotelID, int roomNumber) {
+      this._version++;
+      if (this._rooms.remove(key(hotelID, roomNumber)) != null)
+         this._invalidations++;
+   }//end invalidate
+
+   /**
+    * Drops every room, to be called when changes may have been missed.
+    */
+   public synchronized void clear() {
+      this._version++;
+      this._invalidations += this._rooms.size();
+      this._rooms.clear();
+   }//end clear
+
+   public synchronized long getHits() {
+      return this._hits;
+   }
+
+   public synchronized long getMisses() {
+      return this._misses;
+   }
+
+   public synchronized long getEvictions() {
+      return this._evictions;
+   }
+
+   public synchronized long getInvalidations() {
+      return this._invalidations;
+   }
+
+   public synchronized int size() {
+      return this._rooms.size();
+   }
+
+   /**
+    * @return the share of lookups answered from memory, 0 before the first lookup
+    */
+   public synchronized double getHitRatio() {
+      long lookups = this._hits + this._misses;
+      return lookups == 0 ? 0 : this._hits / (double) lookups;
+   }
+
+   public synchronized String toString() {
+      return String.format("Room catalog: %d hit(s), %d miss(es), %.1f%% hits, %d eviction(s), %d invalidation(s), %d cached",
+                           this._hits, this._misses, 100 * getHitRatio(), this._evictions, this._invalidations, this._rooms.size());
+   }
+
+}//end RoomCatalog
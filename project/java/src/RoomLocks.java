@@ -0,0 +1,84 @@
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class serializes bookings of the same room on the same date inside
+ * one JVM with a fixed array of striped locks. Two sessions booking the same
+ * (hotel, room, date) always meet on the same lock, while bookings of other
+ * rooms or dates almost always take different locks, so one hot room does
+ * not hold up the rest of the hotel. Correctness across JVMs still comes from
+ * the unique constraint on RoomBookings; the locks only keep losers of a race
+ * from making a round trip for nothing.
+ *
+ */
+public class RoomLocks {
+
+   // default number of stripes.
+   public static final int DEFAULT_STRIPES = 1024;
+
+   private final ReentrantLock[] _locks;
+
+   /**
+    * Creates a new set of striped locks
+    *
+    * @param stripes the number of locks, rounded up to a power of two
+    */
+   public RoomLocks(int stripes) {
+      int size = 1;
+      while (size < stripes)
+         size <<= 1;
+      this._locks = new ReentrantLock[size];
+      for (int i = 0; i < size; ++i)
+         this._locks[i] = new ReentrantLock();
+   }//end RoomLocks
+
+   /**
+    * Returns the lock guarding a room on a date.
+    *
+    * @param hotelID the hotel
+    * @param roomNumber the room
+    * @param day the epoch day, or any stable hash of the date
+    * @return the lock, to be locked and unlocked by the caller
+    */
+   public ReentrantLock lockFor(int hotelID, int roomNumber, int day) {
+      return this._locks[stripe(hotelID, roomNumber, day)];
+   }//end lockFor
+
+   /**
+    * Locks the stripes of several rooms and dates of one hotel. Stripes are
+    * taken in ascending order, so two callers locking overlapping sets
+    * cannot deadlock.
+    *
+    * @param hotelID the hotel
+    * @param roomNumbers the rooms
+    * @param days the epoch day (or stable hash of the date) of each room
+    * @return the distinct locks taken, to be unlocked by the caller
+    */
+   public ReentrantLock[] lockAll(int hotelID, int[] roomNumbers, int[] days) {
+      int[] stripes = new int[roomNumbers.length];
+      for (int i = 0; i < stripes.length; ++i)
+         stripes[i] = stripe(hotelID, roomNumbers[i], days[i]);
+      Arrays.sort(stripes);
+      ReentrantLock[] locks = new ReentrantLock[stripes.length];
+      int n = 0;
+      for (int i = 0; i < stripes.length; ++i) {
+         if (i > 0 && stripes[i] == stripes[i - 1])
+            continue;
+         locks[n] = this._locks[stripes[i]];
+         locks[n++].lock();
+      }
+      return Arrays.copyOf(locks, n);
+   }//end lockAll
+
+   private int stripe(int hotelID, int roomNumber, int day) {
+      int h = hotelID * 0x9E3779B1 + roomNumber;
+      h = h * 0x9E3779B1 + day;
+      h ^= h >>> 16;
+      return h & (this._locks.length - 1);
+   }//end stripe
+
+   public int stripes() {
+      return this._locks.length;
+   }
+
+}//end RoomLocks
@@ -0,0 +1,242 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class writes room updates together with their RoomUpdatesLog entries
+ * through group commit. Sessions queue their updates and a single writer
+ * thread applies everything queued within a short window in one
+ * transaction, so a thousand price changes cost one commit instead of two
+ * thousand. Each update and its log entry are one statement
+ * (JdbcHotelRepository.applyRoomUpdates), so a room is never changed without its audit
+ * row, or the other way around.
+ *
+ * The queue is bounded: when the writer falls behind, submit blocks, which
+ * slows the submitting sessions down instead of growing the heap. A batch
+ * is flushed once it holds maxBatch updates or its oldest update has waited
+ * maxLatencyMs, whichever comes first. When a batch fails, it is rolled
+ * back and its updates are retried one transaction each, so a bad update
+ * only fails its own caller. Any other failure fails the callers of its
+ * batch without a retry, since the batch may have committed, and the
+ * writer goes on with the next batch. close flushes every queued update
+ * before it returns; Hotel also calls it from a shutdown hook.
+ *
+ */
+public class RoomUpdateWriter {
+
+   // default number of updates that may wait in the queue.
+   public static final int DEFAULT_CAPACITY = 10000;
+
+   // default time an update may wait before its batch is flushed.
+   public static final long DEFAULT_MAX_LATENCY_MS = 5;
+
+   // default number of updates applied in one transaction.
+   public static final int DEFAULT_MAX_BATCH = 500;
+
+   /**
+    * A queued update. The caller waits on it for the commit of its batch.
+    */
+   public static class Pending {
+      final Object[] row;
+      final long queuedAt = System.nanoTime();
+      private final CountDownLatch _done = new CountDownLatch(1);
+      private boolean _updated;
+      private SQLException _error;
+
+      Pending(int managerID, int hotelID, int roomNumber, int price, String imageURL) {
+         // the log keeps the time the manager made the change, not the time of the commit.
+         this.row = new Object[] { price, imageURL, hotelID, roomNumber, managerID, new Timestamp(System.currentTimeMillis()) };
+      }
+
+      /*
+       * Hands the outcome to the caller; only the first outcome counts.
+       **/
+      synchronized void complete(boolean updated, SQLException error) {
+         if (this._done.getCount() == 0)
+            return;
+         this._updated = updated;
+         this._error = error;
+         this._done.countDown();
+      }
+
+      /**
+       * Waits until the update is committed.
+       *
+       * @return false when the room does not exist, nothing was written then
+       * @throws java.sql.SQLException when the update failed
+       */
+      public boolean await() throws SQLException {
+         try{
+            this._done.await();
+         }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a room update to commit");
+         }//end try
+         if (this._error != null)
+            throw new SQLException(this._error.getMessage(), this._error.getSQLState(), this._error);
+         return this._updated;
+      }//end await
+   }//end Pending
+
+   private final JdbcHotelRepository _repository;
+   private final ArrayBlockingQueue<Pending> _queue;
+   private final long _maxLatencyNanos;
+   private final int _maxBatch;
+   private final Thread _thread;
+   private volatile boolean _closed = false;
+
+   private long _batches = 0;
+   private long _updates = 0;
+   private long _retries = 0;
+
+   /**
+    * Creates a new writer and starts its thread
+    *
+    * @param repository the repository the writer thread applies the batches through, on a session used by no one else
+    * @param capacity the number of updates that may wait in the queue
+    * @param maxLatencyMs how long an update may wait before its batch is flushed
+    * @param maxBatch the number of updates applied in one transaction
+    */
+   public RoomUpdateWriter(JdbcHotelRepository repository, int capacity, long maxLatencyMs, int maxBatch) {
+      this._repository = repository;
+      this._queue = new ArrayBlockingQueue<Pending>(Math.max(1, capacity));
+      this._maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxLatencyMs);
+      this._maxBatch = Math.max(1, maxBatch);
+      this._thread = new Thread(new Runnable() {
+         public void run() {
+            drain();
+         }
+      }, "room-update-writer");
+      this._thread.setDaemon(true);
+      this._thread.start();
+   }//end RoomUpdateWriter
+
+   /**
+    * Queues an update of a room and its log entry, blocking while the queue
+    * is full.
+    *
+    * @return the pending update, to await its commit
+    * @throws java.sql.SQLException when the writer is closed
+    */
+   public Pending submit(int managerID, int hotelID, int roomNumber, int price, String imageURL) throws SQLException {
+      Pending pending = new Pending(managerID, hotelID, roomNumber, price, imageURL);
+      try{
+         while (!this._queue.offer(pending, 100, TimeUnit.MILLISECONDS))
+            if (this._closed)
+               throw new SQLException("Room update writer is closed");
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while queueing a room update");
+      }//end try
+      // close may have drained the queue before this update arrived.
+      if (this._closed && this._queue.remove(pending))
+         throw new SQLException("Room update writer is closed");
+      return pending;
+   }//end submit
+
+   /**
+    * Updates a room and logs it, waiting for the commit.
+    *
+    * @return false when the room does not exist
+    * @throws java.sql.SQLException when the update failed
+    */
+   public boolean update(int managerID, int hotelID, int roomNumber, int price, String imageURL) throws SQLException {
+      return submit(managerID, hotelID, roomNumber, price, imageURL).await();
+   }
+
+   /*
+    * The writer thread: waits for a first update, collects more until the
+    * batch is full or the first one has waited long enough, and applies
+    * them. After close it keeps going until the queue is empty.
+    **/
+   private void drain() {
+      List<Pending> batch = new ArrayList<Pending>(this._maxBatch);
+      while (true) {
+         try{
+            Pending first = this._queue.poll(100, TimeUnit.MILLISECONDS);
+            if (first == null) {
+               if (this._closed && this._queue.isEmpty())
+                  return;
+               continue;
+            }
+            batch.add(first);
+            long deadline = first.queuedAt + this._maxLatencyNanos;
+            while (batch.size() < this._maxBatch) {
+               long wait = deadline - System.nanoTime();
+               Pending next = wait > 0 && !this._closed ? this._queue.poll(wait, TimeUnit.NANOSECONDS) : this._queue.poll();
+               if (next == null)
+                  break;
+               batch.add(next);
+            }//end while
+         }catch (InterruptedException e){
+            // close interrupts a thread that waits; the queue is drained below.
+         }//end try
+         if (!batch.isEmpty())
+            apply(batch);
+         batch.clear();
+      }//end while
+   }//end drain
+
+   private void apply(List<Pending> batch) {
+      List<Object[]> rows = new ArrayList<Object[]>(batch.size());
+      for (Pending pending : batch)
+         rows.add(pending.row);
+      try{
+         int[] counts = this._repository.applyRoomUpdates(rows);
+         if (counts.length != batch.size())
+            throw new IllegalStateException(counts.length + " update count(s) for a batch of " + batch.size());
+         synchronized (this) {
+            this._batches++;
+            this._updates += batch.size();
+         }
+         for (int i = 0; i < batch.size(); ++i)
+            batch.get(i).complete(counts[i] != 0, null);
+      }catch (RuntimeException e){
+         // the batch may have committed before this was thrown, retrying could apply it twice.
+         System.err.println("Room update writer failed a batch of " + batch.size() + ": " + e);
+         SQLException error = new SQLException("Room update failed: " + e, null, e);
+         for (Pending pending : batch)
+            pending.complete(false, error);
+      }catch (SQLException e){
+         if (batch.size() == 1) {
+            batch.get(0).complete(false, e);
+            return;
+         }
+         // the batch was rolled back as a whole, find out which updates fail on their own.
+         synchronized (this) {
+            this._retries++;
+         }
+         for (Pending pending : batch)
+            apply(Collections.singletonList(pending));
+      }//end try
+   }//end apply
+
+   /**
+    * Stops taking updates and returns once every queued update is
+    * committed. Calling it again does nothing.
+    */
+   public void close() {
+      this._closed = true;
+      this._thread.interrupt();
+      try{
+         this._thread.join();
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }//end try
+   }//end close
+
+   public int getQueued() {
+      return this._queue.size();
+   }
+
+   public synchronized String getStats() {
+      return "Room update writer: " + this._updates + " update(s) in " + this._batches + " commit(s), "
+             + this._retries + " batch(es) retried one by one";
+   }//end getStats
+
+}//end RoomUpdateWriter
@@ -0,0 +1,18 @@
+import java.sql.SQLException;
+
+/**
+ * Receives the rows of a query streamed by Hotel.streamQuery, one at a time
+ * and in order. The row passed in is only valid during the call.
+ *
+ */
+public interface RowHandler {
+
+   /**
+    * Handles one row of the result.
+    *
+    * @param row the current row
+    * @throws java.sql.SQLException when a column cannot be read
+    */
+   void handle(ResultRow row) throws SQLException;
+
+}//end RowHandler
@@ -0,0 +1,134 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * This class serves many front-desk terminals from one JVM. Every terminal
+ * connects over TCP (e.g. with telnet or nc) and gets its own session: a Hotel
+ * instance with its own logged-in user and console streams, running the same
+ * menus as the interactive program. Sessions borrow connections from a shared
+ * ConnectionPool only while a statement runs, so the number of terminals is
+ * not bound by the number of database connections.
+ *
+ */
+public class SessionServer {
+
+   private final ConnectionPool _pool;
+   private final int _port;
+   private volatile ServerSocket _socket;
+
+   /**
+    * Creates a new session server
+    *
+    * @param pool the connection pool shared by all sessions
+    * @param port the TCP port terminals connect to
+    */
+   public SessionServer(ConnectionPool pool, int port) {
+      this._pool = pool;
+      this._port = port;
+   }//end SessionServer
+
+   /**
+    * Accepts terminals until the server socket is closed. Each terminal runs
+    * on its own session thread.
+    *
+    * @throws java.io.IOException when the server socket cannot be opened
+    */
+   public void run() throws IOException {
+      this._socket = new ServerSocket(this._port);
+      System.out.println("Accepting sessions on port " + this._port + " (" + (virtualThreads() ? "virtual" : "platform") + " threads)");
+      while (!this._socket.isClosed()) {
+         final Socket client;
+         try{
+            client = this._socket.accept();
+         }catch (IOException e){
+            if (this._socket.isClosed())
+               break;
+            System.err.println(e.getMessage());
+            continue;
+         }//end try
+         newSessionThread(new Runnable() {
+            public void run() {
+               serve(client);
+            }
+         }, "session-" + client.getRemoteSocketAddress()).start();
+      }//end while
+   }//end run
+
+   /**
+    * Stops accepting new terminals. Running sessions finish on their own.
+    */
+   public void close() {
+      try{
+         if (this._socket != null)
+            this._socket.close();
+      }catch (IOException e){
+         // ignored.
+      }//end try
+   }//end close
+
+   /*
+    * Runs the menus for one connected terminal until it logs off or hangs up.
+    **/
+   private void serve(Socket client) {
+      try{
+         BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+         PrintStream out = new PrintStream(client.getOutputStream(), true);
+         Hotel esql = new Hotel(this._pool, in, out);
+         Hotel.Greeting(out);
+         Hotel.runSession(esql);
+         out.println("Bye !");
+      }catch (Exception e){
+         System.err.println(e.getMessage());
+      }finally{
+         try{
+            client.close();
+         }catch (IOException e){
+            // ignored.
+         }//end try
+      }//end try
+   }//end serve
+
+   /**
+    * Creates an unstarted thread for one session. Sessions spend nearly all of
+    * their time blocked on the terminal or the database, so on runtimes that
+    * have virtual threads (Java 21+) every session gets a virtual thread;
+    * older runtimes fall back to a platform thread per session.
+    *
+    * @param task the session body
+    * @param name the thread name
+    * @return the new thread, not yet started
+    */
+   public static Thread newSessionThread(Runnable task, String name) {
+      if (virtualThreads()) {
+         try{
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class).invoke(builder, name);
+            return (Thread) builderType.getMethod("unstarted", Runnable.class).invoke(builder, task);
+         }catch (Exception e){
+            // fall through to a platform thread.
+         }//end try
+      }
+      Thread thread = new Thread(task, name);
+      thread.setDaemon(true);
+      return thread;
+   }//end newSessionThread
+
+   /**
+    * @return true when the running JVM supports virtual threads
+    */
+   public static boolean virtualThreads() {
+      try{
+         Method ofVirtual = Thread.class.getMethod("ofVirtual");
+         return ofVirtual != null;
+      }catch (NoSuchMethodException e){
+         return false;
+      }//end try
+   }//end virtualThreads
+
+}//end SessionServer
@@ -0,0 +1,158 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps a bounded, least-recently-used cache of PreparedStatements
+ * for one physical database connection. Statements are keyed by their SQL
+ * template, so a menu operation that runs the same query with different
+ * parameters only pays for parsing and planning it once.
+ *
+ */
+public class StatementCache {
+
+   // default number of statements kept open per connection.
+   public static final int DEFAULT_SIZE = 64;
+
+   // default number of executions before a statement is prepared on the server.
+   public static final int DEFAULT_PREPARE_THRESHOLD = 5;
+
+   // reference to physical database connection.
+   private final Connection _connection;
+
+   // maximum number of statements kept open.
+   private final int _maxSize;
+
+   // number of executions of a template before switching to a server-side prepare,
+   // 0 disables server-side prepares.
+   private final int _prepareThreshold;
+
+   // cached statements in access order, the eldest one is closed on overflow.
+   private final LinkedHashMap<String, Cached> _cache;
+
+   private long _hits = 0;
+   private long _misses = 0;
+   private long _evictions = 0;
+
+   /*
+    * A cached statement together with the number of times it was handed out.
+    **/
+   private static class Cached {
+      final PreparedStatement stmt;
+      int uses = 0;
+
+      Cached(PreparedStatement stmt) {
+         this.stmt = stmt;
+      }
+   }//end Cached
+
+   /**
+    * Creates a new statement cache on top of an open connection
+    *
+    * @param connection the physical connection the statements are prepared on
+    * @param maxSize the maximum number of statements kept open
+    * @param prepareThreshold executions before a server-side prepare, 0 disables it
+    */
+   public StatementCache(Connection connection, int maxSize, int prepareThreshold) {
+      this._connection = connection;
+      this._maxSize = Math.max(1, maxSize);
+      this._prepareThreshold = Math.max(0, prepareThreshold);
+      this._cache = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+            if (size() <= _maxSize)
+               return false;
+            closeQuietly(eldest.getValue().stmt);
+            _evictions++;
+            return true;
+         }
+      };
+   }//end StatementCache
+
+   /**
+    * Creates a statement cache configured from the system properties
+    * hotel.stmtCacheSize and hotel.prepareThreshold.
+    *
+    * @param connection the physical connection the statements are prepared on
+    */
+   public static StatementCache fromSystemProperties(Connection connection) {
+      return new StatementCache(connection,
+                                Integer.getInteger("hotel.stmtCacheSize", DEFAULT_SIZE),
+                                Integer.getInteger("hotel.prepareThreshold", DEFAULT_PREPARE_THRESHOLD));
+   }//end fromSystemProperties
+
+   /**
+    * Returns the cached statement for a SQL template, preparing it on a miss.
+    * The returned statement stays owned by the cache and must not be closed
+    * by the caller.
+    *
+    * @param sql the SQL template with '?' placeholders
+    * @return a prepared statement with cleared parameters
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public synchronized PreparedStatement prepare(String sql) throws SQLException {
+      Cached entry = this._cache.get(sql);
+      if (entry == null) {
+         this._misses++;
+         entry = new Cached(this._connection.prepareStatement(sql));
+         this._cache.put(sql, entry);
+      } else {
+         this._hits++;
+         entry.stmt.clearParameters();
+      }
+      entry.uses++;
+      if (this._prepareThreshold > 0 && entry.uses == this._prepareThreshold
+            && entry.stmt instanceof org.postgresql.PGStatement) {
+         // hot template: let the server keep the parsed and planned statement.
+         ((org.postgresql.PGStatement) entry.stmt).setUseServerPrepare(true);
+      }
+      return entry.stmt;
+   }//end prepare
+
+   public Connection getConnection() {
+      return this._connection;
+   }
+
+   public synchronized long getHits() {
+      return this._hits;
+   }
+
+   public synchronized long getMisses() {
+      return this._misses;
+   }
+
+   public synchronized long getEvictions() {
+      return this._evictions;
+   }
+
+   public synchronized int size() {
+      return this._cache.size();
+   }
+
+   /**
+    * Closes every cached statement. The underlying connection is left open.
+    */
+   public synchronized void clear() {
+      for (Cached entry : this._cache.values())
+         closeQuietly(entry.stmt);
+      this._cache.clear();
+   }//end clear
+
+   public synchronized String toString() {
+      return String.format("Statement cache: %d hit(s), %d miss(es), %d eviction(s), %d open",
+                           this._hits, this._misses, this._evictions, this._cache.size());
+   }
+
+   private static void closeQuietly(PreparedStatement stmt) {
+      try{
+         stmt.close();
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end closeQuietly
+
+}//end StatementCache
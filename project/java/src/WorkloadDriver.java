@@ -0,0 +1,430 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * This class drives the menu operations of Hotel without a console, to
+ * replay recorded traffic or to find out how much load one instance takes.
+ * Every simulated user is a session of its own that runs operations through
+ * Hotel.runOperation, feeding each one the lines it would read from the
+ * terminal. The operations come either from a workload file or from a
+ * synthetic mix drawn from the users, hotels and rooms in the database.
+ *
+ * A workload file holds one operation per line, the operation name
+ * followed by its inputs, separated by '|':
+ *
+ *    LogIn|101|password
+ *    viewRooms|1|05/12/2015
+ *    viewBookingHistoryofHotel|01/01/2015|12/31/2015|q
+ *
+ * Every simulated user replays the whole file in a loop. With a target rate
+ * the users start their operations on a fixed schedule and latency is
+ * measured from the scheduled start, so time spent queued behind a slow
+ * operation counts as well; without one they run back to back.
+ *
+ * The synthetic mix writes: it books rooms from 2100 on, updates rooms,
+ * places repair requests and creates users. Run it on a test database.
+ *
+ * Usage: java WorkloadDriver <dbname> <port> <user> <workload file|synthetic> [users] [ops/sec] [seconds]
+ */
+public class WorkloadDriver {
+
+   // default weights of the synthetic mix, overridden with -Dworkload.mix=op:weight,...
+   public static final String DEFAULT_MIX =
+      "viewHotels:15,viewRooms:25,bookRooms:10,bookRoomsBatch:2,viewRecentBookingsfromCustomer:15,"
+      + "updateRoomInfo:3,viewRecentUpdates:5,viewBookingHistoryofHotel:5,viewRegularCustomers:5,"
+      + "placeRoomRepairRequests:2,viewRoomRepairHistory:5,managerDashboard:2,CreateUser:1";
+
+   // operations only a manager of the hotel may run, given to the simulated managers only.
+   private static final List<String> MANAGER_OPERATIONS = Arrays.asList(
+      "updateRoomInfo", "viewRecentUpdates", "viewBookingHistoryofHotel", "viewRegularCustomers",
+      "placeRoomRepairRequests", "viewRoomRepairHistory", "managerDashboard");
+
+   // operations a synthetic user runs before logging in again.
+   private static final int SESSION_OPERATIONS = 50;
+
+   // discards everything the menus print.
+   private static final PrintStream NULL_OUT = new PrintStream(new OutputStream() {
+      public void write(int b) { }
+      public void write(byte[] b, int off, int len) { }
+   });
+
+   /*
+    * One operation with the console input it reads.
+    **/
+   static class Step {
+      final String operation;
+      final String input;
+
+      Step(String operation, String input) {
+         this.operation = operation;
+         this.input = input;
+      }
+   }//end Step
+
+   /*
+    * Produces the steps of one simulated user.
+    **/
+   interface StepSource {
+      Step next();
+   }
+
+   /*
+    * Latencies of one operation, in nanoseconds.
+    **/
+   private static class Latencies {
+      long[] nanos = new long[1024];
+      int count = 0;
+      long errors = 0;
+
+      synchronized void add(long latency, boolean failed) {
+         if (this.count == this.nanos.length)
+            this.nanos = Arrays.copyOf(this.nanos, this.count * 2);
+         this.nanos[this.count++] = latency;
+         if (failed)
+            this.errors++;
+      }
+   }//end Latencies
+
+   /*
+    * Counts the lines a session prints to its error stream.
+    **/
+   private static class ErrorCounter extends PrintStream {
+      long errors = 0;
+
+      ErrorCounter() {
+         super(NULL_OUT);
+      }
+
+      public void println(String line) {
+         this.errors++;
+      }
+   }//end ErrorCounter
+
+   private final ConnectionPool _pool;
+   private final Map<String, Latencies> _latencies = new LinkedHashMap<String, Latencies>();
+
+   /**
+    * Creates a new driver
+    *
+    * @param pool the pool the simulated sessions borrow their connections from
+    */
+   public WorkloadDriver(ConnectionPool pool) {
+      this._pool = pool;
+      for (String operation : Hotel.operationNames())
+         this._latencies.put(operation, new Latencies());
+   }//end WorkloadDriver
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 4) {
+         System.err.println("Usage: java [-classpath <classpath>] WorkloadDriver <dbname> <port> <user> <workload file|synthetic> [users] [ops/sec] [seconds]");
+         return;
+      }
+      Class.forName("org.postgresql.Driver").newInstance();
+      int users = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+      double rate = args.length > 5 ? Double.parseDouble(args[5]) : 0;
+      int seconds = args.length > 6 ? Integer.parseInt(args[6]) : 60;
+
+      ConnectionPool pool = ConnectionPool.fromSystemProperties(Hotel.connectionUrl(args[0], args[1]), args[2], "");
+      pool.setReplicas(ReplicaRouter.fromSystemProperties(pool, args[0]));
+      Hotel admin = new Hotel(pool, new BufferedReader(new StringReader("")), System.out);
+      try{
+         // the shared in-memory structures are built before the clock starts.
+         admin.getHotelIndex();
+         admin.getAvailabilityCalendar();
+         admin.getRegularCustomers();
+
+         WorkloadDriver driver = new WorkloadDriver(pool);
+         StepSource[] sources = new StepSource[users];
+         if (args[3].equals("synthetic")) {
+            SyntheticMix mix = new SyntheticMix(admin, System.getProperty("workload.mix", DEFAULT_MIX));
+            for (int i = 0; i < users; ++i)
+               sources[i] = mix.user(i);
+         } else {
+            final List<Step> steps = readWorkload(new File(args[3]));
+            for (int i = 0; i < users; ++i) {
+               sources[i] = new StepSource() {
+                  int next = 0;
+                  public Step next() {
+                     return steps.get(this.next++ % steps.size());
+                  }
+               };
+            }
+         }
+         System.out.println(users + " user(s), " + (rate > 0 ? rate + " ops/sec target" : "no rate limit")
+                            + ", " + seconds + " s, pool size " + pool.getMaxSize());
+         long elapsed = driver.run(sources, rate, seconds * 1000000000L);
+         driver.report(System.out, elapsed);
+         if (Hotel.getRoomCatalog() != null)
+            System.out.println(Hotel.getRoomCatalog());
+         if (pool.getReplicas() != null)
+            System.out.println(pool.getReplicas());
+      }finally{
+         admin.cleanup();
+         pool.close();
+      }//end try
+   }//end main
+
+   /**
+    * Reads a workload file.
+    *
+    * @param file the file, one operation per line as operation|input|input...
+    * @return the steps in file order
+    * @throws java.lang.Exception when the file cannot be read or names an unknown operation
+    */
+   public static List<Step> readWorkload(File file) throws Exception {
+      List<Step> steps = new ArrayList<Step>();
+      List<String> names = Hotel.operationNames();
+      BufferedReader reader = new BufferedReader(new FileReader(file));
+      try{
+         int lineNumber = 0;
+         for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            lineNumber++;
+            if (line.trim().length() == 0 || line.trim().startsWith("#"))
+               continue;
+            String[] fields = line.split("\\|", -1);
+            if (!names.contains(fields[0].trim()))
+               throw new IllegalArgumentException(file + ":" + lineNumber + ": unknown operation " + fields[0]);
+            StringBuilder input = new StringBuilder();
+            for (int i = 1; i < fields.length; ++i)
+               input.append(fields[i]).append('\n');
+            steps.add(new Step(fields[0].trim(), input.toString()));
+         }
+      }finally{
+         reader.close();
+      }//end try
+      if (steps.isEmpty())
+         throw new IllegalArgumentException(file + " holds no operations");
+      return steps;
+   }//end readWorkload
+
+   /**
+    * Runs the simulated users until the duration is over.
+    *
+    * @param sources the steps of every simulated user
+    * @param rate the target operations per second of all users together, 0 for no limit
+    * @param durationNanos how long to run
+    * @return the elapsed time in nanoseconds
+    * @throws java.lang.InterruptedException when interrupted while waiting for the users
+    */
+   public long run(StepSource[] sources, double rate, final long durationNanos) throws InterruptedException {
+      final long start = System.nanoTime();
+      // each user gets an equal share of the rate, the users are spread over one interval.
+      final long interval = rate > 0 ? (long) (1e9 * sources.length / rate) : 0;
+      final CountDownLatch done = new CountDownLatch(sources.length);
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int i = 0; i < sources.length; ++i) {
+         final StepSource source = sources[i];
+         final long offset = interval * i / sources.length;
+         threads.add(SessionServer.newSessionThread(new Runnable() {
+            public void run() {
+               ErrorCounter err = new ErrorCounter();
+               Hotel esql = new Hotel(_pool, new BufferedReader(new StringReader("")), NULL_OUT);
+               esql.err = err;
+               try{
+                  long scheduled = start + offset;
+                  while (scheduled - start < durationNanos) {
+                     if (interval > 0) {
+                        long wait = scheduled - System.nanoTime();
+                        if (wait > 0)
+                           Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                     } else {
+                        scheduled = System.nanoTime();
+                     }
+                     Step step = source.next();
+                     esql.in = new BufferedReader(new StringReader(step.input));
+                     long errors = err.errors;
+                     Hotel.runOperation(esql, step.operation);
+                     _latencies.get(step.operation).add(System.nanoTime() - scheduled, err.errors != errors);
+                     scheduled += interval;
+                  }
+               }catch (InterruptedException e){
+                  // stop this user.
+               }finally{
+                  esql.cleanup();
+                  done.countDown();
+               }//end try
+            }
+         }, "workload-" + i));
+      }
+      for (Thread thread : threads)
+         thread.start();
+      done.await();
+      return System.nanoTime() - start;
+   }//end run
+
+   /**
+    * Prints throughput and latency percentiles of every operation that ran.
+    */
+   public void report(PrintStream out, long elapsedNanos) {
+      double seconds = elapsedNanos / 1e9;
+      out.printf("%-32s %9s %7s %9s %9s %9s %9s %9s%n", "operation", "count", "errors", "ops/sec", "p50 ms", "p99 ms", "p999 ms", "max ms");
+      long total = 0, errors = 0;
+      for (Map.Entry<String, Latencies> entry : this._latencies.entrySet()) {
+         Latencies latencies = entry.getValue();
+         synchronized (latencies) {
+            if (latencies.count == 0)
+               continue;
+            long[] sorted = Arrays.copyOf(latencies.nanos, latencies.count);
+            Arrays.sort(sorted);
+            out.printf("%-32s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f%n", entry.getKey(), sorted.length, latencies.errors,
+                       sorted.length / seconds, percentile(sorted, 0.50), percentile(sorted, 0.99),
+                       percentile(sorted, 0.999), sorted[sorted.length - 1] / 1e6);
+            total += sorted.length;
+            errors += latencies.errors;
+         }
+      }
+      out.printf("%-32s %9d %7d %9.1f%n", "total", total, errors, total / seconds);
+   }//end report
+
+   private static double percentile(long[] sorted, double p) {
+      int index = (int) Math.ceil(p * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+   }
+
+   /*
+    * Draws operations from weighted choices with inputs taken from the
+    * database: one in five simulated users is a manager and also runs the
+    * manager screens on the hotels it manages, the others are customers.
+    **/
+   static class SyntheticMix {
+      final List<String[]> customers = new ArrayList<String[]>();
+      final List<String[]> managers = new ArrayList<String[]>();
+      final Map<String, List<Integer>> managedHotels = new HashMap<String, List<Integer>>();
+      final List<Integer> hotels = new ArrayList<Integer>();
+      final Map<Integer, List<Integer>> rooms = new HashMap<Integer, List<Integer>>();
+      final List<Integer> companies = new ArrayList<Integer>();
+      final String[] operations;
+      final int[] cumulative;
+      final double minLat, maxLat, minLon, maxLon;
+      final int firstDay, lastDay, futureDay;
+
+      SyntheticMix(Hotel esql, String weights) throws Exception {
+         List<String> names = new ArrayList<String>();
+         List<Integer> sums = new ArrayList<Integer>();
+         int sum = 0;
+         for (String weight : weights.split(",")) {
+            String[] parts = weight.split(":");
+            if (!Hotel.operationNames().contains(parts[0].trim()))
+               throw new IllegalArgumentException("unknown operation " + parts[0]);
+            sum += Integer.parseInt(parts[1].trim());
+            names.add(parts[0].trim());
+            sums.add(sum);
+         }
+         this.operations = names.toArray(new String[0]);
+         this.cumulative = new int[sums.size()];
+         for (int i = 0; i < this.cumulative.length; ++i)
+            this.cumulative[i] = sums.get(i);
+
+         for (List<String> row : esql.executeQueryAndReturnResult(
+               "SELECT u.userID, u.password FROM Users u WHERE u.userType = 'customer' ORDER BY u.userID LIMIT 1000"))
+            this.customers.add(new String[] { row.get(0), row.get(1).trim() });
+         for (List<String> row : esql.executeQueryAndReturnResult(
+               "SELECT u.userID, u.password, h.hotelID FROM Users u JOIN Hotel h ON h.managerUserID = u.userID "
+               + "WHERE u.userType = 'manager' ORDER BY u.userID, h.hotelID")) {
+            if (!this.managedHotels.containsKey(row.get(0))) {
+               this.managers.add(new String[] { row.get(0), row.get(1).trim() });
+               this.managedHotels.put(row.get(0), new ArrayList<Integer>());
+            }
+            this.managedHotels.get(row.get(0)).add(Integer.parseInt(row.get(2)));
+         }
+         for (List<String> row : esql.executeQueryAndReturnResult(
+               "SELECT r.hotelID, r.roomNumber FROM Rooms r ORDER BY r.hotelID, r.roomNumber")) {
+            int hotelID = Integer.parseInt(row.get(0));
+            if (!this.rooms.containsKey(hotelID)) {
+               this.hotels.add(hotelID);
+               this.rooms.put(hotelID, new ArrayList<Integer>());
+            }
+            this.rooms.get(hotelID).add(Integer.parseInt(row.get(1)));
+         }
+         for (List<String> row : esql.executeQueryAndReturnResult("SELECT c.companyID FROM MaintenanceCompany c"))
+            this.companies.add(Integer.parseInt(row.get(0)));
+         List<String> bounds = esql.executeQueryAndReturnResult(
+            "SELECT MIN(h.latitude), MAX(h.latitude), MIN(h.longitude), MAX(h.longitude) FROM Hotel h").get(0);
+         List<String> dates = esql.executeQueryAndReturnResult(
+            "SELECT MIN(rb.bookingDate), MAX(rb.bookingDate) FROM RoomBookings rb WHERE rb.bookingDate < DATE '2100-01-01'").get(0);
+         if (this.customers.isEmpty() || this.hotels.isEmpty() || bounds.get(0) == null)
+            throw new IllegalStateException("the synthetic mix needs customers, hotels and rooms in the database");
+         this.minLat = Double.parseDouble(bounds.get(0));
+         this.maxLat = Double.parseDouble(bounds.get(1));
+         this.minLon = Double.parseDouble(bounds.get(2));
+         this.maxLon = Double.parseDouble(bounds.get(3));
+         this.firstDay = dates.get(0) == null ? AvailabilityCalendar.parseDate("01/01/2015") : AvailabilityCalendar.parseDate(dates.get(0));
+         this.lastDay = dates.get(1) == null ? this.firstDay + 365 : AvailabilityCalendar.parseDate(dates.get(1));
+         this.futureDay = AvailabilityCalendar.parseDate("01/01/2100");
+      }
+
+      /*
+       * Returns the steps of simulated user number i.
+       */
+      StepSource user(final int i) {
+         final Random random = new Random(i);
+         final boolean manager = i % 5 == 0 && !this.managers.isEmpty();
+         final String[] identity = manager ? this.managers.get((i / 5) % this.managers.size())
+                                           : this.customers.get(i % this.customers.size());
+         final List<Integer> own = manager ? this.managedHotels.get(identity[0]) : this.hotels;
+         return new StepSource() {
+            int count = 0;
+            public Step next() {
+               if (this.count++ % SESSION_OPERATIONS == 0)
+                  return new Step("LogIn", identity[0] + "\n" + identity[1] + "\n");
+               String operation;
+               do {
+                  int pick = random.nextInt(cumulative[cumulative.length - 1]);
+                  int k = 0;
+                  while (cumulative[k] <= pick)
+                     k++;
+                  operation = operations[k];
+               } while (!manager && MANAGER_OPERATIONS.contains(operation));
+               return step(operation, random, own);
+            }
+         };
+      }
+
+      private Step step(String operation, Random random, List<Integer> own) {
+         int hotelID = own.get(random.nextInt(own.size()));
+         List<Integer> hotelRooms = this.rooms.containsKey(hotelID) ? this.rooms.get(hotelID) : Arrays.asList(1);
+         int room = hotelRooms.get(random.nextInt(hotelRooms.size()));
+         String pastDate = AvailabilityCalendar.formatDate(this.firstDay + random.nextInt(Math.max(1, this.lastDay - this.firstDay)));
+         String futureDate = AvailabilityCalendar.formatDate(this.futureDay + random.nextInt(3650));
+         String input;
+         if (operation.equals("CreateUser"))
+            input = "workload user\nworkload\n";
+         else if (operation.equals("viewHotels"))
+            input = (this.minLat + random.nextDouble() * (this.maxLat - this.minLat)) + "\n"
+                  + (this.minLon + random.nextDouble() * (this.maxLon - this.minLon)) + "\n";
+         else if (operation.equals("viewRooms"))
+            input = hotelID + "\n" + pastDate + "\n";
+         else if (operation.equals("bookRooms"))
+            input = hotelID + "\n" + room + "\n" + futureDate + "\n";
+         else if (operation.equals("bookRoomsBatch"))
+            input = hotelID + "\n" + room + "," + hotelRooms.get(random.nextInt(hotelRooms.size())) + "\n" + futureDate + "\n3\n";
+         else if (operation.equals("updateRoomInfo"))
+            input = hotelID + "\n" + room + "\n" + (50 + random.nextInt(250)) + "\nworkload.jpg\n";
+         else if (operation.equals("viewBookingHistoryofHotel"))
+            input = pastDate + "\n" + AvailabilityCalendar.formatDate(AvailabilityCalendar.parseDate(pastDate) + 30) + "\nq\n";
+         else if (operation.equals("managerDashboard"))
+            input = pastDate + "\n" + AvailabilityCalendar.formatDate(AvailabilityCalendar.parseDate(pastDate) + 30) + "\n";
+         else if (operation.equals("viewRegularCustomers"))
+            input = hotelID + "\n";
+         else if (operation.equals("placeRoomRepairRequests"))
+            input = hotelID + "\n" + room + "\n"
+                  + (this.companies.isEmpty() ? 1 : this.companies.get(random.nextInt(this.companies.size()))) + "\n";
+         else
+            input = "";
+         return new Step(operation, input);
+      }
+   }//end SyntheticMix
+
+}//end WorkloadDriver
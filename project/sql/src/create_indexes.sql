@@ -0,0 +1,13 @@
+---Indexes for the menu queries, as recommended by the query log (-Dhotel.queryLog=true).
+---Run after create_tables.sql; BulkLoader drops and rebuilds them around a load.
+
+---viewRecentBookingsfromCustomer: a customer's latest bookings
+CREATE INDEX roombookings_customerid_bookingdate_idx ON RoomBookings (customerID, bookingDate);
+---viewBookingHistoryofHotel and viewRegularCustomers: bookings of a hotel, by date; bookingID orders the history pages
+CREATE INDEX roombookings_hotelid_bookingdate_bookingid_idx ON RoomBookings (hotelID, bookingDate, bookingID);
+---LogIn: hotels of a manager
+CREATE INDEX hotel_manageruserid_idx ON Hotel (managerUserID);
+---viewRecentUpdates: a manager's latest room updates
+CREATE INDEX roomupdateslog_managerid_updatedon_idx ON RoomUpdatesLog (managerID, updatedOn);
+---viewRoomRepairHistory: a manager's repair requests
+CREATE INDEX roomrepairrequests_managerid_idx ON RoomRepairRequests (managerID);
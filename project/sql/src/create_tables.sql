@@ -48,10 +48,14 @@ CREATE TABLE RoomBookings (
                     hotelID integer NOT NULL,
                     roomNumber integer NOT NULL, 
                     bookingDate date NOT NULL, 
-                    PRIMARY KEY(bookingID),
+                    PRIMARY KEY(bookingID, bookingDate), ---unique keys of a partitioned table must contain the partition key
+                    UNIQUE(hotelID, roomNumber, bookingDate), ---a room can only be booked once per date
                     FOREIGN KEY(customerID) REFERENCES Users(userID),
                     FOREIGN KEY(hotelID, roomNumber) REFERENCES Rooms(hotelID, roomNumber)
-);
+) PARTITION BY RANGE (bookingDate);
+---RoomBookings is split into one partition per year, so date-range queries only read the years they ask for.
+---Bookings outside the created years go to the default partition until create_booking_partitions covers them.
+CREATE TABLE RoomBookings_default PARTITION OF RoomBookings DEFAULT;
 
 CREATE TABLE RoomRepairs (  
                             repairID serial,
@@ -91,4 +95,92 @@ CREATE OR REPLACE FUNCTION calculate_distance(lat1 decimal, long1 decimal, lat2
 RETURNS decimal AS $dist$
 BEGIN RETURN sqrt((lat1 - lat2) * (lat1 - lat2) + (long1 - long2) * (long1 - long2));
 END;
-$dist$ LANGUAGE plpgsql;
\ No newline at end of file
+$dist$ LANGUAGE plpgsql;
+
+---The following function creates the yearly partitions of RoomBookings from first_year to last_year,
+---moving the bookings of those years out of the default partition. It returns the number of partitions created.
+CREATE OR REPLACE FUNCTION create_booking_partitions(first_year integer, last_year integer)
+RETURNS integer AS $parts$
+DECLARE
+   created integer := 0;
+   partition_name text;
+   lower_bound date;
+   upper_bound date;
+   change_feed text := current_setting('hotel.changefeed', true);
+BEGIN
+   ---moved bookings stay the same bookings, running instances need not hear of them.
+   PERFORM set_config('hotel.changefeed', 'off', true);
+   FOR y IN first_year..last_year LOOP
+      partition_name := 'roombookings_y' || y;
+      CONTINUE WHEN to_regclass(partition_name) IS NOT NULL;
+      lower_bound := make_date(y, 1, 1);
+      upper_bound := make_date(y + 1, 1, 1);
+      CREATE TEMP TABLE moved_bookings ON COMMIT DROP AS
+         SELECT * FROM RoomBookings_default WHERE bookingDate >= lower_bound AND bookingDate < upper_bound;
+      DELETE FROM RoomBookings_default WHERE bookingDate >= lower_bound AND bookingDate < upper_bound;
+      EXECUTE format('CREATE TABLE %I PARTITION OF RoomBookings FOR VALUES FROM (%L) TO (%L)',
+                     partition_name, lower_bound, upper_bound);
+      INSERT INTO RoomBookings SELECT * FROM moved_bookings;
+      DROP TABLE moved_bookings;
+      created := created + 1;
+   END LOOP;
+   PERFORM set_config('hotel.changefeed', COALESCE(change_feed, ''), true);
+   RETURN created;
+END;
+$parts$ LANGUAGE plpgsql;
+
+---The following trigger function sends every change of Hotel, Rooms and RoomBookings as a NOTIFY on hotel_changes,
+---so running instances of the program keep their caches in step (see ChangeFeed.java). Payloads are
+---comma-separated, the table and operation first; dates are days since 1970-01-01 and '*' asks for a full reload.
+---Sessions that SET hotel.changefeed = 'off' send nothing, bulk loads notify '*' once when done.
+CREATE OR REPLACE FUNCTION notify_hotel_change()
+RETURNS trigger AS $notify$
+DECLARE
+   op text := left(TG_OP, 1);
+BEGIN
+   IF current_setting('hotel.changefeed', true) = 'off' THEN
+      RETURN NULL;
+   END IF;
+   IF TG_OP = 'TRUNCATE' THEN
+      PERFORM pg_notify('hotel_changes', '*');
+   ELSIF TG_TABLE_NAME = 'hotel' THEN
+      IF TG_OP = 'DELETE' THEN
+         PERFORM pg_notify('hotel_changes', concat_ws(',', 'h', op, OLD.hotelID, OLD.managerUserID, OLD.managerUserID));
+      ELSE
+         PERFORM pg_notify('hotel_changes', concat_ws(',', 'h', op, NEW.hotelID, NEW.managerUserID,
+                                                      CASE WHEN TG_OP = 'UPDATE' THEN OLD.managerUserID ELSE NEW.managerUserID END));
+      END IF;
+   ELSIF TG_TABLE_NAME = 'rooms' THEN
+      IF TG_OP = 'DELETE' THEN
+         PERFORM pg_notify('hotel_changes', concat_ws(',', 'r', op, OLD.hotelID, OLD.roomNumber, OLD.price));
+      ELSE
+         PERFORM pg_notify('hotel_changes', concat_ws(',', 'r', op, NEW.hotelID, NEW.roomNumber, NEW.price));
+      END IF;
+   ELSIF TG_OP = 'DELETE' THEN
+      PERFORM pg_notify('hotel_changes', concat_ws(',', 'b', op, OLD.hotelID, OLD.roomNumber, OLD.bookingDate - DATE '1970-01-01',
+                                                   OLD.customerID, OLD.bookingID));
+   ELSIF TG_OP = 'INSERT' THEN
+      PERFORM pg_notify('hotel_changes', concat_ws(',', 'b', op, NEW.hotelID, NEW.roomNumber, NEW.bookingDate - DATE '1970-01-01',
+                                                   NEW.customerID, NEW.bookingID));
+   ELSE
+      PERFORM pg_notify('hotel_changes', concat_ws(',', 'b', op, NEW.hotelID, NEW.roomNumber, NEW.bookingDate - DATE '1970-01-01',
+                                                   NEW.customerID, NEW.bookingID, OLD.hotelID, OLD.roomNumber,
+                                                   OLD.bookingDate - DATE '1970-01-01', OLD.customerID));
+   END IF;
+   RETURN NULL;
+END;
+$notify$ LANGUAGE plpgsql;
+
+CREATE TRIGGER hotel_changed AFTER INSERT OR UPDATE OR DELETE ON Hotel
+   FOR EACH ROW EXECUTE FUNCTION notify_hotel_change();
+CREATE TRIGGER hotel_truncated AFTER TRUNCATE ON Hotel
+   FOR EACH STATEMENT EXECUTE FUNCTION notify_hotel_change();
+CREATE TRIGGER rooms_changed AFTER INSERT OR UPDATE OR DELETE ON Rooms
+   FOR EACH ROW EXECUTE FUNCTION notify_hotel_change();
+CREATE TRIGGER rooms_truncated AFTER TRUNCATE ON Rooms
+   FOR EACH STATEMENT EXECUTE FUNCTION notify_hotel_change();
+---row triggers on RoomBookings are cloned onto every partition, TG_TABLE_NAME then names the partition.
+CREATE TRIGGER bookings_changed AFTER INSERT OR UPDATE OR DELETE ON RoomBookings
+   FOR EACH ROW EXECUTE FUNCTION notify_hotel_change();
+CREATE TRIGGER bookings_truncated AFTER TRUNCATE ON RoomBookings
+   FOR EACH STATEMENT EXECUTE FUNCTION notify_hotel_change();
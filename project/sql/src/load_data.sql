@@ -15,6 +15,8 @@ COPY MaintenanceCompany
 FROM '/extra/larei002/project/data/company.csv'
 WITH DELIMITER ',' CSV HEADER;
 
+---yearly partitions for the bookings in the data and the years after them
+SELECT create_booking_partitions(2000, 2030);
 COPY RoomBookings
 FROM '/extra/larei002/project/data/bookings.csv'
 WITH DELIMITER ',' CSV HEADER;